@@ -0,0 +1,368 @@
+package com.samples.flironecamera;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Re-runs the measurement on recorded sessions ({@link RecordingFile}) on all cores, eg after a change to the nostril search or
+ * the breathing rules, and writes the same session export the app does.
+ * <p/>
+ * Every file is split into ranges of frames measured in parallel on a fork-join pool, each range with its own reader and
+ * {@link FrameMeasurement}, into arrays of the session allocated once. The breathing rate and the breathing events depend on
+ * the frames before, they run over a session in order once all of its ranges are measured, while the other sessions are still
+ * being measured. Results are written per session as {@code <name>.csv} and {@code <name>.focs} ({@link SessionExporter}),
+ * with a summary of all sessions and the aggregate throughput.
+ * <pre>
+ *   ./gradlew :analyzer:run --args='--out results sessions/'
+ *   ./gradlew :analyzer:run --args='--threads 1 --synthesize 4 --frames 600 --out results'
+ * </pre>
+ */
+public final class BatchAnalyzer {
+
+    static final int DEFAULT_RANGE_FRAMES = 256;
+    static final String SUMMARY_FILE = "summary.csv";
+    static final String THROUGHPUT_FILE = "throughput.csv";
+
+    /**
+     * Measurements of one recording, filled in place by the range tasks
+     */
+    static final class Session {
+        final File file;
+        final String name;
+        final int width;
+        final int height;
+        final int frames;
+        final long[] timestamps;
+        final double[] temperatures;
+        final long[] rois;
+        //temperature of the drift reference region per frame
+        final double[] references;
+        final int[] flags;
+        //time spent measuring, summed over the ranges
+        final AtomicLong measureNanos = new AtomicLong();
+
+        final TemperatureSeries series = new TemperatureSeries();
+        final BreathingStage breathing = new BreathingStage();
+        int measured;
+        int breaths;
+        IOException failure;
+
+        /**
+         * A recording that can't be read is kept with no frames and its {@link #failure}, so it shows up in the summary
+         */
+        Session(File file) {
+            this.file = file;
+            String fileName = file.getName();
+            this.name = fileName.endsWith(RecordingFile.EXTENSION)
+                    ? fileName.substring(0, fileName.length() - RecordingFile.EXTENSION.length()) : fileName;
+            int width = 0;
+            int height = 0;
+            int frames = 0;
+            try (RecordingFile.Reader reader = new RecordingFile.Reader(file)) {
+                if (reader.frames() > Integer.MAX_VALUE || (long) reader.width * reader.height > Integer.MAX_VALUE) {
+                    throw new IOException(file + " has more frames or values than a series holds");
+                }
+                width = reader.width;
+                height = reader.height;
+                frames = (int) reader.frames();
+            } catch (IOException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                //eg a frame size in a damaged header too large to allocate
+                failure = new IOException(file + " has a damaged header", e);
+            }
+            this.width = failure == null ? width : 0;
+            this.height = failure == null ? height : 0;
+            this.frames = failure == null ? frames : 0;
+            timestamps = new long[this.frames];
+            temperatures = new double[this.frames];
+            rois = new long[this.frames];
+            references = new double[this.frames];
+            flags = new int[this.frames];
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final int rangeFrames;
+    private final File outDirectory;
+
+    BatchAnalyzer(int threads, int rangeFrames, File outDirectory) {
+        this.pool = new ForkJoinPool(threads);
+        this.rangeFrames = rangeFrames;
+        this.outDirectory = outDirectory;
+    }
+
+    /**
+     * Measure the sessions and write their results, a session that fails to read is reported in the summary and left out
+     */
+    void analyze(List<Session> sessions) {
+        pool.invoke(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+                List<AnalyzeSession> tasks = new ArrayList<>(sessions.size());
+                for (Session session : sessions) {
+                    tasks.add(new AnalyzeSession(session));
+                }
+                invokeAll(tasks);
+            }
+        });
+    }
+
+    void shutdown() {
+        pool.shutdown();
+    }
+
+    int threads() {
+        return pool.getParallelism();
+    }
+
+    private final class AnalyzeSession extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Session session;
+
+        AnalyzeSession(Session session) {
+            this.session = session;
+        }
+
+        @Override
+        protected void compute() {
+            if (session.failure != null) {
+                return;
+            }
+            new MeasureRange(session, 0, session.frames).invoke();
+            if (session.failure != null) {
+                return;
+            }
+            replay(session);
+            try {
+                new SessionExporter().export(session.series, outDirectory, session.name);
+            } catch (IOException e) {
+                session.failure = e;
+            }
+        }
+    }
+
+    /**
+     * Measures frames [from, to) of a session, halves the range until it's at most {@link #rangeFrames} long
+     */
+    private final class MeasureRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Session session;
+        private final int from;
+        private final int to;
+
+        MeasureRange(Session session, int from, int to) {
+            this.session = session;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > rangeFrames) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new MeasureRange(session, from, middle), new MeasureRange(session, middle, to));
+                return;
+            }
+            long begin = System.nanoTime();
+            FrameMeasurement measurement = new FrameMeasurement(new ThermalBlobFaceDetector());
+            ThermalFrame frame = new ThermalFrame(session.width * session.height);
+            try (RecordingFile.Reader reader = new RecordingFile.Reader(session.file)) {
+                for (int i = from; i < to; i++) {
+                    reader.read(i, frame);
+                    session.temperatures[i] = measurement.measure(frame);
+                    session.timestamps[i] = frame.timestampNanos;
+                    session.rois[i] = frame.roi;
+                    session.references[i] = frame.reference;
+                    session.flags[i] = frame.flags;
+                }
+            } catch (IOException e) {
+                synchronized (session) {
+                    if (session.failure == null) {
+                        session.failure = e;
+                    }
+                }
+            }
+            session.measureNanos.addAndGet(System.nanoTime() - begin);
+        }
+    }
+
+    /**
+     * Breathing rate, breathing events and the series of a measured session, in frame order through the {@link BreathingStage}
+     * of {@link CameraSession}
+     */
+    static void replay(Session session) {
+        BreathingStage breathing = session.breathing;
+        for (int i = 0; i < session.frames; i++) {
+            long timestamp = session.timestamps[i];
+            double temperature = session.temperatures[i];
+            int flags = breathing.add(timestamp, temperature, session.references[i], session.flags[i]);
+            if (!Double.isNaN(temperature)) {
+                session.measured++;
+            }
+            if (breathing.breath) {
+                session.breaths++;
+            }
+            session.series.append(timestamp, temperature, breathing.filtered, session.rois[i], flags);
+        }
+    }
+
+    void writeSummary(List<Session> sessions, long wallNanos) throws IOException {
+        long frames = 0;
+        try (Writer writer = new BufferedWriter(new FileWriter(new File(outDirectory, SUMMARY_FILE)))) {
+            writer.write("session,frames,measured,breaths,rate_per_min");
+            for (String rule : BreathingEvents.RULE_NAMES) {
+                writer.write(',' + rule + "_events");
+            }
+            writer.write(",measure_ms,error\n");
+            for (Session session : sessions) {
+                frames += session.frames;
+                writer.write(session.name + ',' + session.frames + ',' + session.measured + ',' + session.breaths + ','
+                        + format(session.breathing.breathingRate.ratePerMinute()));
+                for (int rule = 0; rule < BreathingEvents.RULE_COUNT; rule++) {
+                    writer.write("," + session.breathing.breathingEvents.eventCounts[rule]);
+                }
+                writer.write(',' + format(session.measureNanos.get() / 1e6) + ','
+                        + (session.failure == null ? "" : error(session.failure)) + '\n');
+            }
+        }
+        try (Writer writer = new BufferedWriter(new FileWriter(new File(outDirectory, THROUGHPUT_FILE)))) {
+            writer.write("threads,sessions,frames,wall_ms,frames_per_s\n");
+            writer.write(threads() + "," + sessions.size() + ',' + frames + ',' + format(wallNanos / 1e6) + ','
+                    + format(frames * 1e9 / wallNanos) + '\n');
+        }
+        System.out.println(String.format(Locale.US, "%d sessions, %d frames in %.0f ms on %d threads, %.1f frames/s",
+                sessions.size(), frames, wallNanos / 1e6, threads(), frames * 1e9 / wallNanos));
+    }
+
+    /**
+     * The message of a failure as one CSV field, some exceptions have none
+     */
+    static String error(Exception failure) {
+        String message = failure.getMessage();
+        if (message == null) {
+            message = failure.toString();
+        }
+        return message.replace(',', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    private static String format(double value) {
+        return Double.isNaN(value) ? "" : String.format(Locale.US, "%.2f", value);
+    }
+
+    /**
+     * Write {@code count} synthetic recordings of {@code frames} frames at 9 fps, breathing at different rates, eg to measure
+     * how the analyzer scales without recordings at hand
+     */
+    static List<File> synthesize(File directory, int count, int frames) throws IOException {
+        List<File> files = new ArrayList<>(count);
+        double fps = 9;
+        ThermalFrame frame = new ThermalFrame(ReplaySource.THERMAL_WIDTH * ReplaySource.THERMAL_HEIGHT);
+        for (int s = 0; s < count; s++) {
+            File file = new File(directory, "synthetic-" + s + RecordingFile.EXTENSION);
+            ReplaySource.Generator generator = ReplaySource.syntheticFace(12 + 2 * s, fps, 0.05, s);
+            try (RecordingFile.Writer writer = new RecordingFile.Writer(file, ReplaySource.THERMAL_WIDTH, ReplaySource.THERMAL_HEIGHT)) {
+                for (int i = 0; i < frames; i++) {
+                    generator.fill(i, frame);
+                    frame.timestampNanos = (long) (i * 1e9 / fps);
+                    frame.flags = 0;
+                    writer.write(frame);
+                }
+            }
+            files.add(file);
+        }
+        return files;
+    }
+
+    private static void collect(File path, List<File> files) {
+        if (path.isDirectory()) {
+            File[] children = path.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    collect(child, files);
+                }
+            }
+        } else if (path.getName().endsWith(RecordingFile.EXTENSION)) {
+            files.add(path);
+        }
+    }
+
+    private static void usage() {
+        System.err.println("usage: BatchAnalyzer [--threads n] [--range-frames n] [--out dir] [--synthesize sessions --frames n] "
+                + "[recording.frf | directory]...");
+        System.exit(2);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int rangeFrames = DEFAULT_RANGE_FRAMES;
+        File out = new File("analysis");
+        int synthesize = 0;
+        int synthesizeFrames = 600;
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("--") && i + 1 == args.length) {
+                usage();
+            }
+            switch (arg) {
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--range-frames":
+                    rangeFrames = Integer.parseInt(args[++i]);
+                    break;
+                case "--out":
+                    out = new File(args[++i]);
+                    break;
+                case "--synthesize":
+                    synthesize = Integer.parseInt(args[++i]);
+                    break;
+                case "--frames":
+                    synthesizeFrames = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    if (arg.startsWith("--")) {
+                        usage();
+                    }
+                    collect(new File(arg), files);
+                    break;
+            }
+        }
+        if (threads < 1 || rangeFrames < 1) {
+            usage();
+        }
+        if (!out.isDirectory() && !out.mkdirs()) {
+            throw new IOException("Unable to create " + out);
+        }
+        if (synthesize > 0) {
+            files.addAll(synthesize(out, synthesize, synthesizeFrames));
+        }
+        if (files.isEmpty()) {
+            usage();
+        }
+        List<Session> sessions = new ArrayList<>(files.size());
+        for (File file : files) {
+            sessions.add(new Session(file));
+        }
+        BatchAnalyzer analyzer = new BatchAnalyzer(threads, rangeFrames, out);
+        long begin = System.nanoTime();
+        analyzer.analyze(sessions);
+        long wallNanos = System.nanoTime() - begin;
+        analyzer.shutdown();
+        analyzer.writeSummary(sessions, wallNanos);
+    }
+}
@@ -0,0 +1,138 @@
+package com.samples.flironecamera;
+
+/**
+ * Removes the drift of the camera readings from the nostril temperature, tracked on a reference region that doesn't breathe,
+ * eg the forehead.
+ * <p/>
+ * Sensor warm-up and ambient changes move all readings of the FLIR ONE alike, so the slow change of the reference region is taken
+ * as drift: its temperature is followed by a time constant based exponential average with variance, and the nostril sample is
+ * corrected by how far that average moved from the anchor, its value after the first {@link #REFERENCE_SECONDS}.
+ * <p/>
+ * A flat field correction (the shutter clicking) shifts all readings in one frame, the average would take seconds to follow and
+ * the breathing rate estimate would see a step. A jump of the reference that holds for {@link #CONFIRM_SAMPLES} samples, or the
+ * next sample after {@link #shutter()}, re-anchors the average by the jump at once. Samples of a jump that doesn't hold, eg the
+ * face turning, are left out of the average.
+ * <p/>
+ * O(1) per sample and allocation free, meant to be used by the record thread.
+ */
+final class AmbientDriftCompensator {
+
+    //well below the breathing frequency, the reference doesn't breathe so this can be shorter than the estimator baseline
+    static final double REFERENCE_SECONDS = 5;
+    //deviation of the reference from its average taken as a jump, in standard deviations and at least MIN_STEP degrees
+    static final double STEP_SIGMAS = 4;
+    static final double MIN_STEP = 0.15;
+    //samples a jump has to hold before it's taken as a shutter event
+    static final int CONFIRM_SAMPLES = 3;
+
+    private long firstTimestampNanos;
+    private long lastTimestampNanos = -1;
+    private long samples;
+    private double anchor;
+    private double mean;
+    private double variance;
+    //jump waiting to be confirmed, samples and sum of their deviations
+    private int pendingSamples;
+    private double pendingSum;
+    private boolean shutter;
+    private volatile double offset;
+    private volatile long reanchors;
+
+    void reset() {
+        lastTimestampNanos = -1;
+        variance = 0;
+        pendingSamples = 0;
+        pendingSum = 0;
+        shutter = false;
+        offset = 0;
+    }
+
+    /**
+     * A flat field correction happened, the next reference sample re-anchors the average
+     */
+    void shutter() {
+        shutter = true;
+    }
+
+    /**
+     * Add a sample of the reference region, samples without a measurement ({@link Double#NaN}) are skipped
+     *
+     * @return true if the sample re-anchored the average after a jump
+     */
+    boolean reference(long timestampNanos, double value) {
+        if (Double.isNaN(value)) {
+            return false;
+        }
+        if (lastTimestampNanos < 0) {
+            firstTimestampNanos = timestampNanos;
+            lastTimestampNanos = timestampNanos;
+            samples = 1;
+            anchor = value;
+            mean = value;
+            return false;
+        }
+        double dt = (timestampNanos - lastTimestampNanos) / 1e9;
+        if (dt <= 0) {
+            return false;
+        }
+        lastTimestampNanos = timestampNanos;
+        double deviation = value - mean;
+        if (shutter) {
+            shutter = false;
+            return reanchor(deviation);
+        }
+        if (Math.abs(deviation) > Math.max(STEP_SIGMAS * Math.sqrt(variance), MIN_STEP)) {
+            //a jump the other way starts over
+            if (pendingSamples > 0 && (deviation > 0) != (pendingSum > 0)) {
+                pendingSamples = 0;
+                pendingSum = 0;
+            }
+            pendingSamples++;
+            pendingSum += deviation;
+            return pendingSamples == CONFIRM_SAMPLES && reanchor(pendingSum / CONFIRM_SAMPLES);
+        }
+        pendingSamples = 0;
+        pendingSum = 0;
+        //a plain average of the first samples, the first of them alone would be a noisy anchor
+        double alpha = Math.max(1 - Math.exp(-dt / REFERENCE_SECONDS), 1.0 / ++samples);
+        mean += alpha * deviation;
+        variance = (1 - alpha) * (variance + alpha * deviation * deviation);
+        if ((timestampNanos - firstTimestampNanos) / 1e9 < REFERENCE_SECONDS) {
+            anchor = mean;
+        }
+        offset = mean - anchor;
+        return false;
+    }
+
+    private boolean reanchor(double step) {
+        pendingSamples = 0;
+        pendingSum = 0;
+        mean += step;
+        offset = mean - anchor;
+        reanchors++;
+        return true;
+    }
+
+    /**
+     * @return the nostril temperature without the drift since the anchor, NaN stays NaN
+     */
+    double compensate(double value) {
+        return value - offset;
+    }
+
+    /**
+     * Drift removed from the samples, degrees
+     */
+    double offset() {
+        return offset;
+    }
+
+    long reanchors() {
+        return reanchors;
+    }
+
+    void register(PipelineMetrics metrics) {
+        metrics.gauge("ambient_drift_c", "Drift of the camera readings removed from the nostril temperature", this::offset);
+        metrics.gauge("ambient_drift_reanchors_total", "Jumps of the reference region taken as flat field corrections", this::reanchors);
+    }
+}
@@ -0,0 +1,331 @@
+package com.samples.flironecamera;
+
+/**
+ * Streaming breathing events over the nostril temperature series: no breath for too long (apnea), breathing rate out of range and
+ * breath amplitude collapse.
+ * <p/>
+ * Input per frame is what {@link BreathingRateEstimator} computed for it: whether a breath started and the smoothed temperature
+ * minus its baseline. Every rule keeps a few numbers of state and is evaluated on every frame, frames the governor skipped included
+ * ({@link #tick(long)}), so an event is raised on the first frame at or after the moment its condition is met. The event keeps both
+ * moments, their difference is the detection latency. An event ends on the first frame its condition no longer holds.
+ * <p/>
+ * A breath whose trough is less than {@link #BREATH_MIN_FRACTION} of the normal amplitude deep doesn't count, sensor noise crossing
+ * the estimator's hysteresis during an apnea would otherwise pass for a breath.
+ * <p/>
+ * Events only cover continuous measurement: when the nostril measurement is lost the active events end and the rules start over
+ * once it's back, a face turned away isn't an apnea.
+ * <p/>
+ * Not thread safe, called on the record thread. O(1) per frame and allocation free.
+ */
+final class BreathingEvents {
+
+    static final int NO_BREATH = 0;
+    static final int RATE_OUT_OF_RANGE = 1;
+    static final int AMPLITUDE_COLLAPSE = 2;
+    static final int RULE_COUNT = 3;
+    static final String[] RULE_NAMES = {"no_breath", "rate_out_of_range", "amplitude_collapse"};
+
+    static final double DEFAULT_NO_BREATH_SECONDS = 10;
+    static final double DEFAULT_MIN_RATE = 6;
+    static final double DEFAULT_MAX_RATE = 30;
+    static final double DEFAULT_AMPLITUDE_FRACTION = 0.3;
+    static final double DEFAULT_AMPLITUDE_SECONDS = 5;
+
+    //decay of the breath amplitude envelope, longer than a breath
+    static final double ENVELOPE_SECONDS = 4;
+    //reference amplitude, follows slow changes of the normal breathing depth
+    static final double REFERENCE_SECONDS = 60;
+    //measurement needed before the reference amplitude is trusted, lets the estimator's baseline settle
+    static final double REFERENCE_WARMUP_SECONDS = 20;
+    //breaths shallower than this fraction of the reference amplitude don't count
+    static final double BREATH_MIN_FRACTION = 0.15;
+
+    static final int LOG_SIZE = 64;
+
+    interface Listener {
+        /**
+         * @param conditionNanos when the condition was met
+         * @param timestampNanos frame that raised the event
+         * @param value          seconds without breath, breaths per minute or amplitude relative to the reference
+         */
+        void onEventStarted(int rule, long conditionNanos, long timestampNanos, double value);
+
+        void onEventEnded(int rule, long timestampNanos);
+    }
+
+    private final boolean[] enabled = {true, true, true};
+    private long noBreathNanos = seconds(DEFAULT_NO_BREATH_SECONDS);
+    private double minRate = DEFAULT_MIN_RATE;
+    private double maxRate = DEFAULT_MAX_RATE;
+    private double amplitudeFraction = DEFAULT_AMPLITUDE_FRACTION;
+    private long amplitudeNanos = seconds(DEFAULT_AMPLITUDE_SECONDS);
+    private Listener listener;
+
+    //shared state, -1 while not measuring
+    private long measuringSinceNanos = -1;
+    private long lastTimestampNanos = -1;
+    private long lastBreathNanos = -1;
+    //amplitude rule
+    private double envelope;
+    private double reference;
+    //lowest deviation since the last breath, the inhalation before the next one
+    private double trough;
+    private long belowSinceNanos = -1;
+    //active events, start frame or -1
+    private final long[] activeSince = {-1, -1, -1};
+
+    final long[] eventCounts = new long[RULE_COUNT];
+    //condition met to event raised
+    final LatencyHistogram detectionLatency = new LatencyHistogram();
+
+    //last LOG_SIZE events
+    private final byte[] logRules = new byte[LOG_SIZE];
+    private final long[] logConditionNanos = new long[LOG_SIZE];
+    private final long[] logStartNanos = new long[LOG_SIZE];
+    private final long[] logEndNanos = new long[LOG_SIZE];
+    private final int[] activeLogIndex = {-1, -1, -1};
+    private long logCount;
+
+    private static long seconds(double seconds) {
+        return (long) (seconds * 1e9);
+    }
+
+    BreathingEvents noBreathSeconds(double seconds) {
+        noBreathNanos = seconds(seconds);
+        return this;
+    }
+
+    BreathingEvents rateRange(double minPerMinute, double maxPerMinute) {
+        minRate = minPerMinute;
+        maxRate = maxPerMinute;
+        return this;
+    }
+
+    /**
+     * @param fraction amplitude relative to the reference below which breathing has collapsed
+     * @param seconds  how long it has to stay below
+     */
+    BreathingEvents amplitudeCollapse(double fraction, double seconds) {
+        amplitudeFraction = fraction;
+        amplitudeNanos = seconds(seconds);
+        return this;
+    }
+
+    BreathingEvents enable(int rule, boolean enable) {
+        enabled[rule] = enable;
+        if (!enable && activeSince[rule] >= 0) {
+            end(rule, lastTimestampNanos);
+        }
+        return this;
+    }
+
+    void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    void reset() {
+        for (int rule = 0; rule < RULE_COUNT; rule++) {
+            if (activeSince[rule] >= 0) {
+                end(rule, lastTimestampNanos);
+            }
+        }
+        measuringSinceNanos = -1;
+        lastTimestampNanos = -1;
+        lastBreathNanos = -1;
+        belowSinceNanos = -1;
+        envelope = 0;
+        reference = 0;
+        trough = 0;
+    }
+
+    /**
+     * Add the nostril measurement of a frame
+     *
+     * @param measured  false if the frame has no nostril measurement
+     * @param breath    the estimator detected the start of a breath
+     * @param deviation smoothed temperature minus baseline, {@link BreathingRateEstimator#filtered()}
+     */
+    void add(long timestampNanos, boolean measured, boolean breath, double deviation) {
+        if (!measured) {
+            lastTimestampNanos = timestampNanos;
+            if (measuringSinceNanos >= 0) {
+                reset();
+            }
+            return;
+        }
+        if (measuringSinceNanos < 0) {
+            measuringSinceNanos = timestampNanos;
+            lastTimestampNanos = timestampNanos;
+            envelope = Math.abs(deviation);
+            reference = envelope;
+        }
+        double dt = (timestampNanos - lastTimestampNanos) / 1e9;
+        lastTimestampNanos = timestampNanos;
+
+        trough = Math.min(trough, deviation);
+        if (breath && referenceTrusted(timestampNanos) && -trough < BREATH_MIN_FRACTION * reference) {
+            breath = false;
+        }
+        if (breath) {
+            trough = 0;
+            if (activeSince[NO_BREATH] >= 0) {
+                end(NO_BREATH, timestampNanos);
+            }
+            if (lastBreathNanos >= 0 && enabled[RATE_OUT_OF_RANGE]) {
+                double rate = 60e9 / (timestampNanos - lastBreathNanos);
+                boolean outOfRange = rate < minRate || rate > maxRate;
+                if (outOfRange && activeSince[RATE_OUT_OF_RANGE] < 0) {
+                    start(RATE_OUT_OF_RANGE, timestampNanos, timestampNanos, rate);
+                } else if (!outOfRange && activeSince[RATE_OUT_OF_RANGE] >= 0) {
+                    end(RATE_OUT_OF_RANGE, timestampNanos);
+                }
+            }
+            lastBreathNanos = timestampNanos;
+        }
+
+        if (dt > 0) {
+            //peak of the deviation decaying between breaths, one number per frame instead of a window of samples
+            envelope = Math.max(Math.abs(deviation), envelope * Math.exp(-dt / ENVELOPE_SECONDS));
+        }
+        if (enabled[AMPLITUDE_COLLAPSE]) {
+            amplitude(timestampNanos, dt);
+        }
+        tick(timestampNanos);
+    }
+
+    private boolean referenceTrusted(long timestampNanos) {
+        return timestampNanos - measuringSinceNanos >= seconds(REFERENCE_WARMUP_SECONDS);
+    }
+
+    private void amplitude(long timestampNanos, double dt) {
+        boolean warm = referenceTrusted(timestampNanos);
+        boolean below = envelope < amplitudeFraction * reference;
+        if (!below && activeSince[AMPLITUDE_COLLAPSE] < 0 && dt > 0) {
+            //frozen while breathing is shallow so a collapse doesn't become the new normal
+            //a running mean until REFERENCE_SECONDS have been measured, it doesn't start from the first sample
+            double seconds = Math.min(REFERENCE_SECONDS, (timestampNanos - measuringSinceNanos) / 1e9);
+            reference += (1 - Math.exp(-dt / seconds)) * (envelope - reference);
+        }
+        if (!below || !warm) {
+            belowSinceNanos = -1;
+            if (activeSince[AMPLITUDE_COLLAPSE] >= 0) {
+                end(AMPLITUDE_COLLAPSE, timestampNanos);
+            }
+            return;
+        }
+        if (belowSinceNanos < 0) {
+            belowSinceNanos = timestampNanos;
+        }
+        long condition = belowSinceNanos + amplitudeNanos;
+        if (timestampNanos >= condition && activeSince[AMPLITUDE_COLLAPSE] < 0) {
+            start(AMPLITUDE_COLLAPSE, condition, timestampNanos, envelope / reference);
+        }
+    }
+
+    /**
+     * Evaluate the time based rules on a frame without a new measurement, eg one the governor skipped
+     */
+    void tick(long timestampNanos) {
+        if (measuringSinceNanos < 0) {
+            return;
+        }
+        long since = Math.max(lastBreathNanos, measuringSinceNanos);
+        if (enabled[NO_BREATH] && activeSince[NO_BREATH] < 0) {
+            long condition = since + noBreathNanos;
+            if (timestampNanos >= condition) {
+                start(NO_BREATH, condition, timestampNanos, (timestampNanos - since) / 1e9);
+            }
+        }
+        //a breath overdue for the minimum rate is already too slow, no need to wait for it
+        if (enabled[RATE_OUT_OF_RANGE] && activeSince[RATE_OUT_OF_RANGE] < 0 && lastBreathNanos >= 0 && minRate > 0) {
+            long condition = lastBreathNanos + seconds(60 / minRate);
+            if (timestampNanos >= condition) {
+                start(RATE_OUT_OF_RANGE, condition, timestampNanos, 60e9 / (timestampNanos - lastBreathNanos));
+            }
+        }
+    }
+
+    private void start(int rule, long conditionNanos, long timestampNanos, double value) {
+        activeSince[rule] = timestampNanos;
+        eventCounts[rule]++;
+        detectionLatency.recordNanos(timestampNanos - conditionNanos);
+        int index = (int) (logCount++ % LOG_SIZE);
+        logRules[index] = (byte) rule;
+        logConditionNanos[index] = conditionNanos;
+        logStartNanos[index] = timestampNanos;
+        logEndNanos[index] = -1;
+        activeLogIndex[rule] = index;
+        Listener l = listener;
+        if (l != null) {
+            l.onEventStarted(rule, conditionNanos, timestampNanos, value);
+        }
+    }
+
+    private void end(int rule, long timestampNanos) {
+        activeSince[rule] = -1;
+        int index = activeLogIndex[rule];
+        //the log may have wrapped over a long event
+        if (index >= 0 && logRules[index] == rule && logEndNanos[index] < 0) {
+            logEndNanos[index] = timestampNanos;
+        }
+        activeLogIndex[rule] = -1;
+        Listener l = listener;
+        if (l != null) {
+            l.onEventEnded(rule, timestampNanos);
+        }
+    }
+
+    boolean isActive(int rule) {
+        return activeSince[rule] >= 0;
+    }
+
+    /**
+     * True if any event is active, eg to flag the frame in the series
+     */
+    boolean anyActive() {
+        return activeSince[NO_BREATH] >= 0 || activeSince[RATE_OUT_OF_RANGE] >= 0 || activeSince[AMPLITUDE_COLLAPSE] >= 0;
+    }
+
+    /**
+     * Events raised so far, the log keeps the last {@link #LOG_SIZE} starting at {@code max(0, logCount() - LOG_SIZE)}
+     */
+    long logCount() {
+        return logCount;
+    }
+
+    int ruleAt(long event) {
+        return logRules[slot(event)];
+    }
+
+    long conditionNanosAt(long event) {
+        return logConditionNanos[slot(event)];
+    }
+
+    long startNanosAt(long event) {
+        return logStartNanos[slot(event)];
+    }
+
+    /**
+     * @return -1 while the event is active
+     */
+    long endNanosAt(long event) {
+        return logEndNanos[slot(event)];
+    }
+
+    private int slot(long event) {
+        if (event < Math.max(0, logCount - LOG_SIZE) || event >= logCount) {
+            throw new IndexOutOfBoundsException("Event " + event + " of " + logCount);
+        }
+        return (int) (event % LOG_SIZE);
+    }
+
+    void register(PipelineMetrics metrics) {
+        for (int rule = 0; rule < RULE_COUNT; rule++) {
+            final int r = rule;
+            metrics.gauge("breathing_events_" + RULE_NAMES[r] + "_total", "Breathing events raised by the " + RULE_NAMES[r] + " rule",
+                    () -> eventCounts[r]);
+        }
+        metrics.gauge("breathing_event_detection_latency_max_ms", "Longest time from a breathing event condition to the frame raising it",
+                () -> detectionLatency.maxMicros() / 1000.0);
+    }
+}
@@ -0,0 +1,119 @@
+package com.samples.flironecamera;
+
+/**
+ * Streaming breathing rate estimate from the nostril temperature series.
+ * <p/>
+ * Exhaled air warms the nostril region and inhaled air cools it, so the temperature oscillates with the breathing.
+ * The signal is smoothed with a short low pass filter and a slow moving baseline is subtracted, every upward crossing of the baseline
+ * (with hysteresis against noise) marks the start of a breath. The rate is computed from the time between breaths using the
+ * frame timestamps, so it stays correct when frames arrive unevenly or are dropped.
+ * <p/>
+ * All filters are time constant based exponential averages, O(1) per sample and allocation free.
+ */
+final class BreathingRateEstimator {
+
+    //low pass filter removing sensor noise, well above the breathing frequency
+    static final double SMOOTHING_SECONDS = 0.3;
+    //baseline following sensor drift and slow temperature changes, well below the breathing frequency
+    static final double BASELINE_SECONDS = 10;
+    //temperature above / below baseline needed to count a crossing, in degrees
+    static final double HYSTERESIS = 0.05;
+    //breath periods outside this range are ignored, 4 - 60 breaths per minute
+    static final double MIN_PERIOD_SECONDS = 1;
+    static final double MAX_PERIOD_SECONDS = 15;
+    //weight of a new breath period in the period average
+    private static final double PERIOD_ALPHA = 0.3;
+
+    private long lastTimestampNanos = -1;
+    private double smoothed;
+    private double baseline;
+    private boolean above;
+    private long lastBreathNanos = -1;
+    private double periodSeconds;
+    private volatile double ratePerMinute = Double.NaN;
+    private long breaths;
+
+    void reset() {
+        lastTimestampNanos = -1;
+        lastBreathNanos = -1;
+        periodSeconds = 0;
+        ratePerMinute = Double.NaN;
+        breaths = 0;
+        above = false;
+    }
+
+    /**
+     * Add a sample, samples without a measurement ({@link Double#NaN}) are skipped
+     *
+     * @return true if the sample started a new breath
+     */
+    boolean add(long timestampNanos, double value) {
+        if (Double.isNaN(value)) {
+            return false;
+        }
+        if (lastTimestampNanos < 0) {
+            lastTimestampNanos = timestampNanos;
+            smoothed = value;
+            baseline = value;
+            return false;
+        }
+        double dt = (timestampNanos - lastTimestampNanos) / 1e9;
+        lastTimestampNanos = timestampNanos;
+        if (dt <= 0) {
+            return false;
+        }
+        smoothed += (1 - Math.exp(-dt / SMOOTHING_SECONDS)) * (value - smoothed);
+        baseline += (1 - Math.exp(-dt / BASELINE_SECONDS)) * (smoothed - baseline);
+
+        double deviation = smoothed - baseline;
+        if (above) {
+            if (deviation < -HYSTERESIS) {
+                above = false;
+            }
+            return false;
+        }
+        if (deviation <= HYSTERESIS) {
+            return false;
+        }
+        above = true;
+        breaths++;
+        if (lastBreathNanos >= 0) {
+            double period = (timestampNanos - lastBreathNanos) / 1e9;
+            if (period >= MIN_PERIOD_SECONDS && period <= MAX_PERIOD_SECONDS) {
+                periodSeconds = periodSeconds == 0 ? period : periodSeconds + PERIOD_ALPHA * (period - periodSeconds);
+                ratePerMinute = 60 / periodSeconds;
+            }
+        }
+        lastBreathNanos = timestampNanos;
+        return true;
+    }
+
+    /**
+     * @return breaths per minute, {@link Double#NaN} until two breaths have been seen
+     */
+    double ratePerMinute() {
+        return ratePerMinute;
+    }
+
+    /**
+     * Low pass filtered temperature of the last sample
+     */
+    double smoothed() {
+        return smoothed;
+    }
+
+    /**
+     * Smoothed temperature minus the moving baseline of the last sample
+     */
+    double filtered() {
+        return smoothed - baseline;
+    }
+
+    long breaths() {
+        return breaths;
+    }
+
+    long lastBreathNanos() {
+        return lastBreathNanos;
+    }
+}
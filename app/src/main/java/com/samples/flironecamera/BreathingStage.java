@@ -0,0 +1,80 @@
+package com.samples.flironecamera;
+
+/**
+ * The breathing part of the per-frame measurement: drift compensation, breathing rate and breathing events of the nostril
+ * temperature, and the {@link TemperatureSeries} flags they add to the frame.
+ * <p/>
+ * Shared by the record path of {@link CameraHandler}, {@link CameraSession}, the batch analyzer and the golden recordings, so
+ * all of them turn a temperature series into breaths and events alike. Frames have to be added in order, O(1) per frame and
+ * allocation free, an instance is used by one thread.
+ */
+final class BreathingStage {
+
+    final BreathingRateEstimator breathingRate = new BreathingRateEstimator();
+    final BreathingEvents breathingEvents = new BreathingEvents();
+    final AmbientDriftCompensator driftCompensator = new AmbientDriftCompensator();
+
+    //results of the last frame, filtered temperature in Celsius, NaN if the frame wasn't measured
+    double filtered = Double.NaN;
+    boolean breath;
+
+    /**
+     * Add a measured frame
+     *
+     * @param temperature nostril temperature in Celsius, NaN if nothing was found
+     * @param reference   temperature of the drift reference region, NaN if there is none
+     * @param flags       flags of the frame so far
+     * @return the flags with {@link TemperatureSeries#FLAG_NO_FACE}, {@link TemperatureSeries#FLAG_BREATH} and
+     * {@link TemperatureSeries#FLAG_EVENT} added as they apply
+     */
+    int add(long timestampNanos, double temperature, double reference, int flags) {
+        filtered = Double.NaN;
+        breath = false;
+        driftCompensator.reference(timestampNanos, reference);
+        boolean measured = !Double.isNaN(temperature);
+        if (!measured) {
+            flags |= TemperatureSeries.FLAG_NO_FACE;
+        } else {
+            //the raw series keeps the absolute temperature, the filtered one is without drift
+            breath = breathingRate.add(timestampNanos, driftCompensator.compensate(temperature));
+            if (breath) {
+                flags |= TemperatureSeries.FLAG_BREATH;
+            }
+            filtered = breathingRate.smoothed();
+        }
+        breathingEvents.add(timestampNanos, measured, breath, breathingRate.filtered());
+        if (breathingEvents.anyActive()) {
+            flags |= TemperatureSeries.FLAG_EVENT;
+        }
+        return flags;
+    }
+
+    /**
+     * Add a frame that isn't measured, a breathing event is due on time all the same
+     *
+     * @return the flags with {@link TemperatureSeries#FLAG_EVENT} added while an event is active
+     */
+    int skip(long timestampNanos, int flags) {
+        filtered = Double.NaN;
+        breath = false;
+        breathingEvents.tick(timestampNanos);
+        if (breathingEvents.anyActive()) {
+            flags |= TemperatureSeries.FLAG_EVENT;
+        }
+        return flags;
+    }
+
+    void reset() {
+        breathingRate.reset();
+        breathingEvents.reset();
+        driftCompensator.reset();
+        filtered = Double.NaN;
+        breath = false;
+    }
+
+    void register(PipelineMetrics metrics) {
+        metrics.gauge("breathing_rate_bpm", "Estimated breathing rate in breaths per minute", breathingRate::ratePerMinute);
+        breathingEvents.register(metrics);
+        driftCompensator.register(metrics);
+    }
+}
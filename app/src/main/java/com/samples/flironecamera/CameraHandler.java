@@ -11,13 +11,8 @@ package com.samples.flironecamera;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.RectF;
 import android.os.Handler;
 import android.util.Log;
-import android.util.SparseArray;
 
 import com.flir.thermalsdk.androidsdk.image.BitmapAndroid;
 import com.flir.thermalsdk.image.Rectangle;
@@ -32,13 +27,10 @@ import com.flir.thermalsdk.live.connectivity.ConnectionStatusListener;
 import com.flir.thermalsdk.live.discovery.DiscoveryEventListener;
 import com.flir.thermalsdk.live.discovery.DiscoveryFactory;
 import com.flir.thermalsdk.live.streaming.ThermalImageStreamListener;
-import com.google.android.gms.vision.Frame;
-import com.google.android.gms.vision.face.Face;
-import com.google.android.gms.vision.face.FaceDetector;
-import com.google.android.gms.vision.face.Landmark;
 
 import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.LinkedList;
@@ -71,6 +63,15 @@ class CameraHandler {
 
     private static final String TAG = "CameraHandler";
 
+    //radiometric values per frame of a session, a FLIR ONE image is 480 x 640
+    private static final int SESSION_FRAME_CAPACITY = 480 * 640;
+    //samples preallocated at startup, half an hour of recording at 8.7 frames per second
+    private static final int PREALLOCATED_SAMPLES = 16384;
+    //how often a Play Services detector still downloading its model is checked again
+    private static final long FACE_DETECTOR_RECHECK_NANOS = 5_000_000_000L;
+    //how often the catalog entry of the session is written again while it's recorded, in frame time
+    private static final long CATALOG_UPDATE_NANOS = 60_000_000_000L;
+
     private StreamDataListener streamDataListener;
 
     private  DataRecord dataRecord;
@@ -83,7 +84,8 @@ class CameraHandler {
 
     public interface DataRecord{
         void record(FrameDataHolder dataHolder);
-        void record(Bitmap thermalBitmap, Bitmap rgbBitmap);
+        //annotations are reused for the next frame, copy them if they're needed later
+        void record(Bitmap thermalBitmap, Bitmap rgbBitmap, FrameAnnotations annotations);
     }
 
     //Discovered FLIR cameras
@@ -92,11 +94,67 @@ class CameraHandler {
     //A FLIR Camera
     private Camera camera;
 
-//    LinkedList<Double> thermalLinkedList = new LinkedList<Double>();
-    LinkedList<Double> thermalLinkedList = new LinkedList<Double>();
-    int count = -1;
-    int ITERATIVE_MAXIMUM = 60;
-    double frameTemperature;
+    //Nostril temperature per recorded frame, with the frame timestamp
+    final TemperatureSeries temperatureSeries = new TemperatureSeries();
+    //breathing rate and events of the nostril temperature, the drift is tracked on skin that doesn't breathe
+    final BreathingStage breathing = new BreathingStage();
+    //Breathing signal for the live waveform, read on the UI thread
+    final SampleRing waveformSamples = new SampleRing(256);
+    //stamps the recorded frames, the clock of the measurements and the frame metrics
+    private final FrameClock frameClock = new FrameClock();
+    //stamps the preview stream, stamping both streams on one clock would count every frame twice while both are subscribed
+    private final FrameClock previewClock = new FrameClock();
+    //the record stream is subscribed, its frames are the ones counted in the frame metrics
+    private volatile boolean recordSubscribed;
+    //regions measured next to the nostrils, from the same fetch of thermal values
+    final FacialRegions regions = FacialRegions.defaults();
+    //rectangle of every getValues() call on the record thread, the SDK only reads it
+    private final Rectangle valuesRectangle = new Rectangle(0, 0, 0, 0);
+    private final PipelineMetrics metrics = new PipelineMetrics();
+    //Additional cameras measuring at the same time, each on its own threads
+    final SessionManager sessions = new SessionManager();
+    //start of the last connect until its first frame, 0 once the first frame arrived
+    private volatile long connectStartNanos;
+    private volatile double timeToFirstFrameMillis = Double.NaN;
+    //loaded once, at startup or by the first frame
+    private volatile Palette palette;
+    //built once and reused for every frame, released in releaseFaceDetector()
+    private FaceDetector faceDetector;
+    //Play Services detector waiting for its model while the thermal blob detector stands in, null if there is none
+    private PlayServicesFaceDetector pendingFaceDetector;
+    private long pendingCheckNanos;
+    //detector input and output, reused for every frame
+    private final FaceDetector.Input faceInput = new FaceDetector.Input();
+    private int[] visualPixels = new int[0];
+    //startup phases, until the first measurement is marked
+    private volatile StartupTrace startupTrace;
+    //chooses which recorded frames are measured, only shown or dropped
+    final ProcessingGovernor governor = new ProcessingGovernor();
+    //measurements of every recorded frame, handed to storage, export and UI consumers in batches
+    final MeasurementPipe measurements = new MeasurementPipe(MeasurementPipe.DEFAULT_BATCHES, thermalData.DEFAULT_CAPACITY);
+    //measures the recorded frames from the face detection on, its annotations are drawn by the preview
+    private final RecordStage recordStage = new RecordStage(metrics, temperatureSeries, breathing, measurements, regions);
+    //image of the frame being measured, read by measuredValues while the stage runs
+    private ThermalImage measuredImage;
+    private final NostrilMeasurement.RegionReader measuredValues =
+            (x, y, width, height) -> getValues(measuredImage, x, y, width, height);
+    //streams the measurements to a monitoring station, null unless configured
+    private volatile MeasurementPublisher publisher;
+    //raw radiometric frames of the recording for offline analysis, null unless started
+    private volatile FrameRecorder frameRecorder;
+    //every sample of the session, off-heap and spilled to disk, null until opened at startup
+    private volatile SessionStore sessionStore;
+    private volatile MeasurementLog measurementLog;
+    //statistics of the stored session for the catalog, filled on the record thread like the store
+    private volatile SessionCatalog.Summary sessionSummary;
+    //catalog the session is added to with its first frames, null if it couldn't be opened
+    private volatile SessionCatalog sessionCatalog;
+    //frame time of the last catalog update, record thread only
+    private long catalogUpdateNanos;
+    //camera the record stream is connected to, the station of the session its frames go to
+    private volatile String deviceId = "";
+    //decision for the frame handleRecordImage is called for
+    private ProcessingGovernor.Decision recordDecision = ProcessingGovernor.Decision.FULL;
 
 
 
@@ -110,6 +168,45 @@ class CameraHandler {
 
     public CameraHandler(Context context) {
         this.context = context;
+        breathing.register(metrics);
+        metrics.gauge("frame_period_ms", "Average time between camera frames", frameClock::periodMillis);
+        metrics.gauge("frame_jitter_ms", "Average deviation from the frame period", frameClock::jitterMillis);
+        metrics.gauge("frame_gaps", "Late frames, more than 1.5 frame periods after the previous one", () -> frameClock.gaps.get());
+        metrics.gauge("frames_missed", "Frames estimated to be dropped by the SDK before reaching the app", () -> frameClock.missedFrames.get());
+        metrics.gauge("time_to_first_frame_ms", "From starting the last connect to the first frame of the stream", () -> timeToFirstFrameMillis);
+        metrics.gauge("sessions_open", "Additional camera sessions measuring in parallel", sessions::size);
+        governor.register(metrics, "governor_");
+        metrics.gauge("measurement_batches_dropped", "Measurement batches the consumers didn't take in time", () -> measurements.batchesDropped.get());
+        measurements.start();
+        metrics.gauge("session_store_memory_bytes", "Off-heap memory of the session store", () -> {
+            SessionStore store = sessionStore;
+            return store == null ? 0 : store.memoryBytes();
+        });
+        metrics.gauge("session_store_spilled_chunks", "Session store chunks written to disk", () -> {
+            SessionStore store = sessionStore;
+            return store == null ? 0 : store.spilledChunks();
+        });
+        metrics.gauge("publisher_samples_sent", "Measurements streamed to the monitoring station", () -> {
+            MeasurementPublisher p = publisher;
+            return p == null ? 0 : p.samplesSent.get();
+        });
+        metrics.gauge("publisher_samples_dropped", "Measurements dropped because the publisher queue was full", () -> {
+            MeasurementPublisher p = publisher;
+            return p == null ? 0 : p.samplesDropped.get();
+        });
+        metrics.gauge("publisher_send_failures", "Datagrams and connects to the monitoring station that failed", () -> {
+            MeasurementPublisher p = publisher;
+            return p == null ? 0 : p.sendFailures.get();
+        });
+        metrics.gauge("publisher_latency_p99_ms", "Frame until its measurement was sent to the monitoring station, 99th percentile", () -> {
+            MeasurementPublisher p = publisher;
+            return p == null ? 0 : p.latencyP99Millis();
+        });
+        metrics.gauge("frame_recorder_dropped", "Frames left out of the frame recording, the disk fell behind", () -> {
+            FrameRecorder recorder = frameRecorder;
+            return recorder == null ? 0 : recorder.framesDropped.get();
+        });
+        metrics.gauge("waveform_samples_dropped", "Breathing samples the live waveform didn't drain in time", () -> waveformSamples.dropped.get());
     }
 
     /**
@@ -128,7 +225,281 @@ class CameraHandler {
         discoveryStatus.stopped();
     }
 
+    /**
+     * Load the palette the images are drawn with, so the first frame doesn't have to
+     */
+    void loadPalette() {
+        palette = PaletteManager.getDefaultPalettes().get(0);
+    }
+
+    private Palette palette() {
+        Palette palette = this.palette;
+        if (palette == null) {
+            loadPalette();
+            palette = this.palette;
+        }
+        return palette;
+    }
+
+    /**
+     * Choose the face detector and load its model before the first frame needs it
+     *
+     * @return false if the detector isn't operational
+     */
+    boolean warmUpFaceDetector() {
+        return faceDetector().isOperational();
+    }
+
+    private synchronized FaceDetector faceDetector() {
+        if (faceDetector == null) {
+            faceDetector = chooseFaceDetector();
+        } else if (pendingFaceDetector != null) {
+            long now = System.nanoTime();
+            if (now - pendingCheckNanos >= FACE_DETECTOR_RECHECK_NANOS) {
+                pendingCheckNanos = now;
+                if (pendingFaceDetector.isOperational()) {
+                    Log.i(TAG, "faceDetector(), Play Services face detector operational, replacing the thermal blob detector");
+                    faceDetector.release();
+                    faceDetector = pendingFaceDetector;
+                    pendingFaceDetector = null;
+                }
+            }
+        }
+        return faceDetector;
+    }
+
+    /**
+     * Play Services if its model is available on this device, the thermal blob detector otherwise. Play Services may still be
+     * downloading the model, it's kept and checked again every {@link #FACE_DETECTOR_RECHECK_NANOS} to switch back once it's ready.
+     */
+    private FaceDetector chooseFaceDetector() {
+        PlayServicesFaceDetector playServices = new PlayServicesFaceDetector(context);
+        if (playServices.isOperational()) {
+            return playServices;
+        }
+        pendingFaceDetector = playServices;
+        pendingCheckNanos = System.nanoTime();
+        Log.i(TAG, "chooseFaceDetector(), Play Services face detector not operational yet, using the thermal blob detector");
+        return new ThermalBlobFaceDetector();
+    }
+
+    /**
+     * Use another face detector, eg to compare backends, the current one is released
+     */
+    synchronized void setFaceDetector(FaceDetector detector) {
+        releaseFaceDetector();
+        faceDetector = detector;
+    }
+
+    /**
+     * Store every sample of this session in {@code directory} too, without a limit on the session length,
+     * next to a log of the measurement details of every frame
+     */
+    void openSessionStore(File directory) throws IOException {
+        SessionStore store = new SessionStore(directory);
+        MeasurementLog log;
+        try {
+            log = new MeasurementLog(directory, regions);
+        } catch (IOException e) {
+            store.close();
+            throw e;
+        }
+        //added with the first frames, a session that never closes is found with its last update
+        SessionCatalog catalog;
+        try {
+            catalog = SessionCatalog.open(directory.getParentFile());
+        } catch (IOException e) {
+            catalog = null;
+            Log.w(TAG, "openSessionStore(), unable to open the catalog, exception:" + e);
+        }
+        sessionSummary = new SessionCatalog.Summary();
+        sessionCatalog = catalog;
+        sessionStore = store;
+        measurementLog = log;
+        //on the record thread, the store and the summary must not lose batches when the other consumers fall behind
+        measurements.addWriterConsumer(store::append);
+        measurements.addWriterConsumer(this::summarize);
+        measurements.addConsumer(log);
+    }
+
+    /**
+     * Add a batch to the summary of the session, on the record thread. The session is added to the catalog when the first
+     * frames arrive and its entry is written again every {@link #CATALOG_UPDATE_NANOS} of frame time, on the spill thread of
+     * the store so the record thread never waits for the disk.
+     */
+    private void summarize(thermalData batch) {
+        SessionCatalog.Summary summary = sessionSummary;
+        SessionStore store = sessionStore;
+        if (summary == null || store == null || batch.size() == 0) {
+            return;
+        }
+        if (summary.frames == 0) {
+            //the camera the frames of the session come from, not the one connected last
+            summary.station = deviceId;
+            summary.startMillis = System.currentTimeMillis();
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            summary.add(batch.timestamps[i], batch.blockMean[i], batch.flagsAt(i));
+        }
+        long last = batch.timestamps[batch.size() - 1];
+        SessionCatalog catalog = sessionCatalog;
+        if (catalog != null && (catalogUpdateNanos == 0 || last - catalogUpdateNanos >= CATALOG_UPDATE_NANOS)) {
+            catalogUpdateNanos = last;
+            //the summary keeps accumulating while the copy is written
+            SessionCatalog.Summary update = snapshot(summary);
+            File directory = store.directory();
+            store.execute(() -> {
+                try {
+                    catalog.update(directory, update);
+                } catch (IOException e) {
+                    Log.w(TAG, "summarize(), unable to update the catalog entry of " + directory + ", exception:" + e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Stream the measurements to a monitoring station, the previous publisher is stopped, null to stop streaming
+     */
+    void setPublisher(MeasurementPublisher publisher) {
+        MeasurementPublisher previous = this.publisher;
+        if (publisher != null) {
+            publisher.start();
+        }
+        this.publisher = publisher;
+        if (previous != null) {
+            previous.stop();
+        }
+    }
+
+    /**
+     * Record the raw radiometric frames of the recording to {@code file} as well, for the offline batch analyzer.
+     * A FLIR ONE frame is 1.2 MB, about 10 MB per second of recording.
+     */
+    void startFrameRecording(File file) throws IOException {
+        stopFrameRecording();
+        frameRecorder = new FrameRecorder(file, ReplaySource.THERMAL_WIDTH, ReplaySource.THERMAL_HEIGHT);
+    }
+
+    boolean isRecordingFrames() {
+        return frameRecorder != null;
+    }
+
+    /**
+     * @return frames recorded, 0 if no frames were being recorded
+     */
+    long stopFrameRecording() throws IOException {
+        FrameRecorder recorder = frameRecorder;
+        frameRecorder = null;
+        if (recorder == null) {
+            return 0;
+        }
+        recorder.close();
+        return recorder.framesRecorded();
+    }
+
+    /**
+     * Copy the radiometric values of a frame to the recording, left out if the recorder has no free frame
+     *
+     * @param decision what the live measurement did with the frame, frames it didn't measure are flagged as skipped
+     */
+    private void recordFrame(FrameRecorder recorder, ThermalImage thermalImage, ProcessingGovernor.Decision decision) {
+        ThermalFrame frame = recorder.acquire();
+        if (frame == null) {
+            return;
+        }
+        int width = thermalImage.getWidth();
+        int height = thermalImage.getHeight();
+        if (width != recorder.width || height != recorder.height) {
+            recorder.discard(frame);
+            return;
+        }
+        frame.copyFrom(getValues(thermalImage, 0, 0, width, height), width, height);
+        frame.sequence = frameClock.sequence;
+        frame.timestampNanos = frameClock.timestampNanos;
+        frame.flags = frameClock.isLate() ? TemperatureSeries.FLAG_LATE_FRAME : 0;
+        if (decision != ProcessingGovernor.Decision.FULL) {
+            frame.flags |= TemperatureSeries.FLAG_SKIPPED;
+        }
+        recorder.publish(frame);
+    }
+
+    /**
+     * Release the face detector, hand the last measurements to their consumers, write the rest of the session store and add
+     * the session to the {@link SessionCatalog} of its parent directory, call once the camera is disconnected
+     */
+    void release() {
+        releaseFaceDetector();
+        try {
+            stopFrameRecording();
+        } catch (IOException e) {
+            Log.w(TAG, "release(), unable to write the frame recording, exception:" + e);
+        }
+        measurements.stop();
+        SessionStore store = sessionStore;
+        sessionStore = null;
+        MeasurementLog log = measurementLog;
+        measurementLog = null;
+        SessionCatalog.Summary summary = sessionSummary;
+        sessionSummary = null;
+        SessionCatalog catalog = sessionCatalog;
+        sessionCatalog = null;
+        try {
+            if (log != null) {
+                log.close();
+            }
+            if (store != null) {
+                //after the updates still queued on the spill thread, a session without frames isn't added
+                store.close();
+                if (catalog != null && summary.frames > 0) {
+                    catalog.update(store.directory(), snapshot(summary));
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "release(), unable to write the session to " + (store != null ? store.directory() : null) + ", exception:" + e);
+        }
+    }
+
+    /**
+     * Copy of the summary of the session as of now for its catalog entry, on the record thread or once it stopped
+     */
+    private SessionCatalog.Summary snapshot(SessionCatalog.Summary summary) {
+        SessionCatalog.Summary snapshot = summary.copy();
+        snapshot.endMillis = System.currentTimeMillis();
+        for (int rule = 0; rule < BreathingEvents.RULE_COUNT; rule++) {
+            snapshot.events[rule] = (int) breathing.breathingEvents.eventCounts[rule];
+        }
+        return snapshot;
+    }
+
+    synchronized void releaseFaceDetector() {
+        if (faceDetector != null) {
+            faceDetector.release();
+            faceDetector = null;
+        }
+        if (pendingFaceDetector != null) {
+            pendingFaceDetector.release();
+            pendingFaceDetector = null;
+        }
+    }
+
+    /**
+     * Allocate the buffers a recording grows into up front, call before connecting
+     */
+    void preallocate() {
+        temperatureSeries.ensureCapacity(PREALLOCATED_SAMPLES);
+    }
+
+    /**
+     * The first frame and the first measurement are marked in {@code trace}
+     */
+    void setStartupTrace(StartupTrace trace) {
+        startupTrace = trace;
+    }
+
     public void connect(Identity identity, ConnectionStatusListener connectionStatusListener) throws IOException {
+        connectStartNanos = System.nanoTime();
+        deviceId = identity.deviceId;
         camera = new Camera();
         camera.connect(identity, connectionStatusListener);
     }
@@ -148,11 +519,15 @@ class CameraHandler {
      */
     public void startStream(StreamDataListener listener) {
         this.streamDataListener = listener;
+        previewClock.reset();
         camera.subscribeStream(thermalImageStreamListener);
     }
 
     public void startRecord(DataRecord listener){
         this.dataRecord = listener;
+        frameClock.reset();
+        breathing.reset();
+        recordSubscribed = true;
         camera.subscribeStream(thermalImageRecordListener);
     }
 
@@ -163,6 +538,9 @@ class CameraHandler {
         camera.unsubscribeStream(listener);
     }
     public void stopRecord(ThermalImageStreamListener listener) {
+        if (listener == thermalImageRecordListener) {
+            recordSubscribed = false;
+        }
         camera.unsubscribeStream(listener);
     }
 
@@ -191,13 +569,48 @@ class CameraHandler {
         return Collections.unmodifiableList(foundCameraIdentities);
     }
 
-    public String[] getSuhu(){
-        String[] data= new String[thermalLinkedList.size()];
-        for(int i = 0; i<thermalLinkedList.size(); i++){
-            data[i] = String.valueOf(thermalLinkedList.get(i));
-        }
+    PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Timestamp of the recorded frame being processed, only meaningful on the camera thread eg in the listener callbacks
+     */
+    long frameTimestampNanos() {
+        return frameClock.timestampNanos;
+    }
+
+    /**
+     * Timestamp of the preview frame being processed, only meaningful on the camera thread eg in the listener callbacks
+     */
+    long previewTimestampNanos() {
+        return previewClock.timestampNanos;
+    }
+
+    /**
+     * Write the recorded session as CSV and binary columnar files, blocking so call it from a background thread
+     *
+     * @return number of samples written
+     */
+    int exportSession(File directory, String baseName) throws IOException {
+        return new SessionExporter().export(temperatureSeries, directory, baseName);
+    }
 
-        return data;
+    /**
+     * Connect to another camera and measure on it in a session of its own, next to the camera connected with
+     * {@link #connect(Identity, ConnectionStatusListener)}. Sessions have no visual image, the face is found in the thermal
+     * image. Blocking so call it from a background thread.
+     */
+    CameraSession openSession(Identity identity) throws IOException {
+        return sessions.open(identity.deviceId, new FlirCameraSource(identity),
+                new FrameMeasurement(new ThermalBlobFaceDetector()), SESSION_FRAME_CAPACITY);
+    }
+
+    /**
+     * Disconnect all cameras opened with {@link #openSession(Identity)}
+     */
+    void closeSessions() {
+        sessions.closeAll();
     }
 
     /**
@@ -240,6 +653,97 @@ class CameraHandler {
         return null;
     }
 
+    /**
+     * Timestamp the recorded frame that is about to be processed and keep track of late and missing frames
+     *
+     * @return frames missing before this one
+     */
+    private int stampFrame() {
+        metrics.framesReceived.incrementAndGet();
+        long now = System.nanoTime();
+        int missed = frameClock.stamp(now);
+        markFirstFrame(now);
+        if (PipelineMetrics.isEnabled()) {
+            Log.d(TAG, "onImageReceived(), we got another ThermalImage, sequence:" + frameClock.sequence + " interval:" + frameClock.intervalNanos / 1000 + "us");
+        }
+        if (missed > 0) {
+            Log.w(TAG, "onImageReceived(), " + missed + " frame(s) missing before sequence:" + frameClock.sequence);
+        }
+        return missed;
+    }
+
+    /**
+     * Time to first frame of the last connect, from whichever stream delivers first
+     */
+    private void markFirstFrame(long now) {
+        long connectStart = connectStartNanos;
+        if (connectStart != 0) {
+            connectStartNanos = 0;
+            metrics.record(PipelineMetrics.Stage.FIRST_FRAME, now - connectStart);
+            timeToFirstFrameMillis = (now - connectStart) / 1e6;
+            Log.i(TAG, "first frame " + (now - connectStart) / 1000000 + " ms after connect");
+            StartupTrace trace = startupTrace;
+            if (trace != null) {
+                trace.mark(StartupTrace.FIRST_FRAME);
+            }
+        }
+    }
+
+    /**
+     * Record a frame that isn't measured, keeps the time axis of the series and the measurements complete
+     */
+    private void appendSkipped(long timestampNanos, int flags) {
+        flags = breathing.skip(timestampNanos, flags);
+        temperatureSeries.append(timestampNanos, Double.NaN, Double.NaN, 0, flags);
+        MeasurementPublisher p = publisher;
+        if (p != null) {
+            p.offer(timestampNanos, Double.NaN, Double.NaN, breathing.breathingRate.ratePerMinute(), flags);
+        }
+        int row = measurements.begin(timestampNanos);
+        measurements.batch().setFlags(row, flags);
+    }
+
+    /**
+     * Fill the face detector input with the buffers the detector reads
+     */
+    private void fillFaceInput(int inputs, Bitmap visual, ThermalImage thermalImage) {
+        int width = visual.getWidth();
+        int height = visual.getHeight();
+        if ((inputs & FaceDetector.INPUT_VISUAL) != 0) {
+            if (visualPixels.length < width * height) {
+                visualPixels = new int[width * height];
+            }
+            visual.getPixels(visualPixels, 0, width, 0, 0, width, height);
+            faceInput.setVisualSize(width, height);
+            faceInput.setLuminance(visualPixels);
+        } else {
+            //only the size, detectors on the thermal image report visual coordinates
+            faceInput.width = width;
+            faceInput.height = height;
+        }
+        if ((inputs & FaceDetector.INPUT_THERMAL) != 0) {
+            int thermalWidth = thermalImage.getWidth();
+            int thermalHeight = thermalImage.getHeight();
+            double[] values = getValues(thermalImage, 0, 0, thermalWidth, thermalHeight);
+            faceInput.setThermalSize(thermalWidth, thermalHeight);
+            float[] kelvin = faceInput.kelvin;
+            for (int i = 0; i < thermalWidth * thermalHeight; i++) {
+                kelvin[i] = (float) values[i];
+            }
+        }
+    }
+
+    /**
+     * Thermal values of a rectangle, the rectangle is reused, call on the record thread
+     */
+    private double[] getValues(ThermalImage thermalImage, int x, int y, int width, int height) {
+        valuesRectangle.x = x;
+        valuesRectangle.y = y;
+        valuesRectangle.width = width;
+        valuesRectangle.height = height;
+        return thermalImage.getValues(valuesRectangle);
+    }
+
     private void withImage(ThermalImageStreamListener listener, Camera.Consumer<ThermalImage> functionToRun) {
         camera.withImage(listener, functionToRun);
     }
@@ -252,7 +756,12 @@ class CameraHandler {
         @Override
         public void onImageReceived() {
             //Will be called on a non-ui thread
-            Log.d(TAG, "onImageReceived(), we got another ThermalImage");
+            long now = System.nanoTime();
+            previewClock.stamp(now);
+            markFirstFrame(now);
+            if (!recordSubscribed) {
+                metrics.framesReceived.incrementAndGet();
+            }
             withImage(this, handleIncomingImage);
 //
         }
@@ -262,7 +771,20 @@ class CameraHandler {
         @Override
         public void onImageReceived() {
             //Will be called on a non-ui thread
-            Log.d(TAG, "onImageReceived(), we got another ThermalImage");
+            stampFrame();
+            //the frame is processed on this thread before the SDK delivers the next one, nothing waits behind it. Frames the SDK
+            //lost aren't a backlog, the governor sees them as a longer period and drops only while work is queued
+            recordDecision = governor.decide(frameClock.timestampNanos, 0);
+            if (recordDecision == ProcessingGovernor.Decision.DROP) {
+                metrics.framesDropped.incrementAndGet();
+                int flags = TemperatureSeries.FLAG_SKIPPED | (frameClock.isLate() ? TemperatureSeries.FLAG_LATE_FRAME : 0);
+                appendSkipped(frameClock.timestampNanos, flags);
+                if (frameRecorder != null) {
+                    //the recording keeps every frame, the offline analysis measures the dropped ones too
+                    withImage(this, recordDroppedImage);
+                }
+                return;
+            }
             withImage(this, handleRecordImage);
         }
     };
@@ -274,214 +796,127 @@ class CameraHandler {
     private final Camera.Consumer<ThermalImage> handleIncomingImage = new Camera.Consumer<ThermalImage>() {
         @Override
         public void accept(ThermalImage thermalImage) {
-            Log.d(TAG, "accept() called with: thermalImage = [" + thermalImage.getDescription() + "]");
+            if (PipelineMetrics.isEnabled()) {
+                Log.d(TAG, "accept() called with: thermalImage = [" + thermalImage.getDescription() + "]");
+            }
             //Will be called on a non-ui thread,
             // extract information on the background thread and send the specific information to the UI thread
             //Get a bitmap with only IR data
             Bitmap thermalBitmap;
-            Palette palette = PaletteManager.getDefaultPalettes().get(0);
+            Palette palette = palette();
+            long start = metrics.start();
             {
                 thermalImage.getFusion().setFusionMode(FusionMode.THERMAL_ONLY);
                 thermalImage.setPalette(palette);
+                start = metrics.stop(PipelineMetrics.Stage.FUSION_SWITCH, start);
                 thermalBitmap = BitmapAndroid.createBitmap(thermalImage.getImage()).getBitMap();
+                start = metrics.stop(PipelineMetrics.Stage.BITMAP, start);
             }
             //Get a bitmap with the visual image, it might have different dimensions then the bitmap from THERMAL_ONLY
             Bitmap rgbBitmap;
             {
                 thermalImage.getFusion().setFusionMode(FusionMode.VISUAL_ONLY);
+                start = metrics.stop(PipelineMetrics.Stage.FUSION_SWITCH, start);
                 rgbBitmap = BitmapAndroid.createBitmap(thermalImage.getFusion().getPhoto()).getBitMap();
+                start = metrics.stop(PipelineMetrics.Stage.BITMAP, start);
+            }
+            if (!recordSubscribed) {
+                metrics.framesProcessed.incrementAndGet();
             }
             streamDataListener.images(thermalBitmap, rgbBitmap);
         }
     };
 
+    /**
+     * Only copies a frame the governor dropped to the frame recording
+     */
+    private final Camera.Consumer<ThermalImage> recordDroppedImage = new Camera.Consumer<ThermalImage>() {
+        @Override
+        public void accept(ThermalImage thermalImage) {
+            FrameRecorder recorder = frameRecorder;
+            if (recorder != null) {
+                recordFrame(recorder, thermalImage, ProcessingGovernor.Decision.DROP);
+            }
+        }
+    };
+
     private final Camera.Consumer<ThermalImage> handleRecordImage = new Camera.Consumer<ThermalImage>() {
         @Override
         public void accept(ThermalImage thermalImage) {
-            Log.d(TAG, "accept() called with: thermalImage = [" + thermalImage.getDescription() + "]");
+            if (PipelineMetrics.isEnabled()) {
+                Log.d(TAG, "accept() called with: thermalImage = [" + thermalImage.getDescription() + "]");
+            }
             //Will be called on a non-ui thread,
             // extract information on the background thread and send the specific information to the UI thread
             //Get a bitmap with only IR data
 //            stopStream(thermalImageStreamListener);
 
+            //measured regardless of the metrics switch, the governor needs it
+            long begin = System.nanoTime();
+            ProcessingGovernor.Decision decision = recordDecision;
+            FrameRecorder recorder = frameRecorder;
+            if (recorder != null) {
+                //measured or not, the offline analysis re-runs the measurement on every frame
+                recordFrame(recorder, thermalImage, decision);
+            }
             Bitmap thermalBitmap;
-            Palette palette = PaletteManager.getDefaultPalettes().get(0);
+            Palette palette = palette();
+            long start = metrics.start();
             {
                 thermalImage.getFusion().setFusionMode(FusionMode.THERMAL_ONLY);
                 thermalImage.setPalette(palette);
+                start = metrics.stop(PipelineMetrics.Stage.FUSION_SWITCH, start);
                 thermalBitmap = BitmapAndroid.createBitmap(thermalImage.getImage()).getBitMap();
+                start = metrics.stop(PipelineMetrics.Stage.BITMAP, start);
             }
             //Get a bitmap with the visual image, it might have different dimensions then the bitmap from THERMAL_ONLY
             Bitmap rgbBitmap;
             {
                 thermalImage.getFusion().setFusionMode(FusionMode.VISUAL_ONLY);
+                start = metrics.stop(PipelineMetrics.Stage.FUSION_SWITCH, start);
                 rgbBitmap = BitmapAndroid.createBitmap(thermalImage.getFusion().getPhoto()).getBitMap();
+                start = metrics.stop(PipelineMetrics.Stage.BITMAP, start);
             }
 //            new Thread(() -> {
                 Bitmap cropRgbBitmap = Bitmap.createBitmap(rgbBitmap, 65, 160, 960, 1280);
-                Canvas rgbCanvas = new Canvas(cropRgbBitmap);
-                rgbCanvas.drawBitmap(cropRgbBitmap, 0, 0, null);
-                Canvas thermalCanvas = new Canvas(thermalBitmap);
-                thermalCanvas.drawBitmap(thermalBitmap, 0, 0, null);
-
-                Paint myRectPaint = new Paint();
-                myRectPaint.setStrokeWidth(5);
-                myRectPaint.setColor(Color.RED);
-                myRectPaint.setStyle(Paint.Style.STROKE);
-
-
-                FaceDetector faceDetector = new FaceDetector
-                        .Builder(context)
-                        .setTrackingEnabled(false)
-                        .setProminentFaceOnly(true)
-                        .setMode(FaceDetector.FAST_MODE)
-                        .setLandmarkType(FaceDetector.ALL_LANDMARKS)
-                        .build();
-                Paint hidungPaint;
-                hidungPaint = new Paint();
-                hidungPaint.setStrokeWidth(3);
-                hidungPaint.setColor(Color.GREEN);
-                hidungPaint.setStyle(Paint.Style.STROKE);
+                start = metrics.stop(PipelineMetrics.Stage.CROP, start);
+                if (decision == ProcessingGovernor.Decision.PREVIEW) {
+                    //not measured, the boxes of the last measured frame stay
+                    int flags = TemperatureSeries.FLAG_SKIPPED | (frameClock.isLate() ? TemperatureSeries.FLAG_LATE_FRAME : 0);
+                    appendSkipped(frameClock.timestampNanos, flags);
+                    dataRecord.record(thermalBitmap, cropRgbBitmap, recordStage.annotations);
+                    governor.report(decision, System.nanoTime() - begin);
+                    return;
+                }
+                //the detector is built once, usually warmed up at startup
+                start = metrics.start();
+                FaceDetector faceDetector = faceDetector();
 
                 if (faceDetector.isOperational()) {
-                    Frame frame = new Frame.Builder().setBitmap(cropRgbBitmap).build();
-                    SparseArray<Face> faces = faceDetector.detect(frame);
-                    faceDetector.release();
-                    if (faces.size() > 0) {
-                        count++;
-                        if (count == (ITERATIVE_MAXIMUM + 1)) {
-                            count = 0;
-                            thermalLinkedList.add(0, 0.0);
-                        }
-                        //Draw Rectangles on the Faces
-                        for (int i = 0; i < faces.size(); i++) {
-                            Face thisFace = faces.valueAt(i);
-                            float x1 = thisFace.getPosition().x;
-                            float y1 = thisFace.getPosition().y;
-                            float x2 = x1 + thisFace.getWidth();
-                            float y2 = y1 + thisFace.getHeight();
-                            if (x1 <= 1)
-                                x1 = 1;
-                            if (x1 >= cropRgbBitmap.getWidth())
-                                x1 = cropRgbBitmap.getWidth();
-                            if (y1 <= 1)
-                                y1 = 1;
-                            if (y1 >= cropRgbBitmap.getHeight())
-                                y1 = cropRgbBitmap.getHeight();
-                            if (x2 <= 1)
-                                x2 = 1;
-                            if (x2 >= cropRgbBitmap.getWidth())
-                                x2 = cropRgbBitmap.getWidth();
-                            if (y2 <= 1)
-                                y2 = 1;
-                            if (y2 >= cropRgbBitmap.getHeight())
-                                y2 = cropRgbBitmap.getHeight();
-
-                            rgbCanvas.drawRoundRect(new RectF(x1, y1, x2, y2), 2, 2, myRectPaint);
-                            thermalCanvas.drawRoundRect(new RectF(x1 / 2, y1 / 2, x2 / 2, y2 / 2), 2, 2, hidungPaint);
-
-                            float rgbWidth = rgbCanvas.getWidth();
-                            float rgbHeight = rgbCanvas.getHeight();
-
-                            for (Landmark landmark : thisFace.getLandmarks()) {
-                                if (landmark.getType() == Landmark.NOSE_BASE) {
-                                    int cx = (int) (landmark.getPosition().x * drawBitmap(rgbCanvas, cropRgbBitmap));
-                                    int cy = (int) (landmark.getPosition().y * drawBitmap(rgbCanvas, cropRgbBitmap));
-                                    float skalaWidth = skalaWidth(rgbWidth);
-                                    float skalaHeight = skalaHeight(rgbHeight);
-                                    float cLeft = cx - skalaWidth + 60;
-                                    float cRight = cx + skalaWidth - 60;
-                                    float cBottom = cy + skalaHeight - 80;
-
-                                    if (cLeft <= x1) {
-                                        cLeft = x1;
-                                    }
-                                    if (cRight >= x2) {
-                                        cRight = x2;
-                                    }
-                                    if (cBottom >= y2) {
-                                        cBottom = y2;
-                                    }
-                                    rgbCanvas.drawRoundRect(new RectF(cLeft, cy, cRight, cBottom), 2, 2, hidungPaint);
-                                    thermalCanvas.drawRoundRect(new RectF(cLeft / 2, cy / 2, cRight / 2, cBottom / 2), 2, 2, hidungPaint);
-
-                                    float wBlock = Math.abs(cRight - cLeft) / 4;
-                                    float modBlock = Math.abs(cRight - cLeft) % 4;
-
-                                    float sBlock = cLeft;
-                                    float srBlock = cLeft + wBlock;
-                                    double saveVarianceBlock = -100000;
-                                    double saveTempBlock = -100000;
-
-                                    for (int k = 0; k < 4; k++) {
-                                        rgbCanvas.drawRoundRect(new RectF(sBlock, cy, srBlock, cBottom), 2, 2, hidungPaint);
-                                        thermalCanvas.drawRoundRect(new RectF(sBlock / 2, cy / 2, srBlock / 2, cBottom / 2), 2, 2, hidungPaint);
-                                        Rectangle tempBlock = new Rectangle((int) sBlock / 2, cy / 2, (int) wBlock, Math.abs((int) (cBottom / 2) - (cy / 2)));
-
-                                        double[] temperatureBlock = thermalImage.getValues(tempBlock);
-                                        double varianBlock = getVarianceNostril(temperatureBlock);
-                                        if (varianBlock > saveVarianceBlock) {
-                                            saveVarianceBlock = varianBlock;
-                                            saveTempBlock = getMean(temperatureBlock) - 273.15;
-                                        } else {
-//                                        thermalLinkedList.add(0,0.0);
-                                        }
-
-                                        sBlock = srBlock;
-                                        if (k == 3) {
-                                            wBlock = wBlock + modBlock;
-                                        }
-                                        srBlock = srBlock + wBlock;
-                                    }
-                                    frameTemperature = saveTempBlock;
-                                    thermalLinkedList.add(count, saveTempBlock);
-                                }
-                            }
-                        }
-                    } else {
-                        thermalLinkedList.add(0, 0.0);
+                    int flags = frameClock.isLate() ? TemperatureSeries.FLAG_LATE_FRAME : 0;
+                    fillFaceInput(faceDetector.inputs(), cropRgbBitmap, thermalImage);
+                    measuredImage = thermalImage;
+                    recordStage.measure(frameClock.timestampNanos, flags, faceDetector, faceInput,
+                            thermalImage.getWidth(), thermalImage.getHeight(), measuredValues, start);
+                    measuredImage = null;
+                    double nostrilTemperature = recordStage.temperature;
+                    flags = recordStage.flags;
+                    MeasurementPublisher p = publisher;
+                    if (p != null) {
+                        p.offer(frameClock.timestampNanos, nostrilTemperature, recordStage.filtered, breathing.breathingRate.ratePerMinute(), flags);
+                    }
+                    waveformSamples.offer(frameClock.timestampNanos, Double.isNaN(nostrilTemperature) ? Double.NaN : breathing.breathingRate.filtered());
+                    metrics.framesProcessed.incrementAndGet();
+                    StartupTrace trace = startupTrace;
+                    if (trace != null && !Double.isNaN(nostrilTemperature)) {
+                        startupTrace = null;
+                        trace.mark(StartupTrace.FIRST_MEASUREMENT);
+                        Log.i(TAG, trace.summary());
                     }
-                    dataRecord.record(thermalBitmap, cropRgbBitmap);
+                    dataRecord.record(thermalBitmap, cropRgbBitmap, recordStage.annotations);
                 }
+                governor.report(decision, System.nanoTime() - begin);
 //            }).start();
         }
-
-        public double getVarianceNostril(double[] temperatureBlock){
-            double hasil = 0;
-            double mean = getMean(temperatureBlock);
-            for(int i = 0; i<temperatureBlock.length; i++){
-                double hasilKuadrat = Math.pow((temperatureBlock[i] - mean),2);
-                hasil = hasil + hasilKuadrat;
-            }
-            return hasil/ temperatureBlock.length-1;
-        }
-
-        public double getMean(double[] data){
-            double jumlah = 0;
-            for(int i=0; i<data.length; i++){
-                jumlah = jumlah + data[i];
-            }
-
-            double mean = jumlah/data.length;
-            return  mean;
-        }
-
-        public float skalaWidth(float rgbWidth){
-            float width = (4 * rgbWidth) / 11;
-            return width / 2;
-        }
-        public float skalaHeight(float rgbHeight) {
-            return rgbHeight / 8;
-        }
-
-        public double drawBitmap(Canvas canvas, Bitmap bitmap){
-            double viewWidth = canvas.getWidth();
-            double viewHeight = canvas.getHeight();
-            double imageWidth = bitmap.getWidth();
-            double imageHeigth = bitmap.getHeight();
-
-            double scale = Math.min(viewWidth/imageWidth, viewHeight/imageHeigth);
-            return  scale;
-        }
     };
 }
@@ -0,0 +1,178 @@
+package com.samples.flironecamera;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * One camera (or replay) with everything it needs to measure on its own: a {@link FrameSource}, a pool of frames,
+ * a worker thread, a frame clock, the temperature series, the breathing rate and its own metrics.
+ * <p/>
+ * The source thread only copies the radiometric values into a pooled frame and hands it over. The worker measures it and returns the
+ * frame to the pool. When the worker falls behind the pool runs dry and new frames are dropped on the source thread, so a slow session
+ * never blocks its camera, and sessions share no locks or threads so one can't stall another. Before it gets that far a
+ * {@link ProcessingGovernor} skips the measurement of some frames, based on the measuring cost and the frames waiting.
+ */
+final class CameraSession {
+
+    //frames in flight per session, one being filled, one being measured and one waiting
+    static final int POOL_SIZE = 3;
+
+    //Nostril region of a face filling the cropped visual image, where the synthetic subject of a ReplaySource breathes
+    static final float DEFAULT_NOSTRIL_LEFT = 370;
+    static final float DEFAULT_NOSTRIL_RIGHT = 600;
+    static final int DEFAULT_NOSTRIL_TOP = 700;
+    static final float DEFAULT_NOSTRIL_BOTTOM = 780;
+
+    /**
+     * Measures the nostril temperature in a frame, called on the session's worker thread
+     */
+    interface Processor {
+        /**
+         * The processor may add {@link TemperatureSeries} flags to {@link ThermalFrame#flags} and set {@link ThermalFrame#roi},
+         * both go to the series with the temperature, and set {@link ThermalFrame#reference} for the drift compensation
+         *
+         * @return temperature in Celsius, NaN if there is nothing to measure
+         */
+        double measure(ThermalFrame frame);
+    }
+
+    final String id;
+    final PipelineMetrics metrics = new PipelineMetrics();
+    final TemperatureSeries series = new TemperatureSeries();
+    final BreathingStage breathing = new BreathingStage();
+    final ProcessingGovernor governor;
+
+    private final FrameSource source;
+    private final Processor processor;
+    private final FrameClock clock = new FrameClock();
+    private final ArrayBlockingQueue<ThermalFrame> free = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final ArrayBlockingQueue<ThermalFrame> ready = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final Thread worker;
+    private volatile boolean running;
+
+    private final FrameSource.Sink sink = new FrameSource.Sink() {
+        @Override
+        public ThermalFrame acquire() {
+            metrics.framesReceived.incrementAndGet();
+            clock.stamp(System.nanoTime());
+            ProcessingGovernor.Decision decision = governor.decide(clock.timestampNanos, ready.size());
+            ThermalFrame frame = decision == ProcessingGovernor.Decision.DROP ? null : free.poll();
+            if (frame == null) {
+                metrics.framesDropped.incrementAndGet();
+                return null;
+            }
+            frame.sequence = clock.sequence;
+            frame.timestampNanos = clock.timestampNanos;
+            frame.flags = clock.isLate() ? TemperatureSeries.FLAG_LATE_FRAME : 0;
+            frame.roi = 0;
+            frame.reference = Double.NaN;
+            if (decision == ProcessingGovernor.Decision.PREVIEW) {
+                frame.flags |= TemperatureSeries.FLAG_SKIPPED;
+            }
+            return frame;
+        }
+
+        @Override
+        public void publish(ThermalFrame frame) {
+            //can't fail, there are never more frames than the queue holds
+            ready.offer(frame);
+        }
+
+        @Override
+        public void discard(ThermalFrame frame) {
+            free.offer(frame);
+        }
+    };
+
+    /**
+     * @param frameCapacity values per frame, at least width * height of the source's images
+     */
+    CameraSession(String id, FrameSource source, Processor processor, int frameCapacity) {
+        this(id, source, processor, frameCapacity, new ProcessingGovernor());
+    }
+
+    CameraSession(String id, FrameSource source, Processor processor, int frameCapacity, ProcessingGovernor governor) {
+        this.id = id;
+        this.governor = governor;
+        this.source = source;
+        this.processor = processor;
+        for (int i = 0; i < POOL_SIZE; i++) {
+            free.offer(new ThermalFrame(frameCapacity));
+        }
+        worker = new Thread(this::work, "session-" + id);
+        worker.setDaemon(true);
+        breathing.register(metrics);
+        metrics.gauge("frame_period_ms", "Average time between camera frames", clock::periodMillis);
+        metrics.gauge("frames_missed", "Frames estimated to be dropped before reaching the session", () -> clock.missedFrames.get());
+        metrics.gauge("series_samples", "Samples in the temperature series of the session", series::size);
+        metrics.gauge("nostril_temperature_c", "Nostril temperature of the last sample, NaN if it wasn't measured", () -> {
+            int n = series.size();
+            return n == 0 ? Double.NaN : series.valueAt(n - 1);
+        });
+        governor.register(metrics, "governor_");
+    }
+
+    void start() throws IOException {
+        running = true;
+        worker.start();
+        try {
+            source.open(sink);
+        } catch (IOException | RuntimeException e) {
+            stopWorker();
+            throw e;
+        }
+    }
+
+    /**
+     * Close the source and stop the worker, frames still waiting are not measured
+     */
+    void stop() {
+        source.close();
+        stopWorker();
+    }
+
+    private void stopWorker() {
+        running = false;
+        worker.interrupt();
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void work() {
+        while (running) {
+            ThermalFrame frame;
+            try {
+                frame = ready.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                process(frame);
+            } finally {
+                free.offer(frame);
+            }
+        }
+    }
+
+    /**
+     * Measure one frame into the series, on the worker thread. A replay that must measure every frame in order, eg the golden
+     * recordings, calls it directly on a session that isn't started.
+     */
+    void process(ThermalFrame frame) {
+        if ((frame.flags & TemperatureSeries.FLAG_SKIPPED) != 0) {
+            series.append(frame.timestampNanos, Double.NaN, Double.NaN, 0, breathing.skip(frame.timestampNanos, frame.flags));
+            return;
+        }
+        long begin = System.nanoTime();
+        double temperature = processor.measure(frame);
+        long cost = System.nanoTime() - begin;
+        governor.report(ProcessingGovernor.Decision.FULL, cost);
+        metrics.record(PipelineMetrics.Stage.STATS, cost);
+        int flags = breathing.add(frame.timestampNanos, temperature, frame.reference, frame.flags);
+        series.append(frame.timestampNanos, temperature, breathing.filtered, frame.roi, flags);
+        metrics.framesProcessed.incrementAndGet();
+    }
+}
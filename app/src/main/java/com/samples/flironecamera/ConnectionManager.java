@@ -0,0 +1,207 @@
+package com.samples.flironecamera;
+
+import android.util.Log;
+
+import com.flir.thermalsdk.ErrorCode;
+import com.flir.thermalsdk.live.Identity;
+import com.flir.thermalsdk.live.connectivity.ConnectionStatusListener;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection lifecycle of the camera driving the preview, run on one managed thread instead of a new thread per action.
+ * <p/>
+ * The last connected {@link Identity} is persisted in an {@link IdentityStore}. When the camera drops off without the user asking,
+ * eg a USB hiccup, the same identity is connected again after a jittered exponential backoff, without a discovery scan. The time from
+ * starting a connect to the first frame of the stream is recorded by {@link CameraHandler} as {@link PipelineMetrics.Stage#FIRST_FRAME}.
+ * <p/>
+ * All state is confined to the connection thread, the listener is called on that thread too.
+ */
+class ConnectionManager {
+
+    private static final String TAG = "ConnectionManager";
+
+    static final long RECONNECT_BASE_MILLIS = 250;
+    static final long RECONNECT_MAX_MILLIS = 8000;
+    static final int RECONNECT_MAX_ATTEMPTS = 10;
+
+    interface Listener {
+        /**
+         * Connection state changed, eg "CONNECTING", identity is null when nothing is connected
+         */
+        void onStatus(@Nullable Identity identity, String status);
+
+        /**
+         * Connected or reconnected, start streaming
+         */
+        void onConnected(Identity identity);
+
+        /**
+         * Not connected and not trying to reconnect anymore, the connect failed, the reconnects gave up or the user disconnected
+         */
+        void onDisconnected(@Nullable Identity identity);
+    }
+
+    private final CameraHandler cameraHandler;
+    private final IdentityStore identityStore;
+    private final Listener listener;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "camera-connection"));
+    private final ReconnectBackoff backoff = new ReconnectBackoff(RECONNECT_BASE_MILLIS, RECONNECT_MAX_MILLIS,
+            RECONNECT_MAX_ATTEMPTS, new Random());
+    final AtomicLong reconnects = new AtomicLong();
+
+    //camera the user wants to be connected to, null after a disconnect
+    private Identity wanted;
+    private ScheduledFuture<?> pendingReconnect;
+    //incremented per connect attempt, disconnect events of older connections are ignored
+    private int generation;
+
+    ConnectionManager(CameraHandler cameraHandler, IdentityStore identityStore, Listener listener) {
+        this.cameraHandler = cameraHandler;
+        this.identityStore = identityStore;
+        this.listener = listener;
+        cameraHandler.getMetrics().gauge("reconnects", "Automatic reconnects after the camera dropped off", () -> reconnects.get());
+    }
+
+    /**
+     * The camera that was connected last, it can be connected without discovering it first
+     */
+    @Nullable
+    Identity lastIdentity() {
+        return identityStore.load();
+    }
+
+    void connect(Identity identity) {
+        executor.execute(() -> {
+            cancelReconnect();
+            wanted = identity;
+            backoff.reset();
+            attempt(identity, false);
+        });
+    }
+
+    /**
+     * Disconnect on request of the user, no reconnect and the camera is forgotten
+     */
+    void disconnect() {
+        executor.execute(() -> {
+            cancelReconnect();
+            Identity identity = wanted;
+            wanted = null;
+            identityStore.clear();
+            listener.onStatus(identity, "DISCONNECTING");
+            cameraHandler.disconnect();
+            listener.onStatus(null, "DISCONNECTED");
+            listener.onDisconnected(identity);
+        });
+    }
+
+    /**
+     * Run other camera work on the connection thread, eg switching streams, so it's ordered with connects and disconnects
+     */
+    void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Disconnect and stop the connection thread, eg in {@code onDestroy()}.
+     * The face detector and the session store are released once no more frames arrive.
+     */
+    void shutdown() {
+        executor.execute(() -> {
+            cancelReconnect();
+            wanted = null;
+            cameraHandler.disconnect();
+            cameraHandler.release();
+        });
+        executor.shutdown();
+    }
+
+    private void attempt(Identity identity, boolean reconnect) {
+        listener.onStatus(identity, reconnect ? "RECONNECTING" : "CONNECTING");
+        try {
+            cameraHandler.connect(identity, new StatusListener(++generation));
+        } catch (IOException e) {
+            Log.d(TAG, "attempt(), could not connect to " + identity.deviceId + ": " + e);
+            if (reconnect) {
+                scheduleReconnect(identity);
+            } else {
+                wanted = null;
+                listener.onStatus(identity, "DISCONNECTED");
+                listener.onDisconnected(identity);
+            }
+            return;
+        }
+        if (reconnect) {
+            reconnects.incrementAndGet();
+        }
+        backoff.reset();
+        identityStore.save(identity);
+        listener.onStatus(identity, "CONNECTED");
+        listener.onConnected(identity);
+    }
+
+    private void scheduleReconnect(Identity identity) {
+        long delay = backoff.nextDelayMillis();
+        if (delay < 0) {
+            Log.d(TAG, "scheduleReconnect(), giving up on " + identity.deviceId + " after " + backoff.attempts() + " attempts");
+            wanted = null;
+            listener.onStatus(identity, "DISCONNECTED");
+            listener.onDisconnected(identity);
+            return;
+        }
+        listener.onStatus(identity, "RECONNECTING IN " + delay + " ms");
+        pendingReconnect = executor.schedule(() -> {
+            pendingReconnect = null;
+            if (wanted != identity) {
+                return;
+            }
+            //release what is left of the old connection first
+            cameraHandler.disconnect();
+            attempt(identity, true);
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelReconnect() {
+        if (pendingReconnect != null) {
+            pendingReconnect.cancel(false);
+            pendingReconnect = null;
+        }
+    }
+
+    private class StatusListener implements ConnectionStatusListener {
+        private final int connection;
+
+        StatusListener(int connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void onDisconnected(@org.jetbrains.annotations.Nullable ErrorCode errorCode) {
+            Log.d(TAG, "onDisconnected errorCode:" + errorCode);
+            try {
+                executor.execute(() -> {
+                    Identity identity = wanted;
+                    //asked for, replaced by a newer connection or already reconnecting
+                    if (identity == null || connection != generation || pendingReconnect != null) {
+                        return;
+                    }
+                    listener.onStatus(identity, "DISCONNECTED");
+                    scheduleReconnect(identity);
+                });
+            } catch (RejectedExecutionException e) {
+                //shut down
+            }
+        }
+    }
+}
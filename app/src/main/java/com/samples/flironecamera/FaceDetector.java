@@ -1,6 +1,202 @@
 package com.samples.flironecamera;
 
-public class FaceDetector
-{
+import java.util.Arrays;
 
+/**
+ * Finds faces and their nose base in a frame given as primitive buffers, so detectors can be swapped per device and benchmarked
+ * on a plain JVM.
+ * <p/>
+ * Backends: {@link PlayServicesFaceDetector} on the visual image, {@link ThermalBlobFaceDetector} on the radiometric image and
+ * {@link ScriptedFaceDetector} returning scripted faces for tests. Coordinates are in pixels of the visual (cropped photo) image,
+ * like {@link FrameAnnotations}. A detector is used by one thread at a time.
+ */
+interface FaceDetector {
+
+    //what detect() reads from the Input, only those buffers have to be filled
+    int INPUT_VISUAL = 1;
+    int INPUT_THERMAL = 1 << 1;
+
+    /**
+     * Frame to detect faces in, buffers grow as needed and are reused for the next frame
+     */
+    final class Input {
+        //visual image as NV21, width * height luminance bytes followed by neutral chroma, face detection only needs the luminance
+        byte[] nv21 = new byte[0];
+        int width;
+        int height;
+        //radiometric image in Kelvin, row major
+        float[] kelvin = new float[0];
+        int thermalWidth;
+        int thermalHeight;
+
+        /**
+         * Set the size of the visual image, its chroma is neutral gray
+         */
+        void setVisualSize(int width, int height) {
+            int luminance = width * height;
+            int size = luminance + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+            if (nv21.length < size) {
+                nv21 = new byte[size];
+            }
+            if (width != this.width || height != this.height) {
+                Arrays.fill(nv21, luminance, size, (byte) 128);
+            }
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * Luminance of the visual image from ARGB pixels, call {@link #setVisualSize(int, int)} first
+         */
+        void setLuminance(int[] argb) {
+            int n = width * height;
+            byte[] y = nv21;
+            for (int i = 0; i < n; i++) {
+                int pixel = argb[i];
+                //BT.601 weights in 8 bit fixed point
+                y[i] = (byte) ((77 * ((pixel >> 16) & 0xFF) + 150 * ((pixel >> 8) & 0xFF) + 29 * (pixel & 0xFF)) >> 8);
+            }
+        }
+
+        void setThermalSize(int width, int height) {
+            if (kelvin.length < width * height) {
+                kelvin = new float[width * height];
+            }
+            thermalWidth = width;
+            thermalHeight = height;
+        }
+
+        /**
+         * Visual pixels per thermal pixel, 1 if there is no visual image
+         */
+        float thermalScale() {
+            return width > 0 && thermalWidth > 0 ? (float) width / thermalWidth : 1;
+        }
+    }
+
+    /**
+     * Faces found in a frame, fixed storage so detecting doesn't allocate
+     */
+    final class Faces {
+        static final int MAX_FACES = 8;
+
+        //landmarks of the subject, its left eye is on the right of an unmirrored image
+        static final int NOSE_BASE = 0;
+        static final int LEFT_EYE = 1;
+        static final int RIGHT_EYE = 2;
+        static final int LEFT_MOUTH = 3;
+        static final int RIGHT_MOUTH = 4;
+        static final int BOTTOM_MOUTH = 5;
+        static final int LEFT_CHEEK = 6;
+        static final int RIGHT_CHEEK = 7;
+        static final int LANDMARK_COUNT = 8;
+
+        //left, top, right, bottom per face
+        private final float[] bounds = new float[MAX_FACES * 4];
+        //x, y per landmark per face, NaN if it wasn't found
+        private final float[] landmarks = new float[MAX_FACES * LANDMARK_COUNT * 2];
+        private int count;
+
+        void clear() {
+            count = 0;
+        }
+
+        /**
+         * @return false if the list is full and the face was left out
+         */
+        boolean add(float left, float top, float right, float bottom, float noseX, float noseY) {
+            if (count == MAX_FACES) {
+                return false;
+            }
+            int i = count * 4;
+            bounds[i] = left;
+            bounds[i + 1] = top;
+            bounds[i + 2] = right;
+            bounds[i + 3] = bottom;
+            int l = count * LANDMARK_COUNT * 2;
+            for (int k = 0; k < LANDMARK_COUNT * 2; k++) {
+                landmarks[l + k] = Float.NaN;
+            }
+            landmarks[l + NOSE_BASE * 2] = noseX;
+            landmarks[l + NOSE_BASE * 2 + 1] = noseY;
+            count++;
+            return true;
+        }
+
+        /**
+         * Set a landmark of a face added before
+         */
+        void setLandmark(int index, int landmark, float x, float y) {
+            int l = (index * LANDMARK_COUNT + landmark) * 2;
+            landmarks[l] = x;
+            landmarks[l + 1] = y;
+        }
+
+        int size() {
+            return count;
+        }
+
+        float leftAt(int index) {
+            return bounds[index * 4];
+        }
+
+        float topAt(int index) {
+            return bounds[index * 4 + 1];
+        }
+
+        float rightAt(int index) {
+            return bounds[index * 4 + 2];
+        }
+
+        float bottomAt(int index) {
+            return bounds[index * 4 + 3];
+        }
+
+        boolean hasLandmark(int index, int landmark) {
+            return !Float.isNaN(landmarks[(index * LANDMARK_COUNT + landmark) * 2]);
+        }
+
+        float landmarkXAt(int index, int landmark) {
+            return landmarks[(index * LANDMARK_COUNT + landmark) * 2];
+        }
+
+        float landmarkYAt(int index, int landmark) {
+            return landmarks[(index * LANDMARK_COUNT + landmark) * 2 + 1];
+        }
+
+        boolean hasNose(int index) {
+            return hasLandmark(index, NOSE_BASE);
+        }
+
+        float noseXAt(int index) {
+            return landmarkXAt(index, NOSE_BASE);
+        }
+
+        float noseYAt(int index) {
+            return landmarkYAt(index, NOSE_BASE);
+        }
+    }
+
+    /**
+     * Short name for logs and metrics, eg "play_services"
+     */
+    String name();
+
+    /**
+     * @return {@link #INPUT_VISUAL} and / or {@link #INPUT_THERMAL}
+     */
+    int inputs();
+
+    /**
+     * @return false if the detector can't detect (yet), eg its model is still being downloaded
+     */
+    boolean isOperational();
+
+    /**
+     * @param out cleared and filled with the faces found
+     * @return number of faces found
+     */
+    int detect(Input input, Faces out);
+
+    void release();
 }
@@ -0,0 +1,215 @@
+package com.samples.flironecamera;
+
+/**
+ * Declarative set of facial measurement regions placed relative to the landmarks of a detected face, eg the forehead or the
+ * inner canthi for skin temperature and the mouth for mouth breathing.
+ * <p/>
+ * A region is a rectangle centered on an anchor, a landmark or a point between two landmarks, moved by an offset and sized in
+ * shares of the face box, so it scales with the distance to the camera. {@link #place} computes the rectangles of a face,
+ * {@link #include} adds them to the {@link ThermalWindow} fetched for the frame and {@link #measure} computes mean, maximum and
+ * standard deviation of every region from the window in one pass over its values. Adding a region costs arithmetic only.
+ * <p/>
+ * Has no Android dependencies. An instance keeps the results of the last face and is meant to be reused by one thread.
+ */
+final class FacialRegions {
+
+    static final int MAX_REGIONS = 8;
+
+    //anchors besides the landmarks of FaceDetector.Faces
+    static final int ANCHOR_FACE = -1;
+    //between the eyes
+    static final int ANCHOR_EYES = -2;
+    //between the mouth corners
+    static final int ANCHOR_MOUTH = -3;
+
+    private final String[] names = new String[MAX_REGIONS];
+    private final int[] anchors = new int[MAX_REGIONS];
+    //offset x, offset y, width, height per region, shares of the face box
+    private final float[] shapes = new float[MAX_REGIONS * 4];
+    private int count;
+
+    //left, top, right, bottom per region in cropped visual image coordinates, set by place()
+    final float[] bounds = new float[MAX_REGIONS * 4];
+    private final boolean[] placed = new boolean[MAX_REGIONS];
+    //Celsius, NaN for regions that couldn't be placed or measured
+    final double[] mean = new double[MAX_REGIONS];
+    final double[] max = new double[MAX_REGIONS];
+    final double[] deviation = new double[MAX_REGIONS];
+
+    /**
+     * Forehead and inner canthi skin temperature, mouth breathing
+     */
+    static FacialRegions defaults() {
+        return new FacialRegions()
+                .add("forehead", ANCHOR_EYES, 0, -0.18f, 0.4f, 0.12f)
+                //the hottest spot of the face, read the maximum
+                .add("inner_canthus", ANCHOR_EYES, 0, 0, 0.16f, 0.08f)
+                .add("mouth", ANCHOR_MOUTH, 0, 0, 0.3f, 0.1f);
+    }
+
+    /**
+     * @param anchor  a landmark of {@link FaceDetector.Faces} or one of the ANCHOR constants
+     * @param offsetX center of the region right of the anchor, share of the face width
+     * @param offsetY center of the region below the anchor, share of the face height
+     * @param width   share of the face width
+     * @param height  share of the face height
+     */
+    FacialRegions add(String name, int anchor, float offsetX, float offsetY, float width, float height) {
+        if (count == MAX_REGIONS) {
+            throw new IllegalStateException("More than " + MAX_REGIONS + " regions");
+        }
+        names[count] = name;
+        anchors[count] = anchor;
+        shapes[count * 4] = offsetX;
+        shapes[count * 4 + 1] = offsetY;
+        shapes[count * 4 + 2] = width;
+        shapes[count * 4 + 3] = height;
+        count++;
+        return this;
+    }
+
+    int size() {
+        return count;
+    }
+
+    String nameAt(int region) {
+        return names[region];
+    }
+
+    /**
+     * @return -1 if there is no region of that name
+     */
+    int indexOf(String name) {
+        for (int r = 0; r < count; r++) {
+            if (names[r].equals(name)) {
+                return r;
+            }
+        }
+        return -1;
+    }
+
+    boolean isPlaced(int region) {
+        return placed[region];
+    }
+
+    /**
+     * Compute the rectangles of a face, clipped to its box, regions whose anchor landmarks weren't found aren't placed
+     *
+     * @return regions placed
+     */
+    int place(FaceDetector.Faces faces, int face) {
+        float left = faces.leftAt(face);
+        float top = faces.topAt(face);
+        float right = faces.rightAt(face);
+        float bottom = faces.bottomAt(face);
+        float faceWidth = right - left;
+        float faceHeight = bottom - top;
+        int n = 0;
+        for (int r = 0; r < count; r++) {
+            placed[r] = false;
+            float anchorX;
+            float anchorY;
+            switch (anchors[r]) {
+                case ANCHOR_FACE:
+                    anchorX = (left + right) / 2;
+                    anchorY = (top + bottom) / 2;
+                    break;
+                case ANCHOR_EYES:
+                    if (!faces.hasLandmark(face, FaceDetector.Faces.LEFT_EYE) || !faces.hasLandmark(face, FaceDetector.Faces.RIGHT_EYE)) {
+                        continue;
+                    }
+                    anchorX = (faces.landmarkXAt(face, FaceDetector.Faces.LEFT_EYE) + faces.landmarkXAt(face, FaceDetector.Faces.RIGHT_EYE)) / 2;
+                    anchorY = (faces.landmarkYAt(face, FaceDetector.Faces.LEFT_EYE) + faces.landmarkYAt(face, FaceDetector.Faces.RIGHT_EYE)) / 2;
+                    break;
+                case ANCHOR_MOUTH:
+                    if (!faces.hasLandmark(face, FaceDetector.Faces.LEFT_MOUTH) || !faces.hasLandmark(face, FaceDetector.Faces.RIGHT_MOUTH)) {
+                        continue;
+                    }
+                    anchorX = (faces.landmarkXAt(face, FaceDetector.Faces.LEFT_MOUTH) + faces.landmarkXAt(face, FaceDetector.Faces.RIGHT_MOUTH)) / 2;
+                    anchorY = (faces.landmarkYAt(face, FaceDetector.Faces.LEFT_MOUTH) + faces.landmarkYAt(face, FaceDetector.Faces.RIGHT_MOUTH)) / 2;
+                    break;
+                default:
+                    if (!faces.hasLandmark(face, anchors[r])) {
+                        continue;
+                    }
+                    anchorX = faces.landmarkXAt(face, anchors[r]);
+                    anchorY = faces.landmarkYAt(face, anchors[r]);
+                    break;
+            }
+            float centerX = anchorX + shapes[r * 4] * faceWidth;
+            float centerY = anchorY + shapes[r * 4 + 1] * faceHeight;
+            float halfWidth = shapes[r * 4 + 2] * faceWidth / 2;
+            float halfHeight = shapes[r * 4 + 3] * faceHeight / 2;
+            float regionLeft = Math.max(left, centerX - halfWidth);
+            float regionTop = Math.max(top, centerY - halfHeight);
+            float regionRight = Math.min(right, centerX + halfWidth);
+            float regionBottom = Math.min(bottom, centerY + halfHeight);
+            if (regionRight <= regionLeft || regionBottom <= regionTop) {
+                continue;
+            }
+            bounds[r * 4] = regionLeft;
+            bounds[r * 4 + 1] = regionTop;
+            bounds[r * 4 + 2] = regionRight;
+            bounds[r * 4 + 3] = regionBottom;
+            placed[r] = true;
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * Add the placed regions to the window fetched for the frame
+     *
+     * @param scale visual image pixels per thermal image pixel
+     */
+    void include(ThermalWindow window, float scale) {
+        for (int r = 0; r < count; r++) {
+            if (placed[r]) {
+                int x0 = (int) (bounds[r * 4] / scale);
+                int y0 = (int) (bounds[r * 4 + 1] / scale);
+                window.include(x0, y0, (int) Math.ceil(bounds[r * 4 + 2] / scale) - x0, (int) Math.ceil(bounds[r * 4 + 3] / scale) - y0);
+            }
+        }
+    }
+
+    /**
+     * Measure the placed regions from the fetched window, the parts outside the window are left out
+     *
+     * @param scale visual image pixels per thermal image pixel
+     */
+    void measure(ThermalWindow window, float scale) {
+        for (int r = 0; r < count; r++) {
+            mean[r] = Double.NaN;
+            max[r] = Double.NaN;
+            deviation[r] = Double.NaN;
+            if (!placed[r]) {
+                continue;
+            }
+            int x0 = Math.max(window.x, (int) (bounds[r * 4] / scale));
+            int y0 = Math.max(window.y, (int) (bounds[r * 4 + 1] / scale));
+            int x1 = Math.min(window.x + window.width, (int) Math.ceil(bounds[r * 4 + 2] / scale));
+            int y1 = Math.min(window.y + window.height, (int) Math.ceil(bounds[r * 4 + 3] / scale));
+            if (x1 <= x0 || y1 <= y0) {
+                continue;
+            }
+            double sum = 0;
+            double sumSquares = 0;
+            double highest = Double.NEGATIVE_INFINITY;
+            for (int y = y0; y < y1; y++) {
+                for (int x = x0; x < x1; x++) {
+                    double kelvin = window.valueAt(x, y);
+                    sum += kelvin;
+                    sumSquares += kelvin * kelvin;
+                    if (kelvin > highest) {
+                        highest = kelvin;
+                    }
+                }
+            }
+            int n = (x1 - x0) * (y1 - y0);
+            double average = sum / n;
+            mean[r] = average - NostrilMeasurement.KELVIN_OFFSET;
+            max[r] = highest - NostrilMeasurement.KELVIN_OFFSET;
+            deviation[r] = Math.sqrt(Math.max(0, sumSquares / n - average * average));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.samples.flironecamera;
+
+import android.util.Log;
+
+import com.flir.thermalsdk.ErrorCode;
+import com.flir.thermalsdk.image.Rectangle;
+import com.flir.thermalsdk.image.ThermalImage;
+import com.flir.thermalsdk.live.Camera;
+import com.flir.thermalsdk.live.Identity;
+import com.flir.thermalsdk.live.connectivity.ConnectionStatusListener;
+import com.flir.thermalsdk.live.streaming.ThermalImageStreamListener;
+
+import java.io.IOException;
+
+/**
+ * {@link FrameSource} for a FLIR ONE or emulator, every camera gets its own {@link Camera} and stream subscription.
+ * <p/>
+ * The radiometric values are copied out inside {@link Camera#withImage} since the {@link ThermalImage} is only valid there,
+ * everything else happens on the session's worker.
+ */
+class FlirCameraSource implements FrameSource {
+
+    private static final String TAG = "FlirCameraSource";
+
+    private final Identity identity;
+    //written under the lock, read without it on the SDK thread
+    private volatile Camera camera;
+    private volatile Sink sink;
+
+    FlirCameraSource(Identity identity) {
+        this.identity = identity;
+    }
+
+    @Override
+    public synchronized void open(Sink sink) throws IOException {
+        this.sink = sink;
+        camera = new Camera();
+        camera.connect(identity, connectionStatusListener);
+        camera.subscribeStream(streamListener);
+    }
+
+    @Override
+    public synchronized void close() {
+        sink = null;
+        if (camera == null) {
+            return;
+        }
+        if (camera.isGrabbing()) {
+            camera.unsubscribeAllStreams();
+        }
+        camera.disconnect();
+        camera = null;
+    }
+
+    private final ConnectionStatusListener connectionStatusListener = new ConnectionStatusListener() {
+        @Override
+        public void onDisconnected(ErrorCode errorCode) {
+            Log.d(TAG, "onDisconnected " + identity.deviceId + " errorCode:" + errorCode);
+        }
+    };
+
+    //frame being filled on the SDK thread, null once it's published
+    private ThermalFrame filling;
+
+    private final ThermalImageStreamListener streamListener = new ThermalImageStreamListener() {
+        @Override
+        public void onImageReceived() {
+            //Will be called on a non-ui thread
+            Sink target = sink;
+            Camera current = camera;
+            if (target == null || current == null) {
+                return;
+            }
+            filling = target.acquire();
+            if (filling == null) {
+                return;
+            }
+            current.withImage(this, copyValues);
+            if (filling != null) {
+                //no image or the copy failed
+                target.discard(filling);
+                filling = null;
+            }
+        }
+    };
+
+    private final Camera.Consumer<ThermalImage> copyValues = new Camera.Consumer<ThermalImage>() {
+        @Override
+        public void accept(ThermalImage thermalImage) {
+            Sink target = sink;
+            if (target == null) {
+                return;
+            }
+            try {
+                int width = thermalImage.getWidth();
+                int height = thermalImage.getHeight();
+                filling.copyFrom(thermalImage.getValues(new Rectangle(0, 0, width, height)), width, height);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "accept(), unable to copy frame from " + identity.deviceId + ", exception:" + e);
+                return;
+            }
+            target.publish(filling);
+            filling = null;
+        }
+    };
+}
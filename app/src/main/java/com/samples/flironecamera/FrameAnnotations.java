@@ -0,0 +1,81 @@
+package com.samples.flironecamera;
+
+/**
+ * Boxes to draw over a frame, the face, the nostril region and its search blocks and the facial regions, as a flat primitive list.
+ * <p/>
+ * The measurement path only adds coordinates here and never draws into the frame bitmaps, the preview renders the list on top of
+ * the frame. Coordinates are in pixels of the visual (cropped photo) image, the thermal image is scaled from them.
+ * Storage is fixed, {@link #clear()} and {@link #add(int, float, float, float, float)} never allocate.
+ */
+final class FrameAnnotations {
+
+    static final int KIND_FACE = 0;
+    static final int KIND_NOSTRIL = 1;
+    static final int KIND_BLOCK = 2;
+    static final int KIND_REGION = 3;
+
+    static final int MAX_BOXES = 64;
+
+    //left, top, right, bottom per box
+    private final float[] bounds = new float[MAX_BOXES * 4];
+    private final byte[] kinds = new byte[MAX_BOXES];
+    private int count;
+
+    void clear() {
+        count = 0;
+    }
+
+    /**
+     * @return false if the list is full and the box was left out
+     */
+    boolean add(int kind, float left, float top, float right, float bottom) {
+        if (count == MAX_BOXES) {
+            return false;
+        }
+        int i = count * 4;
+        bounds[i] = left;
+        bounds[i + 1] = top;
+        bounds[i + 2] = right;
+        bounds[i + 3] = bottom;
+        kinds[count] = (byte) kind;
+        count++;
+        return true;
+    }
+
+    int size() {
+        return count;
+    }
+
+    int kindAt(int index) {
+        return kinds[index];
+    }
+
+    float leftAt(int index) {
+        return bounds[index * 4];
+    }
+
+    float topAt(int index) {
+        return bounds[index * 4 + 1];
+    }
+
+    float rightAt(int index) {
+        return bounds[index * 4 + 2];
+    }
+
+    float bottomAt(int index) {
+        return bounds[index * 4 + 3];
+    }
+
+    /**
+     * Replace the contents with those of {@code other}, an empty list if it's null
+     */
+    void copyFrom(FrameAnnotations other) {
+        if (other == null) {
+            count = 0;
+            return;
+        }
+        System.arraycopy(other.bounds, 0, bounds, 0, other.count * 4);
+        System.arraycopy(other.kinds, 0, kinds, 0, other.count);
+        count = other.count;
+    }
+}
@@ -0,0 +1,103 @@
+package com.samples.flironecamera;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stamps every frame from the camera stream with a monotonic timestamp, a sequence number and the interval to the previous frame,
+ * and keeps track of the frame period, jitter and frames that went missing.
+ * <p/>
+ * The expected frame period is learned as an exponentially weighted moving average of the intervals. An interval longer than
+ * {@link #GAP_FACTOR} periods is counted as a gap, the number of periods that fit into it are the frames the SDK dropped
+ * before they reached us.
+ * <p/>
+ * {@link #stamp(long)} is called from the SDK thread only, the statistics can be read from any thread.
+ */
+final class FrameClock {
+
+    static final double GAP_FACTOR = 1.5;
+
+    //weight of a new interval in the period and jitter averages
+    private static final double ALPHA = 1.0 / 16;
+    //this many gaps in a row means the frame rate changed, relearn the period
+    private static final int RELEARN_AFTER_GAPS = 4;
+
+    //values of the frame that was stamped last
+    long sequence = -1;
+    long timestampNanos;
+    long intervalNanos;
+
+    private volatile double periodNanos;
+    private volatile double jitterNanos;
+    private int consecutiveGaps;
+    final AtomicLong gaps = new AtomicLong();
+    final AtomicLong missedFrames = new AtomicLong();
+
+    /**
+     * Start over, eg when a new stream is subscribed
+     */
+    void reset() {
+        sequence = -1;
+        timestampNanos = 0;
+        intervalNanos = 0;
+        periodNanos = 0;
+        jitterNanos = 0;
+        consecutiveGaps = 0;
+    }
+
+    /**
+     * Stamp a new frame
+     *
+     * @param nowNanos monotonic time, {@link System#nanoTime()}
+     * @return number of frames estimated to be missing just before this one
+     */
+    int stamp(long nowNanos) {
+        sequence++;
+        if (sequence == 0) {
+            timestampNanos = nowNanos;
+            intervalNanos = 0;
+            return 0;
+        }
+        intervalNanos = nowNanos - timestampNanos;
+        timestampNanos = nowNanos;
+
+        double period = periodNanos;
+        if (period == 0) {
+            periodNanos = intervalNanos;
+            return 0;
+        }
+        int missed = 0;
+        if (intervalNanos > GAP_FACTOR * period) {
+            missed = (int) Math.max(1, Math.round(intervalNanos / period) - 1);
+            gaps.incrementAndGet();
+            missedFrames.addAndGet(missed);
+            if (++consecutiveGaps >= RELEARN_AFTER_GAPS) {
+                periodNanos = intervalNanos;
+                consecutiveGaps = 0;
+            }
+        } else {
+            consecutiveGaps = 0;
+            //gaps are left out of period and jitter so a single stall doesn't shift the expectation
+            periodNanos = period + ALPHA * (intervalNanos - period);
+            jitterNanos = jitterNanos + ALPHA * (Math.abs(intervalNanos - period) - jitterNanos);
+        }
+        return missed;
+    }
+
+    boolean isLate() {
+        double period = periodNanos;
+        return period > 0 && intervalNanos > GAP_FACTOR * period;
+    }
+
+    double periodMillis() {
+        return periodNanos / 1e6;
+    }
+
+    double jitterMillis() {
+        return jitterNanos / 1e6;
+    }
+
+    double fps() {
+        double period = periodNanos;
+        return period > 0 ? 1e9 / period : 0;
+    }
+}
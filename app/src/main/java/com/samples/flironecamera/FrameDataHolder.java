@@ -16,9 +16,16 @@ class FrameDataHolder {
 
     public final Bitmap msxBitmap;
     public final Bitmap dcBitmap;
+    //System.nanoTime() when the camera delivered the frame, 0 if unknown
+    public final long timestampNanos;
 
     FrameDataHolder(Bitmap msxBitmap, Bitmap dcBitmap){
+        this(msxBitmap, dcBitmap, 0);
+    }
+
+    FrameDataHolder(Bitmap msxBitmap, Bitmap dcBitmap, long timestampNanos){
         this.msxBitmap = msxBitmap;
         this.dcBitmap = dcBitmap;
+        this.timestampNanos = timestampNanos;
     }
 }
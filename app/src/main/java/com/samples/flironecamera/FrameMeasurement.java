@@ -0,0 +1,51 @@
+package com.samples.flironecamera;
+
+/**
+ * The measurement of the record path on a radiometric frame alone: find the face, place the nostril region below the nose base,
+ * search its blocks and measure the facial regions with the drift reference, with the {@link RecordStage} of
+ * {@link CameraHandler} on a face found in the thermal image.
+ * <p/>
+ * Coordinates are in a visual image of twice the thermal resolution, the cropped visual image of the FLIR ONE. Has no Android
+ * dependencies so recorded sessions can be re-measured offline, an instance keeps the results of the last frame and is meant
+ * to be reused by one thread.
+ */
+final class FrameMeasurement implements CameraSession.Processor {
+
+    static final int VISUAL_PER_THERMAL = (int) RecordStage.VISUAL_PER_THERMAL;
+
+    private final FaceDetector detector;
+    private final FaceDetector.Input input = new FaceDetector.Input();
+    private final RecordStage stage = new RecordStage(new PipelineMetrics(), FacialRegions.defaults());
+
+    //result of the last frame, temperature in Celsius and NaN if no face or nose was found, its flags, nostril region and drift
+    //reference are set on the frame
+    double temperature;
+
+    /**
+     * @param detector must work on the thermal image, eg {@link ThermalBlobFaceDetector}
+     */
+    FrameMeasurement(FaceDetector detector) {
+        if ((detector.inputs() & FaceDetector.INPUT_THERMAL) == 0) {
+            throw new IllegalArgumentException(detector.name() + " needs a visual image");
+        }
+        this.detector = detector;
+    }
+
+    @Override
+    public double measure(ThermalFrame frame) {
+        //what a recording flagged beyond the timing is the live measurement's, not this one's
+        int flags = frame.flags & TemperatureSeries.FLAG_LATE_FRAME;
+        //the detector and the stage only read the frame, no copy
+        input.kelvin = frame.kelvin;
+        input.thermalWidth = frame.width;
+        input.thermalHeight = frame.height;
+        input.width = frame.width * VISUAL_PER_THERMAL;
+        input.height = frame.height * VISUAL_PER_THERMAL;
+        stage.measureFaces(frame.timestampNanos, flags, detector, input, frame.width, frame.height, frame, 0);
+        temperature = stage.temperature;
+        frame.flags = stage.flags | (Double.isNaN(temperature) ? TemperatureSeries.FLAG_NO_FACE : 0);
+        frame.roi = stage.roi;
+        frame.reference = stage.reference;
+        return temperature;
+    }
+}
@@ -0,0 +1,111 @@
+package com.samples.flironecamera;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes the raw radiometric frames of a recording to a {@link RecordingFile} on a thread of its own.
+ * <p/>
+ * The camera thread takes an empty frame, copies the values into it and publishes it, like a {@link FrameSource} feeds a session.
+ * A frame is over a megabyte, when the disk falls behind and no frame is free the frame isn't recorded and is counted in
+ * {@link #framesDropped}, the camera thread never waits for the disk.
+ */
+final class FrameRecorder implements FrameSource.Sink, Closeable {
+
+    //frames in flight, one being filled and the others waiting for the disk
+    static final int POOL_SIZE = 4;
+
+    final int width;
+    final int height;
+    private final RecordingFile.Writer writer;
+    private final ArrayBlockingQueue<ThermalFrame> free = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final ArrayBlockingQueue<ThermalFrame> ready = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile IOException failure;
+
+    final AtomicLong framesDropped = new AtomicLong();
+
+    FrameRecorder(File file, int width, int height) throws IOException {
+        this.width = width;
+        this.height = height;
+        writer = new RecordingFile.Writer(file, width, height);
+        for (int i = 0; i < POOL_SIZE; i++) {
+            free.offer(new ThermalFrame(width * height));
+        }
+        thread = new Thread(this::write, "frame-recorder");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public ThermalFrame acquire() {
+        ThermalFrame frame = failure == null ? free.poll() : null;
+        if (frame == null) {
+            framesDropped.incrementAndGet();
+        }
+        return frame;
+    }
+
+    @Override
+    public void publish(ThermalFrame frame) {
+        //can't fail, there are never more frames than the queue holds
+        ready.offer(frame);
+    }
+
+    @Override
+    public void discard(ThermalFrame frame) {
+        free.offer(frame);
+    }
+
+    private void write() {
+        while (running || !ready.isEmpty()) {
+            ThermalFrame frame;
+            try {
+                frame = ready.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (frame == null) {
+                continue;
+            }
+            try {
+                if (failure == null) {
+                    writer.write(frame);
+                }
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                free.offer(frame);
+            }
+        }
+    }
+
+    long framesRecorded() {
+        return writer.frames();
+    }
+
+    /**
+     * Write the frames published so far and close the file
+     *
+     * @throws IOException the first write failure, nothing was written after it
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer.close();
+        IOException e = failure;
+        if (e != null) {
+            throw e;
+        }
+    }
+}
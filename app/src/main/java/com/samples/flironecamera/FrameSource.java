@@ -0,0 +1,40 @@
+package com.samples.flironecamera;
+
+import java.io.IOException;
+
+/**
+ * A stream of radiometric frames for a {@link CameraSession}, a connected FLIR camera ({@link FlirCameraSource})
+ * or a replay ({@link ReplaySource}).
+ * <p/>
+ * A source delivers frames on its own thread: it takes an empty frame from the sink, fills it and publishes it. When the sink has no
+ * empty frame the session is behind, the source skips that frame instead of waiting.
+ */
+interface FrameSource {
+
+    interface Sink {
+        /**
+         * @return an empty frame to fill, null if the frame has to be dropped
+         */
+        ThermalFrame acquire();
+
+        /**
+         * Hand a filled frame to the session
+         */
+        void publish(ThermalFrame frame);
+
+        /**
+         * Give back an acquired frame that couldn't be filled
+         */
+        void discard(ThermalFrame frame);
+    }
+
+    /**
+     * Start delivering frames to {@code sink}
+     */
+    void open(Sink sink) throws IOException;
+
+    /**
+     * Stop delivering frames, no frames are published after this returns
+     */
+    void close();
+}
@@ -0,0 +1,65 @@
+package com.samples.flironecamera;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.flir.thermalsdk.live.CameraType;
+import com.flir.thermalsdk.live.CommunicationInterface;
+import com.flir.thermalsdk.live.Identity;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Remembers the camera that was connected last, so it can be connected again without a discovery scan.
+ * <p/>
+ * An {@link Identity} is stored as its device id, communication interface and camera type and rebuilt with the Identity constructor.
+ * IP settings aren't stored, only USB and emulator cameras are discovered by this application.
+ */
+class IdentityStore {
+
+    private static final String TAG = "IdentityStore";
+
+    private static final String PREFERENCES = "last_camera";
+    private static final String KEY_DEVICE_ID = "device_id";
+    private static final String KEY_INTERFACE = "communication_interface";
+    private static final String KEY_CAMERA_TYPE = "camera_type";
+
+    private final SharedPreferences preferences;
+
+    IdentityStore(Context applicationContext) {
+        preferences = applicationContext.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    void save(Identity identity) {
+        preferences.edit()
+                .putString(KEY_DEVICE_ID, identity.deviceId)
+                .putString(KEY_INTERFACE, identity.communicationInterface.name())
+                .putString(KEY_CAMERA_TYPE, identity.cameraType.name())
+                .apply();
+    }
+
+    /**
+     * @return the last connected camera, null if there is none or it was stored by an incompatible SDK version
+     */
+    @Nullable
+    Identity load() {
+        String deviceId = preferences.getString(KEY_DEVICE_ID, null);
+        String communicationInterface = preferences.getString(KEY_INTERFACE, null);
+        String cameraType = preferences.getString(KEY_CAMERA_TYPE, null);
+        if (deviceId == null || communicationInterface == null || cameraType == null) {
+            return null;
+        }
+        try {
+            return new Identity(CommunicationInterface.valueOf(communicationInterface), CameraType.valueOf(cameraType), deviceId, null);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "load(), unknown stored camera " + communicationInterface + "/" + cameraType + ", exception:" + e);
+            clear();
+            return null;
+        }
+    }
+
+    void clear() {
+        preferences.edit().clear().apply();
+    }
+}
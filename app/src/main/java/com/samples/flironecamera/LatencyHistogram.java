@@ -0,0 +1,158 @@
+package com.samples.flironecamera;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free latency histogram with log-linear buckets, in the style of HdrHistogram.
+ * <p/>
+ * Values are recorded in microseconds, every power of two is split into {@link #SUB_BUCKETS} linear buckets
+ * which keeps the relative error of a reported percentile below 1/16 from 1 us up to several hours.
+ * Recording never blocks and never allocates, reading is done through a {@link Snapshot}
+ * which can be taken at any time from any thread without stopping the writers.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 36;
+    static final int BUCKET_COUNT = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        counts.incrementAndGet(bucketOf(micros));
+        totalCount.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        long max = maxMicros.get();
+        while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+            max = maxMicros.get();
+        }
+    }
+
+    long count() {
+        return totalCount.get();
+    }
+
+    long maxMicros() {
+        return maxMicros.get();
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int shift = exponent - SUB_BUCKET_BITS;
+        int mantissa = (int) (value >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + mantissa;
+    }
+
+    /**
+     * Highest value that falls into a bucket
+     */
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        int mantissa = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        long low = ((long) (SUB_BUCKETS + mantissa)) << shift;
+        return low + (1L << shift) - 1;
+    }
+
+    /**
+     * Copy the current state, writers may run concurrently so the copy is consistent per bucket only
+     */
+    Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot();
+        snapshotInto(snapshot);
+        return snapshot;
+    }
+
+    void snapshotInto(Snapshot snapshot) {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long bucket = counts.get(i);
+            snapshot.counts[i] = bucket;
+            count += bucket;
+        }
+        snapshot.count = count;
+        snapshot.totalMicros = totalMicros.get();
+        snapshot.maxMicros = maxMicros.get();
+    }
+
+    /**
+     * Point in time copy of a histogram, two snapshots can be subtracted to get the values of an interval
+     */
+    static final class Snapshot {
+        final long[] counts = new long[BUCKET_COUNT];
+        long count;
+        long totalMicros;
+        long maxMicros;
+
+        /**
+         * Turn this snapshot into the interval since {@code previous}, the max is the highest bucket seen in the interval
+         */
+        Snapshot minus(Snapshot previous) {
+            count = 0;
+            long intervalMax = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                counts[i] -= previous.counts[i];
+                count += counts[i];
+                if (counts[i] > 0) {
+                    intervalMax = highestValueOf(i);
+                }
+            }
+            totalMicros -= previous.totalMicros;
+            maxMicros = Math.min(maxMicros, intervalMax);
+            return this;
+        }
+
+        void copyFrom(Snapshot other) {
+            System.arraycopy(other.counts, 0, counts, 0, BUCKET_COUNT);
+            count = other.count;
+            totalMicros = other.totalMicros;
+            maxMicros = other.maxMicros;
+        }
+
+        /**
+         * @param percentile 0 - 100
+         * @return value in microseconds, 0 if nothing was recorded
+         */
+        long percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile / 100.0 * count);
+            if (rank < 1) {
+                rank = 1;
+            }
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueOf(i), maxMicros);
+                }
+            }
+            return maxMicros;
+        }
+
+        double meanMicros() {
+            return count == 0 ? 0 : (double) totalMicros / count;
+        }
+    }
+}
@@ -10,18 +10,26 @@
  * ******************************************************************/
 package com.samples.flironecamera;
 
+import android.content.BroadcastReceiver;
+import android.content.Context;
 import android.content.DialogInterface;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.RectF;
+import android.os.BatteryManager;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.PowerManager;
 import android.util.Log;
 import android.util.SparseArray;
 import android.view.View;
-import android.widget.ImageView;
+import android.view.SurfaceView;
 import android.widget.TextView;
 import android.widget.Toast;
 import com.flir.thermalsdk.ErrorCode;
@@ -30,7 +38,6 @@ import com.flir.thermalsdk.androidsdk.ThermalSdkAndroid;
 import com.flir.thermalsdk.androidsdk.live.connectivity.UsbPermissionHandler;
 import com.flir.thermalsdk.live.CommunicationInterface;
 import com.flir.thermalsdk.live.Identity;
-import com.flir.thermalsdk.live.connectivity.ConnectionStatusListener;
 import com.flir.thermalsdk.live.discovery.DiscoveryEventListener;
 import com.flir.thermalsdk.log.ThermalLog;
 import com.google.android.gms.vision.Frame;
@@ -40,8 +47,11 @@ import com.google.android.gms.vision.face.FaceDetector;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
 
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
@@ -59,21 +69,55 @@ public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = "MainActivity";
 
+    //Startup phases, see startup()
+    private static final String PHASE_SDK_INIT = "sdk_init";
+    private static final String PHASE_PALETTE = "palette";
+    private static final String PHASE_DETECTOR = "detector_warmup";
+    private static final String PHASE_PREALLOCATE = "preallocate";
+    private static final String PHASE_CAMERA = "camera";
+    private static final String PHASE_SESSION_STORE = "session_store";
+    private static final int STARTUP_THREADS = 4;
+    //session stores, one directory per run of the app
+    private static final String SESSIONS_DIRECTORY = "sessions";
+    //launch intent extras streaming the measurements to a monitoring station, eg
+    //adb shell am start -n com.samples.flironecamera/.MainActivity --es stream_host 192.168.1.10 --ei stream_port 9465
+    private static final String EXTRA_STREAM_HOST = "stream_host";
+    private static final String EXTRA_STREAM_PORT = "stream_port";
+    private static final String EXTRA_STREAM_STATION = "stream_station";
+    private static final String EXTRA_STREAM_BATCH = "stream_batch";
+    private static final String EXTRA_STREAM_FLUSH_MS = "stream_flush_ms";
+    //battery level the processing governor saves power below
+    private static final float BATTERY_LOW_FRACTION = 0.15f;
+
     //Handles Android permission for eg Network
     private PermissionHandler permissionHandler;
 
     //Handles network camera operations
     private CameraHandler cameraHandler;
 
+    //Directory for exported sessions
+    private FileHandler fileHandler;
+
     private Identity connectedIdentity = null;
+    //whether the connected camera records or only streams, restored after a reconnect
+    private volatile boolean recording;
+    //set by the startup once the SDK is initialized and the buffers are allocated
+    private volatile boolean cameraReady;
+    //Connects, disconnects and reconnects the camera on one managed thread
+    private ConnectionManager connectionManager;
     private TextView connectionStatus;
     private TextView discoveryStatus;
+    private TextView measurementText;
+    private TextView breathingAlert;
 
-    private ImageView msxImage;
-    private ImageView photoImage;
+    private PreviewRenderer previewRenderer;
+    private RespirationWaveformView waveformView;
+    private PerformanceOverlay performanceOverlay;
+    private MetricsServer metricsServer;
 
-    private LinkedBlockingQueue<FrameDataHolder> framesBuffer = new LinkedBlockingQueue(21);
     private UsbPermissionHandler usbPermissionHandler = new UsbPermissionHandler();
+    //Android 10 and later
+    private PowerManager.OnThermalStatusChangedListener thermalStatusListener;
 
 
 
@@ -86,23 +130,91 @@ public class MainActivity extends AppCompatActivity {
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupTrace startupTrace = new StartupTrace(System.nanoTime());
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        ThermalLog.LogLevel enableLoggingInDebug = BuildConfig.DEBUG ? ThermalLog.LogLevel.DEBUG : ThermalLog.LogLevel.NONE;
-
-        //ThermalSdkAndroid has to be initiated from a Activity with the Application Context to prevent leaking Context,
-        // and before ANY using any ThermalSdkAndroid functions
-        //ThermalLog will show log from the Thermal SDK in standards android log framework
-        ThermalSdkAndroid.init(getApplicationContext(), enableLoggingInDebug);
-
         permissionHandler = new PermissionHandler(showMessage, MainActivity.this);
 
         cameraHandler = new CameraHandler(getApplicationContext());
 
+        cameraHandler.measurements.addConsumer(measurementSummary);
+        cameraHandler.breathing.breathingEvents.setListener(breathingEventListener);
+
+        connectionManager = new ConnectionManager(cameraHandler, new IdentityStore(getApplicationContext()), connectionListener);
+
+        fileHandler = new FileHandler(getApplicationContext());
+
         setupViews();
 
-        showSDKversion(ThermalSdkAndroid.getVersion());
+        startMetricsServer();
+
+        startPublisher();
+
+        watchDeviceLoad();
+
+        startup(startupTrace);
+    }
+
+    /**
+     * Initialize the SDK, load the palette, warm up the face detector, allocate the buffers and open the session store in parallel
+     * off the main thread, then connect to the camera used last time, or discover cameras if there is none.
+     * The phases and the time to the first measurement are logged and exported as gauges.
+     */
+    private void startup(StartupTrace trace) {
+        ThermalLog.LogLevel enableLoggingInDebug = BuildConfig.DEBUG ? ThermalLog.LogLevel.DEBUG : ThermalLog.LogLevel.NONE;
+        cameraHandler.setStartupTrace(trace);
+        trace.register(cameraHandler.getMetrics(), PHASE_SDK_INIT, PHASE_PALETTE, PHASE_DETECTOR, PHASE_PREALLOCATE, PHASE_CAMERA,
+                PHASE_SESSION_STORE);
+
+        StartupOrchestrator startup = new StartupOrchestrator(trace);
+        StartupOrchestrator.Task sdk = startup.add(PHASE_SDK_INIT, () -> {
+            //ThermalSdkAndroid has to be initiated with the Application Context to prevent leaking Context,
+            // and before ANY using any ThermalSdkAndroid functions
+            //ThermalLog will show log from the Thermal SDK in standards android log framework
+            ThermalSdkAndroid.init(getApplicationContext(), enableLoggingInDebug);
+            String version = ThermalSdkAndroid.getVersion();
+            runOnUiThread(() -> showSDKversion(version));
+        });
+        String sessionName = "session-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        StartupOrchestrator.Task preallocate = startup.add(PHASE_PREALLOCATE, cameraHandler::preallocate);
+        //measuring works without it, nothing waits for the store
+        startup.add(PHASE_SESSION_STORE, () -> cameraHandler.openSessionStore(
+                new File(new File(fileHandler.getImageStoragePath(), SESSIONS_DIRECTORY), sessionName)));
+        startup.add(PHASE_PALETTE, cameraHandler::loadPalette, sdk);
+        startup.add(PHASE_DETECTOR, () -> {
+            if (!cameraHandler.warmUpFaceDetector()) {
+                Log.d(TAG, "startup(), face detector not operational yet");
+            }
+        });
+        startup.add(PHASE_CAMERA, () -> {
+            cameraReady = true;
+            //connect to the camera used last time right away, no discovery needed
+            Identity lastIdentity = connectionManager.lastIdentity();
+            if (lastIdentity != null) {
+                runOnUiThread(() -> connect(lastIdentity));
+            } else {
+                startDiscovery();
+            }
+        }, sdk, preallocate);
+        startup.start(STARTUP_THREADS, () -> Log.i(TAG, trace.summary()));
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (metricsServer != null) {
+            metricsServer.stop();
+            PipelineMetrics.release();
+        }
+        cameraHandler.setPublisher(null);
+        previewRenderer.release();
+        unregisterReceiver(batteryReceiver);
+        if (thermalStatusListener != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            ((PowerManager) getSystemService(POWER_SERVICE)).removeThermalStatusListener(thermalStatusListener);
+        }
+        cameraHandler.closeSessions();
+        connectionManager.shutdown();
     }
 
     public void startDiscovery(View view) {
@@ -131,15 +243,56 @@ public class MainActivity extends AppCompatActivity {
     }
 
     public void startFaceDetection(View view){
-        new Thread(() -> {
-            startRecord();
-        }).start();
+        startRecord();
     }
 
     public void dialog(View view) {
         showCustomDialog();
     }
 
+    public void exportSession(View view) {
+        String baseName = "session-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        new Thread(() -> {
+            try {
+                int samples = cameraHandler.exportSession(fileHandler.getImageStoragePath(), baseName);
+                runOnUiThread(() -> showMessage.show("Exported " + samples + " samples to " + baseName));
+            } catch (IOException e) {
+                Log.e(TAG, "exportSession(), unable to export session, exception:" + e);
+                runOnUiThread(() -> showMessage.show("Export failed: " + e.getMessage()));
+            }
+        }).start();
+    }
+
+    /**
+     * Start or stop recording the raw frames, for the offline batch analyzer
+     */
+    public void toggleFrameRecording(View view) {
+        boolean start = !cameraHandler.isRecordingFrames();
+        String baseName = "frames-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        new Thread(() -> {
+            try {
+                if (start) {
+                    File directory = new File(fileHandler.getImageStoragePath(), SESSIONS_DIRECTORY);
+                    if (!directory.isDirectory() && !directory.mkdirs()) {
+                        throw new IOException("Unable to create " + directory);
+                    }
+                    cameraHandler.startFrameRecording(new File(directory, baseName + RecordingFile.EXTENSION));
+                    runOnUiThread(() -> showMessage.show("Recording frames to " + baseName));
+                } else {
+                    long frames = cameraHandler.stopFrameRecording();
+                    runOnUiThread(() -> showMessage.show("Recorded " + frames + " frames"));
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "toggleFrameRecording(), unable to record frames, exception:" + e);
+                runOnUiThread(() -> showMessage.show("Frame recording failed: " + e.getMessage()));
+            }
+        }).start();
+    }
+
+    public void togglePerformanceOverlay(View view) {
+        performanceOverlay.setEnabled(!performanceOverlay.isEnabled());
+    }
+
 
     /**
      * Handle Android permission request response for Bluetooth permissions
@@ -151,10 +304,10 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void showCustomDialog(){
-        final String[] list = cameraHandler.getSuhu();
+        SeriesHistoryAdapter adapter = new SeriesHistoryAdapter(MainActivity.this, cameraHandler.temperatureSeries);
         AlertDialog.Builder builder = new AlertDialog.Builder(MainActivity.this);
 
-        builder.setTitle("Suhu").setItems(list, new DialogInterface.OnClickListener() {
+        builder.setTitle("Suhu").setAdapter(adapter, new DialogInterface.OnClickListener() {
             @Override
             public void onClick(DialogInterface dialogInterface, int i) {
             }
@@ -170,18 +323,36 @@ public class MainActivity extends AppCompatActivity {
         builder.show();
     }
 
+    /**
+     * Measure on an additional camera next to the connected one
+     */
+    private void openSession(Identity identity) {
+        if (identity.deviceId.equals(connectedIdentity.deviceId)) {
+            showMessage.show("connect(), already connected to " + identity.deviceId);
+            return;
+        }
+        connectionManager.execute(() -> {
+            try {
+                cameraHandler.openSession(identity);
+                runOnUiThread(() -> showMessage.show("Measuring on " + identity.deviceId + ", "
+                        + cameraHandler.sessions.size() + " additional camera(s)"));
+            } catch (IOException | IllegalStateException e) {
+                Log.d(TAG, "openSession(), unable to open session, exception:" + e);
+                runOnUiThread(() -> showMessage.show("openSession(), unable to open session for " + identity.deviceId + ": " + e.getMessage()));
+            }
+        });
+    }
+
     /**
      * Connect to a Camera
      */
     private void connect(Identity identity) {
-        //We don't have to stop a discovery but it's nice to do if we have found the camera that we are looking for
-        cameraHandler.stopDiscovery(discoveryStatusListener);
-
-        if (connectedIdentity != null) {
-            Log.d(TAG, "connect(), in *this* code sample we only support one camera connection at the time");
-            showMessage.show("connect(), in *this* code sample we only support one camera connection at the time");
+        if (!cameraReady) {
+            showMessage.show("Still starting up, try again in a moment");
             return;
         }
+        //We don't have to stop a discovery but it's nice to do if we have found the camera that we are looking for
+        cameraHandler.stopDiscovery(discoveryStatusListener);
 
         if (identity == null) {
             Log.d(TAG, "connect(), can't connect, no camera available");
@@ -189,6 +360,12 @@ public class MainActivity extends AppCompatActivity {
             return;
         }
 
+        if (connectedIdentity != null) {
+            //the first camera drives the preview, further cameras measure in sessions of their own
+            openSession(identity);
+            return;
+        }
+
         connectedIdentity = identity;
 
         updateConnectionText(identity, "CONNECTING");
@@ -220,35 +397,19 @@ public class MainActivity extends AppCompatActivity {
     };
 
     private void doConnect(Identity identity) {
-        new Thread(() -> {
-            try {
-                cameraHandler.connect(identity, connectionStatusListener);
-                runOnUiThread(() -> {
-                    updateConnectionText(identity, "CONNECTED");
-                    cameraHandler.startStream(streamDataListener);
-                });
-            } catch (IOException e) {
-                runOnUiThread(() -> {
-                    Log.d(TAG, "Could not connect: " + e);
-                    updateConnectionText(identity, "DISCONNECTED");
-                });
-            }
-        }).start();
+        connectionManager.connect(identity);
     }
 
     /**
      * Disconnect to a camera
      */
     private void disconnect() {
-        updateConnectionText(connectedIdentity, "DISCONNECTING");
-        connectedIdentity = null;
         Log.d(TAG, "disconnect() called with: connectedIdentity = [" + connectedIdentity + "]");
-        new Thread(() -> {
-            cameraHandler.disconnect();
-            runOnUiThread(() -> {
-                    updateConnectionText(null, "DISCONNECTED");
-            });
-        }).start();
+        connectedIdentity = null;
+        recording = false;
+        //the additional cameras too, on the connection thread so it's ordered after sessions still being opened
+        connectionManager.execute(cameraHandler::closeSessions);
+        connectionManager.disconnect();
     }
 
     /**
@@ -260,34 +421,92 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void startRecord(){
-//        final Handler handler = new Handler();
-//        handler.postDelayed(new Runnable() {
-//            @Override
-//            public void run() {
-//                // Do something after 5s = 5000ms
-//                cameraHandler.stopRc();
-//                cameraHandler.startRecord(dataRecord);
-//            }
-//        }, 1000);
-
-//        new Thread(() -> {
-//            cameraHandler.stopRc();
-//            cameraHandler.startRecord(dataRecord);
-//        }).start();
-
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                cameraHandler.stopRc();
-                cameraHandler.startRecord(dataRecord);
-            }
+        recording = true;
+        connectionManager.execute(() -> {
+            cameraHandler.stopRc();
+            cameraHandler.startRecord(dataRecord);
         });
     }
 
+    /**
+     * Serve the pipeline metrics on localhost for soak tests, only in debuggable builds where instrumentation is turned on
+     */
+    private void startMetricsServer() {
+        PipelineMetrics metrics = cameraHandler.getMetrics();
+        if ((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) == 0) {
+            return;
+        }
+        //held while the server runs, hiding the overlay doesn't stop the histograms it serves
+        PipelineMetrics.acquire();
+        metricsServer = new MetricsServer(metrics, MetricsServer.DEFAULT_PORT);
+        metricsServer.setSessions(cameraHandler.sessions);
+        try {
+            metricsServer.start();
+        } catch (IOException e) {
+            Log.e(TAG, "startMetricsServer(), unable to start metrics server, exception:" + e);
+            metricsServer = null;
+            PipelineMetrics.release();
+        }
+    }
+
+    /**
+     * Stream the measurements to the monitoring station given in the launch intent, if any
+     */
+    private void startPublisher() {
+        Intent intent = getIntent();
+        String host = intent.getStringExtra(EXTRA_STREAM_HOST);
+        if (host == null) {
+            return;
+        }
+        String station = intent.getStringExtra(EXTRA_STREAM_STATION);
+        try {
+            cameraHandler.setPublisher(new MeasurementPublisher(station != null ? station : Build.MODEL, host,
+                    intent.getIntExtra(EXTRA_STREAM_PORT, MeasurementPublisher.DEFAULT_PORT),
+                    intent.getIntExtra(EXTRA_STREAM_BATCH, MeasurementPublisher.DEFAULT_BATCH_SAMPLES),
+                    intent.getIntExtra(EXTRA_STREAM_FLUSH_MS, MeasurementPublisher.DEFAULT_FLUSH_MILLIS),
+                    MeasurementPublisher.DEFAULT_QUEUE_SAMPLES));
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "startPublisher(), unable to stream to " + host + ", exception:" + e);
+            showMessage.show("Unable to stream: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Let the processing governor know when the device throttles or the battery runs low
+     */
+    private void watchDeviceLoad() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            PowerManager powerManager = (PowerManager) getSystemService(POWER_SERVICE);
+            thermalStatusListener = status -> {
+                Log.d(TAG, "thermal status:" + status);
+                cameraHandler.governor.setThermalStatus(status);
+            };
+            cameraHandler.governor.setThermalStatus(powerManager.getCurrentThermalStatus());
+            powerManager.addThermalStatusListener(thermalStatusListener);
+        }
+        //sticky, the current level is delivered right away
+        registerReceiver(batteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+    }
+
+    private final BroadcastReceiver batteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            int plugged = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0);
+            boolean low = plugged == 0 && level >= 0 && scale > 0 && level < BATTERY_LOW_FRACTION * scale;
+            cameraHandler.governor.setBatteryLow(low);
+        }
+    };
+
     /**
      * Start camera discovery
      */
     private void startDiscovery() {
+        if (!cameraReady) {
+            showMessage.show("Still starting up, try again in a moment");
+            return;
+        }
         cameraHandler.startDiscovery(cameraDiscoveryListener, discoveryStatusListener);
     }
 
@@ -295,6 +514,9 @@ public class MainActivity extends AppCompatActivity {
      * Stop camera discovery
      */
     private void stopDiscovery() {
+        if (!cameraReady) {
+            return;
+        }
         cameraHandler.stopDiscovery(discoveryStatusListener);
     }
 
@@ -304,29 +526,42 @@ public class MainActivity extends AppCompatActivity {
     private CameraHandler.DiscoveryStatus discoveryStatusListener = new CameraHandler.DiscoveryStatus() {
         @Override
         public void started() {
-            discoveryStatus.setText(getString(R.string.connection_status_text, "discovering"));
+            //discovery is started by the startup on a background thread too
+            runOnUiThread(() -> discoveryStatus.setText(getString(R.string.connection_status_text, "discovering")));
         }
 
         @Override
         public void stopped() {
-            discoveryStatus.setText(getString(R.string.connection_status_text, "not discovering"));
+            runOnUiThread(() -> discoveryStatus.setText(getString(R.string.connection_status_text, "not discovering")));
         }
     };
 
     /**
-     * Camera connecting state thermalImageStreamListener, keeps track of if the camera is connected or not
+     * Connection state of the camera driving the preview, streams are (re)started here after every connect
      * <p>
      * Note that callbacks are received on a non-ui thread so have to eg use {@link #runOnUiThread(Runnable)} to interact view UI components
      */
-    private ConnectionStatusListener connectionStatusListener = new ConnectionStatusListener() {
+    private final ConnectionManager.Listener connectionListener = new ConnectionManager.Listener() {
         @Override
-        public void onDisconnected(@org.jetbrains.annotations.Nullable ErrorCode errorCode) {
-            Log.d(TAG, "onDisconnected errorCode:" + errorCode);
+        public void onStatus(Identity identity, String status) {
+            runOnUiThread(() -> updateConnectionText(identity, status));
+        }
 
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    updateConnectionText(connectedIdentity, "DISCONNECTED");
+        @Override
+        public void onConnected(Identity identity) {
+            if (recording) {
+                cameraHandler.startRecord(dataRecord);
+            } else {
+                cameraHandler.startStream(streamDataListener);
+            }
+        }
+
+        @Override
+        public void onDisconnected(Identity identity) {
+            runOnUiThread(() -> {
+                if (connectedIdentity == identity) {
+                    connectedIdentity = null;
+                    recording = false;
                 }
             });
         }
@@ -336,37 +571,13 @@ public class MainActivity extends AppCompatActivity {
 
         @Override
         public void images(FrameDataHolder dataHolder) {
-
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    msxImage.setImageBitmap(dataHolder.msxBitmap);
-                    photoImage.setImageBitmap(dataHolder.dcBitmap);
-                }
-            });
+            previewRenderer.post(dataHolder);
         }
 
         @Override
         public void images(Bitmap msxBitmap, Bitmap dcBitmap) {
-
-            try {
-                framesBuffer.put(new FrameDataHolder(msxBitmap,dcBitmap));
-            } catch (InterruptedException e) {
-                //if interrupted while waiting for adding a new item in the queue
-                Log.e(TAG,"images(), unable to add incoming images to frames buffer, exception:"+e);
-            }
-
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    Log.d(TAG,"framebuffer size:"+framesBuffer.size());
-                    FrameDataHolder poll = framesBuffer.poll();
-                    msxImage.setImageBitmap(poll.msxBitmap);
-                    photoImage.setImageBitmap(poll.dcBitmap);
-                }
-            });
-
-
+            //latest frame wins, the renderer draws it on the next vsync
+            previewRenderer.post(new FrameDataHolder(msxBitmap, dcBitmap, cameraHandler.previewTimestampNanos()));
         }
     };
 
@@ -374,39 +585,77 @@ public class MainActivity extends AppCompatActivity {
 
         @Override
         public void record(FrameDataHolder dataHolder) {
-
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    msxImage.setImageBitmap(dataHolder.msxBitmap);
-                    photoImage.setImageBitmap(dataHolder.dcBitmap);
-                }
-            });
+            previewRenderer.post(dataHolder);
         }
 
         @Override
-        public void record(Bitmap msxBitmap, Bitmap dcBitmap) {
+        public void record(Bitmap msxBitmap, Bitmap dcBitmap, FrameAnnotations annotations) {
 
-            try {
-                framesBuffer.put(new FrameDataHolder(msxBitmap,dcBitmap));
-            } catch (InterruptedException e) {
-                //if interrupted while waiting for adding a new item in the queue
-                Log.e(TAG,"images(), unable to add incoming images to frames buffer, exception:"+e);
-            }
+            //the waveform drains the new sample on the next vsync
+            waveformView.postInvalidateOnAnimation();
 
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    Log.d(TAG,"framebuffer size:"+framesBuffer.size());
-                    FrameDataHolder poll = framesBuffer.poll();
-                    msxImage.setImageBitmap(poll.msxBitmap);
-                    photoImage.setImageBitmap(poll.dcBitmap);
+            previewRenderer.post(new FrameDataHolder(msxBitmap, dcBitmap, cameraHandler.frameTimestampNanos()), annotations);
+        }
+    };
+
+    /**
+     * Summary of each batch of measurements, called on the measurement thread about every 2 seconds while recording
+     */
+    private final thermalData.Consumer measurementSummary = new thermalData.Consumer() {
+        @Override
+        public void accept(thermalData batch) {
+            int faces = 0;
+            int measured = 0;
+            double sum = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.hasFace(i)) {
+                    faces++;
                 }
-            });
+                if (!Double.isNaN(batch.blockMean[i])) {
+                    sum += batch.blockMean[i];
+                    measured++;
+                }
+            }
+            String text = measured == 0
+                    ? getString(R.string.measurement_none_text, faces, batch.size())
+                    : getString(R.string.measurement_summary_text, sum / measured, faces, batch.size());
+            runOnUiThread(() -> measurementText.setText(text));
+        }
+    };
 
+    /**
+     * Shows the breathing event raised last until no event is active, called on the record thread
+     */
+    private final BreathingEvents.Listener breathingEventListener = new BreathingEvents.Listener() {
+        @Override
+        public void onEventStarted(int rule, long conditionNanos, long timestampNanos, double value) {
+            String text;
+            switch (rule) {
+                case BreathingEvents.NO_BREATH:
+                    text = getString(R.string.breathing_event_no_breath, value);
+                    break;
+                case BreathingEvents.RATE_OUT_OF_RANGE:
+                    text = getString(R.string.breathing_event_rate, value);
+                    break;
+                default:
+                    text = getString(R.string.breathing_event_amplitude, value * 100);
+                    break;
+            }
+            Log.w(TAG, "Breathing event " + BreathingEvents.RULE_NAMES[rule] + ": " + text);
+            runOnUiThread(() -> {
+                breathingAlert.setText(text);
+                breathingAlert.setVisibility(View.VISIBLE);
+            });
+        }
 
+        @Override
+        public void onEventEnded(int rule, long timestampNanos) {
+            if (!cameraHandler.breathing.breathingEvents.anyActive()) {
+                runOnUiThread(() -> breathingAlert.setVisibility(View.GONE));
+            }
         }
     };
+
     /**
      * Camera Discovery thermalImageStreamListener, is notified if a new camera was found during a active discovery phase
      * <p>
@@ -454,9 +703,16 @@ public class MainActivity extends AppCompatActivity {
     private void setupViews() {
         connectionStatus = findViewById(R.id.connection_status_text);
         discoveryStatus = findViewById(R.id.discovery_status);
+        measurementText = findViewById(R.id.measurement_summary);
+        breathingAlert = findViewById(R.id.breathing_alert);
+
+        SurfaceView previewSurface = findViewById(R.id.preview_surface);
+        previewRenderer = new PreviewRenderer(previewSurface, cameraHandler.getMetrics());
+
+        waveformView = findViewById(R.id.respiration_waveform);
+        waveformView.setSource(cameraHandler.waveformSamples);
 
-        msxImage = findViewById(R.id.msx_image);
-        photoImage = findViewById(R.id.photo_image);
+        performanceOverlay = new PerformanceOverlay(findViewById(R.id.performance_overlay), cameraHandler.getMetrics());
     }
 
 }
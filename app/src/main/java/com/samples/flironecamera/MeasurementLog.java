@@ -0,0 +1,95 @@
+package com.samples.flironecamera;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes every frame's measurement details as CSV while recording: face and nostril boxes, the chosen block with its mean and
+ * variance, the filtered temperature, the flags and mean and maximum of every facial region. Consumes {@link thermalData} batches, one write per batch.
+ */
+final class MeasurementLog implements thermalData.Consumer, Closeable {
+
+    static final String FILE_NAME = "measurements.csv";
+    static final String CSV_HEADER = "timestamp_ns,face_left,face_top,face_right,face_bottom,"
+            + "nostril_left,nostril_top,nostril_right,nostril_bottom,block,block_mean_c,block_variance,filtered_c,flags\n";
+
+    private final Writer writer;
+    private final int regions;
+    private final StringBuilder rows = new StringBuilder(thermalData.DEFAULT_CAPACITY * 128);
+    private volatile IOException failure;
+
+    /**
+     * @param regions the regions measured, a mean and a max column each
+     */
+    MeasurementLog(File directory, FacialRegions regions) throws IOException {
+        this.regions = regions.size();
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(directory, FILE_NAME)), StandardCharsets.US_ASCII));
+        StringBuilder header = new StringBuilder(CSV_HEADER);
+        header.setLength(header.length() - 1);
+        for (int r = 0; r < this.regions; r++) {
+            header.append(',').append(regions.nameAt(r)).append("_mean_c,").append(regions.nameAt(r)).append("_max_c");
+        }
+        writer.write(header.append('\n').toString());
+    }
+
+    @Override
+    public void accept(thermalData batch) {
+        if (failure != null) {
+            return;
+        }
+        rows.setLength(0);
+        for (int i = 0; i < batch.size(); i++) {
+            rows.append(batch.timestamps[i]).append(',');
+            appendBox(batch.faceLeft[i], batch.faceTop[i], batch.faceRight[i], batch.faceBottom[i]);
+            appendBox(batch.nostrilLeft[i], batch.nostrilTop[i], batch.nostrilRight[i], batch.nostrilBottom[i]);
+            if (batch.blockIndex[i] >= 0) {
+                rows.append(batch.blockIndex[i]);
+            }
+            rows.append(',');
+            SessionExporter.appendFixed(rows, batch.blockMean[i]);
+            rows.append(',');
+            SessionExporter.appendFixed(rows, batch.blockVariance[i]);
+            rows.append(',');
+            SessionExporter.appendFixed(rows, batch.filtered[i]);
+            rows.append(',').append(batch.flagsAt(i));
+            for (int r = 0; r < regions; r++) {
+                rows.append(',');
+                SessionExporter.appendFixed(rows, batch.regionMeanAt(i, r));
+                rows.append(',');
+                SessionExporter.appendFixed(rows, batch.regionMaxAt(i, r));
+            }
+            rows.append('\n');
+        }
+        try {
+            writer.append(rows);
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    private void appendBox(float left, float top, float right, float bottom) {
+        if (!Float.isNaN(left)) {
+            rows.append((int) left).append(',').append((int) top).append(',').append((int) right).append(',').append((int) bottom).append(',');
+        } else {
+            rows.append(",,,,");
+        }
+    }
+
+    /**
+     * Last write failure, nothing is written after one, null if there was none
+     */
+    IOException failure() {
+        return failure;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,157 @@
+package com.samples.flironecamera;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands batches of per-frame measurements from the record path to the consumers on a thread of their own.
+ * <p/>
+ * The writer fills rows of the current {@link thermalData} batch. When it's full the next {@link #begin(long)} hands it over and
+ * continues in a free batch, the consumer thread passes it to every {@link thermalData.Consumer} and returns it to the pool. When
+ * the consumers fall behind and no batch is free, the current batch is cleared and counted in {@link #batchesDropped}, the writer
+ * never waits.
+ * <p/>
+ * Consumers that must see every row, eg the session store, are added with {@link #addWriterConsumer}. They are called with each
+ * batch on the writer thread before it's handed over, so a batch dropped for the others still reaches them. They must not block.
+ */
+final class MeasurementPipe {
+
+    static final int DEFAULT_BATCHES = 4;
+
+    private final ArrayBlockingQueue<thermalData> free;
+    private final ArrayBlockingQueue<thermalData> ready;
+    private final List<thermalData.Consumer> consumers = new CopyOnWriteArrayList<>();
+    private final List<thermalData.Consumer> writerConsumers = new CopyOnWriteArrayList<>();
+    private final Thread thread;
+    private volatile boolean running;
+    //owned by the writer
+    private thermalData current;
+
+    final AtomicLong batchesDropped = new AtomicLong();
+    final AtomicLong consumerFailures = new AtomicLong();
+
+    /**
+     * @param batches batches in the pool, one is filled while the others are consumed
+     */
+    MeasurementPipe(int batches, int rowsPerBatch) {
+        free = new ArrayBlockingQueue<>(batches);
+        ready = new ArrayBlockingQueue<>(batches);
+        for (int i = 1; i < batches; i++) {
+            free.offer(new thermalData(rowsPerBatch));
+        }
+        current = new thermalData(rowsPerBatch);
+        thread = new Thread(this::consume, "measurement-batches");
+        thread.setDaemon(true);
+    }
+
+    void addConsumer(thermalData.Consumer consumer) {
+        consumers.add(consumer);
+    }
+
+    void removeConsumer(thermalData.Consumer consumer) {
+        consumers.remove(consumer);
+    }
+
+    /**
+     * Called with every batch on the writer thread, no batch is ever dropped for it
+     */
+    void addWriterConsumer(thermalData.Consumer consumer) {
+        writerConsumers.add(consumer);
+    }
+
+    void removeWriterConsumer(thermalData.Consumer consumer) {
+        writerConsumers.remove(consumer);
+    }
+
+    void start() {
+        running = true;
+        thread.start();
+    }
+
+    /**
+     * Start the row of a frame, on the writer thread
+     *
+     * @return row in {@link #batch()}
+     */
+    int begin(long timestampNanos) {
+        if (current.isFull()) {
+            handOver();
+        }
+        return current.begin(timestampNanos);
+    }
+
+    /**
+     * The batch the writer fills, the row returned by {@link #begin(long)} is in it
+     */
+    thermalData batch() {
+        return current;
+    }
+
+    /**
+     * Hand over the rows written so far, eg when the session ends, on the writer thread
+     */
+    void flush() {
+        if (current.size() > 0) {
+            handOver();
+        }
+    }
+
+    private void handOver() {
+        for (thermalData.Consumer consumer : writerConsumers) {
+            try {
+                consumer.accept(current);
+            } catch (RuntimeException e) {
+                consumerFailures.incrementAndGet();
+            }
+        }
+        thermalData next = free.poll();
+        if (next == null) {
+            batchesDropped.incrementAndGet();
+            current.clear();
+            return;
+        }
+        //can't fail, there are never more batches than the queue holds
+        ready.offer(current);
+        current = next;
+    }
+
+    /**
+     * Flush, let the consumers finish the batches handed over and stop the consumer thread
+     */
+    void stop() {
+        flush();
+        running = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void consume() {
+        while (running || !ready.isEmpty()) {
+            thermalData batch;
+            try {
+                batch = ready.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (batch == null) {
+                continue;
+            }
+            for (thermalData.Consumer consumer : consumers) {
+                try {
+                    consumer.accept(batch);
+                } catch (RuntimeException e) {
+                    //one failing consumer doesn't starve the others
+                    consumerFailures.incrementAndGet();
+                }
+            }
+            batch.clear();
+            free.offer(batch);
+        }
+    }
+}
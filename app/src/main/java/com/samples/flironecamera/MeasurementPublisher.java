@@ -0,0 +1,336 @@
+package com.samples.flironecamera;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Streams the live measurements of a station to a monitoring station over UDP, in compact binary datagrams.
+ * <p/>
+ * The record thread offers every sample to a bounded lock free ring like {@link SampleRing} and never blocks, when the sender falls
+ * behind the sample is dropped and counted in {@link #samplesDropped}. The sender thread sends a datagram once {@code batchSamples}
+ * samples are waiting or the oldest of them waited {@code flushMillis}, whichever comes first. Datagrams are numbered so the
+ * receiver can tell lost ones, {@link #latency} is the time from the frame to its datagram being sent. When the host can't be
+ * resolved or the socket can't be opened, eg before the network is up, the sender counts it in {@link #sendFailures} and tries
+ * again with a growing delay, the samples offered meanwhile wait in the ring or are dropped once it's full.
+ * <p/>
+ * Datagram, big endian:
+ * <pre>
+ * header  "FOMS", byte version, byte station length, station UTF-8, int sequence, long sent wall clock ms,
+ *         long sent monotonic ns, short samples
+ * sample  long frame timestamp monotonic ns, float raw C, float filtered C, float breaths per minute, byte flags
+ * </pre>
+ * The monotonic and the wall clock time of sending map the frame timestamps to the wall clock. Missing values are NaN.
+ */
+final class MeasurementPublisher {
+
+    static final int DEFAULT_PORT = 9465;
+    static final int DEFAULT_BATCH_SAMPLES = 16;
+    static final int DEFAULT_FLUSH_MILLIS = 250;
+    //a datagram of this many samples stays below the usual 1500 byte MTU
+    static final int MAX_BATCH_SAMPLES = 64;
+    static final int DEFAULT_QUEUE_SAMPLES = 256;
+
+    static final int MAGIC = 0x464F4D53; // "FOMS"
+    static final byte VERSION = 1;
+    static final int SAMPLE_BYTES = 8 + 4 + 4 + 4 + 1;
+    private static final int MAX_STATION_BYTES = 64;
+    private static final int MAX_HEADER_BYTES = 4 + 1 + 1 + MAX_STATION_BYTES + 4 + 8 + 8 + 2;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    //delay before connecting again, doubled after every failure up to the maximum
+    static final long RETRY_MIN_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    static final long RETRY_MAX_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * Opens the channel to the monitoring station, on the sender thread
+     */
+    interface Connector {
+        DatagramChannel connect(String host, int port) throws IOException;
+    }
+
+    private final byte[] station;
+    private final String host;
+    private final int port;
+    private final int batchSamples;
+    private final long flushNanos;
+    private final Connector connector;
+
+    private final long[] timestamps;
+    private final float[] raw;
+    private final float[] filtered;
+    private final float[] rate;
+    private final byte[] flags;
+    private final int mask;
+    //next slot to write, only written by the record thread
+    private volatile long head;
+    //next slot to send, only written by the sender
+    private volatile long tail;
+
+    private final ByteBuffer datagram;
+    private volatile boolean running;
+    private volatile Thread thread;
+    private int sequence;
+
+    final AtomicLong samplesDropped = new AtomicLong();
+    final AtomicLong samplesSent = new AtomicLong();
+    final AtomicLong datagramsSent = new AtomicLong();
+    //datagrams that failed and attempts to connect that failed
+    final AtomicLong sendFailures = new AtomicLong();
+    //frame timestamp until its datagram was sent
+    final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram.Snapshot latencySnapshot = new LatencyHistogram.Snapshot();
+
+    MeasurementPublisher(String station, String host, int port) {
+        this(station, host, port, DEFAULT_BATCH_SAMPLES, DEFAULT_FLUSH_MILLIS, DEFAULT_QUEUE_SAMPLES);
+    }
+
+    /**
+     * @param station      name of the sending station, eg the device model, at most 64 bytes are sent
+     * @param batchSamples samples per datagram, at most {@link #MAX_BATCH_SAMPLES}
+     * @param flushMillis  longest time a sample waits for its datagram to fill up
+     * @param queueSamples samples waiting to be sent before new ones are dropped, rounded up to a power of two
+     */
+    MeasurementPublisher(String station, String host, int port, int batchSamples, int flushMillis, int queueSamples) {
+        this(station, host, port, batchSamples, flushMillis, queueSamples, MeasurementPublisher::connect);
+    }
+
+    /**
+     * @param connector opens the channel, the default resolves the host and connects a {@link DatagramChannel} to it
+     */
+    MeasurementPublisher(String station, String host, int port, int batchSamples, int flushMillis, int queueSamples,
+                         Connector connector) {
+        if (batchSamples < 1 || batchSamples > MAX_BATCH_SAMPLES) {
+            throw new IllegalArgumentException("Batch of " + batchSamples + " samples, at most " + MAX_BATCH_SAMPLES);
+        }
+        byte[] name = station.getBytes(UTF_8);
+        this.station = name.length > MAX_STATION_BYTES ? Arrays.copyOf(name, MAX_STATION_BYTES) : name;
+        this.host = host;
+        this.port = port;
+        this.batchSamples = batchSamples;
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMillis);
+        this.connector = connector;
+        int size = Integer.highestOneBit(Math.max(2, Math.max(queueSamples, batchSamples) - 1)) << 1;
+        timestamps = new long[size];
+        raw = new float[size];
+        filtered = new float[size];
+        rate = new float[size];
+        flags = new byte[size];
+        mask = size - 1;
+        datagram = ByteBuffer.allocateDirect(MAX_HEADER_BYTES + MAX_BATCH_SAMPLES * SAMPLE_BYTES);
+    }
+
+    /**
+     * Start the sender, the host is resolved on the sender thread
+     */
+    synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        Thread sender = new Thread(this::send, "measurement-publisher");
+        sender.setDaemon(true);
+        thread = sender;
+        sender.start();
+    }
+
+    /**
+     * Send the samples offered so far and stop the sender, without a channel yet they are left unsent
+     */
+    synchronized void stop() {
+        Thread sender = thread;
+        if (sender == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(sender);
+        try {
+            sender.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    /**
+     * Record thread, never blocks and doesn't allocate
+     *
+     * @param timestampNanos monotonic time of the frame, {@link System#nanoTime()}
+     * @return false if the queue is full and the sample was dropped
+     */
+    boolean offer(long timestampNanos, double rawCelsius, double filteredCelsius, double ratePerMinute, int sampleFlags) {
+        long h = head;
+        if (h - tail > mask) {
+            samplesDropped.incrementAndGet();
+            return false;
+        }
+        int slot = (int) h & mask;
+        timestamps[slot] = timestampNanos;
+        raw[slot] = (float) rawCelsius;
+        filtered[slot] = (float) filteredCelsius;
+        rate[slot] = (float) ratePerMinute;
+        flags[slot] = (byte) sampleFlags;
+        //publishes the slot to the sender
+        head = h + 1;
+        if (h + 1 - tail == batchSamples) {
+            Thread sender = thread;
+            if (sender != null) {
+                LockSupport.unpark(sender);
+            }
+        }
+        return true;
+    }
+
+    private static DatagramChannel connect(String host, int port) throws IOException {
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        if (address.isUnresolved()) {
+            throw new IOException("Unable to resolve " + host);
+        }
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.connect(address);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    private void send() {
+        long retryNanos = RETRY_MIN_NANOS;
+        while (true) {
+            DatagramChannel channel;
+            try {
+                channel = connector.connect(host, port);
+            } catch (IOException e) {
+                //unresolvable host or no network yet, the record thread keeps offering and the ring fills up meanwhile
+                sendFailures.incrementAndGet();
+                if (!running) {
+                    return;
+                }
+                //full batches unpark the sender, keep waiting until the retry is due or the publisher stops
+                long retryAt = System.nanoTime() + retryNanos;
+                for (long left = retryNanos; running && left > 0; left = retryAt - System.nanoTime()) {
+                    LockSupport.parkNanos(left);
+                }
+                retryNanos = Math.min(2 * retryNanos, RETRY_MAX_NANOS);
+                continue;
+            }
+            try {
+                drain(channel);
+            } finally {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+            return;
+        }
+    }
+
+    /**
+     * Send until stopped, the samples offered until then go out
+     */
+    private void drain(DatagramChannel channel) {
+        while (true) {
+            boolean stopping = !running;
+            long t = tail;
+            long waiting = head - t;
+            if (waiting >= batchSamples || (waiting > 0 && (stopping || System.nanoTime() - timestamps[(int) t & mask] >= flushNanos))) {
+                sendBatch(channel, t, (int) Math.min(waiting, batchSamples));
+                continue;
+            }
+            if (stopping) {
+                break;
+            }
+            //until the oldest sample is due, woken up early when a batch is full
+            LockSupport.parkNanos(waiting > 0 ? flushNanos - (System.nanoTime() - timestamps[(int) t & mask]) : flushNanos);
+        }
+    }
+
+    private void sendBatch(DatagramChannel channel, long t, int count) {
+        ByteBuffer out = datagram;
+        out.clear();
+        out.putInt(MAGIC).put(VERSION).put((byte) station.length).put(station).putInt(sequence++)
+                .putLong(System.currentTimeMillis()).putLong(System.nanoTime()).putShort((short) count);
+        for (int i = 0; i < count; i++) {
+            int slot = (int) (t + i) & mask;
+            out.putLong(timestamps[slot]).putFloat(raw[slot]).putFloat(filtered[slot]).putFloat(rate[slot]).put(flags[slot]);
+        }
+        out.flip();
+        long oldest = timestamps[(int) t & mask];
+        //frees the slots for the record thread
+        tail = t + count;
+        try {
+            channel.write(out);
+            long sent = System.nanoTime();
+            latency.recordNanos(sent - oldest);
+            datagramsSent.incrementAndGet();
+            samplesSent.addAndGet(count);
+        } catch (IOException e) {
+            //eg nobody listening yet, the datagram is lost like on the network
+            sendFailures.incrementAndGet();
+        }
+    }
+
+    /**
+     * 99th percentile of {@link #latency} in milliseconds, from any thread
+     */
+    double latencyP99Millis() {
+        synchronized (latencySnapshot) {
+            latency.snapshotInto(latencySnapshot);
+            return latencySnapshot.percentile(99) / 1000.0;
+        }
+    }
+
+    /**
+     * A received datagram, for receivers and tests
+     */
+    static final class Datagram {
+        String station;
+        int sequence;
+        long sentWallMillis;
+        long sentNanos;
+        int count;
+        long[] timestamps;
+        float[] raw;
+        float[] filtered;
+        float[] rate;
+        byte[] flags;
+
+        /**
+         * @throws IllegalArgumentException if it isn't a measurement datagram of this version
+         */
+        static Datagram decode(ByteBuffer in) {
+            if (in.remaining() < MAX_HEADER_BYTES - MAX_STATION_BYTES || in.getInt() != MAGIC || in.get() != VERSION) {
+                throw new IllegalArgumentException("Not a measurement datagram");
+            }
+            Datagram d = new Datagram();
+            byte[] name = new byte[in.get() & 0xFF];
+            in.get(name);
+            d.station = new String(name, UTF_8);
+            d.sequence = in.getInt();
+            d.sentWallMillis = in.getLong();
+            d.sentNanos = in.getLong();
+            d.count = in.getShort();
+            d.timestamps = new long[d.count];
+            d.raw = new float[d.count];
+            d.filtered = new float[d.count];
+            d.rate = new float[d.count];
+            d.flags = new byte[d.count];
+            for (int i = 0; i < d.count; i++) {
+                d.timestamps[i] = in.getLong();
+                d.raw[i] = in.getFloat();
+                d.filtered[i] = in.getFloat();
+                d.rate[i] = in.getFloat();
+                d.flags[i] = in.get();
+            }
+            return d;
+        }
+    }
+}
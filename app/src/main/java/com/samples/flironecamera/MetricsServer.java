@@ -0,0 +1,369 @@
+package com.samples.flironecamera;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Minimal HTTP server on the loopback interface that exposes {@link PipelineMetrics} for scraping, eg from a soak test through
+ * {@code adb forward tcp:9464 tcp:9464}.
+ * <p/>
+ * {@code GET /metrics} returns the Prometheus text format, {@code GET /metrics.json} the same values as JSON. The metrics of the
+ * additional camera sessions follow with a {@code session} label, and {@code GET /series?session=<id>} returns the latest samples
+ * of a session's temperature series as CSV.
+ * <p/>
+ * Requests are served one at a time on a single daemon thread, values are read through histogram snapshots and atomic counters
+ * so a scrape never stops the image pipeline.
+ */
+class MetricsServer {
+
+    static final int DEFAULT_PORT = 9464;
+
+    private static final String PREFIX = "flironecamera_";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int SOCKET_TIMEOUT_MS = 2000;
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+    //samples returned by /series, about a minute of a FLIR ONE
+    static final int SERIES_SAMPLES = 512;
+
+    private final PipelineMetrics metrics;
+    private final int requestedPort;
+    private final LatencyHistogram.Snapshot snapshot = new LatencyHistogram.Snapshot();
+    private volatile ServerSocket serverSocket;
+    //additional camera sessions, null if there are none
+    private volatile SessionManager sessions;
+
+    MetricsServer(PipelineMetrics metrics, int port) {
+        this.metrics = metrics;
+        this.requestedPort = port;
+    }
+
+    /**
+     * Serve the metrics and series of these sessions too, as long as they're open
+     */
+    void setSessions(SessionManager sessions) {
+        this.sessions = sessions;
+    }
+
+    /**
+     * Bind and start serving
+     *
+     * @return the bound port, useful when created with port 0
+     */
+    synchronized int start() throws IOException {
+        if (serverSocket != null) {
+            return serverSocket.getLocalPort();
+        }
+        ServerSocket socket = new ServerSocket(requestedPort, 4, InetAddress.getLoopbackAddress());
+        serverSocket = socket;
+        Thread thread = new Thread(() -> serve(socket), "MetricsServer");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        return socket.getLocalPort();
+    }
+
+    synchronized void stop() {
+        if (serverSocket == null) {
+            return;
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+            //closing anyway
+        }
+        serverSocket = null;
+    }
+
+    private void serve(ServerSocket socket) {
+        while (!socket.isClosed()) {
+            try (Socket client = socket.accept()) {
+                client.setSoTimeout(SOCKET_TIMEOUT_MS);
+                handle(client);
+            } catch (SocketException e) {
+                //server socket closed by stop()
+            } catch (IOException e) {
+                //a broken client connection must not stop the server
+            }
+        }
+    }
+
+    private void handle(Socket client) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream(), UTF_8));
+        String requestLine = reader.readLine();
+        if (requestLine == null) {
+            return;
+        }
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            //headers are not used
+        }
+        String[] parts = requestLine.split(" ");
+        String path = parts.length > 1 ? parts[1] : "";
+        String query = "";
+        int q = path.indexOf('?');
+        if (q >= 0) {
+            query = path.substring(q + 1);
+            path = path.substring(0, q);
+        }
+        OutputStream out = client.getOutputStream();
+        if (!"GET".equals(parts[0])) {
+            respond(out, "405 Method Not Allowed", "text/plain", "");
+        } else if ("/metrics".equals(path)) {
+            respond(out, "200 OK", "text/plain; version=0.0.4", prometheus());
+        } else if ("/metrics.json".equals(path)) {
+            respond(out, "200 OK", "application/json", json());
+        } else if ("/series".equals(path)) {
+            CameraSession session = session(query);
+            if (session == null) {
+                respond(out, "404 Not Found", "text/plain", "");
+            } else {
+                respond(out, "200 OK", "text/csv", series(session.series));
+            }
+        } else {
+            respond(out, "404 Not Found", "text/plain", "");
+        }
+    }
+
+    /**
+     * @param query {@code session=<id>}, the id URL encoded
+     */
+    private CameraSession session(String query) throws IOException {
+        SessionManager manager = sessions;
+        if (manager == null || !query.startsWith("session=")) {
+            return null;
+        }
+        return manager.get(URLDecoder.decode(query.substring("session=".length()), "UTF-8"));
+    }
+
+    private static void respond(OutputStream out, String status, String contentType, String body) throws IOException {
+        byte[] content = body.getBytes(UTF_8);
+        String header = "HTTP/1.1 " + status + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-Length: " + content.length + "\r\n"
+                + "Connection: close\r\n\r\n";
+        out.write(header.getBytes(UTF_8));
+        out.write(content);
+        out.flush();
+    }
+
+    /**
+     * Prometheus text exposition format
+     */
+    synchronized String prometheus() {
+        StringBuilder sb = new StringBuilder(4096);
+        counter(sb, "frames_received_total", "Frames delivered by the camera stream", metrics.framesReceived.get());
+        counter(sb, "frames_processed_total", "Frames processed and handed to the UI", metrics.framesProcessed.get());
+        counter(sb, "frames_dropped_total", "Frames dropped without being processed", metrics.framesDropped.get());
+        counter(sb, "frames_skipped_total", "Frames replaced by a newer frame before the preview drew them", metrics.framesSkipped.get());
+        counter(sb, "faces_detected_total", "Frames in which a face was found", metrics.facesDetected.get());
+
+        sb.append("# HELP ").append(PREFIX).append("stage_latency_seconds Latency per pipeline stage\n");
+        sb.append("# TYPE ").append(PREFIX).append("stage_latency_seconds summary\n");
+        for (PipelineMetrics.Stage stage : PipelineMetrics.Stage.values()) {
+            metrics.histogram(stage).snapshotInto(snapshot);
+            String label = stage.name().toLowerCase(Locale.US);
+            for (double quantile : QUANTILES) {
+                sb.append(PREFIX).append("stage_latency_seconds{stage=\"").append(label)
+                        .append("\",quantile=\"").append(quantile).append("\"} ")
+                        .append(seconds(snapshot.percentile(quantile * 100))).append('\n');
+            }
+            sb.append(PREFIX).append("stage_latency_seconds_sum{stage=\"").append(label).append("\"} ")
+                    .append(seconds(snapshot.totalMicros)).append('\n');
+            sb.append(PREFIX).append("stage_latency_seconds_count{stage=\"").append(label).append("\"} ")
+                    .append(snapshot.count).append('\n');
+        }
+        sb.append("# HELP ").append(PREFIX).append("stage_latency_max_seconds Highest latency per pipeline stage\n");
+        sb.append("# TYPE ").append(PREFIX).append("stage_latency_max_seconds gauge\n");
+        for (PipelineMetrics.Stage stage : PipelineMetrics.Stage.values()) {
+            sb.append(PREFIX).append("stage_latency_max_seconds{stage=\"").append(stage.name().toLowerCase(Locale.US)).append("\"} ")
+                    .append(seconds(metrics.histogram(stage).maxMicros())).append('\n');
+        }
+
+        for (PipelineMetrics.NamedGauge gauge : metrics.gauges()) {
+            sb.append("# HELP ").append(PREFIX).append(gauge.name).append(' ').append(gauge.help).append('\n');
+            sb.append("# TYPE ").append(PREFIX).append(gauge.name).append(" gauge\n");
+            sb.append(PREFIX).append(gauge.name).append(' ').append(number(gauge.gauge.get())).append('\n');
+        }
+        List<CameraSession> open = openSessions();
+        if (!open.isEmpty()) {
+            sessionCounters(sb, open);
+            //every session registers the same gauges
+            List<PipelineMetrics.NamedGauge> gauges = open.get(0).metrics.gauges();
+            for (int g = 0; g < gauges.size(); g++) {
+                String name = "session_" + gauges.get(g).name;
+                sb.append("# HELP ").append(PREFIX).append(name).append(' ').append(gauges.get(g).help).append('\n');
+                sb.append("# TYPE ").append(PREFIX).append(name).append(" gauge\n");
+                for (CameraSession session : open) {
+                    List<PipelineMetrics.NamedGauge> sessionGauges = session.metrics.gauges();
+                    if (g < sessionGauges.size()) {
+                        sample(sb, name, session, number(sessionGauges.get(g).gauge.get()));
+                    }
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private List<CameraSession> openSessions() {
+        SessionManager manager = sessions;
+        return manager == null ? Collections.<CameraSession>emptyList() : manager.sessions();
+    }
+
+    private static void sessionCounters(StringBuilder sb, List<CameraSession> open) {
+        String[] names = {"session_frames_received_total", "session_frames_processed_total", "session_frames_dropped_total"};
+        String[] helps = {"Frames delivered to the session", "Frames the session measured", "Frames the session dropped without measuring"};
+        for (int c = 0; c < names.length; c++) {
+            sb.append("# HELP ").append(PREFIX).append(names[c]).append(' ').append(helps[c]).append('\n');
+            sb.append("# TYPE ").append(PREFIX).append(names[c]).append(" counter\n");
+            for (CameraSession session : open) {
+                PipelineMetrics m = session.metrics;
+                long value = c == 0 ? m.framesReceived.get() : c == 1 ? m.framesProcessed.get() : m.framesDropped.get();
+                sample(sb, names[c], session, Long.toString(value));
+            }
+        }
+    }
+
+    private static void sample(StringBuilder sb, String name, CameraSession session, String value) {
+        sb.append(PREFIX).append(name).append("{session=\"");
+        //label values escape backslash, quote and line feed
+        for (int i = 0; i < session.id.length(); i++) {
+            char ch = session.id.charAt(i);
+            if (ch == '\\' || ch == '"') {
+                sb.append('\\').append(ch);
+            } else if (ch == '\n') {
+                sb.append("\\n");
+            } else {
+                sb.append(ch);
+            }
+        }
+        sb.append("\"} ").append(value).append('\n');
+    }
+
+    /**
+     * Latest {@link #SERIES_SAMPLES} samples, monotonic timestamp, raw and filtered temperature and flags
+     */
+    static String series(TemperatureSeries series) {
+        StringBuilder sb = new StringBuilder(64 * SERIES_SAMPLES);
+        sb.append("timestamp_ns,raw_c,filtered_c,flags\n");
+        int size = series.size();
+        for (int i = Math.max(0, size - SERIES_SAMPLES); i < size; i++) {
+            sb.append(series.timestampAt(i)).append(',');
+            SessionExporter.appendFixed(sb, series.valueAt(i));
+            sb.append(',');
+            SessionExporter.appendFixed(sb, series.filteredAt(i));
+            sb.append(',').append(series.flagsAt(i)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    synchronized String json() {
+        StringBuilder sb = new StringBuilder(2048);
+        sb.append("{\"frames_received\":").append(metrics.framesReceived.get())
+                .append(",\"frames_processed\":").append(metrics.framesProcessed.get())
+                .append(",\"frames_dropped\":").append(metrics.framesDropped.get())
+                .append(",\"frames_skipped\":").append(metrics.framesSkipped.get())
+                .append(",\"faces_detected\":").append(metrics.facesDetected.get())
+                .append(",\"stages\":{");
+        PipelineMetrics.Stage[] stages = PipelineMetrics.Stage.values();
+        for (int i = 0; i < stages.length; i++) {
+            metrics.histogram(stages[i]).snapshotInto(snapshot);
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append('"').append(stages[i].name().toLowerCase(Locale.US)).append("\":{\"count\":").append(snapshot.count)
+                    .append(",\"mean_us\":").append(number(snapshot.meanMicros()))
+                    .append(",\"p50_us\":").append(snapshot.percentile(50))
+                    .append(",\"p90_us\":").append(snapshot.percentile(90))
+                    .append(",\"p99_us\":").append(snapshot.percentile(99))
+                    .append(",\"max_us\":").append(snapshot.maxMicros).append('}');
+        }
+        sb.append("},\"gauges\":{");
+        boolean first = true;
+        for (PipelineMetrics.NamedGauge gauge : metrics.gauges()) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            jsonGauge(sb, gauge);
+        }
+        sb.append("},\"sessions\":{");
+        first = true;
+        for (CameraSession session : openSessions()) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            PipelineMetrics m = session.metrics;
+            jsonString(sb, session.id);
+            sb.append(":{\"frames_received\":").append(m.framesReceived.get())
+                    .append(",\"frames_processed\":").append(m.framesProcessed.get())
+                    .append(",\"frames_dropped\":").append(m.framesDropped.get())
+                    .append(",\"gauges\":{");
+            boolean firstGauge = true;
+            for (PipelineMetrics.NamedGauge gauge : m.gauges()) {
+                if (!firstGauge) {
+                    sb.append(',');
+                }
+                firstGauge = false;
+                jsonGauge(sb, gauge);
+            }
+            sb.append("}}");
+        }
+        sb.append("}}");
+        return sb.toString();
+    }
+
+    private static void jsonGauge(StringBuilder sb, PipelineMetrics.NamedGauge gauge) {
+        double value = gauge.gauge.get();
+        sb.append('"').append(gauge.name).append("\":").append(Double.isNaN(value) || Double.isInfinite(value) ? "null" : number(value));
+    }
+
+    private static void jsonString(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == '"' || ch == '\\') {
+                sb.append('\\').append(ch);
+            } else if (ch < 0x20) {
+                sb.append(String.format(Locale.US, "\\u%04x", (int) ch));
+            } else {
+                sb.append(ch);
+            }
+        }
+        sb.append('"');
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, long value) {
+        sb.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(PREFIX).append(name).append(" counter\n");
+        sb.append(PREFIX).append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(long micros) {
+        return number(micros / 1e6);
+    }
+
+    private static String number(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
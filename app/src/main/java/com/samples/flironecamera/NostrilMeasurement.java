@@ -0,0 +1,166 @@
+package com.samples.flironecamera;
+
+/**
+ * Nostril temperature measurement used by the record path in {@link CameraHandler}.
+ * <p/>
+ * The nostril region is split into {@link #BLOCK_COUNT} vertical blocks, the block with the highest
+ * temperature variance is assumed to contain the air flow and its mean temperature is reported.
+ * <p/>
+ * Has no Android dependencies so the same code can be exercised by the JMH benchmarks on a plain JVM.
+ * An instance keeps the result of the last {@link #search} and is meant to be reused by one thread.
+ */
+final class NostrilMeasurement {
+
+    static final int BLOCK_COUNT = 4;
+
+    static final double KELVIN_OFFSET = 273.15;
+
+    /**
+     * Reads radiometric values (Kelvin) for a rectangle in thermal image coordinates,
+     * eg {@link com.flir.thermalsdk.image.ThermalImage#getValues}
+     */
+    interface RegionReader {
+        double[] read(int x, int y, int width, int height);
+    }
+
+    //Block boundaries in the coordinates given to search(), BLOCK_COUNT + 1 edges
+    final float[] blockEdges = new float[BLOCK_COUNT + 1];
+    int blockIndex;
+    double blockVariance;
+    double blockTemperature;
+
+    /**
+     * Find the block with the highest variance inside the nostril region.
+     * Coordinates are in the cropped visual image, the thermal image is half the size.
+     *
+     * @return mean temperature in Celsius of the chosen block, NaN if the region is outside the image and no block has values
+     */
+    double search(RegionReader reader, float left, int top, float right, float bottom) {
+        float wBlock = Math.abs(right - left) / BLOCK_COUNT;
+        float modBlock = Math.abs(right - left) % BLOCK_COUNT;
+
+        float sBlock = left;
+        float srBlock = left + wBlock;
+        blockIndex = -1;
+        blockVariance = Double.NaN;
+        blockTemperature = Double.NaN;
+
+        for (int k = 0; k < BLOCK_COUNT; k++) {
+            blockEdges[k] = sBlock;
+            double[] temperatureBlock = reader.read((int) sBlock / 2, top / 2, (int) wBlock, Math.abs((int) (bottom / 2) - (top / 2)));
+            //empty where the block is outside the image
+            double varianBlock = temperatureBlock.length == 0 ? Double.NaN : variance(temperatureBlock);
+            if (!Double.isNaN(varianBlock) && (blockIndex < 0 || varianBlock > blockVariance)) {
+                blockIndex = k;
+                blockVariance = varianBlock;
+                blockTemperature = mean(temperatureBlock) - KELVIN_OFFSET;
+            }
+
+            sBlock = srBlock;
+            if (k == BLOCK_COUNT - 1) {
+                wBlock = wBlock + modBlock;
+            }
+            srBlock = srBlock + wBlock;
+        }
+        blockEdges[BLOCK_COUNT] = sBlock;
+        return blockTemperature;
+    }
+
+    /**
+     * Edge of a detected face moved inside the cropped visual image
+     */
+    static float clampToImage(float edge, float size) {
+        if (edge <= 1)
+            edge = 1;
+        if (edge >= size)
+            edge = size;
+        return edge;
+    }
+
+    /**
+     * Nostril region below the nose base, sized from the image and clipped to the face box.
+     * Coordinates are in the cropped visual image, the top is the nose base.
+     *
+     * @param out left, top, right, bottom
+     * @return {@link TemperatureSeries#FLAG_ROI_CLAMPED} if the region was clipped to the face, 0 otherwise
+     */
+    static int nostrilRegion(float noseX, float noseY, float faceLeft, float faceRight, float faceBottom,
+                             float imageWidth, float imageHeight, float[] out) {
+        int cx = (int) noseX;
+        int cy = (int) noseY;
+        float cLeft = cx - skalaWidth(imageWidth) + 60;
+        float cRight = cx + skalaWidth(imageWidth) - 60;
+        float cBottom = cy + skalaHeight(imageHeight) - 80;
+        int flags = 0;
+        if (cLeft <= faceLeft) {
+            cLeft = faceLeft;
+            flags |= TemperatureSeries.FLAG_ROI_CLAMPED;
+        }
+        if (cRight >= faceRight) {
+            cRight = faceRight;
+            flags |= TemperatureSeries.FLAG_ROI_CLAMPED;
+        }
+        if (cBottom >= faceBottom) {
+            cBottom = faceBottom;
+            flags |= TemperatureSeries.FLAG_ROI_CLAMPED;
+        }
+        out[0] = cLeft;
+        out[1] = cy;
+        out[2] = cRight;
+        out[3] = cBottom;
+        return flags;
+    }
+
+    static float skalaWidth(float rgbWidth) {
+        float width = (4 * rgbWidth) / 11;
+        return width / 2;
+    }
+
+    static float skalaHeight(float rgbHeight) {
+        return rgbHeight / 8;
+    }
+
+    /**
+     * Rectangle in thermal image coordinates covering every block {@link #search} reads for the region, eg to fetch it at once
+     *
+     * @param out x, y, width, height
+     */
+    static void readExtent(float left, int top, float right, float bottom, int[] out) {
+        float wBlock = Math.abs(right - left) / BLOCK_COUNT;
+        int x0 = Integer.MAX_VALUE;
+        int x1 = Integer.MIN_VALUE;
+        float sBlock = left;
+        for (int k = 0; k < BLOCK_COUNT; k++) {
+            int x = (int) sBlock / 2;
+            x0 = Math.min(x0, x);
+            x1 = Math.max(x1, x + (int) wBlock);
+            sBlock += wBlock;
+        }
+        out[0] = x0;
+        out[1] = top / 2;
+        out[2] = x1 - x0;
+        out[3] = Math.abs((int) (bottom / 2) - (top / 2));
+    }
+
+    static double mean(double[] data) {
+        double jumlah = 0;
+        for (int i = 0; i < data.length; i++) {
+            jumlah = jumlah + data[i];
+        }
+        return jumlah / data.length;
+    }
+
+    /**
+     * Variance of a block, only used to rank blocks against each other.
+     * The trailing "- 1" is kept from the original implementation, it doesn't change the ranking.
+     */
+    static double variance(double[] temperatureBlock) {
+        double hasil = 0;
+        double mean = mean(temperatureBlock);
+        for (int i = 0; i < temperatureBlock.length; i++) {
+            double hasilKuadrat = Math.pow((temperatureBlock[i] - mean), 2);
+            hasil = hasil + hasilKuadrat;
+        }
+        return hasil / temperatureBlock.length - 1;
+    }
+}
@@ -0,0 +1,92 @@
+package com.samples.flironecamera;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.View;
+import android.widget.TextView;
+
+import java.util.Locale;
+
+/**
+ * On screen overlay showing fps and p50 / p99 / max per {@link PipelineMetrics.Stage} for the last refresh interval.
+ * <p/>
+ * Must be used from the UI thread, the metrics are read through snapshots so the camera threads are never blocked.
+ */
+class PerformanceOverlay {
+
+    private static final long REFRESH_INTERVAL_MS = 1000;
+
+    private final TextView textView;
+    private final PipelineMetrics metrics;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final LatencyHistogram.Snapshot[] previous = new LatencyHistogram.Snapshot[PipelineMetrics.Stage.values().length];
+    private final LatencyHistogram.Snapshot current = new LatencyHistogram.Snapshot();
+    private final LatencyHistogram.Snapshot interval = new LatencyHistogram.Snapshot();
+    private final StringBuilder text = new StringBuilder();
+    private long previousFrames;
+    private long previousTime;
+    private boolean showing;
+
+    PerformanceOverlay(TextView textView, PipelineMetrics metrics) {
+        this.textView = textView;
+        this.metrics = metrics;
+        for (int i = 0; i < previous.length; i++) {
+            previous[i] = new LatencyHistogram.Snapshot();
+        }
+    }
+
+    /**
+     * Show or hide the overlay, instrumentation and per frame debug logging are on while it's shown, the metrics server can keep
+     * them on
+     */
+    void setEnabled(boolean enabled) {
+        if (enabled == showing) {
+            return;
+        }
+        showing = enabled;
+        if (enabled) {
+            PipelineMetrics.acquire();
+            for (PipelineMetrics.Stage stage : PipelineMetrics.Stage.values()) {
+                metrics.histogram(stage).snapshotInto(previous[stage.ordinal()]);
+            }
+            previousFrames = metrics.framesProcessed.get();
+            previousTime = SystemClock.elapsedRealtime();
+            textView.setVisibility(View.VISIBLE);
+            handler.postDelayed(refresh, REFRESH_INTERVAL_MS);
+        } else {
+            handler.removeCallbacks(refresh);
+            textView.setVisibility(View.GONE);
+            PipelineMetrics.release();
+        }
+    }
+
+    boolean isEnabled() {
+        return showing;
+    }
+
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            long now = SystemClock.elapsedRealtime();
+            long frames = metrics.framesProcessed.get();
+            double fps = now > previousTime ? (frames - previousFrames) * 1000.0 / (now - previousTime) : 0;
+            previousFrames = frames;
+            previousTime = now;
+
+            text.setLength(0);
+            text.append(String.format(Locale.US, "%.1f fps   p50 / p99 / max ms", fps));
+            for (PipelineMetrics.Stage stage : PipelineMetrics.Stage.values()) {
+                LatencyHistogram.Snapshot last = previous[stage.ordinal()];
+                metrics.histogram(stage).snapshotInto(current);
+                interval.copyFrom(current);
+                interval.minus(last);
+                last.copyFrom(current);
+                text.append(String.format(Locale.US, "\n%-14s %6.1f %6.1f %6.1f", stage.name(),
+                        interval.percentile(50) / 1000.0, interval.percentile(99) / 1000.0, interval.maxMicros / 1000.0));
+            }
+            textView.setText(text);
+            handler.postDelayed(this, REFRESH_INTERVAL_MS);
+        }
+    };
+}
@@ -0,0 +1,136 @@
+package com.samples.flironecamera;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per stage latency histograms and frame counters for the image pipeline in {@link CameraHandler}.
+ * <p/>
+ * Instrumentation is switched on globally while any of its users, eg the overlay and the metrics server, holds it with
+ * {@link #acquire()}, the same switch guards the per frame debug logging. When disabled {@link #start()} returns 0 and {@link #stop(Stage, long)} does nothing, so the cost in
+ * production is a volatile read per measuring point.
+ * <p/>
+ * Usage:
+ * <pre>
+ * long start = metrics.start();
+ * ... work ...
+ * metrics.stop(PipelineMetrics.Stage.CROP, start);
+ * </pre>
+ */
+final class PipelineMetrics {
+
+    enum Stage {
+        FUSION_SWITCH,
+        BITMAP,
+        CROP,
+        FACE_DETECTION,
+        GET_VALUES,
+        STATS,
+        //frame posted to the preview until the vsync that draws it
+        UI_HANDOFF,
+        //frame stamped by the camera until the drawn preview is handed to the compositor
+        FRAME_TO_GLASS,
+        //connect started until the first frame of the stream
+        FIRST_FRAME
+    }
+
+    /**
+     * Value sampled when the metrics are read, eg the occupancy of a buffer
+     */
+    interface Gauge {
+        double get();
+    }
+
+    static final class NamedGauge {
+        final String name;
+        final String help;
+        final Gauge gauge;
+
+        NamedGauge(String name, String help, Gauge gauge) {
+            this.name = name;
+            this.help = help;
+            this.gauge = gauge;
+        }
+    }
+
+    private static volatile boolean enabled;
+    //holders of the instrumentation, guarded by the class
+    private static int users;
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+    final AtomicLong framesReceived = new AtomicLong();
+    final AtomicLong framesProcessed = new AtomicLong();
+    final AtomicLong facesDetected = new AtomicLong();
+    final AtomicLong framesDropped = new AtomicLong();
+    //frames replaced by a newer one before the preview drew them
+    final AtomicLong framesSkipped = new AtomicLong();
+    private final List<NamedGauge> gauges = new CopyOnWriteArrayList<>();
+
+    PipelineMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turn instrumentation on for a user, it stays on until every user called {@link #release()}
+     */
+    static synchronized void acquire() {
+        users++;
+        enabled = true;
+    }
+
+    static synchronized void release() {
+        if (users > 0) {
+            users--;
+        }
+        enabled = users > 0;
+    }
+
+    /**
+     * @return start time in nanoseconds, or 0 if instrumentation is disabled
+     */
+    long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record the time since {@code start} for a stage
+     *
+     * @return the end time, can be used as start of the next stage
+     */
+    long stop(Stage stage, long start) {
+        if (start == 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        histograms[stage.ordinal()].recordNanos(now - start);
+        return now;
+    }
+
+    void record(Stage stage, long nanos) {
+        if (enabled) {
+            histograms[stage.ordinal()].recordNanos(nanos);
+        }
+    }
+
+    LatencyHistogram histogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    /**
+     * Register a gauge, {@code name} should be lower case with underscores
+     */
+    void gauge(String name, String help, Gauge gauge) {
+        gauges.add(new NamedGauge(name, help, gauge));
+    }
+
+    List<NamedGauge> gauges() {
+        return gauges;
+    }
+}
@@ -0,0 +1,101 @@
+package com.samples.flironecamera;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.face.Face;
+import com.google.android.gms.vision.face.Landmark;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Google Play Services face detector on the luminance of the visual image, the most accurate backend but its model is downloaded
+ * by Play Services and it isn't available on every device
+ */
+final class PlayServicesFaceDetector implements FaceDetector {
+
+    private final com.google.android.gms.vision.face.FaceDetector detector;
+    //wraps the input buffer, rewrapped only when the input buffer is replaced
+    private ByteBuffer buffer;
+
+    PlayServicesFaceDetector(Context context) {
+        detector = new com.google.android.gms.vision.face.FaceDetector
+                .Builder(context)
+                .setTrackingEnabled(false)
+                .setProminentFaceOnly(true)
+                .setMode(com.google.android.gms.vision.face.FaceDetector.FAST_MODE)
+                .setLandmarkType(com.google.android.gms.vision.face.FaceDetector.ALL_LANDMARKS)
+                .build();
+    }
+
+    @Override
+    public String name() {
+        return "play_services";
+    }
+
+    @Override
+    public int inputs() {
+        return INPUT_VISUAL;
+    }
+
+    @Override
+    public boolean isOperational() {
+        return detector.isOperational();
+    }
+
+    @Override
+    public int detect(Input input, Faces out) {
+        out.clear();
+        if (buffer == null || buffer.array() != input.nv21) {
+            buffer = ByteBuffer.wrap(input.nv21);
+        }
+        Frame frame = new Frame.Builder().setImageData(buffer, input.width, input.height, ImageFormat.NV21).build();
+        SparseArray<Face> faces = detector.detect(frame);
+        for (int i = 0; i < faces.size(); i++) {
+            Face face = faces.valueAt(i);
+            float left = face.getPosition().x;
+            float top = face.getPosition().y;
+            if (!out.add(left, top, left + face.getWidth(), top + face.getHeight(), Float.NaN, Float.NaN)) {
+                break;
+            }
+            int index = out.size() - 1;
+            for (Landmark landmark : face.getLandmarks()) {
+                int type = landmarkOf(landmark.getType());
+                if (type >= 0) {
+                    out.setLandmark(index, type, landmark.getPosition().x, landmark.getPosition().y);
+                }
+            }
+        }
+        return out.size();
+    }
+
+    private static int landmarkOf(int type) {
+        switch (type) {
+            case Landmark.NOSE_BASE:
+                return Faces.NOSE_BASE;
+            case Landmark.LEFT_EYE:
+                return Faces.LEFT_EYE;
+            case Landmark.RIGHT_EYE:
+                return Faces.RIGHT_EYE;
+            case Landmark.LEFT_MOUTH:
+                return Faces.LEFT_MOUTH;
+            case Landmark.RIGHT_MOUTH:
+                return Faces.RIGHT_MOUTH;
+            case Landmark.BOTTOM_MOUTH:
+                return Faces.BOTTOM_MOUTH;
+            case Landmark.LEFT_CHEEK:
+                return Faces.LEFT_CHEEK;
+            case Landmark.RIGHT_CHEEK:
+                return Faces.RIGHT_CHEEK;
+            default:
+                return -1;
+        }
+    }
+
+    @Override
+    public void release() {
+        detector.release();
+    }
+}
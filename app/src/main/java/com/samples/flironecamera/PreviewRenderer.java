@@ -0,0 +1,208 @@
+package com.samples.flironecamera;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.view.Choreographer;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Draws the thermal (MSX) and photo previews side by side into a {@link SurfaceView} from a dedicated render thread.
+ * <p/>
+ * The camera thread puts each frame into a single latest-frame slot with {@link #post(FrameDataHolder)}, a frame that is still in the
+ * slot when the next one arrives is replaced and counted in {@link PipelineMetrics#framesSkipped}. The render thread draws the slot
+ * once per display vsync through {@link Choreographer}, so a slow display skips stale frames instead of queueing them, and the UI
+ * thread never relayouts for a new frame.
+ * <p/>
+ * {@link FrameAnnotations} posted with a frame are drawn on top of it with preallocated paints, the frame bitmaps are not modified.
+ * <p/>
+ * {@link PipelineMetrics.Stage#UI_HANDOFF} is the time from posting a frame to the vsync that draws it,
+ * {@link PipelineMetrics.Stage#FRAME_TO_GLASS} the time from the camera stamping the frame to handing the drawn buffer to the
+ * compositor, the frame shows on the following refresh.
+ */
+class PreviewRenderer implements SurfaceHolder.Callback, Choreographer.FrameCallback {
+
+    private final PipelineMetrics metrics;
+    private final HandlerThread thread = new HandlerThread("preview-render");
+    private final Handler handler;
+
+    private final AtomicReference<FrameDataHolder> latest = new AtomicReference<>();
+    //annotations of the frame in latest, guarded by the slot lock so frame and annotations are taken together
+    private final Object slotLock = new Object();
+    private final FrameAnnotations pendingAnnotations = new FrameAnnotations();
+    private final FrameAnnotations drawAnnotations = new FrameAnnotations();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile long scheduledAt;
+
+    //held while drawing and while the surface is destroyed, the surface must not go away under lockCanvas()
+    private final Object surfaceLock = new Object();
+    private SurfaceHolder surfaceHolder;
+
+    private Choreographer choreographer;
+    private final Paint bitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint facePaint = new Paint();
+    private final Paint nostrilPaint = new Paint();
+    private final RectF dst = new RectF();
+    //screen pixels per bitmap pixel of the bitmap at dst
+    private float dstScale;
+
+    private final Runnable scheduleFrame = new Runnable() {
+        @Override
+        public void run() {
+            //Choreographer is per thread, it has to be created on the render thread
+            if (choreographer == null) {
+                choreographer = Choreographer.getInstance();
+            }
+            choreographer.postFrameCallback(PreviewRenderer.this);
+        }
+    };
+
+    PreviewRenderer(SurfaceView surfaceView, PipelineMetrics metrics) {
+        this.metrics = metrics;
+        facePaint.setStrokeWidth(5);
+        facePaint.setColor(Color.RED);
+        facePaint.setStyle(Paint.Style.STROKE);
+        nostrilPaint.setStrokeWidth(3);
+        nostrilPaint.setColor(Color.GREEN);
+        nostrilPaint.setStyle(Paint.Style.STROKE);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        surfaceView.getHolder().addCallback(this);
+    }
+
+    /**
+     * Show a frame on the next vsync, replacing a frame that hasn't been drawn yet. Can be called from any thread.
+     */
+    void post(FrameDataHolder frame) {
+        post(frame, null);
+    }
+
+    /**
+     * Show a frame with boxes on top, the annotations are copied and can be reused by the caller
+     */
+    void post(FrameDataHolder frame, FrameAnnotations annotations) {
+        FrameDataHolder previous;
+        synchronized (slotLock) {
+            pendingAnnotations.copyFrom(annotations);
+            previous = latest.getAndSet(frame);
+        }
+        if (previous != null) {
+            metrics.framesSkipped.incrementAndGet();
+        }
+        if (scheduled.compareAndSet(false, true)) {
+            scheduledAt = metrics.start();
+            handler.post(scheduleFrame);
+        }
+    }
+
+    /**
+     * Stop the render thread, eg in {@code onDestroy()}
+     */
+    void release() {
+        thread.quitSafely();
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        metrics.stop(PipelineMetrics.Stage.UI_HANDOFF, scheduledAt);
+        scheduled.set(false);
+        FrameDataHolder frame;
+        synchronized (slotLock) {
+            frame = latest.getAndSet(null);
+            drawAnnotations.copyFrom(pendingAnnotations);
+        }
+        if (frame == null) {
+            return;
+        }
+        synchronized (surfaceLock) {
+            if (surfaceHolder == null) {
+                return;
+            }
+            Canvas canvas = surfaceHolder.lockCanvas();
+            if (canvas == null) {
+                return;
+            }
+            try {
+                canvas.drawColor(Color.BLACK);
+                float half = canvas.getWidth() / 2f;
+                if (drawFitCenter(canvas, frame.msxBitmap, 0, half) && frame.dcBitmap != null) {
+                    //annotations are in photo pixels, the thermal image has its own resolution
+                    drawAnnotations(canvas, (float) frame.msxBitmap.getWidth() / frame.dcBitmap.getWidth());
+                }
+                if (drawFitCenter(canvas, frame.dcBitmap, half, half)) {
+                    drawAnnotations(canvas, 1);
+                }
+            } finally {
+                surfaceHolder.unlockCanvasAndPost(canvas);
+            }
+        }
+        if (frame.timestampNanos != 0 && PipelineMetrics.isEnabled()) {
+            metrics.record(PipelineMetrics.Stage.FRAME_TO_GLASS, System.nanoTime() - frame.timestampNanos);
+        }
+    }
+
+    /**
+     * Scale the bitmap to fit the column {@code left} - {@code left + width}, keeping its aspect ratio, like ImageView's fitCenter.
+     * {@link #dst} is left at the bitmap's place on screen.
+     *
+     * @return false if there was nothing to draw
+     */
+    private boolean drawFitCenter(Canvas canvas, Bitmap bitmap, float left, float width) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return false;
+        }
+        float height = canvas.getHeight();
+        float scale = Math.min(width / bitmap.getWidth(), height / bitmap.getHeight());
+        dstScale = scale;
+        float w = bitmap.getWidth() * scale;
+        float h = bitmap.getHeight() * scale;
+        dst.set(left + (width - w) / 2, (height - h) / 2, left + (width + w) / 2, (height + h) / 2);
+        canvas.drawBitmap(bitmap, null, dst, bitmapPaint);
+        return true;
+    }
+
+    /**
+     * Draw the boxes over the bitmap that was drawn last, at {@link #dst}
+     *
+     * @param imageScale size of that bitmap relative to the photo the annotations refer to
+     */
+    private void drawAnnotations(Canvas canvas, float imageScale) {
+        FrameAnnotations annotations = drawAnnotations;
+        int count = annotations.size();
+        if (count == 0) {
+            return;
+        }
+        float scale = dstScale * imageScale;
+        for (int i = 0; i < count; i++) {
+            Paint paint = annotations.kindAt(i) == FrameAnnotations.KIND_FACE ? facePaint : nostrilPaint;
+            canvas.drawRoundRect(dst.left + annotations.leftAt(i) * scale, dst.top + annotations.topAt(i) * scale,
+                    dst.left + annotations.rightAt(i) * scale, dst.top + annotations.bottomAt(i) * scale, 2, 2, paint);
+        }
+    }
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        synchronized (surfaceLock) {
+            surfaceHolder = holder;
+        }
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        synchronized (surfaceLock) {
+            surfaceHolder = null;
+        }
+    }
+}
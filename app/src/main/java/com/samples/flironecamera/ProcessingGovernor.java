@@ -0,0 +1,200 @@
+package com.samples.flironecamera;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides per frame how much work it gets, so processing keeps up with the camera on slow or hot devices.
+ * <p/>
+ * The governor learns the time between frames and the cost of a full analysis (face detection and nostril measurement) and of a
+ * preview only frame. It then picks the share of frames that can be fully analyzed within the latency target, the other frames are
+ * only shown or, if even that doesn't fit, dropped. Frames are always dropped while more than {@code maxBacklog} frames are waiting.
+ * The target is lowered when the device reports thermal throttling or a low battery.
+ * <p/>
+ * {@link #decide(long, int)} and {@link #report(Decision, long)} may be called on different threads, eg the camera and a worker,
+ * but each of them on one thread only.
+ */
+final class ProcessingGovernor {
+
+    //FLIR ONE frames arrive every 115 ms, leave room for the rest of the device
+    static final long DEFAULT_TARGET_LATENCY_NANOS = 80_000_000L;
+    static final int DEFAULT_MAX_BACKLOG = 1;
+
+    //at least this share of frames is fully analyzed, keeps the cost estimate up to date
+    private static final double MIN_FULL_SHARE = 0.05;
+    private static final double SMOOTHING = 0.2;
+    //credits saved up while idle, limits the burst of full analyses after a pause
+    private static final double MAX_CREDIT = 2;
+
+    enum Decision {
+        //face detection and measurement
+        FULL,
+        //images only, the frame isn't measured
+        PREVIEW,
+        //nothing at all
+        DROP
+    }
+
+    private final long targetLatencyNanos;
+    private final int maxBacklog;
+
+    //smoothed costs in nanoseconds, 0 until the first report
+    private volatile double fullCost;
+    private volatile double previewCost;
+    private volatile double periodNanos;
+    private volatile double throttle = 1;
+    private volatile double fullShare = 1;
+    private volatile int backlog;
+    private long lastFrameNanos;
+    private double fullCredit = 1;
+    private double previewCredit;
+    private volatile int thermalStatus;
+    private volatile boolean batteryLow;
+
+    final AtomicLong full = new AtomicLong();
+    final AtomicLong preview = new AtomicLong();
+    final AtomicLong dropped = new AtomicLong();
+
+    ProcessingGovernor() {
+        this(DEFAULT_TARGET_LATENCY_NANOS, DEFAULT_MAX_BACKLOG);
+    }
+
+    /**
+     * @param targetLatencyNanos average processing time per frame to stay under
+     * @param maxBacklog         frames that may wait for processing, frames beyond are dropped
+     */
+    ProcessingGovernor(long targetLatencyNanos, int maxBacklog) {
+        this.targetLatencyNanos = targetLatencyNanos;
+        this.maxBacklog = maxBacklog;
+    }
+
+    /**
+     * @param nowNanos arrival of the frame, {@link System#nanoTime()}
+     * @param backlog  frames queued for processing besides this one, 0 if frames are processed as they arrive
+     */
+    Decision decide(long nowNanos, int backlog) {
+        if (lastFrameNanos != 0) {
+            periodNanos = smooth(periodNanos, nowNanos - lastFrameNanos);
+        }
+        lastFrameNanos = nowNanos;
+        this.backlog = backlog;
+        if (backlog > maxBacklog) {
+            dropped.incrementAndGet();
+            return Decision.DROP;
+        }
+        double budget = budgetNanos();
+        double full = fullCost;
+        double preview = previewCost;
+        //shares of full and preview frames so that share * cost sums up to the budget
+        double fullShare;
+        double previewShare;
+        if (full <= budget) {
+            fullShare = 1;
+            previewShare = 0;
+        } else if (preview < budget && preview < full) {
+            fullShare = (budget - preview) / (full - preview);
+            previewShare = 1 - fullShare;
+        } else {
+            fullShare = 0;
+            previewShare = preview > 0 ? budget / preview : 1;
+        }
+        fullShare = Math.max(MIN_FULL_SHARE, fullShare);
+        this.fullShare = fullShare;
+        fullCredit = Math.min(MAX_CREDIT, fullCredit + fullShare);
+        previewCredit = Math.min(MAX_CREDIT, previewCredit + previewShare);
+        if (fullCredit >= 1) {
+            fullCredit -= 1;
+            this.full.incrementAndGet();
+            return Decision.FULL;
+        }
+        if (previewCredit >= 1) {
+            previewCredit -= 1;
+            this.preview.incrementAndGet();
+            return Decision.PREVIEW;
+        }
+        dropped.incrementAndGet();
+        return Decision.DROP;
+    }
+
+    /**
+     * @param costNanos time spent on a frame {@link #decide(long, int)} returned {@code decision} for
+     */
+    void report(Decision decision, long costNanos) {
+        if (decision == Decision.FULL) {
+            fullCost = smooth(fullCost, costNanos);
+        } else if (decision == Decision.PREVIEW) {
+            previewCost = smooth(previewCost, costNanos);
+        }
+    }
+
+    /**
+     * @param status one of the {@code PowerManager.THERMAL_STATUS_*} constants, 0 for none
+     */
+    void setThermalStatus(int status) {
+        thermalStatus = status;
+        updateThrottle();
+    }
+
+    void setBatteryLow(boolean low) {
+        batteryLow = low;
+        updateThrottle();
+    }
+
+    private void updateThrottle() {
+        //light, moderate, severe, critical, emergency, shutdown
+        double thermal;
+        switch (thermalStatus) {
+            case 0:
+            case 1:
+                thermal = 1;
+                break;
+            case 2:
+                thermal = 0.75;
+                break;
+            case 3:
+                thermal = 0.5;
+                break;
+            default:
+                thermal = 0.25;
+                break;
+        }
+        throttle = thermal * (batteryLow ? 0.75 : 1);
+    }
+
+    /**
+     * Processing time available per frame: the latency target, at most 90% of the time between frames, lowered by throttling
+     */
+    double budgetNanos() {
+        double budget = targetLatencyNanos;
+        double period = periodNanos;
+        if (period > 0) {
+            budget = Math.min(budget, 0.9 * period);
+        }
+        return budget * throttle;
+    }
+
+    /**
+     * Backlog passed with the last frame
+     */
+    int backlog() {
+        return backlog;
+    }
+
+    private static double smooth(double average, double value) {
+        return average == 0 ? value : average + SMOOTHING * (value - average);
+    }
+
+    /**
+     * Export the decisions and what they are based on as gauges, {@code prefix} tells governors of several pipelines apart
+     */
+    void register(PipelineMetrics metrics, String prefix) {
+        metrics.gauge(prefix + "frames_full", "Frames the governor chose to fully analyze", () -> full.get());
+        metrics.gauge(prefix + "frames_preview", "Frames the governor chose to only show", () -> preview.get());
+        metrics.gauge(prefix + "frames_dropped", "Frames the governor dropped", () -> dropped.get());
+        metrics.gauge(prefix + "backlog", "Frames waiting for processing when the last frame arrived", () -> backlog);
+        metrics.gauge(prefix + "full_share", "Share of frames currently fully analyzed", () -> fullShare);
+        metrics.gauge(prefix + "full_cost_ms", "Smoothed cost of a fully analyzed frame", () -> fullCost / 1e6);
+        metrics.gauge(prefix + "preview_cost_ms", "Smoothed cost of a preview only frame", () -> previewCost / 1e6);
+        metrics.gauge(prefix + "budget_ms", "Processing time per frame the governor aims for", () -> budgetNanos() / 1e6);
+        metrics.gauge(prefix + "thermal_status", "Thermal status reported by the device, 0 for none", () -> thermalStatus);
+    }
+}
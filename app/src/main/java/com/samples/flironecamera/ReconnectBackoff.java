@@ -0,0 +1,50 @@
+package com.samples.flironecamera;
+
+import java.util.Random;
+
+/**
+ * Delays between reconnect attempts: exponential growth from {@code baseMillis} up to {@code maxMillis}, with half of each delay
+ * randomized so several stations that lost their cameras at the same moment don't retry in lockstep.
+ */
+final class ReconnectBackoff {
+
+    private final long baseMillis;
+    private final long maxMillis;
+    private final int maxAttempts;
+    private final Random random;
+    private int attempts;
+
+    /**
+     * @param maxAttempts attempts before giving up, 0 for no limit
+     */
+    ReconnectBackoff(long baseMillis, long maxMillis, int maxAttempts, Random random) {
+        this.baseMillis = baseMillis;
+        this.maxMillis = maxMillis;
+        this.maxAttempts = maxAttempts;
+        this.random = random;
+    }
+
+    /**
+     * @return delay before the next attempt, -1 if there are no attempts left
+     */
+    long nextDelayMillis() {
+        if (maxAttempts > 0 && attempts >= maxAttempts) {
+            return -1;
+        }
+        long ceiling = Math.min(maxMillis, baseMillis << Math.min(attempts, 30));
+        attempts++;
+        long half = ceiling / 2;
+        return half + (long) (random.nextDouble() * (ceiling - half));
+    }
+
+    /**
+     * Connected again, the next disconnect starts with a short delay
+     */
+    void reset() {
+        attempts = 0;
+    }
+
+    int attempts() {
+        return attempts;
+    }
+}
@@ -0,0 +1,218 @@
+package com.samples.flironecamera;
+
+/**
+ * The measurement of a recorded frame from the face detection on, as {@link CameraHandler} runs it on the record thread: faces,
+ * the nostril region and its blocks, the facial regions, breathing rate and events, the series and the row of the measurement
+ * batch, with the boxes the preview draws.
+ * <p/>
+ * The images and the SDK stay with the caller, it fills the detector input and reads the thermal values of a window, eg with
+ * getValues() of the thermal image. {@link FrameMeasurement} measures the frames of the other sessions and of recordings with
+ * {@link #measureFaces} of a stage without series and batch, so all of them measure alike. Has no Android dependencies so the
+ * stage can be checked on a plain JVM, allocation free once warm, used by one thread.
+ */
+final class RecordStage {
+
+    //the cropped visual image is twice the size of the thermal image
+    static final float VISUAL_PER_THERMAL = 2;
+
+    //parts of the measurement a Probe is told the end of
+    static final int PART_DETECTION = 0;
+    static final int PART_WINDOW = 1;
+    static final int PART_NOSTRIL_SEARCH = 2;
+    static final int PART_REGIONS = 3;
+    static final int PART_BREATHING = 4;
+    static final int PART_SERIES = 5;
+    static final int PART_BATCH = 6;
+    static final int PART_COUNT = 7;
+    static final String[] PART_NAMES = {"detection", "window", "nostril_search", "regions", "breathing", "series", "batch"};
+
+    /**
+     * Told when each part of the measurement of a frame ends, on the measuring thread, eg to count what every part allocates.
+     * A part can end several times per frame, once per face.
+     */
+    interface Probe {
+        void mark(int part);
+    }
+
+    private static final Probe NO_PROBE = part -> {
+    };
+
+    private final PipelineMetrics metrics;
+    private final TemperatureSeries series;
+    private final BreathingStage breathing;
+    private final MeasurementPipe measurements;
+    private final FacialRegions regions;
+    //reference of the drift compensation
+    private final int referenceRegion;
+    //boxes found in the last measured frame, drawn by the preview on top of the images
+    final FrameAnnotations annotations = new FrameAnnotations();
+    private final FaceDetector.Faces faces = new FaceDetector.Faces();
+    private final NostrilMeasurement nostrilMeasurement = new NostrilMeasurement();
+    //thermal values of the current face, fetched once for all of its regions
+    private final ThermalWindow window = new ThermalWindow();
+    private final int[] nostrilExtent = new int[4];
+    private final float[] nostrilRegion = new float[4];
+    //row of measureFaces() without a measurement pipe
+    private final thermalData scratch = new thermalData(1);
+    private Probe probe = NO_PROBE;
+
+    //results of the last frame, nostril and drift reference temperature in Celsius and NaN if nothing was found
+    double temperature;
+    double reference;
+    long roi;
+    double filtered;
+    int flags;
+
+    RecordStage(PipelineMetrics metrics, TemperatureSeries series, BreathingStage breathing, MeasurementPipe measurements,
+                FacialRegions regions) {
+        this.metrics = metrics;
+        this.series = series;
+        this.breathing = breathing;
+        this.measurements = measurements;
+        this.regions = regions;
+        referenceRegion = regions.indexOf("forehead");
+    }
+
+    /**
+     * Stage that only measures faces, for {@link #measureFaces}
+     */
+    RecordStage(PipelineMetrics metrics, FacialRegions regions) {
+        this(metrics, null, null, null, regions);
+    }
+
+    /**
+     * @param probe null for none
+     */
+    void setProbe(Probe probe) {
+        this.probe = probe != null ? probe : NO_PROBE;
+    }
+
+    /**
+     * Measure a frame and append it to the series and the measurement batch
+     *
+     * @param flags         flags known when the frame arrived, eg {@link TemperatureSeries#FLAG_LATE_FRAME}
+     * @param input         filled for the {@link FaceDetector#inputs()} of the detector, its visual size is the size of the
+     *                      coordinates even if only the thermal image is filled
+     * @param thermalWidth  width of the thermal image, {@code thermalHeight} its height
+     * @param values        reads the thermal values of a window, not used if the detector input holds the thermal image
+     * @param start         {@link PipelineMetrics#start()} of the face detection, before the input was filled
+     */
+    void measure(long timestampNanos, int flags, FaceDetector detector, FaceDetector.Input input, int thermalWidth,
+                 int thermalHeight, NostrilMeasurement.RegionReader values, long start) {
+        //filled in place, handed to the consumers with the rest of its batch
+        int row = measurements.begin(timestampNanos);
+        thermalData batch = measurements.batch();
+        probe.mark(PART_BATCH);
+        find(batch, row, flags, detector, input, thermalWidth, thermalHeight, values, start);
+        flags = breathing.add(timestampNanos, temperature, reference, this.flags);
+        probe.mark(PART_BREATHING);
+        batch.setFiltered(row, breathing.filtered);
+        batch.setFlags(row, flags);
+        probe.mark(PART_BATCH);
+        series.append(timestampNanos, temperature, breathing.filtered, roi, flags);
+        probe.mark(PART_SERIES);
+        filtered = breathing.filtered;
+        this.flags = flags;
+    }
+
+    /**
+     * Only find the faces and measure them, into {@link #temperature}, {@link #reference}, {@link #roi} and {@link #flags}, the
+     * caller keeps the series and the breathing rate
+     */
+    void measureFaces(long timestampNanos, int flags, FaceDetector detector, FaceDetector.Input input, int thermalWidth,
+                      int thermalHeight, NostrilMeasurement.RegionReader values, long start) {
+        scratch.clear();
+        find(scratch, scratch.begin(timestampNanos), flags, detector, input, thermalWidth, thermalHeight, values, start);
+        filtered = Double.NaN;
+    }
+
+    private void find(thermalData batch, int row, int flags, FaceDetector detector, FaceDetector.Input input, int thermalWidth,
+                      int thermalHeight, NostrilMeasurement.RegionReader values, long start) {
+        double nostrilTemperature = Double.NaN;
+        double referenceTemperature = Double.NaN;
+        long nostrilRoi = 0;
+        annotations.clear();
+        int faceCount = detector.detect(input, faces);
+        metrics.stop(PipelineMetrics.Stage.FACE_DETECTION, start);
+        if (faceCount > 0) {
+            metrics.facesDetected.incrementAndGet();
+        }
+        probe.mark(PART_DETECTION);
+        float rgbWidth = input.width;
+        float rgbHeight = input.height;
+        for (int i = 0; i < faceCount; i++) {
+            float x1 = NostrilMeasurement.clampToImage(faces.leftAt(i), rgbWidth);
+            float y1 = NostrilMeasurement.clampToImage(faces.topAt(i), rgbHeight);
+            float x2 = NostrilMeasurement.clampToImage(faces.rightAt(i), rgbWidth);
+            float y2 = NostrilMeasurement.clampToImage(faces.bottomAt(i), rgbHeight);
+            annotations.add(FrameAnnotations.KIND_FACE, x1, y1, x2, y2);
+            batch.setFace(row, x1, y1, x2, y2);
+
+            //the nostril region and every facial region of the face are read from one fetch
+            window.clear();
+            boolean nostril = faces.hasNose(i);
+            int cy = 0;
+            float cLeft = 0;
+            float cRight = 0;
+            float cBottom = 0;
+            if (nostril) {
+                flags |= NostrilMeasurement.nostrilRegion(faces.noseXAt(i), faces.noseYAt(i), x1, x2, y2,
+                        rgbWidth, rgbHeight, nostrilRegion);
+                cLeft = nostrilRegion[0];
+                cy = (int) nostrilRegion[1];
+                cRight = nostrilRegion[2];
+                cBottom = nostrilRegion[3];
+                annotations.add(FrameAnnotations.KIND_NOSTRIL, cLeft, cy, cRight, cBottom);
+                batch.setNostril(row, cLeft, cy, cRight, cBottom);
+                NostrilMeasurement.readExtent(cLeft, cy, cRight, cBottom, nostrilExtent);
+                window.include(nostrilExtent[0], nostrilExtent[1], nostrilExtent[2], nostrilExtent[3]);
+            }
+            regions.place(faces, i);
+            regions.include(window, VISUAL_PER_THERMAL);
+            window.clip(thermalWidth, thermalHeight);
+            if (window.isEmpty()) {
+                probe.mark(PART_WINDOW);
+                continue;
+            }
+            long fetch = metrics.start();
+            if ((detector.inputs() & FaceDetector.INPUT_THERMAL) != 0) {
+                //the detector input already holds the whole frame
+                window.copyFrom(input.kelvin, input.thermalWidth);
+            } else {
+                window.setValues(values.read(window.x, window.y, window.width, window.height));
+            }
+            fetch = metrics.stop(PipelineMetrics.Stage.GET_VALUES, fetch);
+            probe.mark(PART_WINDOW);
+
+            if (nostril) {
+                double saveTempBlock = nostrilMeasurement.search(window, cLeft, cy, cRight, cBottom);
+                float[] blockEdges = nostrilMeasurement.blockEdges;
+                for (int k = 0; k < NostrilMeasurement.BLOCK_COUNT; k++) {
+                    annotations.add(FrameAnnotations.KIND_BLOCK, blockEdges[k], cy, blockEdges[k + 1], cBottom);
+                }
+                batch.setBlock(row, nostrilMeasurement.blockIndex, saveTempBlock, nostrilMeasurement.blockVariance);
+                nostrilTemperature = saveTempBlock;
+                nostrilRoi = TemperatureSeries.packRoi((int) cLeft / 2, cy / 2,
+                        (int) (cRight - cLeft) / 2, (int) (cBottom - cy) / 2);
+            }
+            probe.mark(PART_NOSTRIL_SEARCH);
+            regions.measure(window, VISUAL_PER_THERMAL);
+            for (int r = 0; r < regions.size(); r++) {
+                if (regions.isPlaced(r)) {
+                    float[] bounds = regions.bounds;
+                    annotations.add(FrameAnnotations.KIND_REGION, bounds[r * 4], bounds[r * 4 + 1], bounds[r * 4 + 2], bounds[r * 4 + 3]);
+                    batch.setRegion(row, r, regions.mean[r], regions.max[r]);
+                }
+            }
+            if (referenceRegion >= 0 && regions.isPlaced(referenceRegion)) {
+                referenceTemperature = regions.mean[referenceRegion];
+            }
+            metrics.stop(PipelineMetrics.Stage.STATS, fetch);
+            probe.mark(PART_REGIONS);
+        }
+        temperature = nostrilTemperature;
+        reference = referenceTemperature;
+        roi = nostrilRoi;
+        this.flags = flags;
+    }
+}
@@ -0,0 +1,175 @@
+package com.samples.flironecamera;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Raw radiometric frames of a recording, so the measurement can be re-run offline, eg by the batch analyzer after an algorithm change.
+ * <p/>
+ * File: magic, width, height, then fixed size frames of the frame timestamp, its {@link TemperatureSeries} flags and width * height
+ * Kelvin values as floats, little endian. The number of frames follows from the file length, so a recording cut short is readable
+ * up to its last complete frame, and any frame can be read without the ones before it, so a long recording can be split into
+ * frame ranges.
+ */
+final class RecordingFile {
+
+    static final String EXTENSION = ".frf";
+    static final int MAGIC = 0x46524631; // "FRF1"
+    static final int HEADER_BYTES = 16;
+    //timestamp and flags before the values of a frame
+    static final int FRAME_HEADER_BYTES = 12;
+
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private RecordingFile() {
+    }
+
+    static long frameBytes(int width, int height) {
+        return FRAME_HEADER_BYTES + (long) width * height * 4;
+    }
+
+    /**
+     * Appends frames of one size, not thread safe
+     */
+    static final class Writer implements Closeable {
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private final int width;
+        private final int height;
+        private final ByteBuffer buffer;
+        private long frames;
+
+        Writer(File file, int width, int height) throws IOException {
+            this.file = new RandomAccessFile(file, "rw");
+            this.channel = this.file.getChannel();
+            this.width = width;
+            this.height = height;
+            this.buffer = ByteBuffer.allocateDirect((int) frameBytes(width, height)).order(ORDER);
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ORDER);
+            header.putInt(MAGIC).putInt(width).putInt(height).putInt(0).flip();
+            writeFully(header);
+        }
+
+        /**
+         * @throws IllegalArgumentException if the frame has another size than the recording
+         */
+        void write(ThermalFrame frame) throws IOException {
+            if (frame.width != width || frame.height != height) {
+                throw new IllegalArgumentException("Frame " + frame.width + "x" + frame.height + " in a " + width + "x" + height + " recording");
+            }
+            buffer.clear();
+            buffer.putLong(frame.timestampNanos).putInt(frame.flags);
+            buffer.asFloatBuffer().put(frame.kelvin, 0, width * height);
+            buffer.position(buffer.capacity());
+            buffer.flip();
+            writeFully(buffer);
+            frames++;
+        }
+
+        private void writeFully(ByteBuffer source) throws IOException {
+            while (source.hasRemaining()) {
+                channel.write(source);
+            }
+        }
+
+        long frames() {
+            return frames;
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+
+    /**
+     * Reads frames in any order, not thread safe, open one reader per thread
+     */
+    static final class Reader implements Closeable {
+        private final File path;
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        final int width;
+        final int height;
+        private final long frameBytes;
+        private final long frames;
+        private final ByteBuffer buffer;
+
+        /**
+         * @throws IOException if the file isn't a recording
+         */
+        Reader(File path) throws IOException {
+            this.path = path;
+            this.file = new RandomAccessFile(path, "r");
+            this.channel = file.getChannel();
+            try {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ORDER);
+                readFully(header, 0);
+                header.flip();
+                if (header.getInt() != MAGIC) {
+                    throw new IOException(path + " isn't a frame recording");
+                }
+                width = header.getInt();
+                height = header.getInt();
+                if (width <= 0 || height <= 0) {
+                    throw new IOException(path + " has frames of " + width + "x" + height);
+                }
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            }
+            frameBytes = frameBytes(width, height);
+            frames = (channel.size() - HEADER_BYTES) / frameBytes;
+            buffer = ByteBuffer.allocateDirect((int) frameBytes).order(ORDER);
+        }
+
+        File path() {
+            return path;
+        }
+
+        /**
+         * Complete frames in the file
+         */
+        long frames() {
+            return frames;
+        }
+
+        /**
+         * @param frame must hold width * height values, its sequence is set to {@code index}
+         */
+        void read(long index, ThermalFrame frame) throws IOException {
+            if (index < 0 || index >= frames) {
+                throw new IndexOutOfBoundsException("Frame " + index + " of " + frames);
+            }
+            buffer.clear();
+            readFully(buffer, HEADER_BYTES + index * frameBytes);
+            buffer.flip();
+            frame.setSize(width, height);
+            frame.sequence = index;
+            frame.timestampNanos = buffer.getLong();
+            frame.flags = buffer.getInt();
+            buffer.asFloatBuffer().get(frame.kelvin, 0, width * height);
+        }
+
+        private void readFully(ByteBuffer target, long position) throws IOException {
+            while (target.hasRemaining()) {
+                int read = channel.read(target, position);
+                if (read < 0) {
+                    throw new IOException(path + " is truncated");
+                }
+                position += read;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+}
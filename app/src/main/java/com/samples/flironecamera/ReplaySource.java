@@ -0,0 +1,126 @@
+package com.samples.flironecamera;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frame source without a camera, frames are produced by a {@link Generator} at a fixed rate on a thread of its own.
+ * Lets sessions run on a plain JVM, eg several replays side by side to check that sessions don't affect each other.
+ */
+final class ReplaySource implements FrameSource {
+
+    //Radiometric image size of a FLIR ONE, the cropped visual image is twice as large
+    static final int THERMAL_WIDTH = 480;
+    static final int THERMAL_HEIGHT = 640;
+
+    /**
+     * Fills frame number {@code index} of the replay
+     */
+    interface Generator {
+        void fill(long index, ThermalFrame frame);
+    }
+
+    private final String name;
+    private final Generator generator;
+    private final long periodNanos;
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * @param fps frames per second, a FLIR ONE delivers about 8.7
+     */
+    ReplaySource(String name, Generator generator, double fps) {
+        this.name = name;
+        this.generator = generator;
+        this.periodNanos = (long) (1e9 / fps);
+    }
+
+    @Override
+    public synchronized void open(Sink sink) {
+        if (thread != null) {
+            throw new IllegalStateException("Replay " + name + " already open");
+        }
+        running = true;
+        thread = new Thread(() -> run(sink), "replay-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run(Sink sink) {
+        long next = System.nanoTime();
+        for (long index = 0; running; index++) {
+            ThermalFrame frame = sink.acquire();
+            if (frame != null) {
+                generator.fill(index, frame);
+                sink.publish(frame);
+            }
+            next += periodNanos;
+            long sleep = next - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    /**
+     * Warm face on a room temperature background, the nostril region cools and warms with the breathing
+     *
+     * @param breathsPerMinute breathing rate of the synthetic subject
+     * @param fps              frame rate the replay runs at, sets the time between frames
+     * @param noise            standard deviation of the sensor noise in degrees, 0 for none
+     * @param seed             noise seed, the same seed gives the same frames
+     */
+    static Generator syntheticFace(double breathsPerMinute, double fps, double noise, long seed) {
+        float[] base = new float[THERMAL_WIDTH * THERMAL_HEIGHT];
+        for (int y = 0; y < THERMAL_HEIGHT; y++) {
+            for (int x = 0; x < THERMAL_WIDTH; x++) {
+                double dx = (x - THERMAL_WIDTH / 2.0) / (THERMAL_WIDTH / 3.0);
+                double dy = (y - THERMAL_HEIGHT / 2.0) / (THERMAL_HEIGHT / 2.5);
+                base[y * THERMAL_WIDTH + x] = (float) (295.15 + 12 * Math.max(0, 1 - dx * dx - dy * dy));
+            }
+        }
+        Random random = new Random(seed);
+        //the synthetic subject breathes through the default nostril region
+        int top = CameraSession.DEFAULT_NOSTRIL_TOP / 2;
+        int bottom = (int) CameraSession.DEFAULT_NOSTRIL_BOTTOM / 2;
+        return (index, frame) -> {
+            frame.setSize(THERMAL_WIDTH, THERMAL_HEIGHT);
+            System.arraycopy(base, 0, frame.kelvin, 0, base.length);
+            //air flow through the nostrils, cooler stripes during inhalation
+            double breath = Math.sin(2 * Math.PI * breathsPerMinute / 60 * index / fps);
+            float airflow = (float) (0.6 * breath);
+            for (int y = top; y < bottom; y++) {
+                int offset = y * THERMAL_WIDTH;
+                for (int x = 0; x < THERMAL_WIDTH; x++) {
+                    if (x % 24 < 6) {
+                        frame.kelvin[offset + x] += airflow - 1.5f;
+                    }
+                }
+            }
+            if (noise > 0) {
+                for (int i = 0; i < base.length; i++) {
+                    frame.kelvin[i] += (float) (random.nextGaussian() * noise);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,203 @@
+package com.samples.flironecamera;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Live plot of the breathing signal, the filtered nostril temperature around its baseline, scrolling from right to left.
+ * <p/>
+ * The trace is kept in a backing bitmap used as a circular buffer of pixel columns. New samples are drained from a {@link SampleRing}
+ * when the view draws, only the columns they cover are cleared and drawn into the bitmap, and the bitmap is put on screen in two
+ * pieces so it appears to scroll without moving any pixels. Bitmap, canvas, path, paints and drain buffers are allocated once,
+ * drawing a frame allocates nothing.
+ * <p/>
+ * The producer calls {@link SampleRing#offer(long, double)} from the camera thread followed by {@link #postInvalidateOnAnimation()},
+ * draws are coalesced to the display refresh.
+ */
+public class RespirationWaveformView extends View {
+
+    //seconds of history across the width of the view
+    static final double WINDOW_SECONDS = 30;
+    //signal at the top / bottom edge, in degrees from the baseline
+    static final double DEFAULT_RANGE = 0.3;
+
+    private static final int DRAIN_MAX = 256;
+
+    private final Paint tracePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint clearPaint = new Paint();
+    private final Paint axisPaint = new Paint();
+    private final Path path = new Path();
+    private final Rect src = new Rect();
+    private final Rect dst = new Rect();
+    private final long[] drainTimestamps = new long[DRAIN_MAX];
+    private final double[] drainValues = new double[DRAIN_MAX];
+
+    private SampleRing source;
+    private double range = DEFAULT_RANGE;
+
+    private Bitmap backing;
+    private Canvas backingCanvas;
+    private double columnsPerNano;
+    //absolute column of the newest sample since originNanos, -1 before the first sample
+    private long lastColumn = -1;
+    private long originNanos;
+    private long lastTimestampNanos;
+    private float lastY = Float.NaN;
+
+    public RespirationWaveformView(Context context) {
+        this(context, null);
+    }
+
+    public RespirationWaveformView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        tracePaint.setColor(Color.GREEN);
+        tracePaint.setStrokeWidth(3);
+        tracePaint.setStyle(Paint.Style.STROKE);
+        clearPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.CLEAR));
+        axisPaint.setColor(Color.DKGRAY);
+    }
+
+    /**
+     * Samples to plot, timestamps in nanoseconds and values in degrees from the baseline, NaN leaves a gap
+     */
+    void setSource(SampleRing source) {
+        this.source = source;
+    }
+
+    /**
+     * Degrees from the baseline shown at the top and bottom edge
+     */
+    void setRange(double range) {
+        this.range = range;
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (backing != null) {
+            backing.recycle();
+            backing = null;
+        }
+        if (w > 0 && h > 0) {
+            backing = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+            backingCanvas = new Canvas(backing);
+            columnsPerNano = w / (WINDOW_SECONDS * 1e9);
+        }
+        lastColumn = -1;
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (backing != null) {
+            backing.recycle();
+            backing = null;
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (backing == null) {
+            return;
+        }
+        drain();
+        int width = backing.getWidth();
+        int height = backing.getHeight();
+        canvas.drawLine(0, height / 2f, width, height / 2f, axisPaint);
+        if (lastColumn < 0) {
+            return;
+        }
+        //the column after the newest one is the oldest, it goes to the left edge
+        int split = (int) (lastColumn % width) + 1;
+        src.set(split, 0, width, height);
+        dst.set(0, 0, width - split, height);
+        canvas.drawBitmap(backing, src, dst, null);
+        src.set(0, 0, split, height);
+        dst.set(width - split, 0, width, height);
+        canvas.drawBitmap(backing, src, dst, null);
+    }
+
+    private void drain() {
+        SampleRing ring = source;
+        if (ring == null) {
+            return;
+        }
+        int width = backing.getWidth();
+        int n;
+        while ((n = ring.drain(drainTimestamps, drainValues, DRAIN_MAX)) > 0) {
+            path.rewind();
+            for (int i = 0; i < n; i++) {
+                long timestamp = drainTimestamps[i];
+                if (lastColumn < 0 || timestamp < lastTimestampNanos) {
+                    //first sample or a new recording, start over at the left edge, the segments of the old recording
+                    //drained before it in this batch would be drawn over the erased bitmap otherwise
+                    backing.eraseColor(Color.TRANSPARENT);
+                    path.rewind();
+                    originNanos = timestamp;
+                    lastColumn = 0;
+                    lastTimestampNanos = timestamp;
+                    lastY = toY(drainValues[i]);
+                    continue;
+                }
+                long column = (long) ((timestamp - originNanos) * columnsPerNano);
+                clearColumns(lastColumn + 1, column, width);
+                float y = toY(drainValues[i]);
+                if (!Float.isNaN(y) && !Float.isNaN(lastY) && column - lastColumn < width) {
+                    float x0 = lastColumn % width;
+                    float x1 = x0 + (column - lastColumn);
+                    path.moveTo(x0, lastY);
+                    path.lineTo(x1, y);
+                    if (x1 >= width) {
+                        //wrapped around, draw the part that continues at the left edge as well
+                        path.moveTo(x0 - width, lastY);
+                        path.lineTo(x1 - width, y);
+                    }
+                }
+                lastColumn = Math.max(lastColumn, column);
+                lastTimestampNanos = timestamp;
+                lastY = y;
+            }
+            backingCanvas.drawPath(path, tracePaint);
+        }
+    }
+
+    /**
+     * Clear the absolute columns {@code from} - {@code to} (inclusive) for new samples
+     */
+    private void clearColumns(long from, long to, int width) {
+        if (to < from) {
+            return;
+        }
+        int height = backing.getHeight();
+        if (to - from + 1 >= width) {
+            backingCanvas.drawRect(0, 0, width, height, clearPaint);
+            return;
+        }
+        int left = (int) (from % width);
+        int right = (int) (to % width) + 1;
+        if (left < right) {
+            backingCanvas.drawRect(left, 0, right, height, clearPaint);
+        } else {
+            backingCanvas.drawRect(left, 0, width, height, clearPaint);
+            backingCanvas.drawRect(0, 0, right, height, clearPaint);
+        }
+    }
+
+    private float toY(double value) {
+        if (Double.isNaN(value)) {
+            return Float.NaN;
+        }
+        double clamped = Math.max(-range, Math.min(range, value));
+        float height = backing.getHeight();
+        return (float) (height / 2 - clamped / range * (height / 2 - tracePaint.getStrokeWidth()));
+    }
+}
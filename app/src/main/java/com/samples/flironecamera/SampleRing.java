@@ -0,0 +1,79 @@
+package com.samples.flironecamera;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock free ring of (timestamp, value) samples between one producer and one consumer thread,
+ * eg the camera thread feeding the live waveform on the UI thread.
+ * <p/>
+ * Samples live in preallocated primitive arrays, offering and draining never allocate. When the consumer falls behind a full ring
+ * rejects new samples instead of blocking the producer, rejected samples are counted in {@link #dropped}.
+ */
+final class SampleRing {
+
+    private final long[] timestamps;
+    private final double[] values;
+    private final int mask;
+
+    //next slot to write, only written by the producer
+    private volatile long head;
+    //next slot to read, only written by the consumer
+    private volatile long tail;
+
+    final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    SampleRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        timestamps = new long[size];
+        values = new double[size];
+        mask = size - 1;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Producer side
+     *
+     * @return false if the ring is full and the sample was dropped
+     */
+    boolean offer(long timestampNanos, double value) {
+        long h = head;
+        if (h - tail > mask) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        int slot = (int) h & mask;
+        timestamps[slot] = timestampNanos;
+        values[slot] = value;
+        //publishes the slot to the consumer
+        head = h + 1;
+        return true;
+    }
+
+    /**
+     * Consumer side, move up to {@code max} of the oldest samples into caller owned arrays
+     *
+     * @return number of samples drained
+     */
+    int drain(long[] outTimestamps, double[] outValues, int max) {
+        long t = tail;
+        int n = (int) Math.min(head - t, max);
+        for (int i = 0; i < n; i++) {
+            int slot = (int) (t + i) & mask;
+            outTimestamps[i] = timestamps[slot];
+            outValues[i] = values[slot];
+        }
+        //frees the slots for the producer
+        tail = t + n;
+        return n;
+    }
+
+    int size() {
+        return (int) (head - tail);
+    }
+}
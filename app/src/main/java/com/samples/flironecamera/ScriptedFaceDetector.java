@@ -0,0 +1,85 @@
+package com.samples.flironecamera;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Detector for tests and benchmarks, returns scripted faces without looking at the frame.
+ * The script is played frame by frame and starts over at its end, an optional busy wait stands in for the cost of a real detector.
+ */
+final class ScriptedFaceDetector implements FaceDetector {
+
+    //6 floats per face: left, top, right, bottom, nose x, nose y
+    private final List<float[]> script = new ArrayList<>();
+    private long costNanos;
+    private int calls;
+
+    /**
+     * Next frame has one face
+     *
+     * @param noseX NaN for a face without a nose landmark
+     */
+    ScriptedFaceDetector thenFace(float left, float top, float right, float bottom, float noseX, float noseY) {
+        script.add(new float[]{left, top, right, bottom, noseX, noseY});
+        return this;
+    }
+
+    ScriptedFaceDetector thenNoFace() {
+        script.add(new float[0]);
+        return this;
+    }
+
+    /**
+     * Spend {@code costNanos} in every detect()
+     */
+    ScriptedFaceDetector withCost(long costNanos) {
+        this.costNanos = costNanos;
+        return this;
+    }
+
+    /**
+     * Frames detected so far
+     */
+    int calls() {
+        return calls;
+    }
+
+    @Override
+    public String name() {
+        return "scripted";
+    }
+
+    @Override
+    public int inputs() {
+        return 0;
+    }
+
+    @Override
+    public boolean isOperational() {
+        return true;
+    }
+
+    @Override
+    public int detect(Input input, Faces out) {
+        out.clear();
+        if (costNanos > 0) {
+            long end = System.nanoTime() + costNanos;
+            while (System.nanoTime() < end) {
+                //busy, like a detector
+            }
+        }
+        if (script.isEmpty()) {
+            calls++;
+            return 0;
+        }
+        float[] faces = script.get(calls++ % script.size());
+        for (int i = 0; i + 6 <= faces.length; i += 6) {
+            out.add(faces[i], faces[i + 1], faces[i + 2], faces[i + 3], faces[i + 4], faces[i + 5]);
+        }
+        return out.size();
+    }
+
+    @Override
+    public void release() {
+    }
+}
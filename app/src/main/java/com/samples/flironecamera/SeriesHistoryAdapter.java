@@ -0,0 +1,94 @@
+package com.samples.flironecamera;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import java.util.Locale;
+
+/**
+ * List adapter showing a {@link TemperatureSeries} one row per sample.
+ * <p/>
+ * Nothing is copied up front, the list view only asks for the rows on screen and those are read from the series a page at a time
+ * into primitive buffers and formatted when they are bound. Opening the history therefore takes the same time and memory
+ * for a session of 100 or 1,000,000 samples.
+ * <p/>
+ * The row count is fixed when the adapter is created, samples recorded while the list is open are not shown.
+ */
+class SeriesHistoryAdapter extends BaseAdapter {
+
+    static final int PAGE_SIZE = 64;
+
+    private final LayoutInflater inflater;
+    private final TemperatureSeries series;
+    private final int count;
+
+    //currently loaded page
+    private int pageStart = -1;
+    private int pageLength;
+    private final long[] timestamps = new long[PAGE_SIZE];
+    private final double[] values = new double[PAGE_SIZE];
+    private final int[] flags = new int[PAGE_SIZE];
+    private final long firstTimestamp;
+
+    SeriesHistoryAdapter(Context context, TemperatureSeries series) {
+        this.inflater = LayoutInflater.from(context);
+        this.series = series;
+        this.count = series.size();
+        this.firstTimestamp = count > 0 ? series.timestampAt(0) : 0;
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public Object getItem(int position) {
+        return null;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        TextView row = (TextView) convertView;
+        if (row == null) {
+            row = (TextView) inflater.inflate(android.R.layout.simple_list_item_1, parent, false);
+        }
+        int index = load(position);
+        row.setText(format(position, timestamps[index], values[index], flags[index]));
+        return row;
+    }
+
+    /**
+     * Make sure the page holding {@code position} is loaded
+     *
+     * @return index of the position in the page buffers
+     */
+    private int load(int position) {
+        if (pageStart < 0 || position < pageStart || position >= pageStart + pageLength) {
+            pageStart = position - position % PAGE_SIZE;
+            pageLength = series.read(pageStart, PAGE_SIZE, timestamps, values, flags);
+        }
+        return position - pageStart;
+    }
+
+    private String format(int position, long timestampNanos, double value, int flags) {
+        double seconds = (timestampNanos - firstTimestamp) / 1e9;
+        if (Double.isNaN(value)) {
+            return String.format(Locale.US, "%d   %.1f s   -", position + 1, seconds);
+        }
+        String marker = (flags & TemperatureSeries.FLAG_BREATH) != 0 ? "   breath" : "";
+        if ((flags & TemperatureSeries.FLAG_EVENT) != 0) {
+            marker += "   !";
+        }
+        return String.format(Locale.US, "%d   %.1f s   %.2f \u00B0C%s", position + 1, seconds, value, marker);
+    }
+}
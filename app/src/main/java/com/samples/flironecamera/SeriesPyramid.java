@@ -0,0 +1,237 @@
+package com.samples.flironecamera;
+
+import java.util.Arrays;
+
+/**
+ * Min / max / mean pyramid over the values of a {@link TemperatureSeries}, maintained incrementally while samples are appended.
+ * <p/>
+ * Level 0 summarizes pairs of samples, every next level pairs of buckets of the level below, so level {@code k} has buckets
+ * of {@code 2^(k+1)} samples. Appending a sample is O(1) amortized. Any index range can be summarized in O(log n) by combining
+ * the largest aligned buckets that fit in it, and a range can be downsampled to a number of points in time proportional to the
+ * number of points, not to the number of samples, eg to plot hours of history at any zoom.
+ * <p/>
+ * NaN samples (frames without a measurement) are left out of min, max and mean but still take up their place on the index axis.
+ * <p/>
+ * Appends and queries are synchronized, appends come from the camera thread at frame rate and a query is short.
+ */
+final class SeriesPyramid {
+
+    private static final int MAX_LEVELS = 30;
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * Result of a query, reused by the caller
+     */
+    static final class Summary {
+        double min;
+        double max;
+        double sum;
+        long count;
+
+        void clear() {
+            min = Double.POSITIVE_INFINITY;
+            max = Double.NEGATIVE_INFINITY;
+            sum = 0;
+            count = 0;
+        }
+
+        void add(double bucketMin, double bucketMax, double bucketSum, long bucketCount) {
+            if (bucketCount == 0) {
+                return;
+            }
+            min = Math.min(min, bucketMin);
+            max = Math.max(max, bucketMax);
+            sum += bucketSum;
+            count += bucketCount;
+        }
+
+        /**
+         * @return mean of the valid samples, NaN if there are none
+         */
+        double mean() {
+            return count == 0 ? Double.NaN : sum / count;
+        }
+    }
+
+    private final TemperatureSeries series;
+    private int levels;
+    //samples added, queries end here, past it the series has no value yet
+    private int size;
+
+    //closed buckets per level
+    private final double[][] mins = new double[MAX_LEVELS][];
+    private final double[][] maxs = new double[MAX_LEVELS][];
+    private final double[][] sums = new double[MAX_LEVELS][];
+    private final int[][] counts = new int[MAX_LEVELS][];
+    private final int[] closed = new int[MAX_LEVELS];
+
+    //bucket being filled per level
+    private final double[] openMin = new double[MAX_LEVELS];
+    private final double[] openMax = new double[MAX_LEVELS];
+    private final double[] openSum = new double[MAX_LEVELS];
+    private final int[] openCount = new int[MAX_LEVELS];
+    private final int[] openParts = new int[MAX_LEVELS];
+
+    private final Summary scratch = new Summary();
+
+    SeriesPyramid(TemperatureSeries series) {
+        this.series = series;
+        Arrays.fill(openMin, Double.POSITIVE_INFINITY);
+        Arrays.fill(openMax, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Add the next sample of the series
+     */
+    synchronized void add(double value) {
+        size++;
+        if (Double.isNaN(value)) {
+            feed(0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 0, 0);
+        } else {
+            feed(0, value, value, value, 1);
+        }
+    }
+
+    /**
+     * Allocate the buckets of {@code samples} samples up front, so adding them doesn't allocate,
+     * see {@link TemperatureSeries#ensureCapacity(int)}
+     */
+    synchronized void ensureCapacity(int samples) {
+        for (int level = 0; level < MAX_LEVELS && samples >> level > 0; level++) {
+            //and the bucket the sample after the last one closes
+            int buckets = Math.max(INITIAL_CAPACITY, (samples >> (level + 1)) + 1);
+            if (mins[level] == null) {
+                allocate(level, buckets);
+            } else if (mins[level].length < buckets) {
+                mins[level] = Arrays.copyOf(mins[level], buckets);
+                maxs[level] = Arrays.copyOf(maxs[level], buckets);
+                sums[level] = Arrays.copyOf(sums[level], buckets);
+                counts[level] = Arrays.copyOf(counts[level], buckets);
+            }
+        }
+    }
+
+    private void allocate(int level, int buckets) {
+        mins[level] = new double[buckets];
+        maxs[level] = new double[buckets];
+        sums[level] = new double[buckets];
+        counts[level] = new int[buckets];
+    }
+
+    private void feed(int level, double min, double max, double sum, int count) {
+        while (true) {
+            if (level >= levels) {
+                levels = level + 1;
+                if (mins[level] == null) {
+                    allocate(level, INITIAL_CAPACITY);
+                }
+            }
+            openMin[level] = Math.min(openMin[level], min);
+            openMax[level] = Math.max(openMax[level], max);
+            openSum[level] += sum;
+            openCount[level] += count;
+            if (++openParts[level] < 2) {
+                return;
+            }
+            //bucket complete, close it and pass it on to the level above
+            int n = closed[level];
+            if (n == mins[level].length) {
+                int capacity = n * 2;
+                mins[level] = Arrays.copyOf(mins[level], capacity);
+                maxs[level] = Arrays.copyOf(maxs[level], capacity);
+                sums[level] = Arrays.copyOf(sums[level], capacity);
+                counts[level] = Arrays.copyOf(counts[level], capacity);
+            }
+            min = openMin[level];
+            max = openMax[level];
+            sum = openSum[level];
+            count = openCount[level];
+            mins[level][n] = min;
+            maxs[level][n] = max;
+            sums[level][n] = sum;
+            counts[level][n] = count;
+            closed[level] = n + 1;
+            openMin[level] = Double.POSITIVE_INFINITY;
+            openMax[level] = Double.NEGATIVE_INFINITY;
+            openSum[level] = 0;
+            openCount[level] = 0;
+            openParts[level] = 0;
+            if (level + 1 >= MAX_LEVELS) {
+                return;
+            }
+            level++;
+        }
+    }
+
+    int levels() {
+        return levels;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Summarize the samples {@code from} (inclusive) to {@code to} (exclusive), a range past the samples added so far ends
+     * with the last of them
+     */
+    synchronized void summarize(int from, int to, Summary out) {
+        out.clear();
+        to = Math.min(to, size);
+        int i = Math.max(0, from);
+        while (i < to) {
+            int level = largestBucket(i, to);
+            if (level < 0) {
+                double value = series.valueAt(i);
+                if (!Double.isNaN(value)) {
+                    out.add(value, value, value, 1);
+                }
+                i++;
+            } else {
+                int bucket = i >>> (level + 1);
+                out.add(mins[level][bucket], maxs[level][bucket], sums[level][bucket], counts[level][bucket]);
+                i += 2 << level;
+            }
+        }
+    }
+
+    /**
+     * Largest closed bucket that starts at {@code index} and ends at or before {@code to}, -1 if there is none
+     */
+    private int largestBucket(int index, int to) {
+        //no bucket larger than the range, nor larger than the alignment of index allows
+        int fits = 30 - Integer.numberOfLeadingZeros(to - index);
+        int aligned = index == 0 ? fits : Integer.numberOfTrailingZeros(index) - 1;
+        for (int level = Math.min(levels - 1, Math.min(fits, aligned)); level >= 0; level--) {
+            if ((index >>> (level + 1)) < closed[level]) {
+                return level;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Downsample {@code from} - {@code to} into {@code points} evenly sized ranges, eg one per pixel column of a chart.
+     * Ranges without valid samples get NaN.
+     *
+     * @return number of points written, less than {@code points} if the range holds fewer samples
+     */
+    synchronized int downsample(int from, int to, int points, double[] outMin, double[] outMax, double[] outMean) {
+        to = Math.min(to, size);
+        int length = to - from;
+        if (length <= 0 || points <= 0) {
+            return 0;
+        }
+        points = Math.min(points, length);
+        for (int p = 0; p < points; p++) {
+            int start = from + (int) ((long) length * p / points);
+            int end = from + (int) ((long) length * (p + 1) / points);
+            summarize(start, end, scratch);
+            boolean empty = scratch.count == 0;
+            outMin[p] = empty ? Double.NaN : scratch.min;
+            outMax[p] = empty ? Double.NaN : scratch.max;
+            outMean[p] = scratch.mean();
+        }
+        return points;
+    }
+}
@@ -0,0 +1,484 @@
+package com.samples.flironecamera;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Index of the recorded sessions under the sessions directory, to find sessions by station, time and summary statistics without
+ * opening their samples, eg all sessions of a station last week with a breathing rate above 25 per minute.
+ * <p/>
+ * Every session adds a fixed size entry to {@code catalog.idx} in the sessions directory when its first frames are recorded and
+ * writes the same entry to {@code catalog.entry} in its own directory, both are updated while it's recorded and when it closes, so a session
+ * that never closed is found with its last update. The index is loaded into primitive columns when the catalog is opened, a query is a
+ * scan of the columns, narrowed by a binary search on the start time while sessions were added in order. A missing or damaged
+ * index is rebuilt from the entries in the session directories, which doesn't read any samples either.
+ * <p/>
+ * Entry, little endian: long start and end wall clock ms, int frames, int measured frames, float min / mean / max temperature C,
+ * float min / mean / max breaths per minute, int breaths, int events per {@link BreathingEvents} rule, station and session name
+ * as zero padded UTF-8.
+ * <p/>
+ * Reads, adds and updates are synchronized, a session is updated from the spill thread of its {@link SessionStore}.
+ */
+final class SessionCatalog {
+
+    static final String INDEX_FILE = "catalog.idx";
+    static final String ENTRY_FILE = "catalog.entry";
+    static final int MAGIC = 0x46434154; // "FCAT"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 8;
+    static final int NAME_BYTES = 32;
+    static final int ENTRY_BYTES = 8 + 8 + 4 + 4 + 3 * 4 + 3 * 4 + 4 + BreathingEvents.RULE_COUNT * 4 + 2 * NAME_BYTES;
+
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int INITIAL_CAPACITY = 256;
+    //breath to breath intervals longer than this are pauses, not a rate
+    private static final long MAX_BREATH_INTERVAL_NANOS = 60_000_000_000L;
+
+    /**
+     * Statistics of a session, accumulated while it's recorded, O(1) per frame and allocation free
+     */
+    static final class Summary {
+        String station = "";
+        long startMillis;
+        long endMillis;
+        int frames;
+        int measured;
+        double temperatureMin = Double.NaN;
+        double temperatureSum;
+        double temperatureMax = Double.NaN;
+        int breaths;
+        double rateMin = Double.NaN;
+        double rateSum;
+        double rateMax = Double.NaN;
+        int rates;
+        final int[] events = new int[BreathingEvents.RULE_COUNT];
+        private long lastBreathNanos = -1;
+
+        /**
+         * @param flags {@link TemperatureSeries} flags of the frame, its breath flag starts a breath
+         */
+        void add(long timestampNanos, double temperature, int flags) {
+            frames++;
+            if (!Double.isNaN(temperature)) {
+                measured++;
+                temperatureSum += temperature;
+                temperatureMin = measured == 1 ? temperature : Math.min(temperatureMin, temperature);
+                temperatureMax = measured == 1 ? temperature : Math.max(temperatureMax, temperature);
+            }
+            if ((flags & TemperatureSeries.FLAG_BREATH) != 0) {
+                breaths++;
+                long interval = timestampNanos - lastBreathNanos;
+                if (lastBreathNanos >= 0 && interval > 0 && interval <= MAX_BREATH_INTERVAL_NANOS) {
+                    double rate = 60e9 / interval;
+                    rates++;
+                    rateSum += rate;
+                    rateMin = rates == 1 ? rate : Math.min(rateMin, rate);
+                    rateMax = rates == 1 ? rate : Math.max(rateMax, rate);
+                }
+                lastBreathNanos = timestampNanos;
+            }
+        }
+
+        /**
+         * Copy of the statistics so far, eg to write them while this summary keeps accumulating
+         */
+        Summary copy() {
+            Summary copy = new Summary();
+            copy.station = station;
+            copy.startMillis = startMillis;
+            copy.endMillis = endMillis;
+            copy.frames = frames;
+            copy.measured = measured;
+            copy.temperatureMin = temperatureMin;
+            copy.temperatureSum = temperatureSum;
+            copy.temperatureMax = temperatureMax;
+            copy.breaths = breaths;
+            copy.rateMin = rateMin;
+            copy.rateSum = rateSum;
+            copy.rateMax = rateMax;
+            copy.rates = rates;
+            System.arraycopy(events, 0, copy.events, 0, events.length);
+            copy.lastBreathNanos = lastBreathNanos;
+            return copy;
+        }
+
+        double temperatureMean() {
+            return measured == 0 ? Double.NaN : temperatureSum / measured;
+        }
+
+        double rateMean() {
+            return rates == 0 ? Double.NaN : rateSum / rates;
+        }
+    }
+
+    /**
+     * Query predicate on an entry, read it through the catalog's accessors
+     */
+    interface Filter {
+        boolean accept(SessionCatalog catalog, int entry);
+    }
+
+    static Filter rateAbove(double perMinute) {
+        return (catalog, entry) -> catalog.rateMaxAt(entry) > perMinute;
+    }
+
+    static Filter temperatureAbove(double celsius) {
+        return (catalog, entry) -> catalog.temperatureMaxAt(entry) > celsius;
+    }
+
+    static Filter eventsOf(int rule) {
+        return (catalog, entry) -> catalog.eventsAt(entry, rule) > 0;
+    }
+
+    private final File sessionsDirectory;
+    private final ByteBuffer entry = ByteBuffer.allocate(ENTRY_BYTES).order(ORDER);
+
+    private int size;
+    private long[] starts = new long[INITIAL_CAPACITY];
+    private long[] ends = new long[INITIAL_CAPACITY];
+    private int[] frames = new int[INITIAL_CAPACITY];
+    private int[] measured = new int[INITIAL_CAPACITY];
+    private float[] temperatures = new float[INITIAL_CAPACITY * 3];
+    private float[] rates = new float[INITIAL_CAPACITY * 3];
+    private int[] breaths = new int[INITIAL_CAPACITY];
+    private int[] events = new int[INITIAL_CAPACITY * BreathingEvents.RULE_COUNT];
+    private String[] stations = new String[INITIAL_CAPACITY];
+    private String[] names = new String[INITIAL_CAPACITY];
+    //entries are in start order, queries can binary search
+    private boolean ordered = true;
+    //longest session, bounds the binary search for sessions overlapping a time range
+    private long longestMillis;
+
+    private SessionCatalog(File sessionsDirectory) {
+        this.sessionsDirectory = sessionsDirectory;
+    }
+
+    /**
+     * Load the index of the sessions directory, rebuilt from the session directories if it's missing or damaged
+     */
+    static SessionCatalog open(File sessionsDirectory) throws IOException {
+        SessionCatalog catalog = new SessionCatalog(sessionsDirectory);
+        File index = new File(sessionsDirectory, INDEX_FILE);
+        if (!index.isFile() || !catalog.load(index)) {
+            catalog.rebuild();
+        }
+        return catalog;
+    }
+
+    File directory() {
+        return sessionsDirectory;
+    }
+
+    /**
+     * Add a session, written to its directory and to the index under the directory's name
+     */
+    synchronized void add(File sessionDirectory, Summary summary) throws IOException {
+        encode(summary, sessionDirectory.getName());
+        write(new File(sessionDirectory, ENTRY_FILE), 0, false);
+        File index = new File(sessionsDirectory, INDEX_FILE);
+        if (!index.isFile()) {
+            writeHeader(index);
+        }
+        write(index, HEADER_BYTES + (long) size * ENTRY_BYTES, true);
+        entry.flip();
+        append(entry);
+    }
+
+    /**
+     * Write the entry of a session again, in its directory and in place in the index, added if the catalog doesn't have it
+     */
+    synchronized void update(File sessionDirectory, Summary summary) throws IOException {
+        encode(summary, sessionDirectory.getName());
+        //the name as it's stored, cut to NAME_BYTES
+        entry.position(ENTRY_BYTES - NAME_BYTES);
+        String name = getName(entry);
+        int i = size - 1;
+        while (i >= 0 && !name.equals(names[i])) {
+            i--;
+        }
+        if (i < 0) {
+            add(sessionDirectory, summary);
+            return;
+        }
+        write(new File(sessionDirectory, ENTRY_FILE), 0, false);
+        write(new File(sessionsDirectory, INDEX_FILE), HEADER_BYTES + (long) i * ENTRY_BYTES, true);
+        entry.rewind();
+        read(i, entry);
+    }
+
+    /**
+     * Read the entries of all session directories and write the index again
+     *
+     * @return sessions found
+     */
+    synchronized int rebuild() throws IOException {
+        size = 0;
+        ordered = true;
+        longestMillis = 0;
+        File[] directories = sessionsDirectory.listFiles();
+        if (directories != null) {
+            Arrays.sort(directories);
+            for (File directory : directories) {
+                File file = new File(directory, ENTRY_FILE);
+                if (!file.isFile() || file.length() != ENTRY_BYTES) {
+                    continue;
+                }
+                entry.clear();
+                try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+                    in.readFully(entry.array(), 0, ENTRY_BYTES);
+                }
+                append(entry);
+            }
+        }
+        File index = new File(sessionsDirectory, INDEX_FILE);
+        writeHeader(index);
+        try (RandomAccessFile out = new RandomAccessFile(index, "rw")) {
+            for (int i = 0; i < size; i++) {
+                encode(i);
+                out.seek(HEADER_BYTES + (long) i * ENTRY_BYTES);
+                out.write(entry.array(), 0, ENTRY_BYTES);
+            }
+        }
+        return size;
+    }
+
+    private boolean load(File index) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(index, "r")) {
+            long length = in.length();
+            if (length < HEADER_BYTES || in.readInt() != Integer.reverseBytes(MAGIC) || in.readInt() != Integer.reverseBytes(VERSION)) {
+                return false;
+            }
+            //a partly written last entry is left out, the next add overwrites it
+            long entries = (length - HEADER_BYTES) / ENTRY_BYTES;
+            FileChannel channel = in.getChannel();
+            ByteBuffer all = ByteBuffer.allocate((int) (entries * ENTRY_BYTES)).order(ORDER);
+            while (all.hasRemaining()) {
+                if (channel.read(all, HEADER_BYTES + all.position()) < 0) {
+                    return false;
+                }
+            }
+            all.flip();
+            for (long i = 0; i < entries; i++) {
+                all.limit((int) ((i + 1) * ENTRY_BYTES));
+                append(all);
+            }
+        }
+        return true;
+    }
+
+    private void writeHeader(File index) throws IOException {
+        try (RandomAccessFile out = new RandomAccessFile(index, "rw")) {
+            out.setLength(0);
+            out.writeInt(Integer.reverseBytes(MAGIC));
+            out.writeInt(Integer.reverseBytes(VERSION));
+        }
+    }
+
+    private void write(File file, long position, boolean keep) throws IOException {
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            if (!keep) {
+                out.setLength(0);
+            }
+            out.seek(position);
+            out.write(entry.array(), 0, ENTRY_BYTES);
+        }
+    }
+
+    private void encode(Summary summary, String name) {
+        entry.clear();
+        entry.putLong(summary.startMillis).putLong(summary.endMillis).putInt(summary.frames).putInt(summary.measured)
+                .putFloat((float) summary.temperatureMin).putFloat((float) summary.temperatureMean()).putFloat((float) summary.temperatureMax)
+                .putFloat((float) summary.rateMin).putFloat((float) summary.rateMean()).putFloat((float) summary.rateMax)
+                .putInt(summary.breaths);
+        for (int rule = 0; rule < BreathingEvents.RULE_COUNT; rule++) {
+            entry.putInt(summary.events[rule]);
+        }
+        putName(summary.station);
+        putName(name);
+    }
+
+    private void encode(int i) {
+        entry.clear();
+        entry.putLong(starts[i]).putLong(ends[i]).putInt(frames[i]).putInt(measured[i])
+                .putFloat(temperatures[i * 3]).putFloat(temperatures[i * 3 + 1]).putFloat(temperatures[i * 3 + 2])
+                .putFloat(rates[i * 3]).putFloat(rates[i * 3 + 1]).putFloat(rates[i * 3 + 2])
+                .putInt(breaths[i]);
+        for (int rule = 0; rule < BreathingEvents.RULE_COUNT; rule++) {
+            entry.putInt(events[i * BreathingEvents.RULE_COUNT + rule]);
+        }
+        putName(stations[i]);
+        putName(names[i]);
+    }
+
+    private void putName(String name) {
+        byte[] bytes = name.getBytes(UTF_8);
+        int n = Math.min(bytes.length, NAME_BYTES);
+        entry.put(bytes, 0, n);
+        for (int i = n; i < NAME_BYTES; i++) {
+            entry.put((byte) 0);
+        }
+    }
+
+    private static String getName(ByteBuffer in) {
+        byte[] bytes = new byte[NAME_BYTES];
+        in.get(bytes);
+        int n = 0;
+        while (n < NAME_BYTES && bytes[n] != 0) {
+            n++;
+        }
+        return new String(bytes, 0, n, UTF_8);
+    }
+
+    /**
+     * Add the entry at the buffer's position to the columns
+     */
+    private void append(ByteBuffer in) {
+        if (size == starts.length) {
+            int capacity = size * 2;
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            frames = Arrays.copyOf(frames, capacity);
+            measured = Arrays.copyOf(measured, capacity);
+            temperatures = Arrays.copyOf(temperatures, capacity * 3);
+            rates = Arrays.copyOf(rates, capacity * 3);
+            breaths = Arrays.copyOf(breaths, capacity);
+            events = Arrays.copyOf(events, capacity * BreathingEvents.RULE_COUNT);
+            stations = Arrays.copyOf(stations, capacity);
+            names = Arrays.copyOf(names, capacity);
+        }
+        read(size, in);
+        size++;
+    }
+
+    /**
+     * Set entry {@code i} of the columns to the entry at the buffer's position
+     */
+    private void read(int i, ByteBuffer in) {
+        in.order(ORDER);
+        starts[i] = in.getLong();
+        ends[i] = in.getLong();
+        frames[i] = in.getInt();
+        measured[i] = in.getInt();
+        for (int k = 0; k < 3; k++) {
+            temperatures[i * 3 + k] = in.getFloat();
+        }
+        for (int k = 0; k < 3; k++) {
+            rates[i * 3 + k] = in.getFloat();
+        }
+        breaths[i] = in.getInt();
+        for (int rule = 0; rule < BreathingEvents.RULE_COUNT; rule++) {
+            events[i * BreathingEvents.RULE_COUNT + rule] = in.getInt();
+        }
+        //the same station in every entry of a station
+        String station = getName(in);
+        stations[i] = i > 0 && station.equals(stations[i - 1]) ? stations[i - 1] : station;
+        names[i] = getName(in);
+        if (i > 0 && starts[i] < starts[i - 1]) {
+            ordered = false;
+        }
+        longestMillis = Math.max(longestMillis, ends[i] - starts[i]);
+    }
+
+    /**
+     * Sessions of a station overlapping a time range that pass a filter, in index order
+     *
+     * @param station    null for all stations
+     * @param fromMillis wall clock, inclusive
+     * @param toMillis   wall clock, exclusive
+     * @param filter     null to accept all
+     * @return entry indices
+     */
+    synchronized int[] query(String station, long fromMillis, long toMillis, Filter filter) {
+        int from = 0;
+        int to = size;
+        if (ordered) {
+            //no session starting before this can reach into the range
+            from = lowerBound(fromMillis - longestMillis);
+            to = lowerBound(toMillis);
+        }
+        int[] found = new int[Math.max(0, to - from)];
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            if (starts[i] < toMillis && ends[i] >= fromMillis
+                    && (station == null || station.equals(stations[i]))
+                    && (filter == null || filter.accept(this, i))) {
+                found[n++] = i;
+            }
+        }
+        return Arrays.copyOf(found, n);
+    }
+
+    //first entry starting at or after the time
+    private int lowerBound(long millis) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (starts[middle] < millis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized String stationAt(int i) {
+        return stations[i];
+    }
+
+    synchronized String nameAt(int i) {
+        return names[i];
+    }
+
+    synchronized long startAt(int i) {
+        return starts[i];
+    }
+
+    synchronized long endAt(int i) {
+        return ends[i];
+    }
+
+    synchronized int framesAt(int i) {
+        return frames[i];
+    }
+
+    synchronized int measuredAt(int i) {
+        return measured[i];
+    }
+
+    synchronized float temperatureMeanAt(int i) {
+        return temperatures[i * 3 + 1];
+    }
+
+    synchronized float temperatureMaxAt(int i) {
+        return temperatures[i * 3 + 2];
+    }
+
+    synchronized float rateMeanAt(int i) {
+        return rates[i * 3 + 1];
+    }
+
+    synchronized float rateMaxAt(int i) {
+        return rates[i * 3 + 2];
+    }
+
+    synchronized int breathsAt(int i) {
+        return breaths[i];
+    }
+
+    synchronized int eventsAt(int i, int rule) {
+        return events[i * BreathingEvents.RULE_COUNT + rule];
+    }
+}
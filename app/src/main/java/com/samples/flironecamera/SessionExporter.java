@@ -0,0 +1,162 @@
+package com.samples.flironecamera;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Streams a measurement session from a {@link TemperatureSeries} to files, as CSV and as a compact binary columnar format.
+ * <p/>
+ * Rows are written in chunks of {@link #CHUNK_ROWS} through buffers allocated once per exporter, so memory use is the same for
+ * a session of a hundred or a hundred million samples. The series may keep growing while it's exported, only the samples
+ * present when the export starts are written.
+ * <p/>
+ * Binary layout, little endian:
+ * <pre>
+ * header  "FOCS", short version, short column count
+ * chunk   int rows, long[rows] timestamp ns, float[rows] raw C, float[rows] filtered C,
+ *         short[rows] roi x, short[rows] roi y, short[rows] roi width, short[rows] roi height, byte[rows] flags
+ * ...
+ * end     int 0, long total rows
+ * </pre>
+ */
+final class SessionExporter {
+
+    static final int CHUNK_ROWS = 4096;
+    static final String CSV_EXTENSION = ".csv";
+    static final String COLUMNAR_EXTENSION = ".focs";
+
+    static final short COLUMNAR_VERSION = 1;
+    static final byte[] COLUMNAR_MAGIC = {'F', 'O', 'C', 'S'};
+    private static final short COLUMN_COUNT = 8;
+    //bytes per row in the binary format
+    static final int ROW_BYTES = 8 + 4 + 4 + 4 * 2 + 1;
+
+    private static final String CSV_HEADER = "timestamp_ns,raw_c,filtered_c,roi_x,roi_y,roi_width,roi_height,flags\n";
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final ByteBuffer chunk = ByteBuffer.allocateDirect(4 + CHUNK_ROWS * ROW_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private final StringBuilder csvChunk = new StringBuilder(CHUNK_ROWS * 64);
+    private char[] csvChars = new char[CHUNK_ROWS * 64];
+
+    /**
+     * Write the session as {@code baseName.csv} and {@code baseName.focs} into {@code directory},
+     * eg {@link FileHandler#getImageStoragePath()}
+     *
+     * @return number of samples written
+     */
+    int export(TemperatureSeries series, File directory, String baseName) throws IOException {
+        int rows = series.size();
+        writeCsv(series, 0, rows, new File(directory, baseName + CSV_EXTENSION));
+        writeColumnar(series, 0, rows, new File(directory, baseName + COLUMNAR_EXTENSION));
+        return rows;
+    }
+
+    void writeCsv(TemperatureSeries series, int from, int to, File file) throws IOException {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), US_ASCII), WRITE_BUFFER_SIZE)) {
+            writer.write(CSV_HEADER);
+            for (int start = from; start < to; start += CHUNK_ROWS) {
+                int end = Math.min(to, start + CHUNK_ROWS);
+                csvChunk.setLength(0);
+                for (int i = start; i < end; i++) {
+                    long roi = series.roiAt(i);
+                    csvChunk.append(series.timestampAt(i)).append(',');
+                    appendFixed(csvChunk, series.valueAt(i));
+                    csvChunk.append(',');
+                    appendFixed(csvChunk, series.filteredAt(i));
+                    csvChunk.append(',').append(TemperatureSeries.roiX(roi))
+                            .append(',').append(TemperatureSeries.roiY(roi))
+                            .append(',').append(TemperatureSeries.roiWidth(roi))
+                            .append(',').append(TemperatureSeries.roiHeight(roi))
+                            .append(',').append(series.flagsAt(i)).append('\n');
+                }
+                //Writer.append(CharSequence) would copy the chunk into a new String
+                int length = csvChunk.length();
+                if (length > csvChars.length) {
+                    csvChars = new char[length];
+                }
+                csvChunk.getChars(0, length, csvChars, 0);
+                writer.write(csvChars, 0, length);
+            }
+        }
+    }
+
+    void writeColumnar(TemperatureSeries series, int from, int to, File file) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            FileChannel channel = out.getChannel();
+            chunk.clear();
+            chunk.put(COLUMNAR_MAGIC).putShort(COLUMNAR_VERSION).putShort(COLUMN_COUNT);
+            flush(channel);
+            for (int start = from; start < to; start += CHUNK_ROWS) {
+                int end = Math.min(to, start + CHUNK_ROWS);
+                chunk.putInt(end - start);
+                for (int i = start; i < end; i++) {
+                    chunk.putLong(series.timestampAt(i));
+                }
+                for (int i = start; i < end; i++) {
+                    chunk.putFloat((float) series.valueAt(i));
+                }
+                for (int i = start; i < end; i++) {
+                    chunk.putFloat((float) series.filteredAt(i));
+                }
+                for (int i = start; i < end; i++) {
+                    chunk.putShort((short) TemperatureSeries.roiX(series.roiAt(i)));
+                }
+                for (int i = start; i < end; i++) {
+                    chunk.putShort((short) TemperatureSeries.roiY(series.roiAt(i)));
+                }
+                for (int i = start; i < end; i++) {
+                    chunk.putShort((short) TemperatureSeries.roiWidth(series.roiAt(i)));
+                }
+                for (int i = start; i < end; i++) {
+                    chunk.putShort((short) TemperatureSeries.roiHeight(series.roiAt(i)));
+                }
+                for (int i = start; i < end; i++) {
+                    chunk.put((byte) series.flagsAt(i));
+                }
+                flush(channel);
+            }
+            chunk.putInt(0).putLong(Math.max(0, to - from));
+            flush(channel);
+        }
+    }
+
+    private void flush(FileChannel channel) throws IOException {
+        chunk.flip();
+        while (chunk.hasRemaining()) {
+            channel.write(chunk);
+        }
+        chunk.clear();
+    }
+
+    /**
+     * Append a temperature with 3 decimals without going through Double.toString(), empty for NaN
+     */
+    static void appendFixed(StringBuilder sb, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return;
+        }
+        long scaled = Math.round(value * 1000);
+        if (scaled < 0) {
+            sb.append('-');
+            scaled = -scaled;
+        }
+        long fraction = scaled % 1000;
+        sb.append(scaled / 1000).append('.');
+        if (fraction < 100) {
+            sb.append('0');
+        }
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        sb.append(fraction);
+    }
+}
@@ -0,0 +1,70 @@
+package com.samples.flironecamera;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Open {@link CameraSession}s by id, eg {@link com.flir.thermalsdk.live.Identity#deviceId}, so several cameras can measure at once.
+ * <p/>
+ * Opening and closing is serialized, the sessions themselves run independently.
+ */
+final class SessionManager {
+
+    private final Map<String, CameraSession> sessions = new LinkedHashMap<>();
+
+    /**
+     * Create and start a session
+     *
+     * @throws IllegalStateException if a session with this id is already open
+     */
+    synchronized CameraSession open(String id, FrameSource source, CameraSession.Processor processor, int frameCapacity) throws IOException {
+        if (sessions.containsKey(id)) {
+            throw new IllegalStateException("Session already open: " + id);
+        }
+        CameraSession session = new CameraSession(id, source, processor, frameCapacity);
+        session.start();
+        sessions.put(id, session);
+        return session;
+    }
+
+    synchronized CameraSession get(String id) {
+        return sessions.get(id);
+    }
+
+    synchronized List<CameraSession> sessions() {
+        return new ArrayList<>(sessions.values());
+    }
+
+    synchronized int size() {
+        return sessions.size();
+    }
+
+    /**
+     * @return false if there was no session with this id
+     */
+    boolean close(String id) {
+        CameraSession session;
+        synchronized (this) {
+            session = sessions.remove(id);
+        }
+        if (session == null) {
+            return false;
+        }
+        session.stop();
+        return true;
+    }
+
+    void closeAll() {
+        List<CameraSession> closing;
+        synchronized (this) {
+            closing = new ArrayList<>(sessions.values());
+            sessions.clear();
+        }
+        for (CameraSession session : closing) {
+            session.stop();
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package com.samples.flironecamera;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append only store of nostril samples for sessions of any length, eg overnight monitoring.
+ * <p/>
+ * Samples are written to fixed size chunks of {@link #CHUNK_ROWS} rows in direct (off-heap) buffers, column by column like
+ * {@link TemperatureSeries}. When more chunks are in memory than the memory budget allows, the oldest full chunks are written to
+ * a file per chunk on a background thread and their buffers are reused. Reads cover chunks in memory and on disk alike.
+ * Closing the store writes the remaining chunks too, so the directory holds the complete session.
+ * <p/>
+ * Chunk file: magic, number of rows, index of the first row, then the columns of {@link #CHUNK_ROWS} rows, little endian.
+ * <p/>
+ * There must be a single writer thread, reads may come from any thread.
+ */
+final class SessionStore implements Closeable {
+
+    static final int CHUNK_ROWS = 4096;
+    static final long DEFAULT_MEMORY_BUDGET_BYTES = 16L * 1024 * 1024;
+
+    static final int MAGIC = 0x46534331; // "FSC1"
+    static final int HEADER_BYTES = 16;
+
+    //column offsets in a chunk
+    private static final int TIMESTAMPS = 0;
+    private static final int VALUES = TIMESTAMPS + CHUNK_ROWS * 8;
+    private static final int FILTERED = VALUES + CHUNK_ROWS * 8;
+    private static final int ROIS = FILTERED + CHUNK_ROWS * 8;
+    private static final int FLAGS = ROIS + CHUNK_ROWS * 8;
+    static final int CHUNK_BYTES = FLAGS + CHUNK_ROWS;
+
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private static final class Chunk {
+        final int number;
+        final File file;
+        //null once the chunk is on disk, guarded by the store lock
+        ByteBuffer buffer;
+        volatile int rows;
+        //written to disk, the buffer may be reused
+        boolean spilled;
+
+        Chunk(int number, File file, ByteBuffer buffer) {
+            this.number = number;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    private final File directory;
+    private final int memoryChunks;
+    private final Object lock = new Object();
+    private final ExecutorService spiller = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "session-spill");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    //replaced as a whole when a chunk is added, like TemperatureSeries.Columns
+    private volatile Chunk[] chunks = new Chunk[0];
+    private volatile int size;
+    //buffers of spilled chunks, reused for new chunks, guarded by lock
+    private final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<>();
+    private int buffersInMemory;
+    //last chunk read back from disk
+    private final ByteBuffer readCache = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ORDER);
+    private Chunk cached;
+    private volatile int spilledChunks;
+    private volatile IOException spillFailure;
+    private boolean closed;
+
+    SessionStore(File directory) throws IOException {
+        this(directory, DEFAULT_MEMORY_BUDGET_BYTES);
+    }
+
+    /**
+     * @param directory          chunk files are written here, it's created if needed
+     * @param memoryBudgetBytes  off-heap memory for chunks, at least two chunks are kept in memory
+     */
+    SessionStore(File directory, long memoryBudgetBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        this.directory = directory;
+        this.memoryChunks = (int) Math.max(2, memoryBudgetBytes / CHUNK_BYTES);
+    }
+
+    File directory() {
+        return directory;
+    }
+
+    /**
+     * Run a write that must not block the writer on the spill thread, after the chunks spilled so far, ignored once closed
+     */
+    void execute(Runnable write) {
+        synchronized (lock) {
+            if (!closed) {
+                spiller.execute(write);
+            }
+        }
+    }
+
+    /**
+     * @param roi nostril region packed with {@link TemperatureSeries#packRoi(int, int, int, int)}
+     */
+    void append(long timestampNanos, double value, double filteredValue, long roi, int flags) {
+        int n = size;
+        Chunk[] c = chunks;
+        int row = n % CHUNK_ROWS;
+        Chunk chunk;
+        if (row == 0) {
+            chunk = addChunk(n / CHUNK_ROWS);
+        } else {
+            chunk = c[c.length - 1];
+        }
+        ByteBuffer buffer = chunk.buffer;
+        buffer.putLong(TIMESTAMPS + row * 8, timestampNanos);
+        buffer.putDouble(VALUES + row * 8, value);
+        buffer.putDouble(FILTERED + row * 8, filteredValue);
+        buffer.putLong(ROIS + row * 8, roi);
+        buffer.put(FLAGS + row, (byte) flags);
+        chunk.rows = row + 1;
+        size = n + 1;
+    }
+
+    /**
+     * Append the rows of a batch of measurements, the nostril block temperature is the value
+     */
+    void append(thermalData batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            append(batch.timestamps[i], batch.blockMean[i], batch.filtered[i], batch.roiAt(i), batch.flagsAt(i));
+        }
+    }
+
+    private Chunk addChunk(int number) {
+        Chunk chunk;
+        synchronized (lock) {
+            ByteBuffer buffer = freeBuffers.poll();
+            if (buffer == null) {
+                //over budget if spilling falls behind, the writer never waits for the disk
+                buffer = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ORDER);
+                buffersInMemory++;
+            }
+            chunk = new Chunk(number, chunkFile(number), buffer);
+            Chunk[] c = Arrays.copyOf(chunks, number + 1);
+            c[number] = chunk;
+            chunks = c;
+            if (buffersInMemory >= memoryChunks && number > 0) {
+                //the previous chunk is full, spill the oldest one still in memory
+                Chunk oldest = oldestInMemory(number);
+                if (oldest != null) {
+                    spill(oldest);
+                }
+            }
+        }
+        return chunk;
+    }
+
+    private Chunk oldestInMemory(int before) {
+        Chunk[] c = chunks;
+        for (int i = 0; i < before; i++) {
+            if (!c[i].spilled && c[i].buffer != null) {
+                return c[i];
+            }
+        }
+        return null;
+    }
+
+    private File chunkFile(int number) {
+        return new File(directory, String.format(Locale.US, "chunk-%06d.bin", number));
+    }
+
+    private void spill(Chunk chunk) {
+        //marked right away so it isn't scheduled twice, reset if the write fails
+        chunk.spilled = true;
+        spiller.execute(() -> {
+            try {
+                write(chunk);
+            } catch (IOException e) {
+                spillFailure = e;
+                synchronized (lock) {
+                    chunk.spilled = false;
+                }
+                return;
+            }
+            synchronized (lock) {
+                freeBuffers.push(chunk.buffer);
+                chunk.buffer = null;
+                spilledChunks++;
+            }
+        });
+    }
+
+    private void write(Chunk chunk) throws IOException {
+        //only full chunks and, at close, the last one are written, their content doesn't change anymore
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ORDER);
+        header.putInt(MAGIC).putInt(chunk.rows).putLong((long) chunk.number * CHUNK_ROWS).flip();
+        ByteBuffer content = chunk.buffer.duplicate();
+        content.clear();
+        try (RandomAccessFile file = new RandomAccessFile(chunk.file, "rw")) {
+            FileChannel channel = file.getChannel();
+            channel.truncate(0);
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Off-heap memory held by chunks in memory
+     */
+    long memoryBytes() {
+        synchronized (lock) {
+            return (long) buffersInMemory * CHUNK_BYTES;
+        }
+    }
+
+    int spilledChunks() {
+        return spilledChunks;
+    }
+
+    /**
+     * Last failure writing a chunk, the chunk stays in memory, null if there was none
+     */
+    IOException spillFailure() {
+        return spillFailure;
+    }
+
+    /**
+     * Copy a range of samples into caller owned arrays, from memory or from disk
+     *
+     * @return number of samples copied, less than {@code count} at the end of the store
+     */
+    int read(int from, int count, long[] timestamps, double[] values, int[] flags) throws IOException {
+        int n = Math.max(0, Math.min(count, size - from));
+        Chunk[] c = chunks;
+        synchronized (lock) {
+            int done = 0;
+            while (done < n) {
+                int index = from + done;
+                Chunk chunk = c[index / CHUNK_ROWS];
+                int row = index % CHUNK_ROWS;
+                int rows = Math.min(n - done, CHUNK_ROWS - row);
+                ByteBuffer buffer = chunk.buffer != null ? chunk.buffer.duplicate().order(ORDER) : load(chunk);
+                buffer.position(TIMESTAMPS + row * 8);
+                buffer.asLongBuffer().get(timestamps, done, rows);
+                buffer.position(VALUES + row * 8);
+                buffer.asDoubleBuffer().get(values, done, rows);
+                for (int i = 0; i < rows; i++) {
+                    flags[done + i] = buffer.get(FLAGS + row + i) & 0xFF;
+                }
+                done += rows;
+            }
+        }
+        return n;
+    }
+
+    long timestampAt(int index) throws IOException {
+        synchronized (lock) {
+            return bufferOf(index).getLong(TIMESTAMPS + index % CHUNK_ROWS * 8);
+        }
+    }
+
+    double valueAt(int index) throws IOException {
+        synchronized (lock) {
+            return bufferOf(index).getDouble(VALUES + index % CHUNK_ROWS * 8);
+        }
+    }
+
+    double filteredAt(int index) throws IOException {
+        synchronized (lock) {
+            return bufferOf(index).getDouble(FILTERED + index % CHUNK_ROWS * 8);
+        }
+    }
+
+    long roiAt(int index) throws IOException {
+        synchronized (lock) {
+            return bufferOf(index).getLong(ROIS + index % CHUNK_ROWS * 8);
+        }
+    }
+
+    int flagsAt(int index) throws IOException {
+        synchronized (lock) {
+            return bufferOf(index).get(FLAGS + index % CHUNK_ROWS) & 0xFF;
+        }
+    }
+
+    private ByteBuffer bufferOf(int index) throws IOException {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Sample " + index + " of " + size);
+        }
+        Chunk chunk = chunks[index / CHUNK_ROWS];
+        return chunk.buffer != null ? chunk.buffer : load(chunk);
+    }
+
+    /**
+     * Read a spilled chunk into the read cache, called with the lock held
+     */
+    private ByteBuffer load(Chunk chunk) throws IOException {
+        if (cached != chunk) {
+            cached = null;
+            readCache.clear();
+            try (RandomAccessFile file = new RandomAccessFile(chunk.file, "r")) {
+                FileChannel channel = file.getChannel();
+                long position = HEADER_BYTES;
+                while (readCache.hasRemaining()) {
+                    int read = channel.read(readCache, position);
+                    if (read < 0) {
+                        throw new IOException("Chunk " + chunk.file + " is truncated");
+                    }
+                    position += read;
+                }
+            }
+            cached = chunk;
+        }
+        ByteBuffer buffer = readCache.duplicate().order(ORDER);
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Write the chunks still in memory and stop the spill thread, call from the writer thread after the last append
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Chunk chunk : chunks) {
+                if (!chunk.spilled && chunk.buffer != null) {
+                    spill(chunk);
+                }
+            }
+        }
+        spiller.shutdown();
+        try {
+            spiller.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        IOException failure = spillFailure;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.samples.flironecamera;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the startup phases in parallel on background threads, each phase as soon as the phases it depends on are done.
+ * <p/>
+ * Every phase is recorded in a {@link StartupTrace}. A phase that throws is marked as failed and the phases depending on it are
+ * skipped, the others still run. The threads are stopped once every phase has finished.
+ */
+final class StartupOrchestrator {
+
+    private static final String TAG = "StartupOrchestrator";
+
+    interface Step {
+        void run() throws Exception;
+    }
+
+    final class Task {
+        final String name;
+        private final Step step;
+        private final List<Task> dependents = new ArrayList<>();
+        //dependencies not done yet, the task is submitted when it reaches 0
+        private final AtomicInteger waiting;
+        private volatile boolean failed;
+
+        private Task(String name, Step step, int dependencies) {
+            this.name = name;
+            this.step = step;
+            this.waiting = new AtomicInteger(dependencies);
+        }
+    }
+
+    private final StartupTrace trace;
+    private final List<Task> tasks = new ArrayList<>();
+    private final AtomicInteger unfinished = new AtomicInteger();
+    private ExecutorService executor;
+    private Runnable onFinished;
+
+    StartupOrchestrator(StartupTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Add a phase, call before {@link #start(int, Runnable)}
+     *
+     * @param after phases that have to be done before this one starts
+     */
+    Task add(String name, Step step, Task... after) {
+        Task task = new Task(name, step, after.length);
+        for (Task dependency : after) {
+            dependency.dependents.add(task);
+        }
+        tasks.add(task);
+        return task;
+    }
+
+    /**
+     * @param threads    phases running at the same time
+     * @param onFinished called on the thread of the last phase to finish
+     */
+    void start(int threads, Runnable onFinished) {
+        this.onFinished = onFinished;
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "startup-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        unfinished.set(tasks.size());
+        for (Task task : tasks) {
+            if (task.waiting.get() == 0) {
+                submit(task);
+            }
+        }
+    }
+
+    private void submit(Task task) {
+        executor.execute(() -> run(task));
+    }
+
+    private void run(Task task) {
+        StartupTrace.Phase phase = trace.begin(task.name);
+        boolean done = false;
+        try {
+            task.step.run();
+            done = true;
+        } catch (Exception e) {
+            Log.w(TAG, "startup phase " + task.name + " failed, exception:" + e);
+        } finally {
+            //errors too, eg a native library that doesn't load, the startup must still finish
+            if (done) {
+                trace.end(phase);
+            } else {
+                task.failed = true;
+                trace.fail(phase);
+            }
+            finish(task);
+        }
+    }
+
+    private void finish(Task task) {
+        for (Task dependent : task.dependents) {
+            if (task.failed) {
+                dependent.failed = true;
+            }
+            if (dependent.waiting.decrementAndGet() == 0) {
+                if (dependent.failed) {
+                    //recorded as failed without running
+                    trace.fail(trace.begin(dependent.name));
+                    finish(dependent);
+                } else {
+                    submit(dependent);
+                }
+            }
+        }
+        if (unfinished.decrementAndGet() == 0) {
+            executor.shutdown();
+            onFinished.run();
+        }
+    }
+}
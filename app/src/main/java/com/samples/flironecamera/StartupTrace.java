@@ -0,0 +1,133 @@
+package com.samples.flironecamera;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Timings of the startup phases, from launch to the first measurement.
+ * <p/>
+ * Each phase records when it started and ended relative to the launch and the thread it ran on. Marks are phases without a duration,
+ * eg "first_measurement", so the time to the first measurement can be tracked from one release to the next.
+ */
+final class StartupTrace {
+
+    static final String FIRST_FRAME = "first_frame";
+    static final String FIRST_MEASUREMENT = "first_measurement";
+
+    static final class Phase {
+        final String name;
+        final String thread;
+        final long startNanos;
+        private volatile long endNanos = -1;
+        private volatile boolean failed;
+
+        Phase(String name, String thread, long startNanos) {
+            this.name = name;
+            this.thread = thread;
+            this.startNanos = startNanos;
+        }
+
+        boolean isDone() {
+            return endNanos >= 0;
+        }
+
+        boolean failed() {
+            return failed;
+        }
+
+        /**
+         * @return duration in milliseconds, NaN while the phase is running
+         */
+        double millis() {
+            long end = endNanos;
+            return end < 0 ? Double.NaN : (end - startNanos) / 1e6;
+        }
+    }
+
+    private final long originNanos;
+    private final List<Phase> phases = new ArrayList<>();
+
+    /**
+     * @param originNanos {@link System#nanoTime()} of the launch, all timings are relative to it
+     */
+    StartupTrace(long originNanos) {
+        this.originNanos = originNanos;
+    }
+
+    synchronized Phase begin(String name) {
+        Phase phase = new Phase(name, Thread.currentThread().getName(), System.nanoTime() - originNanos);
+        phases.add(phase);
+        return phase;
+    }
+
+    void end(Phase phase) {
+        phase.endNanos = System.nanoTime() - originNanos;
+    }
+
+    void fail(Phase phase) {
+        phase.failed = true;
+        end(phase);
+    }
+
+    /**
+     * Record a point in time, only the first mark of a name counts
+     */
+    synchronized void mark(String name) {
+        if (find(name) == null) {
+            end(begin(name));
+        }
+    }
+
+    /**
+     * @return milliseconds from the launch to the end of {@code name}, NaN if it hasn't ended (yet)
+     */
+    synchronized double millisUntil(String name) {
+        Phase phase = find(name);
+        return phase == null || !phase.isDone() ? Double.NaN : phase.endNanos / 1e6;
+    }
+
+    /**
+     * @return milliseconds {@code name} took, NaN if it hasn't ended (yet)
+     */
+    synchronized double millisOf(String name) {
+        Phase phase = find(name);
+        return phase == null ? Double.NaN : phase.millis();
+    }
+
+    synchronized List<Phase> phases() {
+        return new ArrayList<>(phases);
+    }
+
+    private Phase find(String name) {
+        for (Phase phase : phases) {
+            if (phase.name.equals(name)) {
+                return phase;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Export the phase durations and the time to the first measurement as gauges
+     */
+    void register(PipelineMetrics metrics, String... phaseNames) {
+        for (String name : phaseNames) {
+            metrics.gauge("startup_" + name + "_ms", "Duration of the " + name + " startup phase", () -> millisOf(name));
+        }
+        metrics.gauge("time_to_first_frame_after_launch_ms", "From launch to the first camera frame", () -> millisUntil(FIRST_FRAME));
+        metrics.gauge("time_to_first_measurement_ms", "From launch to the first nostril temperature", () -> millisUntil(FIRST_MEASUREMENT));
+    }
+
+    /**
+     * One line per phase: offset from the launch, duration and thread
+     */
+    synchronized String summary() {
+        StringBuilder sb = new StringBuilder("startup trace");
+        for (Phase phase : phases) {
+            sb.append(String.format(Locale.US, "\n  %-20s +%8.1f ms %8.1f ms  %s%s",
+                    phase.name, phase.startNanos / 1e6, phase.millis(), phase.thread, phase.failed ? "  FAILED" : ""));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,197 @@
+package com.samples.flironecamera;
+
+import java.util.Arrays;
+
+/**
+ * Append only series of nostril measurements, one sample per recorded frame.
+ * <p/>
+ * Each sample carries the monotonic timestamp of its frame, the raw and filtered nostril temperature, the nostril region in
+ * thermal image coordinates and quality flags. Columns are stored in primitive arrays that grow by doubling, so appends are
+ * O(1) amortized and no boxing takes place. A frame without a measurement is stored as {@link Double#NaN} so the time axis stays complete.
+ * <p/>
+ * There must be a single writer thread, readers on other threads see every sample below {@link #size()}.
+ */
+final class TemperatureSeries {
+
+    //No face or no nose landmark found, the temperatures are NaN
+    static final int FLAG_NO_FACE = 1;
+    //The frame arrived late, frames before it were probably dropped
+    static final int FLAG_LATE_FRAME = 1 << 1;
+    //The nostril region was clipped to the face box
+    static final int FLAG_ROI_CLAMPED = 1 << 2;
+    //The breathing rate estimator detected the start of a breath
+    static final int FLAG_BREATH = 1 << 3;
+    //The frame wasn't measured, the processing governor only showed or dropped it
+    static final int FLAG_SKIPPED = 1 << 4;
+    //A breathing event (no breath, rate out of range, shallow breathing) was active
+    static final int FLAG_EVENT = 1 << 5;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Column arrays, replaced as a whole when the series grows so readers always see matching columns
+     */
+    private static final class Columns {
+        final long[] timestamps;
+        final double[] values;
+        final double[] filtered;
+        final long[] rois;
+        final byte[] flags;
+
+        Columns(int capacity) {
+            timestamps = new long[capacity];
+            values = new double[capacity];
+            filtered = new double[capacity];
+            rois = new long[capacity];
+            flags = new byte[capacity];
+        }
+
+        Columns(Columns from, int capacity) {
+            timestamps = Arrays.copyOf(from.timestamps, capacity);
+            values = Arrays.copyOf(from.values, capacity);
+            filtered = Arrays.copyOf(from.filtered, capacity);
+            rois = Arrays.copyOf(from.rois, capacity);
+            flags = Arrays.copyOf(from.flags, capacity);
+        }
+    }
+
+    private volatile Columns columns = new Columns(INITIAL_CAPACITY);
+    //written after the columns, a reader that sees a size also sees columns holding that many samples
+    private volatile int size;
+    //min / max / mean of the raw values at coarser resolutions, for charts and summaries of long sessions
+    final SeriesPyramid pyramid = new SeriesPyramid(this);
+
+    void append(long timestampNanos, double value) {
+        append(timestampNanos, value, value, 0, Double.isNaN(value) ? FLAG_NO_FACE : 0);
+    }
+
+    /**
+     * @param roi nostril region packed with {@link #packRoi(int, int, int, int)}
+     */
+    void append(long timestampNanos, double value, double filteredValue, long roi, int flags) {
+        int n = size;
+        Columns c = columns;
+        if (n == c.values.length) {
+            c = new Columns(c, n * 2);
+            columns = c;
+        }
+        c.timestamps[n] = timestampNanos;
+        c.values[n] = value;
+        c.filtered[n] = filteredValue;
+        c.rois[n] = roi;
+        c.flags[n] = (byte) flags;
+        size = n + 1;
+        pyramid.add(value);
+    }
+
+    /**
+     * Grow the columns and the pyramid to hold {@code capacity} samples without allocating later, eg at startup.
+     * Must be called by the writer thread or before it starts appending.
+     */
+    void ensureCapacity(int capacity) {
+        Columns c = columns;
+        if (capacity > c.values.length) {
+            columns = new Columns(c, capacity);
+        }
+        pyramid.ensureCapacity(capacity);
+    }
+
+    int size() {
+        return size;
+    }
+
+    long timestampAt(int index) {
+        return columns.timestamps[index];
+    }
+
+    double valueAt(int index) {
+        return columns.values[index];
+    }
+
+    double filteredAt(int index) {
+        return columns.filtered[index];
+    }
+
+    long roiAt(int index) {
+        return columns.rois[index];
+    }
+
+    int flagsAt(int index) {
+        return columns.flags[index] & 0xFF;
+    }
+
+    /**
+     * Copy a range of samples into caller owned arrays, eg one page of a list
+     *
+     * @return number of samples copied, less than {@code count} at the end of the series
+     */
+    int read(int from, int count, long[] timestamps, double[] values, int[] flags) {
+        //size before columns, the columns are then at least as new as the size
+        int available = size;
+        Columns c = columns;
+        int n = Math.max(0, Math.min(count, available - from));
+        System.arraycopy(c.timestamps, from, timestamps, 0, n);
+        System.arraycopy(c.values, from, values, 0, n);
+        for (int i = 0; i < n; i++) {
+            flags[i] = c.flags[from + i] & 0xFF;
+        }
+        return n;
+    }
+
+    /**
+     * Index of the first sample taken at or after {@code timestampNanos}, {@link #size()} if there is none.
+     * Timestamps are monotonic so this is a binary search.
+     */
+    int indexOf(long timestampNanos) {
+        int low = 0;
+        int high = size;
+        Columns c = columns;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (c.timestamps[mid] < timestampNanos) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Summarize the raw values of the samples taken between {@code fromNanos} (inclusive) and {@code toNanos} (exclusive)
+     */
+    void summarize(long fromNanos, long toNanos, SeriesPyramid.Summary out) {
+        pyramid.summarize(indexOf(fromNanos), indexOf(toNanos), out);
+    }
+
+    /**
+     * Seconds between the first sample and {@code index}
+     */
+    double secondsAt(int index) {
+        Columns c = columns;
+        return (c.timestamps[index] - c.timestamps[0]) / 1e9;
+    }
+
+    /**
+     * Pack a rectangle into one long, 16 bits per component
+     */
+    static long packRoi(int x, int y, int width, int height) {
+        return (x & 0xFFFFL) << 48 | (y & 0xFFFFL) << 32 | (width & 0xFFFFL) << 16 | (height & 0xFFFFL);
+    }
+
+    static int roiX(long roi) {
+        return (int) (roi >>> 48) & 0xFFFF;
+    }
+
+    static int roiY(long roi) {
+        return (int) (roi >>> 32) & 0xFFFF;
+    }
+
+    static int roiWidth(long roi) {
+        return (int) (roi >>> 16) & 0xFFFF;
+    }
+
+    static int roiHeight(long roi) {
+        return (int) roi & 0xFFFF;
+    }
+}
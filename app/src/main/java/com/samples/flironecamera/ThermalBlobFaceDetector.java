@@ -0,0 +1,159 @@
+package com.samples.flironecamera;
+
+/**
+ * Pure Java detector on the radiometric image: the face is the largest connected region at skin temperature.
+ * <p/>
+ * The image is sampled on a coarse grid, cells at skin temperature are grouped by a flood fill and the largest group is the face.
+ * There are no landmarks, the nose base, eyes and mouth are placed at fixed shares of the face box. Needs no model and no visual
+ * image so it works on every device, but only finds one face and is fooled by other warm objects.
+ */
+final class ThermalBlobFaceDetector implements FaceDetector {
+
+    //30 to 38 degrees Celsius
+    static final float DEFAULT_SKIN_MIN_KELVIN = 303.15f;
+    static final float DEFAULT_SKIN_MAX_KELVIN = 311.15f;
+
+    //thermal pixels per grid cell in each direction
+    private static final int STEP = 4;
+    //smallest face, share of the grid cells
+    private static final float MIN_FACE_SHARE = 0.01f;
+    //nose base below the top of the face, share of the face height
+    private static final float NOSE_BASE_SHARE = 0.62f;
+    //eyes and mouth corners, shares of the face height below its top and of the face width from its center
+    private static final float EYES_SHARE = 0.40f;
+    private static final float EYE_OFFSET_SHARE = 0.2f;
+    private static final float MOUTH_SHARE = 0.78f;
+    private static final float MOUTH_OFFSET_SHARE = 0.12f;
+
+    private final float skinMinKelvin;
+    private final float skinMaxKelvin;
+
+    //per grid cell: 0 not skin, -1 skin not visited yet, > 0 group number
+    private int[] labels = new int[0];
+    private int[] stack = new int[0];
+
+    ThermalBlobFaceDetector() {
+        this(DEFAULT_SKIN_MIN_KELVIN, DEFAULT_SKIN_MAX_KELVIN);
+    }
+
+    ThermalBlobFaceDetector(float skinMinKelvin, float skinMaxKelvin) {
+        this.skinMinKelvin = skinMinKelvin;
+        this.skinMaxKelvin = skinMaxKelvin;
+    }
+
+    @Override
+    public String name() {
+        return "thermal_blob";
+    }
+
+    @Override
+    public int inputs() {
+        return INPUT_THERMAL;
+    }
+
+    @Override
+    public boolean isOperational() {
+        return true;
+    }
+
+    @Override
+    public int detect(Input input, Faces out) {
+        out.clear();
+        int gridWidth = input.thermalWidth / STEP;
+        int gridHeight = input.thermalHeight / STEP;
+        int cells = gridWidth * gridHeight;
+        if (cells == 0) {
+            return 0;
+        }
+        if (labels.length < cells) {
+            labels = new int[cells];
+            stack = new int[cells];
+        }
+        float[] kelvin = input.kelvin;
+        for (int gy = 0; gy < gridHeight; gy++) {
+            int row = (gy * STEP + STEP / 2) * input.thermalWidth + STEP / 2;
+            for (int gx = 0; gx < gridWidth; gx++) {
+                float value = kelvin[row + gx * STEP];
+                labels[gy * gridWidth + gx] = value >= skinMinKelvin && value <= skinMaxKelvin ? -1 : 0;
+            }
+        }
+
+        int bestSize = 0;
+        int bestLeft = 0;
+        int bestTop = 0;
+        int bestRight = 0;
+        int bestBottom = 0;
+        int group = 0;
+        for (int start = 0; start < cells; start++) {
+            if (labels[start] != -1) {
+                continue;
+            }
+            group++;
+            int size = 0;
+            int left = gridWidth;
+            int top = gridHeight;
+            int right = -1;
+            int bottom = -1;
+            int depth = 0;
+            stack[depth++] = start;
+            labels[start] = group;
+            while (depth > 0) {
+                int cell = stack[--depth];
+                int x = cell % gridWidth;
+                int y = cell / gridWidth;
+                size++;
+                left = Math.min(left, x);
+                right = Math.max(right, x);
+                top = Math.min(top, y);
+                bottom = Math.max(bottom, y);
+                //4 neighbours, each cell is pushed once as it's labelled when pushed
+                if (x > 0 && labels[cell - 1] == -1) {
+                    labels[cell - 1] = group;
+                    stack[depth++] = cell - 1;
+                }
+                if (x < gridWidth - 1 && labels[cell + 1] == -1) {
+                    labels[cell + 1] = group;
+                    stack[depth++] = cell + 1;
+                }
+                if (y > 0 && labels[cell - gridWidth] == -1) {
+                    labels[cell - gridWidth] = group;
+                    stack[depth++] = cell - gridWidth;
+                }
+                if (y < gridHeight - 1 && labels[cell + gridWidth] == -1) {
+                    labels[cell + gridWidth] = group;
+                    stack[depth++] = cell + gridWidth;
+                }
+            }
+            if (size > bestSize) {
+                bestSize = size;
+                bestLeft = left;
+                bestTop = top;
+                bestRight = right;
+                bestBottom = bottom;
+            }
+        }
+        if (bestSize < MIN_FACE_SHARE * cells) {
+            return 0;
+        }
+        //grid cells to visual pixels
+        float scale = STEP * input.thermalScale();
+        float left = bestLeft * scale;
+        float top = bestTop * scale;
+        float right = (bestRight + 1) * scale;
+        float bottom = (bestBottom + 1) * scale;
+        float centerX = (left + right) / 2;
+        float width = right - left;
+        float height = bottom - top;
+        out.add(left, top, right, bottom, centerX, top + NOSE_BASE_SHARE * height);
+        //the subject's left eye is on the right of the image
+        out.setLandmark(0, Faces.LEFT_EYE, centerX + EYE_OFFSET_SHARE * width, top + EYES_SHARE * height);
+        out.setLandmark(0, Faces.RIGHT_EYE, centerX - EYE_OFFSET_SHARE * width, top + EYES_SHARE * height);
+        out.setLandmark(0, Faces.LEFT_MOUTH, centerX + MOUTH_OFFSET_SHARE * width, top + MOUTH_SHARE * height);
+        out.setLandmark(0, Faces.RIGHT_MOUTH, centerX - MOUTH_OFFSET_SHARE * width, top + MOUTH_SHARE * height);
+        return 1;
+    }
+
+    @Override
+    public void release() {
+    }
+}
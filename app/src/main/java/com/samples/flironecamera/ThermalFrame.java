@@ -0,0 +1,79 @@
+package com.samples.flironecamera;
+
+/**
+ * Radiometric values of one frame copied out of the SDK, so the frame can be processed after
+ * {@link com.flir.thermalsdk.live.Camera#withImage} returned and on another thread.
+ * <p/>
+ * Values are Kelvin as {@link com.flir.thermalsdk.image.ThermalImage#getValues} returns them, row major. Frames are pooled,
+ * the value array is allocated once with room for the largest expected image and reused for every frame.
+ */
+final class ThermalFrame implements NostrilMeasurement.RegionReader {
+
+    final float[] kelvin;
+    int width;
+    int height;
+    long sequence;
+    long timestampNanos;
+    //TemperatureSeries flags known when the frame arrived, eg FLAG_LATE_FRAME, a measurement adds its own
+    int flags;
+    //nostril region a measurement of the frame found, packed with TemperatureSeries.packRoi, 0 if none
+    long roi;
+    //temperature in Celsius of the drift reference region a measurement found, NaN if none
+    double reference = Double.NaN;
+    //returned by read(), reused while the size stays the same
+    private double[] block = new double[0];
+
+    ThermalFrame(int capacity) {
+        kelvin = new float[capacity];
+    }
+
+    /**
+     * @throws IllegalArgumentException if the image doesn't fit the preallocated values
+     */
+    void setSize(int width, int height) {
+        if ((long) width * height > kelvin.length) {
+            throw new IllegalArgumentException("Frame " + width + "x" + height + " exceeds capacity " + kelvin.length);
+        }
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Copy a full frame from {@link com.flir.thermalsdk.image.ThermalImage#getValues}
+     */
+    void copyFrom(double[] values, int width, int height) {
+        setSize(width, height);
+        int n = width * height;
+        for (int i = 0; i < n; i++) {
+            kelvin[i] = (float) values[i];
+        }
+    }
+
+    float valueAt(int x, int y) {
+        return kelvin[y * width + x];
+    }
+
+    /**
+     * Rectangle clipped to the frame, like the SDK's getValues(), the returned array is reused by the next read of the same size
+     */
+    @Override
+    public double[] read(int x, int y, int width, int height) {
+        int x0 = Math.max(0, x);
+        int y0 = Math.max(0, y);
+        int x1 = Math.min(this.width, x + width);
+        int y1 = Math.min(this.height, y + height);
+        int n = x1 > x0 && y1 > y0 ? (x1 - x0) * (y1 - y0) : 0;
+        if (block.length != n) {
+            block = new double[n];
+        }
+        double[] values = block;
+        int i = 0;
+        for (int row = y0; row < y1 && n > 0; row++) {
+            int offset = row * this.width;
+            for (int col = x0; col < x1; col++) {
+                values[i++] = kelvin[offset + col];
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,122 @@
+package com.samples.flironecamera;
+
+/**
+ * One rectangle of radiometric values (Kelvin) fetched at once, the regions measured in a frame read from it instead of the image.
+ * <p/>
+ * Regions are added with {@link #include}, their union is clipped to the image and fetched with a single
+ * {@link com.flir.thermalsdk.image.ThermalImage#getValues} call, or copied from the whole frame if a thermal face detector already
+ * fetched it. After that every read of the measurement is arithmetic on the fetched values, reads are clipped to the window like
+ * the SDK clips them to the image.
+ */
+final class ThermalWindow implements NostrilMeasurement.RegionReader {
+
+    //thermal image coordinates, empty while width or height is 0
+    int x;
+    int y;
+    int width;
+    int height;
+    private double[] values = new double[0];
+    //owns the values taken from a whole frame, grows as needed
+    private double[] copy = new double[0];
+    //returned by read(), reused while the size stays the same
+    private double[] block = new double[0];
+
+    void clear() {
+        x = y = width = height = 0;
+    }
+
+    boolean isEmpty() {
+        return width <= 0 || height <= 0;
+    }
+
+    /**
+     * Grow the window to cover a rectangle
+     */
+    void include(int x, int y, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        if (isEmpty()) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            return;
+        }
+        int right = Math.max(this.x + this.width, x + width);
+        int bottom = Math.max(this.y + this.height, y + height);
+        this.x = Math.min(this.x, x);
+        this.y = Math.min(this.y, y);
+        this.width = right - this.x;
+        this.height = bottom - this.y;
+    }
+
+    void clip(int imageWidth, int imageHeight) {
+        int right = Math.min(imageWidth, x + width);
+        int bottom = Math.min(imageHeight, y + height);
+        x = Math.max(0, x);
+        y = Math.max(0, y);
+        width = Math.max(0, right - x);
+        height = Math.max(0, bottom - y);
+    }
+
+    /**
+     * @param values the window's values row by row, eg from getValues() of the window rectangle
+     */
+    void setValues(double[] values) {
+        if (values.length < width * height) {
+            throw new IllegalArgumentException(values.length + " values for a " + width + "x" + height + " window");
+        }
+        this.values = values;
+    }
+
+    /**
+     * Take the window's values from a whole frame that was already fetched, eg the frame a thermal face detector ran on, instead
+     * of fetching them again, call after {@link #clip}
+     *
+     * @param kelvin     the frame row by row
+     * @param imageWidth values per row of the frame
+     */
+    void copyFrom(float[] kelvin, int imageWidth) {
+        int n = width * height;
+        if (copy.length < n) {
+            copy = new double[n];
+        }
+        for (int row = 0; row < height; row++) {
+            int from = (y + row) * imageWidth + x;
+            int to = row * width;
+            for (int column = 0; column < width; column++) {
+                copy[to + column] = kelvin[from + column];
+            }
+        }
+        values = copy;
+    }
+
+    /**
+     * @param x thermal image coordinates inside the window
+     */
+    double valueAt(int x, int y) {
+        return values[(y - this.y) * width + x - this.x];
+    }
+
+    /**
+     * Rectangle clipped to the window, the returned array is reused by the next read of the same size
+     */
+    @Override
+    public double[] read(int x, int y, int width, int height) {
+        int x0 = Math.max(this.x, x);
+        int y0 = Math.max(this.y, y);
+        int x1 = Math.min(this.x + this.width, x + width);
+        int y1 = Math.min(this.y + this.height, y + height);
+        int n = x1 > x0 && y1 > y0 ? (x1 - x0) * (y1 - y0) : 0;
+        if (block.length != n) {
+            block = new double[n];
+        }
+        int i = 0;
+        for (int row = y0; row < y1 && n > 0; row++) {
+            System.arraycopy(values, (row - this.y) * this.width + x0 - this.x, block, i, x1 - x0);
+            i += x1 - x0;
+        }
+        return block;
+    }
+}
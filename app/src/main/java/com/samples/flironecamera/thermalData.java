@@ -1,5 +1,195 @@
 package com.samples.flironecamera;
 
-public class thermalData {
-    int data;
+/**
+ * Measurements of a batch of frames as parallel primitive arrays, one row per frame.
+ * <p/>
+ * The record path fills the current row in place: frame timestamp, face box, nostril box (cropped visual image coordinates, NaN when
+ * nothing was found), the chosen block with its mean temperature and variance, the filtered temperature and the quality flags of
+ * {@link TemperatureSeries}, and mean and maximum of every {@link FacialRegions} region. Full batches are handed to storage, export and UI consumers by a {@link MeasurementPipe} and reused
+ * afterwards, so no object is created per frame.
+ */
+public final class thermalData {
+
+    static final int DEFAULT_CAPACITY = 16;
+
+    /**
+     * Receives full batches on the pipe's consumer thread, or on the writer thread if added as a writer consumer, the batch is
+     * reused once the call returns
+     */
+    interface Consumer {
+        void accept(thermalData batch);
+    }
+
+    final long[] timestamps;
+    final float[] faceLeft;
+    final float[] faceTop;
+    final float[] faceRight;
+    final float[] faceBottom;
+    final float[] nostrilLeft;
+    final float[] nostrilTop;
+    final float[] nostrilRight;
+    final float[] nostrilBottom;
+    //index of the chosen block, -1 if there was no nostril search
+    final byte[] blockIndex;
+    //Celsius
+    final double[] blockMean;
+    final double[] blockVariance;
+    final double[] filtered;
+    final byte[] flags;
+    //Celsius, FacialRegions.MAX_REGIONS per row
+    final float[] regionMean;
+    final float[] regionMax;
+    private int size;
+
+    thermalData() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    thermalData(int capacity) {
+        timestamps = new long[capacity];
+        faceLeft = new float[capacity];
+        faceTop = new float[capacity];
+        faceRight = new float[capacity];
+        faceBottom = new float[capacity];
+        nostrilLeft = new float[capacity];
+        nostrilTop = new float[capacity];
+        nostrilRight = new float[capacity];
+        nostrilBottom = new float[capacity];
+        blockIndex = new byte[capacity];
+        blockMean = new double[capacity];
+        blockVariance = new double[capacity];
+        filtered = new double[capacity];
+        flags = new byte[capacity];
+        regionMean = new float[capacity * FacialRegions.MAX_REGIONS];
+        regionMax = new float[capacity * FacialRegions.MAX_REGIONS];
+    }
+
+    int capacity() {
+        return timestamps.length;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isFull() {
+        return size == timestamps.length;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * Start the row of a frame, everything but the timestamp is empty until set
+     *
+     * @return the row, -1 if the batch is full
+     */
+    int begin(long timestampNanos) {
+        if (isFull()) {
+            return -1;
+        }
+        int row = size++;
+        timestamps[row] = timestampNanos;
+        faceLeft[row] = faceTop[row] = faceRight[row] = faceBottom[row] = Float.NaN;
+        nostrilLeft[row] = nostrilTop[row] = nostrilRight[row] = nostrilBottom[row] = Float.NaN;
+        blockIndex[row] = -1;
+        blockMean[row] = Double.NaN;
+        blockVariance[row] = Double.NaN;
+        filtered[row] = Double.NaN;
+        flags[row] = 0;
+        int regions = row * FacialRegions.MAX_REGIONS;
+        for (int r = 0; r < FacialRegions.MAX_REGIONS; r++) {
+            regionMean[regions + r] = Float.NaN;
+            regionMax[regions + r] = Float.NaN;
+        }
+        return row;
+    }
+
+    void setFace(int row, float left, float top, float right, float bottom) {
+        faceLeft[row] = left;
+        faceTop[row] = top;
+        faceRight[row] = right;
+        faceBottom[row] = bottom;
+    }
+
+    void setNostril(int row, float left, float top, float right, float bottom) {
+        nostrilLeft[row] = left;
+        nostrilTop[row] = top;
+        nostrilRight[row] = right;
+        nostrilBottom[row] = bottom;
+    }
+
+    void setBlock(int row, int index, double mean, double variance) {
+        blockIndex[row] = (byte) index;
+        blockMean[row] = mean;
+        blockVariance[row] = variance;
+    }
+
+    void setRegion(int row, int region, double mean, double max) {
+        regionMean[row * FacialRegions.MAX_REGIONS + region] = (float) mean;
+        regionMax[row * FacialRegions.MAX_REGIONS + region] = (float) max;
+    }
+
+    float regionMeanAt(int row, int region) {
+        return regionMean[row * FacialRegions.MAX_REGIONS + region];
+    }
+
+    float regionMaxAt(int row, int region) {
+        return regionMax[row * FacialRegions.MAX_REGIONS + region];
+    }
+
+    void setFiltered(int row, double value) {
+        filtered[row] = value;
+    }
+
+    void setFlags(int row, int value) {
+        flags[row] = (byte) value;
+    }
+
+    int flagsAt(int row) {
+        return flags[row] & 0xFF;
+    }
+
+    boolean hasFace(int row) {
+        return !Float.isNaN(faceLeft[row]);
+    }
+
+    /**
+     * Nostril region in thermal image coordinates packed like {@link TemperatureSeries#packRoi}, 0 if there is none
+     */
+    long roiAt(int row) {
+        if (Float.isNaN(nostrilLeft[row])) {
+            return 0;
+        }
+        return TemperatureSeries.packRoi((int) nostrilLeft[row] / 2, (int) nostrilTop[row] / 2,
+                (int) (nostrilRight[row] - nostrilLeft[row]) / 2, (int) (nostrilBottom[row] - nostrilTop[row]) / 2);
+    }
+
+    /**
+     * Copy all rows of {@code from}, eg into a batch kept by a consumer
+     */
+    void copyFrom(thermalData from) {
+        if (from.size > capacity()) {
+            throw new IllegalArgumentException("Batch of " + from.size + " rows exceeds capacity " + capacity());
+        }
+        int n = from.size;
+        System.arraycopy(from.timestamps, 0, timestamps, 0, n);
+        System.arraycopy(from.faceLeft, 0, faceLeft, 0, n);
+        System.arraycopy(from.faceTop, 0, faceTop, 0, n);
+        System.arraycopy(from.faceRight, 0, faceRight, 0, n);
+        System.arraycopy(from.faceBottom, 0, faceBottom, 0, n);
+        System.arraycopy(from.nostrilLeft, 0, nostrilLeft, 0, n);
+        System.arraycopy(from.nostrilTop, 0, nostrilTop, 0, n);
+        System.arraycopy(from.nostrilRight, 0, nostrilRight, 0, n);
+        System.arraycopy(from.nostrilBottom, 0, nostrilBottom, 0, n);
+        System.arraycopy(from.blockIndex, 0, blockIndex, 0, n);
+        System.arraycopy(from.blockMean, 0, blockMean, 0, n);
+        System.arraycopy(from.blockVariance, 0, blockVariance, 0, n);
+        System.arraycopy(from.filtered, 0, filtered, 0, n);
+        System.arraycopy(from.flags, 0, flags, 0, n);
+        System.arraycopy(from.regionMean, 0, regionMean, 0, n * FacialRegions.MAX_REGIONS);
+        System.arraycopy(from.regionMax, 0, regionMax, 0, n * FacialRegions.MAX_REGIONS);
+        size = n;
+    }
 }
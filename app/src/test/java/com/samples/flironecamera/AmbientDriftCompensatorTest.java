@@ -0,0 +1,69 @@
+package com.samples.flironecamera;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link AmbientDriftCompensator} on a forehead reference and nostril signal sharing a warm-up drift and flat field corrections
+ */
+public class AmbientDriftCompensatorTest {
+
+    private static final double FPS = 9;
+    private static final long FRAME_NANOS = (long) (1e9 / FPS);
+    //2 degrees over 10 minutes
+    private static final double DRIFT_PER_SECOND = 2.0 / 600;
+
+    @Test
+    public void driftAndShutterStepAreRemoved() {
+        AmbientDriftCompensator compensator = new AmbientDriftCompensator();
+        Random random = new Random(1);
+        int frames = (int) (600 * FPS);
+        int shutterFrame = frames / 2;
+        double largestError = 0;
+        for (int i = 0; i < frames; i++) {
+            double seconds = i / FPS;
+            double drift = seconds * DRIFT_PER_SECOND + (i >= shutterFrame ? 0.8 : 0);
+            double breathing = 0.3 * Math.sin(2 * Math.PI * seconds * 12 / 60);
+            compensator.reference(i * FRAME_NANOS, 34 + drift + random.nextGaussian() * 0.03);
+            double compensated = compensator.compensate(35 + drift + breathing);
+            //the jump is confirmed after a few frames, the drift takes a time constant to follow
+            boolean settled = i > 3 * AmbientDriftCompensator.REFERENCE_SECONDS * FPS
+                    && (i < shutterFrame || i >= shutterFrame + AmbientDriftCompensator.CONFIRM_SAMPLES);
+            if (settled) {
+                largestError = Math.max(largestError, Math.abs(compensated - 35 - breathing));
+            }
+        }
+        assertEquals(1, compensator.reanchors());
+        assertTrue("Largest error " + largestError, largestError < 0.05);
+        assertEquals(2 + 0.8, compensator.offset(), 0.05);
+    }
+
+    @Test
+    public void shortJumpIsIgnored() {
+        AmbientDriftCompensator compensator = new AmbientDriftCompensator();
+        for (int i = 0; i < 100; i++) {
+            //the face turns away for two frames
+            double value = i == 50 || i == 51 ? 31 : 34;
+            assertFalse(compensator.reference(i * FRAME_NANOS, value));
+        }
+        assertEquals(0, compensator.reanchors());
+        assertEquals(0, compensator.offset(), 1e-9);
+    }
+
+    @Test
+    public void shutterReanchorsOnNextSample() {
+        AmbientDriftCompensator compensator = new AmbientDriftCompensator();
+        for (int i = 0; i < 100; i++) {
+            compensator.reference(i * FRAME_NANOS, 34);
+        }
+        compensator.shutter();
+        assertTrue(compensator.reference(100 * FRAME_NANOS, 34.1));
+        assertEquals(35, compensator.compensate(35.1), 1e-9);
+        assertTrue(Double.isNaN(compensator.compensate(Double.NaN)));
+    }
+}
@@ -0,0 +1,91 @@
+package com.samples.flironecamera;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Detection latency of the {@link BreathingEvents} rules against the ground truth of a breathing scenario: normal breathing at
+ * 15 per minute with an apnea, shallow breathing and fast breathing, the scenario of {@code BreathingEventsBenchmark}
+ */
+public class BreathingEventsTest {
+
+    private static final double SECONDS = 240;
+    private static final double FPS = 8.7;
+    private static final double APNEA_START = 61;
+    private static final double APNEA_END = 81;
+    private static final double SHALLOW_START = 120;
+    private static final double SHALLOW_END = 150;
+    private static final double FAST_START = 180;
+    private static final double FAST_END = 210;
+    //when the condition of each rule with its default settings is met: 10 s after the last breath started at 60 s, the first
+    //40 per minute breath period ending at 181.5 s, 5 s of shallow breathing
+    private static final double[] TRUTH_SECONDS = {70, 181.5, 125};
+    //from the condition being met in the signal to the frame raising the event, per rule. The amplitude envelope takes about
+    //ENVELOPE_SECONDS to follow the shallow breathing down before the collapse starts to count.
+    private static final double[] MAX_LATENCY_SECONDS = {1, 1, BreathingEvents.ENVELOPE_SECONDS + 2};
+
+    @Test
+    public void eventsWithinLatency() {
+        check(0);
+    }
+
+    @Test
+    public void eventsWithinLatencyWithNoise() {
+        check(0.05);
+    }
+
+    private static void check(double noise) {
+        double[] samples = scenario(noise);
+        BreathingRateEstimator estimator = new BreathingRateEstimator();
+        BreathingEvents events = new BreathingEvents();
+        long frameNanos = (long) (1e9 / FPS);
+        for (int i = 0; i < samples.length; i++) {
+            long timestamp = i * frameNanos;
+            boolean breath = estimator.add(timestamp, samples[i]);
+            events.add(timestamp, true, breath, estimator.filtered());
+        }
+        for (int rule = 0; rule < BreathingEvents.RULE_COUNT; rule++) {
+            long truth = (long) (TRUTH_SECONDS[rule] * 1e9);
+            //first event of the rule raised at or after the ground truth, an apnea is a collapse of the amplitude too
+            long raised = -1;
+            for (long event = 0; event < events.logCount(); event++) {
+                if (events.ruleAt(event) == rule && events.startNanosAt(event) >= truth) {
+                    raised = events.startNanosAt(event);
+                    break;
+                }
+            }
+            String name = BreathingEvents.RULE_NAMES[rule];
+            assertTrue(name + " missed", raised >= 0);
+            assertTrue(name + " raised after " + (raised - truth) / 1e6 + " ms", raised - truth <= MAX_LATENCY_SECONDS[rule] * 1e9);
+        }
+        //the normal breathing before the apnea raises nothing
+        assertTrue(events.logCount() > 0);
+        assertTrue(events.startNanosAt(0) >= APNEA_START * 1e9);
+        //the rules themselves raise an event within a frame of their condition
+        assertTrue(events.detectionLatency.maxMicros() <= 1e6 / FPS);
+    }
+
+    private static double[] scenario(double noise) {
+        double[] series = new double[(int) (SECONDS * FPS)];
+        Random random = new Random(42);
+        double phase = 0;
+        for (int i = 0; i < series.length; i++) {
+            double t = i / FPS;
+            double amplitude = 0.6;
+            double perMinute = 15;
+            if (t >= APNEA_START && t < APNEA_END) {
+                amplitude = 0;
+            } else if (t >= SHALLOW_START && t < SHALLOW_END) {
+                amplitude = 0.1;
+            } else if (t >= FAST_START && t < FAST_END) {
+                perMinute = 40;
+            }
+            series[i] = 34.0 + amplitude * Math.sin(phase) + (noise > 0 ? random.nextGaussian() * noise : 0);
+            phase += 2 * Math.PI * perMinute / 60 / FPS;
+        }
+        return series;
+    }
+}
@@ -0,0 +1,146 @@
+package com.samples.flironecamera;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives frames through the {@link RecordStage} of the record path after a warm-up and counts the bytes every part of it allocates
+ * on the processing thread, with the per-thread allocation counters of the JVM read by a {@link RecordStage.Probe}.
+ * <p/>
+ * The stage is the one {@link CameraHandler} runs from the face detection on. What the SDK allocates (bitmaps, getValues()
+ * results) is outside the stage, the stand-in for getValues() reuses its array.
+ */
+public class FrameAllocationTest {
+
+    private static final int WARMUP_FRAMES = 300;
+    private static final int FRAMES = 600;
+    //distinct frames cycled through, generating one costs more than measuring it
+    private static final int DISTINCT_FRAMES = 45;
+    //steady-state bytes per frame and part, 0 apart from a rare allocation inside the JVM
+    private static final double PART_BUDGET_BYTES = 8;
+
+    private final FaceDetector.Input input = new FaceDetector.Input();
+    private final TemperatureSeries series = new TemperatureSeries();
+    private final MeasurementPipe measurements = new MeasurementPipe(MeasurementPipe.DEFAULT_BATCHES, thermalData.DEFAULT_CAPACITY);
+    private final RecordStage stage = new RecordStage(new PipelineMetrics(), series, new BreathingStage(), measurements,
+            FacialRegions.defaults());
+    //stands in for the array the SDK's getValues() returns
+    private final double[] values = new double[ReplaySource.THERMAL_WIDTH * ReplaySource.THERMAL_HEIGHT];
+    private final ThermalFrame[] frames = new ThermalFrame[DISTINCT_FRAMES];
+    private ThermalFrame frame;
+    private final NostrilMeasurement.RegionReader reader = (x, y, width, height) -> {
+        int i = 0;
+        for (int row = y; row < y + height; row++) {
+            for (int column = x; column < x + width; column++) {
+                values[i++] = frame.valueAt(column, row);
+            }
+        }
+        return values;
+    };
+
+    private com.sun.management.ThreadMXBean threads;
+    private long threadId;
+    //bytes a read of the counter itself allocates
+    private long counterOverhead;
+    private final long[] partBytes = new long[RecordStage.PART_COUNT];
+    private boolean counting;
+    private long mark;
+
+    @Before
+    public void setUp() {
+        threads = GoldenRecordings.allocationCounter();
+        Assume.assumeTrue("The JVM doesn't count allocations per thread", threads != null);
+        threadId = Thread.currentThread().getId();
+        calibrate();
+        ReplaySource.Generator generator = GoldenRecordings.noisy(
+                ReplaySource.syntheticFace(15, GoldenRecordings.FPS, 0, 1), 0.05, 1);
+        for (int i = 0; i < DISTINCT_FRAMES; i++) {
+            frames[i] = new ThermalFrame(ReplaySource.THERMAL_WIDTH * ReplaySource.THERMAL_HEIGHT);
+            generator.fill(i, frames[i]);
+        }
+        //like CameraHandler.preallocate()
+        series.ensureCapacity(WARMUP_FRAMES + FRAMES);
+        stage.setProbe(part -> {
+            long now = threads.getThreadAllocatedBytes(threadId);
+            if (counting) {
+                partBytes[part] += Math.max(0, now - mark - counterOverhead);
+            }
+            mark = threads.getThreadAllocatedBytes(threadId);
+        });
+    }
+
+    @Test
+    public void thermalDetectorFramesDontAllocate() {
+        check(new ThermalBlobFaceDetector());
+    }
+
+    @Test
+    public void visualDetectorFramesDontAllocate() {
+        //the values of the face are read through getValues(), like with the Play Services detector
+        check(new ScriptedFaceDetector().thenFace(160, 256, 800, 1024, 480, 730));
+    }
+
+    private void check(FaceDetector detector) {
+        long measured = 0;
+        measurements.addConsumer(batch -> {
+        });
+        measurements.start();
+        try {
+            for (int i = 0; i < WARMUP_FRAMES + FRAMES; i++) {
+                frame = frames[i % DISTINCT_FRAMES];
+                frame.timestampNanos = (long) (i * 1e9 / GoldenRecordings.FPS);
+                fillInput(detector.inputs());
+                counting = i >= WARMUP_FRAMES;
+                mark = threads.getThreadAllocatedBytes(threadId);
+                stage.measure(frame.timestampNanos, 0, detector, input, frame.width, frame.height, reader, 0);
+                if (counting && !Double.isNaN(stage.temperature)) {
+                    measured++;
+                }
+            }
+        } finally {
+            measurements.stop();
+        }
+
+        StringBuilder report = new StringBuilder(String.format(Locale.US,
+                "%s: bytes allocated per frame after %d warm-up frames, %d of %d measured:\n", detector.name(), WARMUP_FRAMES, measured, FRAMES));
+        boolean withinBudget = true;
+        for (int part = 0; part < RecordStage.PART_COUNT; part++) {
+            double perFrame = (double) partBytes[part] / FRAMES;
+            report.append(String.format(Locale.US, "  %-15s %8.1f\n", RecordStage.PART_NAMES[part], perFrame));
+            withinBudget &= perFrame <= PART_BUDGET_BYTES;
+        }
+        System.out.print(report);
+        assertTrue(report.toString(), measured == FRAMES);
+        assertTrue(report + "budget " + PART_BUDGET_BYTES + " bytes per part", withinBudget);
+    }
+
+    /**
+     * CameraHandler fillFaceInput(), the visual image is the crop of twice the thermal resolution
+     */
+    private void fillInput(int inputs) {
+        input.width = frame.width * (int) RecordStage.VISUAL_PER_THERMAL;
+        input.height = frame.height * (int) RecordStage.VISUAL_PER_THERMAL;
+        if ((inputs & FaceDetector.INPUT_THERMAL) != 0) {
+            input.setThermalSize(frame.width, frame.height);
+            System.arraycopy(frame.kelvin, 0, input.kelvin, 0, frame.width * frame.height);
+        }
+    }
+
+    /**
+     * Some JVMs allocate in the counter read itself, measure it so the stage isn't charged for it
+     */
+    private void calibrate() {
+        long lowest = Long.MAX_VALUE;
+        for (int i = 0; i < 10_000; i++) {
+            long before = threads.getThreadAllocatedBytes(threadId);
+            long after = threads.getThreadAllocatedBytes(threadId);
+            lowest = Math.min(lowest, after - before);
+        }
+        counterOverhead = lowest;
+    }
+}
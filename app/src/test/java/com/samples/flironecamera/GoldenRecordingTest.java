@@ -0,0 +1,89 @@
+package com.samples.flironecamera;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the {@link GoldenRecordings} through the measurement pipeline and fails on a change of the measured series, a breathing
+ * rate or event count off from what the subject did, or a frame taking longer or allocating more than its budget.
+ */
+public class GoldenRecordingTest {
+
+    //degrees Celsius, well below the 0.1 degree resolution of the camera
+    private static final double TEMPERATURE_TOLERANCE = 0.005;
+    private static final double RATE_TOLERANCE = 0.05;
+
+    //per frame, measurement with the facial regions, breathing rate, events, series and batch, several times what a laptop needs
+    private static final long MEAN_BUDGET_MICROS = 5_000;
+    private static final long P99_BUDGET_MICROS = 25_000;
+    //per frame after the warm-up, on average, the series growing by doubling is most of it
+    private static final long ALLOCATION_BUDGET_BYTES = 256;
+    private static final int WARMUP_FRAMES = 90;
+
+    @Test
+    public void seriesMatchGolden() throws IOException {
+        for (GoldenRecordings.Sequence sequence : GoldenRecordings.sequences()) {
+            GoldenRecordings.Result golden = GoldenRecordings.readGolden(sequence);
+            assertNotNull("No golden series for " + sequence.name + ", regenerate with GoldenRecordings.main", golden);
+            GoldenRecordings.Result result = GoldenRecordings.run(sequence, WARMUP_FRAMES);
+            for (int i = 0; i < sequence.frames; i++) {
+                String frame = sequence.name + " frame " + i;
+                assertClose(frame + " raw", golden.raw[i], result.raw[i], TEMPERATURE_TOLERANCE);
+                assertClose(frame + " filtered", golden.filtered[i], result.filtered[i], TEMPERATURE_TOLERANCE);
+                assertEquals(frame + " flags", golden.flags[i], result.flags[i]);
+                assertClose(frame + " rate", golden.rate[i], result.rate[i], RATE_TOLERANCE);
+            }
+        }
+    }
+
+    @Test
+    public void breathingMatchesSubject() throws IOException {
+        for (GoldenRecordings.Sequence sequence : GoldenRecordings.sequences()) {
+            GoldenRecordings.Result result = GoldenRecordings.run(sequence, WARMUP_FRAMES);
+            if (!Double.isNaN(sequence.expectedRate)) {
+                int frame = Math.min(sequence.frames, GoldenRecordings.seconds(sequence.rateSeconds)) - 1;
+                assertClose(sequence.name + " rate at " + sequence.rateSeconds + " s", sequence.expectedRate, result.rate[frame],
+                        sequence.rateTolerance);
+            }
+            for (int rule = 0; rule < BreathingEvents.RULE_COUNT; rule++) {
+                if (sequence.expectedEvents[rule] >= 0) {
+                    assertEquals(sequence.name + " " + BreathingEvents.RULE_NAMES[rule] + " events",
+                            sequence.expectedEvents[rule], result.eventCounts[rule]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void framesStayWithinBudgets() throws IOException {
+        for (GoldenRecordings.Sequence sequence : GoldenRecordings.sequences()) {
+            GoldenRecordings.Result result = GoldenRecordings.run(sequence, WARMUP_FRAMES);
+            LatencyHistogram.Snapshot latency = result.latency.snapshot();
+            assertTrue(sequence.name + " mean frame " + latency.meanMicros() + " us, budget " + MEAN_BUDGET_MICROS,
+                    latency.meanMicros() <= MEAN_BUDGET_MICROS);
+            assertTrue(sequence.name + " p99 frame " + latency.percentile(99) + " us, budget " + P99_BUDGET_MICROS,
+                    latency.percentile(99) <= P99_BUDGET_MICROS);
+            if (result.steadyAllocatedBytes >= 0) {
+                long perFrame = result.steadyAllocatedBytes / result.steadyFrames;
+                assertTrue(sequence.name + " allocates " + perFrame + " bytes per frame, budget " + ALLOCATION_BUDGET_BYTES,
+                        perFrame <= ALLOCATION_BUDGET_BYTES);
+            }
+        }
+    }
+
+    private static void assertClose(String what, double expected, double actual, double tolerance) {
+        if (Double.isNaN(expected) || Double.isNaN(actual)) {
+            if (Double.isNaN(expected) != Double.isNaN(actual)) {
+                fail(what + ": expected " + expected + " but was " + actual);
+            }
+            return;
+        }
+        assertEquals(what, expected, actual, tolerance);
+    }
+}
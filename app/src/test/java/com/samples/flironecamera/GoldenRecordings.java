@@ -0,0 +1,318 @@
+package com.samples.flironecamera;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Golden sequences for {@link GoldenRecordingTest}: seeded synthetic subjects and the frame recordings in
+ * {@code src/test/resources/golden}, run frame by frame through the {@link RecordStage} the app measures recorded frames with:
+ * faces, nostril search, facial regions with the drift reference, breathing, the series and the measurement batch.
+ * <p/>
+ * The expected series of a sequence is {@code golden/<name>.csv}. After a deliberate change to the measurement, regenerate them
+ * by running {@link #main} with {@code app/src/test/resources/golden} as argument and review the diff. A recording made with the
+ * Frames button is added by copying it to that directory and regenerating.
+ */
+final class GoldenRecordings {
+
+    static final String DIRECTORY = "golden";
+    static final double FPS = 9;
+
+    //sensor noise is added from a table, a Gaussian per pixel and frame would take longer than the measurement
+    private static final int NOISE_TABLE_SIZE = 1 << 16;
+
+    /**
+     * A sequence with what it's expected to measure, NaN or -1 for expectations it doesn't have
+     */
+    static final class Sequence {
+        final String name;
+        final int frames;
+        final ReplaySource.Generator generator;
+        //recording to read the frames from instead of the generator
+        final File recording;
+        double expectedRate = Double.NaN;
+        double rateTolerance;
+        //time the rate is checked at, the rate of the breathing before it
+        double rateSeconds;
+        final long[] expectedEvents = {-1, -1, -1};
+
+        Sequence(String name, int frames, ReplaySource.Generator generator) {
+            this.name = name;
+            this.frames = frames;
+            this.generator = generator;
+            this.recording = null;
+        }
+
+        Sequence(String name, File recording, int frames) {
+            this.name = name;
+            this.frames = frames;
+            this.generator = null;
+            this.recording = recording;
+        }
+
+        Sequence rate(double perMinute, double tolerance, double atSeconds) {
+            expectedRate = perMinute;
+            rateTolerance = tolerance;
+            rateSeconds = atSeconds;
+            return this;
+        }
+
+        Sequence events(long noBreath, long rateOutOfRange, long amplitudeCollapse) {
+            expectedEvents[BreathingEvents.NO_BREATH] = noBreath;
+            expectedEvents[BreathingEvents.RATE_OUT_OF_RANGE] = rateOutOfRange;
+            expectedEvents[BreathingEvents.AMPLITUDE_COLLAPSE] = amplitudeCollapse;
+            return this;
+        }
+    }
+
+    /**
+     * What the pipeline measured, per frame and in total
+     */
+    static final class Result {
+        final double[] raw;
+        final double[] filtered;
+        final int[] flags;
+        final double[] rate;
+        final long[] eventCounts = new long[BreathingEvents.RULE_COUNT];
+        final LatencyHistogram latency = new LatencyHistogram();
+        //after the warm-up frames, -1 if the JVM can't count allocations per thread
+        long steadyFrames;
+        long steadyAllocatedBytes = -1;
+
+        Result(int frames) {
+            raw = new double[frames];
+            filtered = new double[frames];
+            flags = new int[frames];
+            rate = new double[frames];
+        }
+    }
+
+    private GoldenRecordings() {
+    }
+
+    static List<Sequence> sequences() throws IOException {
+        List<Sequence> sequences = new ArrayList<>();
+        sequences.add(new Sequence("steady_12", seconds(40), noisy(ReplaySource.syntheticFace(12, FPS, 0, 12), 0.05, 12))
+                .rate(12, 1, 40)
+                .events(0, 0, 0));
+        sequences.add(new Sequence("fast_24", seconds(40), noisy(ReplaySource.syntheticFace(24, FPS, 0, 24), 0.1, 24))
+                .rate(24, 1.5, 40)
+                .events(0, 0, 0));
+        //breathing stops 30 to 50 s, the rate drops out of range and the amplitude collapses along with it
+        sequences.add(new Sequence("apnea_15", seconds(65), noisy(held(ReplaySource.syntheticFace(15, FPS, 0, 15), seconds(30), seconds(20)), 0.05, 15))
+                .rate(15, 1, 30)
+                .events(1, 1, 1));
+        File directory = resourceDirectory();
+        File[] files = directory == null ? null : directory.listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                String fileName = file.getName();
+                if (fileName.endsWith(RecordingFile.EXTENSION)) {
+                    try (RecordingFile.Reader reader = new RecordingFile.Reader(file)) {
+                        sequences.add(new Sequence(fileName.substring(0, fileName.length() - RecordingFile.EXTENSION.length()), file,
+                                (int) reader.frames()));
+                    }
+                }
+            }
+        }
+        return sequences;
+    }
+
+    static int seconds(double seconds) {
+        return (int) Math.round(seconds * FPS);
+    }
+
+    /**
+     * Seeded sensor noise of {@code sigma} degrees from a table, at a random offset per frame
+     */
+    static ReplaySource.Generator noisy(ReplaySource.Generator generator, double sigma, long seed) {
+        Random random = new Random(seed);
+        float[] noise = new float[NOISE_TABLE_SIZE];
+        for (int i = 0; i < NOISE_TABLE_SIZE; i++) {
+            noise[i] = (float) (random.nextGaussian() * sigma);
+        }
+        return (index, frame) -> {
+            generator.fill(index, frame);
+            int offset = random.nextInt(NOISE_TABLE_SIZE);
+            int n = frame.width * frame.height;
+            for (int i = 0; i < n; i++) {
+                frame.kelvin[i] += noise[(i + offset) & (NOISE_TABLE_SIZE - 1)];
+            }
+        };
+    }
+
+    /**
+     * The subject holds the breath for {@code length} frames from frame {@code from}
+     */
+    static ReplaySource.Generator held(ReplaySource.Generator generator, long from, long length) {
+        return (index, frame) -> generator.fill(index < from ? index : index < from + length ? from : index - length, frame);
+    }
+
+    /**
+     * Run the sequence through a {@link RecordStage} with a thermal face detector, frame by frame on this thread so every frame is
+     * measured, the first {@code warmupFrames} aren't counted in the allocations
+     */
+    static Result run(Sequence sequence, int warmupFrames) throws IOException {
+        Result result = new Result(sequence.frames);
+        TemperatureSeries series = new TemperatureSeries();
+        series.ensureCapacity(sequence.frames);
+        BreathingStage breathing = new BreathingStage();
+        MeasurementPipe measurements = new MeasurementPipe(MeasurementPipe.DEFAULT_BATCHES, thermalData.DEFAULT_CAPACITY);
+        measurements.addConsumer(batch -> {
+        });
+        RecordStage stage = new RecordStage(new PipelineMetrics(), series, breathing, measurements, FacialRegions.defaults());
+        FaceDetector detector = new ThermalBlobFaceDetector();
+        FaceDetector.Input input = new FaceDetector.Input();
+        ThermalFrame frame = new ThermalFrame(ReplaySource.THERMAL_WIDTH * ReplaySource.THERMAL_HEIGHT);
+        RecordingFile.Reader reader = sequence.recording == null ? null : new RecordingFile.Reader(sequence.recording);
+        com.sun.management.ThreadMXBean threads = allocationCounter();
+        long threadId = Thread.currentThread().getId();
+        measurements.start();
+        try {
+            for (int i = 0; i < sequence.frames; i++) {
+                if (reader != null) {
+                    reader.read(i, frame);
+                } else {
+                    sequence.generator.fill(i, frame);
+                    frame.timestampNanos = (long) (i * 1e9 / FPS);
+                    frame.flags = 0;
+                }
+                boolean counted = threads != null && i >= warmupFrames;
+                long allocated = counted ? threads.getThreadAllocatedBytes(threadId) : 0;
+                long begin = System.nanoTime();
+                //like CameraHandler fillFaceInput() for a thermal detector, the visual image is twice the thermal resolution
+                input.width = frame.width * FrameMeasurement.VISUAL_PER_THERMAL;
+                input.height = frame.height * FrameMeasurement.VISUAL_PER_THERMAL;
+                input.setThermalSize(frame.width, frame.height);
+                System.arraycopy(frame.kelvin, 0, input.kelvin, 0, frame.width * frame.height);
+                //measured in any case, what the recording flagged beyond the timing is the live measurement's
+                stage.measure(frame.timestampNanos, frame.flags & TemperatureSeries.FLAG_LATE_FRAME, detector, input,
+                        frame.width, frame.height, frame, 0);
+                result.latency.recordNanos(System.nanoTime() - begin);
+                if (counted) {
+                    result.steadyAllocatedBytes = Math.max(0, result.steadyAllocatedBytes) + threads.getThreadAllocatedBytes(threadId) - allocated;
+                    result.steadyFrames++;
+                }
+                result.raw[i] = series.valueAt(i);
+                result.filtered[i] = series.filteredAt(i);
+                result.flags[i] = series.flagsAt(i);
+                result.rate[i] = breathing.breathingRate.ratePerMinute();
+            }
+        } finally {
+            measurements.stop();
+            if (reader != null) {
+                reader.close();
+            }
+        }
+        System.arraycopy(breathing.breathingEvents.eventCounts, 0, result.eventCounts, 0, BreathingEvents.RULE_COUNT);
+        return result;
+    }
+
+    /**
+     * @return null if the JVM doesn't count the bytes allocated per thread
+     */
+    static com.sun.management.ThreadMXBean allocationCounter() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+
+    /**
+     * Expected series of a sequence, raw and filtered temperature, flags and rate per frame
+     *
+     * @return null if there is no golden file for it
+     */
+    static Result readGolden(Sequence sequence) throws IOException {
+        InputStream in = GoldenRecordings.class.getClassLoader().getResourceAsStream(DIRECTORY + "/" + sequence.name + ".csv");
+        if (in == null) {
+            return null;
+        }
+        Result golden = new Result(sequence.frames);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, "US-ASCII"))) {
+            //header
+            reader.readLine();
+            String line;
+            int i = 0;
+            while ((line = reader.readLine()) != null && i < sequence.frames) {
+                String[] fields = line.split(",", -1);
+                golden.raw[i] = parse(fields[1]);
+                golden.filtered[i] = parse(fields[2]);
+                golden.flags[i] = Integer.parseInt(fields[3]);
+                golden.rate[i] = parse(fields[4]);
+                i++;
+            }
+            if (i != sequence.frames || line != null) {
+                throw new IOException("Golden series of " + sequence.name + " doesn't have " + sequence.frames + " frames");
+            }
+        }
+        return golden;
+    }
+
+    static void writeGolden(Result result, File file) throws IOException {
+        StringBuilder line = new StringBuilder();
+        try (Writer writer = new BufferedWriter(new FileWriter(file))) {
+            writer.write("frame,raw_c,filtered_c,flags,rate_per_min\n");
+            for (int i = 0; i < result.raw.length; i++) {
+                line.setLength(0);
+                line.append(i).append(',');
+                SessionExporter.appendFixed(line, result.raw[i]);
+                line.append(',');
+                SessionExporter.appendFixed(line, result.filtered[i]);
+                line.append(',').append(result.flags[i]).append(',');
+                SessionExporter.appendFixed(line, result.rate[i]);
+                writer.append(line).append('\n');
+            }
+        }
+    }
+
+    private static double parse(String field) {
+        return field.isEmpty() ? Double.NaN : Double.parseDouble(field);
+    }
+
+    private static File resourceDirectory() {
+        URL url = GoldenRecordings.class.getClassLoader().getResource(DIRECTORY);
+        if (url == null || !"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Regenerate the golden series
+     *
+     * @param args the golden directory, eg {@code app/src/test/resources/golden}
+     */
+    public static void main(String[] args) throws IOException {
+        File directory = new File(args[0]);
+        for (Sequence sequence : sequences()) {
+            Result result = run(sequence, 0);
+            writeGolden(result, new File(directory, sequence.name + ".csv"));
+            System.out.println(sequence.name + ": " + sequence.frames + " frames, rate " + result.rate[sequence.frames - 1]
+                    + ", events " + Arrays.toString(result.eventCounts));
+        }
+    }
+}
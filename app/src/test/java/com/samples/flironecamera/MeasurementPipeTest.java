@@ -0,0 +1,84 @@
+package com.samples.flironecamera;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link MeasurementPipe} with a consumer that stalls, the session store added as a writer consumer still gets every row
+ */
+public class MeasurementPipeTest {
+
+    //whole batches, a batch dropped at the last flush is full too
+    private static final int ROWS = 12 * thermalData.DEFAULT_CAPACITY;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("pipe").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void storeKeepsEveryRowWhileConsumerStalls() throws IOException, InterruptedException {
+        MeasurementPipe pipe = new MeasurementPipe(MeasurementPipe.DEFAULT_BATCHES, thermalData.DEFAULT_CAPACITY);
+        SessionStore store = new SessionStore(directory);
+        CountDownLatch stalled = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        AtomicLong consumed = new AtomicLong();
+        pipe.addWriterConsumer(store::append);
+        pipe.addConsumer(batch -> {
+            stalled.countDown();
+            try {
+                resume.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            consumed.addAndGet(batch.size());
+        });
+        pipe.start();
+        for (int i = 0; i < ROWS; i++) {
+            int row = pipe.begin(i * 100_000_000L);
+            pipe.batch().setBlock(row, 0, 30 + i / 1000.0, 0);
+            pipe.batch().setFiltered(row, 30);
+            pipe.batch().setFlags(row, i % 2 == 0 ? TemperatureSeries.FLAG_BREATH : 0);
+            if (i == thermalData.DEFAULT_CAPACITY) {
+                //the first batch is handed over, wait until the consumer holds on to it
+                assertTrue(stalled.await(5, TimeUnit.SECONDS));
+            }
+        }
+        assertTrue("dropped " + pipe.batchesDropped.get(), pipe.batchesDropped.get() > 0);
+        resume.countDown();
+        pipe.stop();
+
+        assertTrue(consumed.get() < ROWS);
+        assertEquals(ROWS - pipe.batchesDropped.get() * thermalData.DEFAULT_CAPACITY, consumed.get());
+        assertEquals(ROWS, store.size());
+        for (int i = 0; i < ROWS; i++) {
+            assertEquals(i * 100_000_000L, store.timestampAt(i));
+            assertEquals(30 + i / 1000.0, store.valueAt(i), 0);
+        }
+        store.close();
+    }
+}
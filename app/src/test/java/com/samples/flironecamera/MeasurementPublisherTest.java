@@ -0,0 +1,173 @@
+package com.samples.flironecamera;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link MeasurementPublisher} end to end against a stand-in for the monitoring station on the loopback interface
+ */
+public class MeasurementPublisherTest {
+
+    private static final int RECEIVE_TIMEOUT_MS = 2000;
+
+    private DatagramSocket receiver;
+    private final byte[] packet = new byte[2048];
+
+    @Before
+    public void setUp() throws IOException {
+        receiver = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        receiver.setSoTimeout(RECEIVE_TIMEOUT_MS);
+    }
+
+    @After
+    public void tearDown() {
+        receiver.close();
+    }
+
+    @Test
+    public void fullBatchesArriveInOrder() throws IOException {
+        MeasurementPublisher publisher = new MeasurementPublisher("station-1", "127.0.0.1", receiver.getLocalPort(), 8, 10_000, 256);
+        publisher.start();
+        long start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(publisher.offer(start + i, 34 + i / 100.0, 34, 12, i % 2 == 0 ? TemperatureSeries.FLAG_BREATH : 0));
+        }
+        int received = 0;
+        int expectedSequence = 0;
+        //12 full batches, the last 4 samples are sent by stop()
+        while (received < 96) {
+            MeasurementPublisher.Datagram d = receive();
+            assertEquals("station-1", d.station);
+            assertEquals(expectedSequence++, d.sequence);
+            assertEquals(8, d.count);
+            for (int i = 0; i < d.count; i++) {
+                assertEquals(start + received, d.timestamps[i]);
+                assertEquals(34 + received / 100.0, d.raw[i], 1e-5);
+                assertEquals(12, d.rate[i], 0);
+                assertEquals(received % 2 == 0 ? TemperatureSeries.FLAG_BREATH : 0, d.flags[i]);
+                received++;
+            }
+        }
+        publisher.stop();
+        MeasurementPublisher.Datagram last = receive();
+        assertEquals(4, last.count);
+        assertEquals(start + 99, last.timestamps[3]);
+        assertEquals(100, publisher.samplesSent.get());
+        assertEquals(13, publisher.datagramsSent.get());
+        assertEquals(0, publisher.samplesDropped.get());
+        assertEquals(13, publisher.latency.count());
+    }
+
+    @Test
+    public void partialBatchIsFlushedAfterInterval() throws IOException {
+        MeasurementPublisher publisher = new MeasurementPublisher("station-2", "127.0.0.1", receiver.getLocalPort(), 16, 100, 256);
+        publisher.start();
+        try {
+            long offered = System.nanoTime();
+            publisher.offer(offered, Double.NaN, Double.NaN, Double.NaN, TemperatureSeries.FLAG_NO_FACE);
+            MeasurementPublisher.Datagram d = receive();
+            long waited = System.nanoTime() - offered;
+            assertEquals(1, d.count);
+            assertTrue(Float.isNaN(d.raw[0]));
+            assertEquals(TemperatureSeries.FLAG_NO_FACE, d.flags[0]);
+            assertTrue("Flushed after " + waited / 1_000_000 + " ms", waited >= 100_000_000L);
+        } finally {
+            publisher.stop();
+        }
+    }
+
+    @Test
+    public void fullQueueDropsInsteadOfBlocking() throws IOException {
+        //not started, nothing drains the queue
+        MeasurementPublisher publisher = new MeasurementPublisher("station-3", "127.0.0.1", receiver.getLocalPort(), 4, 100, 16);
+        for (int i = 0; i < 16; i++) {
+            assertTrue(publisher.offer(i, 34, 34, 12, 0));
+        }
+        for (int i = 0; i < 10; i++) {
+            assertFalse(publisher.offer(i, 34, 34, 12, 0));
+        }
+        assertEquals(10, publisher.samplesDropped.get());
+        //the queued samples still go out
+        publisher.start();
+        publisher.stop();
+        int received = 0;
+        while (received < 16) {
+            received += receive().count;
+        }
+        assertEquals(16, publisher.samplesSent.get());
+    }
+
+    @Test
+    public void failedConnectIsRetried() throws IOException {
+        AtomicInteger attempts = new AtomicInteger();
+        MeasurementPublisher publisher = new MeasurementPublisher("station-4", "127.0.0.1", receiver.getLocalPort(), 4, 100, 256,
+                (host, port) -> {
+                    if (attempts.incrementAndGet() == 1) {
+                        throw new IOException("Network is unreachable");
+                    }
+                    DatagramChannel channel = DatagramChannel.open();
+                    channel.connect(new InetSocketAddress(host, port));
+                    return channel;
+                });
+        publisher.start();
+        try {
+            long offered = System.nanoTime();
+            for (int i = 0; i < 4; i++) {
+                assertTrue(publisher.offer(offered + i, 34, 34, 12, 0));
+            }
+            //the full batch doesn't cut the delay short
+            MeasurementPublisher.Datagram d = receive();
+            long waited = System.nanoTime() - offered;
+            assertEquals(4, d.count);
+            assertEquals(0, d.sequence);
+            assertTrue("Retried after " + waited / 1_000_000 + " ms", waited >= MeasurementPublisher.RETRY_MIN_NANOS / 2);
+            assertEquals(2, attempts.get());
+            assertEquals(1, publisher.sendFailures.get());
+        } finally {
+            publisher.stop();
+        }
+        assertEquals(4, publisher.samplesSent.get());
+    }
+
+    @Test
+    public void unresolvableHostKeepsRetrying() throws InterruptedException {
+        MeasurementPublisher publisher = new MeasurementPublisher("station-5", "monitoring.invalid", MeasurementPublisher.DEFAULT_PORT);
+        publisher.start();
+        try {
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while (publisher.sendFailures.get() < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue("failures " + publisher.sendFailures.get(), publisher.sendFailures.get() >= 2);
+            assertTrue(publisher.offer(System.nanoTime(), 34, 34, 12, 0));
+        } finally {
+            publisher.stop();
+        }
+        assertEquals(0, publisher.samplesSent.get());
+    }
+
+    private MeasurementPublisher.Datagram receive() throws IOException {
+        DatagramPacket datagram = new DatagramPacket(packet, packet.length);
+        try {
+            receiver.receive(datagram);
+        } catch (SocketTimeoutException e) {
+            throw new AssertionError("No datagram within " + RECEIVE_TIMEOUT_MS + " ms");
+        }
+        return MeasurementPublisher.Datagram.decode(ByteBuffer.wrap(datagram.getData(), 0, datagram.getLength()));
+    }
+}
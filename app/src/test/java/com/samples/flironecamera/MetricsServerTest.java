@@ -0,0 +1,131 @@
+package com.samples.flironecamera;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link MetricsServer} on an ephemeral port, scraped with a plain HTTP client
+ */
+public class MetricsServerTest {
+
+    private final PipelineMetrics metrics = new PipelineMetrics();
+    private MetricsServer server;
+    private int port;
+
+    @Before
+    public void setUp() throws IOException {
+        PipelineMetrics.acquire();
+        metrics.framesReceived.addAndGet(42);
+        metrics.record(PipelineMetrics.Stage.FACE_DETECTION, 3_000_000);
+        metrics.gauge("breathing_rate_bpm", "Estimated breathing rate in breaths per minute", () -> 12.5);
+        metrics.gauge("frame_period_ms", "Average time between camera frames", () -> Double.NaN);
+        server = new MetricsServer(metrics, 0);
+        port = server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        PipelineMetrics.release();
+    }
+
+    @Test
+    public void prometheusTextFormat() throws IOException {
+        HttpURLConnection connection = open("/metrics");
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(connection.getContentType().startsWith("text/plain"));
+        String body = read(connection.getInputStream());
+        assertTrue(body, body.contains("# TYPE flironecamera_frames_received_total counter\nflironecamera_frames_received_total 42\n"));
+        assertTrue(body, body.contains("flironecamera_stage_latency_seconds_count{stage=\"face_detection\"} 1\n"));
+        assertTrue(body, body.contains("# TYPE flironecamera_breathing_rate_bpm gauge\nflironecamera_breathing_rate_bpm 12.5\n"));
+        assertTrue(body, body.contains("flironecamera_frame_period_ms NaN\n"));
+        //every sample line is a name, optional labels and a value
+        for (String line : body.split("\n")) {
+            assertTrue(line, line.startsWith("# HELP ") || line.startsWith("# TYPE ")
+                    || line.matches("flironecamera_[a-z0-9_]+(\\{[^}]*\\})? \\S+"));
+        }
+    }
+
+    @Test
+    public void json() throws IOException {
+        HttpURLConnection connection = open("/metrics.json");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("application/json", connection.getContentType());
+        String body = read(connection.getInputStream());
+        assertTrue(body, body.startsWith("{\"frames_received\":42,"));
+        assertTrue(body, body.contains("\"face_detection\":{\"count\":1,"));
+        assertTrue(body, body.contains("\"breathing_rate_bpm\":12.5"));
+        assertTrue(body, body.contains("\"frame_period_ms\":null"));
+        assertTrue(body, body.endsWith("}}"));
+    }
+
+    @Test
+    public void sessions() throws IOException {
+        SessionManager sessions = new SessionManager();
+        FrameSource idle = new FrameSource() {
+            @Override
+            public void open(Sink sink) {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        CameraSession session = sessions.open("flir \"one\"", idle, frame -> Double.NaN, 1);
+        session.series.append(1_000_000, 34.5, 34.25, 0, TemperatureSeries.FLAG_BREATH);
+        server.setSessions(sessions);
+        try {
+            String body = read(open("/metrics").getInputStream());
+            assertTrue(body, body.contains("# TYPE flironecamera_session_series_samples gauge\n"
+                    + "flironecamera_session_series_samples{session=\"flir \\\"one\\\"\"} 1\n"));
+            assertTrue(body, body.contains("flironecamera_session_nostril_temperature_c{session=\"flir \\\"one\\\"\"} 34.5\n"));
+            assertTrue(read(open("/metrics.json").getInputStream()).contains("\"sessions\":{\"flir \\\"one\\\"\":{\"frames_received\":0,"));
+
+            HttpURLConnection series = open("/series?session=flir%20%22one%22");
+            assertEquals(200, series.getResponseCode());
+            assertEquals("timestamp_ns,raw_c,filtered_c,flags\n1000000,34.500,34.250,8\n", read(series.getInputStream()));
+            assertEquals(404, open("/series?session=other").getResponseCode());
+        } finally {
+            sessions.closeAll();
+        }
+    }
+
+    @Test
+    public void unknownPathAndMethod() throws IOException {
+        assertEquals(404, open("/other").getResponseCode());
+        HttpURLConnection post = open("/metrics");
+        post.setRequestMethod("POST");
+        assertEquals(405, post.getResponseCode());
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + path).openConnection();
+        connection.setConnectTimeout(2000);
+        connection.setReadTimeout(2000);
+        return connection;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        try {
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,106 @@
+package com.samples.flironecamera;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link ProcessingGovernor} in front of a synthetic consumer on a simulated clock: frames arrive like from a FLIR ONE, the consumer
+ * measures them one after another and reports the cost when it's done, like the worker of a {@link CameraSession}
+ */
+public class ProcessingGovernorTest {
+
+    private static final long PERIOD_NANOS = 115_000_000L;
+    private static final long PREVIEW_NANOS = 5_000_000L;
+    private static final long FAST_NANOS = 20_000_000L;
+    private static final long SLOW_NANOS = 250_000_000L;
+
+    private final ProcessingGovernor governor = new ProcessingGovernor();
+    //accepted frames not reported yet: start, finish and decision
+    private final ArrayDeque<long[]> accepted = new ArrayDeque<>();
+    private long now;
+    private long busyUntil;
+    private int full;
+    private int preview;
+    private int dropped;
+    //drops while the consumer kept up
+    private int droppedWithoutBacklog;
+    private int maxBacklog;
+
+    @Test
+    public void slowConsumer() {
+        run(50, FAST_NANOS);
+        assertEquals(50, full);
+        assertEquals(0, dropped);
+        assertEquals(0, maxBacklog);
+
+        //the first full frames are taken at the old cost, they pile up and the frames behind them are dropped
+        run(20, SLOW_NANOS);
+        assertTrue("dropped " + dropped, dropped > 0);
+        assertTrue("backlog " + maxBacklog, maxBacklog > ProcessingGovernor.DEFAULT_MAX_BACKLOG);
+        //once the cost is learned the governor mixes in preview frames, the backlog drains and it stops dropping
+        run(50, SLOW_NANOS);
+        run(100, SLOW_NANOS);
+        assertEquals(0, dropped);
+        assertTrue("backlog " + maxBacklog, maxBacklog <= ProcessingGovernor.DEFAULT_MAX_BACKLOG);
+        //the budget of 80 ms is used by 30.6% full frames of 250 ms and the rest preview frames of 5 ms
+        assertEquals(0.306, full / 100.0, 0.03);
+        assertEquals(100, full + preview);
+
+        //the consumer is fast again, the full frames still taken bring the cost estimate down
+        run(50, FAST_NANOS);
+        run(50, FAST_NANOS);
+        assertEquals(50, full);
+        assertEquals(0, dropped);
+        assertEquals(0, maxBacklog);
+        assertEquals(0, droppedWithoutBacklog);
+    }
+
+    /**
+     * Feed {@code frames} frames, the counters are for these frames only
+     */
+    private void run(int frames, long fullNanos) {
+        full = 0;
+        preview = 0;
+        dropped = 0;
+        maxBacklog = 0;
+        for (int i = 0; i < frames; i++) {
+            now += PERIOD_NANOS;
+            //frames finished by now are reported, the ones not started yet are the backlog
+            while (!accepted.isEmpty() && accepted.peek()[1] <= now) {
+                long[] frame = accepted.poll();
+                governor.report(ProcessingGovernor.Decision.values()[(int) frame[2]], frame[1] - frame[0]);
+            }
+            int backlog = 0;
+            for (long[] frame : accepted) {
+                if (frame[0] > now) {
+                    backlog++;
+                }
+            }
+            ProcessingGovernor.Decision decision = governor.decide(now, backlog);
+            assertEquals(backlog, governor.backlog());
+            maxBacklog = Math.max(maxBacklog, backlog);
+            if (decision == ProcessingGovernor.Decision.DROP) {
+                dropped++;
+                if (backlog <= ProcessingGovernor.DEFAULT_MAX_BACKLOG) {
+                    droppedWithoutBacklog++;
+                }
+                continue;
+            }
+            long cost;
+            if (decision == ProcessingGovernor.Decision.FULL) {
+                full++;
+                cost = fullNanos;
+            } else {
+                preview++;
+                cost = PREVIEW_NANOS;
+            }
+            long start = Math.max(now, busyUntil);
+            busyUntil = start + cost;
+            accepted.add(new long[]{start, busyUntil, decision.ordinal()});
+        }
+    }
+}
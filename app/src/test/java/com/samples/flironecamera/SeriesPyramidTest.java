@@ -0,0 +1,75 @@
+package com.samples.flironecamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link SeriesPyramid} queries against a plain scan of the series, on levels whose last bucket is still open
+ */
+public class SeriesPyramidTest {
+
+    @Test
+    public void rangesMatchScanOnPartiallyFilledLevels() {
+        TemperatureSeries series = new TemperatureSeries();
+        //capacity past the samples, the slots after the last sample hold 0
+        series.ensureCapacity(1024);
+        SeriesPyramid.Summary summary = new SeriesPyramid.Summary();
+        for (int n = 1; n <= 45; n++) {
+            double value = n % 7 == 0 ? Double.NaN : 30 + (n * 37 % 11) / 10.0;
+            series.append(n * 100_000_000L, value, value, 0, 0);
+            for (int from = 0; from <= n; from++) {
+                for (int to = from; to <= n + 8; to++) {
+                    series.pyramid.summarize(from, to, summary);
+                    assertScan(series, from, Math.min(to, n), summary);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rangePastTheEndEndsWithTheLastSample() {
+        TemperatureSeries series = new TemperatureSeries();
+        series.ensureCapacity(1024);
+        for (int i = 0; i < 5; i++) {
+            series.append(i, 34 + i);
+        }
+        SeriesPyramid.Summary summary = new SeriesPyramid.Summary();
+        series.pyramid.summarize(0, 1000, summary);
+        assertEquals(5, summary.count);
+        assertEquals(34, summary.min, 0);
+        assertEquals(36, summary.mean(), 1e-12);
+
+        double[] min = new double[8];
+        double[] max = new double[8];
+        double[] mean = new double[8];
+        assertEquals(5, series.pyramid.downsample(0, 1000, 8, min, max, mean));
+        assertEquals(38, max[4], 0);
+    }
+
+    private static void assertScan(TemperatureSeries series, int from, int to, SeriesPyramid.Summary summary) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0;
+        long count = 0;
+        for (int i = from; i < to; i++) {
+            double value = series.valueAt(i);
+            if (!Double.isNaN(value)) {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+                sum += value;
+                count++;
+            }
+        }
+        String range = from + " - " + to + " of " + series.size();
+        assertEquals(range, count, summary.count);
+        if (count > 0) {
+            assertEquals(range, min, summary.min, 0);
+            assertEquals(range, max, summary.max, 0);
+            assertEquals(range, sum / count, summary.mean(), 1e-9);
+        } else {
+            assertTrue(range, Double.isNaN(summary.mean()));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.samples.flironecamera;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link SessionCatalog} index written as sessions close, loaded again and rebuilt from the session directories
+ */
+public class SessionCatalogTest {
+
+    private static final long HOUR_MILLIS = 3600_000L;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("sessions", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        delete(directory);
+    }
+
+    @Test
+    public void queriesSurviveReopenAndRebuild() throws IOException {
+        SessionCatalog catalog = SessionCatalog.open(directory);
+        //a session an hour, alternating between two stations at 10 and 30 breaths per minute
+        for (int i = 0; i < 10; i++) {
+            catalog.add(session("session-" + i), summary(i % 2 == 0 ? "a" : "b", i * HOUR_MILLIS, i % 2 == 0 ? 10 : 30));
+        }
+        int[] expected = {3, 5, 7};
+        assertArrayEquals(expected, catalog.query("b", 2 * HOUR_MILLIS, 8 * HOUR_MILLIS, SessionCatalog.rateAbove(25)));
+        assertEquals(0, catalog.query("a", 0, 10 * HOUR_MILLIS, SessionCatalog.rateAbove(25)).length);
+
+        SessionCatalog reopened = SessionCatalog.open(directory);
+        assertEquals(10, reopened.size());
+        assertArrayEquals(expected, reopened.query("b", 2 * HOUR_MILLIS, 8 * HOUR_MILLIS, SessionCatalog.rateAbove(25)));
+        assertEquals("session-3", reopened.nameAt(3));
+        assertEquals(30, reopened.rateMeanAt(3), 1e-3);
+        assertEquals(34.5, reopened.temperatureMeanAt(3), 1e-3);
+        assertEquals(90, reopened.framesAt(3));
+
+        //damaged index
+        try (RandomAccessFile index = new RandomAccessFile(new File(directory, SessionCatalog.INDEX_FILE), "rw")) {
+            index.writeInt(0);
+        }
+        SessionCatalog rebuilt = SessionCatalog.open(directory);
+        assertEquals(10, rebuilt.size());
+        assertArrayEquals(expected, rebuilt.query("b", 2 * HOUR_MILLIS, 8 * HOUR_MILLIS, SessionCatalog.rateAbove(25)));
+    }
+
+    @Test
+    public void sessionOverlappingTheRangeIsFound() throws IOException {
+        SessionCatalog catalog = SessionCatalog.open(directory);
+        SessionCatalog.Summary longSession = summary("a", 0, 12);
+        longSession.endMillis = 5 * HOUR_MILLIS;
+        catalog.add(session("long"), longSession);
+        catalog.add(session("short"), summary("a", HOUR_MILLIS, 12));
+        assertArrayEquals(new int[]{0}, catalog.query(null, 3 * HOUR_MILLIS, 4 * HOUR_MILLIS, null));
+    }
+
+    @Test
+    public void openSessionIsUpdatedInPlace() throws IOException {
+        SessionCatalog catalog = SessionCatalog.open(directory);
+        catalog.add(session("closed"), summary("a", 0, 12));
+        //added with its first frame
+        File open = session("open");
+        SessionCatalog.Summary running = new SessionCatalog.Summary();
+        running.startMillis = HOUR_MILLIS;
+        running.endMillis = HOUR_MILLIS;
+        running.add(0, 34, 0);
+        catalog.update(open, running.copy());
+        assertEquals(1, catalog.framesAt(1));
+
+        //written from a copy while the summary keeps accumulating
+        SessionCatalog.Summary recorded = summary("b", HOUR_MILLIS, 30);
+        SessionCatalog.Summary copy = recorded.copy();
+        recorded.add(30_000_000_000L, 36, 0);
+        catalog.update(open, copy);
+        assertEquals(2, catalog.size());
+        assertEquals("b", catalog.stationAt(1));
+        assertEquals(90, catalog.framesAt(1));
+        assertEquals(HOUR_MILLIS + 30_000, catalog.endAt(1));
+
+        //the index and the entry of the session hold the update, a session that never closed is found with it
+        SessionCatalog reopened = SessionCatalog.open(directory);
+        assertEquals(2, reopened.size());
+        assertEquals(90, reopened.framesAt(1));
+        assertArrayEquals(new int[]{1}, reopened.query("b", 0, 2 * HOUR_MILLIS, SessionCatalog.rateAbove(25)));
+        new File(directory, SessionCatalog.INDEX_FILE).delete();
+        SessionCatalog rebuilt = SessionCatalog.open(directory);
+        assertEquals(2, rebuilt.size());
+        assertEquals("open", rebuilt.nameAt(1));
+        assertEquals(90, rebuilt.framesAt(1));
+
+        //a session the catalog doesn't know yet is added
+        rebuilt.update(session("late"), summary("a", 2 * HOUR_MILLIS, 12));
+        assertEquals(3, rebuilt.size());
+        assertEquals(3, SessionCatalog.open(directory).size());
+    }
+
+    private File session(String name) {
+        File session = new File(directory, name);
+        session.mkdir();
+        return session;
+    }
+
+    /**
+     * 30 s at 3 frames per second, a breath every {@code 60 / rate} s
+     */
+    private static SessionCatalog.Summary summary(String station, long startMillis, int rate) {
+        SessionCatalog.Summary summary = new SessionCatalog.Summary();
+        summary.station = station;
+        summary.startMillis = startMillis;
+        summary.endMillis = startMillis + 30_000;
+        int framesPerBreath = 180 / rate;
+        for (int i = 0; i < 90; i++) {
+            summary.add(i * 333_333_333L, i % 2 == 0 ? 34 : 35, i % framesPerBreath == 0 ? TemperatureSeries.FLAG_BREATH : 0);
+        }
+        return summary;
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
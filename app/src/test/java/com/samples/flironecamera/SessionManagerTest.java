@@ -0,0 +1,85 @@
+package com.samples.flironecamera;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Several {@link ReplaySource}s measured at once by a {@link SessionManager}, each series is checked on its own
+ */
+public class SessionManagerTest {
+
+    private static final double FPS = 9;
+    private static final int FRAME_CAPACITY = ReplaySource.THERMAL_WIDTH * ReplaySource.THERMAL_HEIGHT;
+
+    private final SessionManager manager = new SessionManager();
+
+    @After
+    public void tearDown() {
+        manager.closeAll();
+    }
+
+    @Test
+    public void sessionsMeasureTheirOwnSubject() throws IOException, InterruptedException {
+        double[] rates = {15, 30};
+        for (double rate : rates) {
+            open("subject-" + (int) rate, rate);
+        }
+        //stalls on every frame, the others must not notice
+        manager.open("stalled", new ReplaySource("stalled", ReplaySource.syntheticFace(20, FPS, 0, 3), FPS), frame -> {
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Double.NaN;
+        }, FRAME_CAPACITY);
+        Thread.sleep(24_000);
+
+        assertEquals(3, manager.size());
+        for (double rate : rates) {
+            CameraSession session = manager.get("subject-" + (int) rate);
+            TemperatureSeries series = session.series;
+            int measured = 0;
+            for (int i = 0; i < series.size(); i++) {
+                if (i > 0) {
+                    assertTrue(session.id + " sample " + i, series.timestampAt(i) > series.timestampAt(i - 1));
+                }
+                if (!Double.isNaN(series.valueAt(i))) {
+                    measured++;
+                }
+            }
+            assertTrue(session.id + " measured " + measured, measured > series.size() / 2);
+            assertTrue(session.id, series.size() <= session.metrics.framesReceived.get());
+            assertEquals(session.id, rate, session.breathing.breathingRate.ratePerMinute(), 2);
+        }
+        CameraSession stalled = manager.get("stalled");
+        assertTrue(stalled.metrics.framesDropped.get() > stalled.metrics.framesReceived.get() / 2);
+        assertTrue(stalled.metrics.framesProcessed.get() < 20);
+    }
+
+    @Test
+    public void closedSessionsAreGone() throws IOException {
+        open("a", 15);
+        try {
+            open("a", 15);
+            throw new AssertionError("opened twice");
+        } catch (IllegalStateException expected) {
+        }
+        assertNotNull(manager.get("a"));
+        assertTrue(manager.close("a"));
+        assertNull(manager.get("a"));
+        assertEquals(0, manager.sessions().size());
+    }
+
+    private CameraSession open(String id, double breathsPerMinute) throws IOException {
+        ReplaySource source = new ReplaySource(id, ReplaySource.syntheticFace(breathsPerMinute, FPS, 0, (long) breathsPerMinute), FPS);
+        return manager.open(id, source, new FrameMeasurement(new ThermalBlobFaceDetector()), FRAME_CAPACITY);
+    }
+}
@@ -0,0 +1,48 @@
+package com.samples.flironecamera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * {@link ThermalWindow} taken from a whole frame reads like one fetched with getValues() of its rectangle
+ */
+public class ThermalWindowTest {
+
+    private static final int WIDTH = 12;
+    private static final int HEIGHT = 9;
+
+    @Test
+    public void copyFromFrameMatchesFetchedWindow() {
+        float[] kelvin = new float[WIDTH * HEIGHT];
+        for (int i = 0; i < kelvin.length; i++) {
+            kelvin[i] = 300 + i * 0.25f;
+        }
+        ThermalWindow copied = window();
+        copied.copyFrom(kelvin, WIDTH);
+        ThermalWindow fetched = window();
+        double[] values = new double[fetched.width * fetched.height];
+        for (int row = 0; row < fetched.height; row++) {
+            for (int column = 0; column < fetched.width; column++) {
+                values[row * fetched.width + column] = kelvin[(fetched.y + row) * WIDTH + fetched.x + column];
+            }
+        }
+        fetched.setValues(values);
+
+        assertEquals(kelvin[4 * WIDTH + 7], copied.valueAt(7, 4), 0);
+        assertArrayEquals(fetched.read(0, 0, WIDTH, HEIGHT), copied.read(0, 0, WIDTH, HEIGHT), 0);
+        assertArrayEquals(fetched.read(5, 3, 3, 2), copied.read(5, 3, 3, 2), 0);
+    }
+
+    /**
+     * Window of two regions, one of them past the right edge of the image
+     */
+    private static ThermalWindow window() {
+        ThermalWindow window = new ThermalWindow();
+        window.include(3, 2, 4, 3);
+        window.include(6, 4, 10, 4);
+        window.clip(WIDTH, HEIGHT);
+        return window;
+    }
+}
@@ -0,0 +1,54 @@
+package com.samples.flironecamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Breathing rate estimate and event rules per frame, like the record path of {@link CameraHandler} runs them.
+ * <p/>
+ * The detection latency of the rules on this scenario is checked by {@code BreathingEventsTest}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BreathingEventsBenchmark {
+
+    private static final long FRAME_NANOS = (long) (1e9 / Datasets.SCENARIO_FPS);
+
+    @Param({Datasets.FIXED, Datasets.SYNTHETIC})
+    public String dataset;
+
+    private double[] samples;
+    private final BreathingRateEstimator estimator = new BreathingRateEstimator();
+    private final BreathingEvents events = new BreathingEvents();
+    private int next;
+
+    @Setup
+    public void setUp() {
+        samples = Datasets.breathingScenario(dataset);
+    }
+
+    /**
+     * One frame per call, the scenario starts over at its end
+     */
+    @Benchmark
+    public boolean frame() {
+        if (next == samples.length) {
+            estimator.reset();
+            events.reset();
+            next = 0;
+        }
+        long timestamp = next * FRAME_NANOS;
+        boolean breath = estimator.add(timestamp, samples[next++]);
+        events.add(timestamp, true, breath, estimator.filtered());
+        return events.anyActive();
+    }
+}
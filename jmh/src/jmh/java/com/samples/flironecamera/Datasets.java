@@ -0,0 +1,128 @@
+package com.samples.flironecamera;
+
+import java.util.Random;
+
+/**
+ * Input data for the benchmarks.
+ * <p/>
+ * "fixed" is a deterministic frame / signal that is identical on every run and machine,
+ * "synthetic" adds seeded sensor noise on top of it so the data isn't perfectly regular.
+ */
+final class Datasets {
+
+    static final String FIXED = "fixed";
+    static final String SYNTHETIC = "synthetic";
+
+    //Radiometric image size of a FLIR ONE, the cropped visual image is twice as large
+    static final int THERMAL_WIDTH = 480;
+    static final int THERMAL_HEIGHT = 640;
+
+    //Nostril region as computed by the record path for a face filling the cropped visual image
+    static final float NOSTRIL_LEFT = 370;
+    static final float NOSTRIL_RIGHT = 600;
+    static final int NOSTRIL_TOP = 700;
+    static final float NOSTRIL_BOTTOM = 780;
+
+    private static final long SEED = 0x5EEDL;
+
+    private Datasets() {
+    }
+
+    /**
+     * Radiometric frame in Kelvin, row major
+     */
+    static double[] thermalFrame(String dataset) {
+        double[] frame = new double[THERMAL_WIDTH * THERMAL_HEIGHT];
+        Random random = new Random(SEED);
+        boolean noisy = SYNTHETIC.equals(dataset);
+        for (int y = 0; y < THERMAL_HEIGHT; y++) {
+            for (int x = 0; x < THERMAL_WIDTH; x++) {
+                //warm face in the middle of a room temperature background
+                double dx = (x - THERMAL_WIDTH / 2.0) / (THERMAL_WIDTH / 3.0);
+                double dy = (y - THERMAL_HEIGHT / 2.0) / (THERMAL_HEIGHT / 2.5);
+                double face = Math.max(0, 1 - dx * dx - dy * dy);
+                double kelvin = 295.15 + 12 * face;
+                //cooler stripes below the nose where air is exhaled
+                if (y > NOSTRIL_TOP / 2 && y < NOSTRIL_BOTTOM / 2 && x % 24 < 6) {
+                    kelvin -= 1.5;
+                }
+                if (noisy) {
+                    kelvin += random.nextGaussian() * 0.08;
+                }
+                frame[y * THERMAL_WIDTH + x] = kelvin;
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * Nostril temperature series in Celsius, breathing at 15 breaths per minute sampled at 8.7 Hz
+     */
+    static double[] nostrilSeries(String dataset, int size) {
+        double[] series = new double[size];
+        Random random = new Random(SEED);
+        boolean noisy = SYNTHETIC.equals(dataset);
+        for (int i = 0; i < size; i++) {
+            double t = i / 8.7;
+            double value = 34.0 + 0.6 * Math.sin(2 * Math.PI * t / 4.0);
+            if (noisy) {
+                value += random.nextGaussian() * 0.05;
+            }
+            series[i] = value;
+        }
+        return series;
+    }
+
+    //Breathing scenario, normal breathing at 15 breaths per minute with an apnea, shallow breathing and fast breathing
+    static final double SCENARIO_SECONDS = 240;
+    static final double SCENARIO_FPS = 8.7;
+    private static final double APNEA_START = 61;
+    private static final double APNEA_END = 81;
+    private static final double SHALLOW_START = 120;
+    private static final double SHALLOW_END = 150;
+    private static final double FAST_START = 180;
+    private static final double FAST_END = 210;
+
+    /**
+     * Nostril temperature series in Celsius of the breathing scenario, sampled at {@link #SCENARIO_FPS}
+     */
+    static double[] breathingScenario(String dataset) {
+        int size = (int) (SCENARIO_SECONDS * SCENARIO_FPS);
+        double[] series = new double[size];
+        Random random = new Random(SEED);
+        boolean noisy = SYNTHETIC.equals(dataset);
+        double phase = 0;
+        for (int i = 0; i < size; i++) {
+            double t = i / SCENARIO_FPS;
+            double amplitude = 0.6;
+            double perMinute = 15;
+            if (t >= APNEA_START && t < APNEA_END) {
+                amplitude = 0;
+            } else if (t >= SHALLOW_START && t < SHALLOW_END) {
+                amplitude = 0.1;
+            } else if (t >= FAST_START && t < FAST_END) {
+                perMinute = 40;
+            }
+            double value = 34.0 + amplitude * Math.sin(phase);
+            phase += 2 * Math.PI * perMinute / 60 / SCENARIO_FPS;
+            if (noisy) {
+                value += random.nextGaussian() * 0.05;
+            }
+            series[i] = value;
+        }
+        return series;
+    }
+
+    /**
+     * Copies a rectangle out of a frame, allocating like {@code ThermalImage.getValues(Rectangle)} does
+     */
+    static NostrilMeasurement.RegionReader reader(double[] frame) {
+        return (x, y, width, height) -> {
+            double[] values = new double[width * height];
+            for (int row = 0; row < height; row++) {
+                System.arraycopy(frame, (y + row) * THERMAL_WIDTH + x, values, row * width, width);
+            }
+            return values;
+        };
+    }
+}
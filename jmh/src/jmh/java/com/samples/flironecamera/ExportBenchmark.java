@@ -0,0 +1,66 @@
+package com.samples.flironecamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session export at millions of rows, the gc profiler shows the allocation stays flat regardless of the session length
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExportBenchmark {
+
+    private static final long FRAME_NANOS = 115_000_000L;
+
+    @Param({Datasets.FIXED, Datasets.SYNTHETIC})
+    public String dataset;
+
+    @Param({"1000000", "4000000"})
+    public int rows;
+
+    private TemperatureSeries series;
+    private SessionExporter exporter;
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException {
+        double[] samples = Datasets.nostrilSeries(dataset, 4096);
+        series = new TemperatureSeries();
+        long roi = TemperatureSeries.packRoi(185, 350, 115, 40);
+        for (int i = 0; i < rows; i++) {
+            double value = samples[i % samples.length];
+            series.append(i * FRAME_NANOS, value, value, roi, 0);
+        }
+        exporter = new SessionExporter();
+        file = File.createTempFile("session", ".export");
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public long csv() throws IOException {
+        exporter.writeCsv(series, 0, series.size(), file);
+        return file.length();
+    }
+
+    @Benchmark
+    public long columnar() throws IOException {
+        exporter.writeColumnar(series, 0, series.size(), file);
+        return file.length();
+    }
+}
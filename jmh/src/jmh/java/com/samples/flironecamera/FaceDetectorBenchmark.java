@@ -0,0 +1,62 @@
+package com.samples.flironecamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detection cost of the face detector backends that run on the JVM, the thermal blob detector on the synthetic face
+ * and the scripted stub as the floor
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FaceDetectorBenchmark {
+
+    //cropped visual image, twice the thermal resolution
+    private static final int VISUAL_WIDTH = 2 * Datasets.THERMAL_WIDTH;
+    private static final int VISUAL_HEIGHT = 2 * Datasets.THERMAL_HEIGHT;
+
+    @Param({Datasets.FIXED, Datasets.SYNTHETIC})
+    public String dataset;
+
+    private FaceDetector.Input input;
+    private FaceDetector.Faces faces;
+    private FaceDetector thermalBlob;
+    private FaceDetector scripted;
+
+    @Setup
+    public void setUp() {
+        double[] frame = Datasets.thermalFrame(dataset);
+        input = new FaceDetector.Input();
+        input.width = VISUAL_WIDTH;
+        input.height = VISUAL_HEIGHT;
+        input.setThermalSize(Datasets.THERMAL_WIDTH, Datasets.THERMAL_HEIGHT);
+        for (int i = 0; i < frame.length; i++) {
+            input.kelvin[i] = (float) frame[i];
+        }
+        faces = new FaceDetector.Faces();
+        thermalBlob = new ThermalBlobFaceDetector();
+        scripted = new ScriptedFaceDetector().thenFace(160, 256, 800, 1024, 480, 730);
+        if (thermalBlob.detect(input, faces) != 1) {
+            throw new IllegalStateException("No face in the " + dataset + " frame");
+        }
+    }
+
+    @Benchmark
+    public int thermalBlob() {
+        return thermalBlob.detect(input, faces);
+    }
+
+    @Benchmark
+    public int scripted() {
+        return scripted.detect(input, faces);
+    }
+}
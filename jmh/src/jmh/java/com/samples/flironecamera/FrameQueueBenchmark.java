@@ -0,0 +1,70 @@
+package com.samples.flironecamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hand-off of frames from the SDK thread to the preview.
+ * <p/>
+ * {@code slot} is the latest-frame slot of {@link PreviewRenderer}, {@code queue} the bounded queue the UI used to be fed through,
+ * kept as the baseline. Non blocking offer / poll is used so a full or empty queue never parks a benchmark thread,
+ * the payload stands in for a {@link FrameDataHolder} which can't be created without Android.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameQueueBenchmark {
+
+    private static final int CAPACITY = 21;
+
+    private LinkedBlockingQueue<Object> framesBuffer;
+    private AtomicReference<Object> latest;
+    private Object frame;
+
+    @Setup
+    public void setUp() {
+        framesBuffer = new LinkedBlockingQueue<>(CAPACITY);
+        latest = new AtomicReference<>();
+        frame = new Object();
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public boolean queueProducer() {
+        return framesBuffer.offer(frame);
+    }
+
+    @Benchmark
+    @Group("queue")
+    @GroupThreads(1)
+    public Object queueConsumer() {
+        return framesBuffer.poll();
+    }
+
+    @Benchmark
+    @Group("slot")
+    @GroupThreads(1)
+    public boolean slotProducer() {
+        //true when an undrawn frame was replaced
+        return latest.getAndSet(frame) != null;
+    }
+
+    @Benchmark
+    @Group("slot")
+    @GroupThreads(1)
+    public Object slotConsumer() {
+        return latest.getAndSet(null);
+    }
+}
@@ -0,0 +1,96 @@
+package com.samples.flironecamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ROI mean / variance and the sub-block search done for every detected face, on its own with a read per block and
+ * together with the facial regions from one fetch of thermal values like the record path does it
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NostrilMeasurementBenchmark {
+
+    @Param({Datasets.FIXED, Datasets.SYNTHETIC})
+    public String dataset;
+
+    private NostrilMeasurement.RegionReader reader;
+    private NostrilMeasurement measurement;
+    private double[] block;
+    private final FaceDetector.Faces faces = new FaceDetector.Faces();
+    private final FacialRegions regions = FacialRegions.defaults();
+    private final ThermalWindow window = new ThermalWindow();
+    private final int[] extent = new int[4];
+
+    @Setup
+    public void setUp() {
+        double[] frame = Datasets.thermalFrame(dataset);
+        reader = Datasets.reader(frame);
+        measurement = new NostrilMeasurement();
+        float width = (Datasets.NOSTRIL_RIGHT - Datasets.NOSTRIL_LEFT) / NostrilMeasurement.BLOCK_COUNT;
+        block = reader.read((int) Datasets.NOSTRIL_LEFT / 2, Datasets.NOSTRIL_TOP / 2, (int) width,
+                (int) (Datasets.NOSTRIL_BOTTOM - Datasets.NOSTRIL_TOP) / 2);
+        //face filling the cropped visual image, landmarks at the usual shares of the face box
+        float faceWidth = Datasets.THERMAL_WIDTH * 2;
+        float faceHeight = Datasets.THERMAL_HEIGHT * 2;
+        faces.add(0, 0, faceWidth, faceHeight, faceWidth / 2, Datasets.NOSTRIL_TOP);
+        faces.setLandmark(0, FaceDetector.Faces.LEFT_EYE, faceWidth * 0.7f, faceHeight * 0.4f);
+        faces.setLandmark(0, FaceDetector.Faces.RIGHT_EYE, faceWidth * 0.3f, faceHeight * 0.4f);
+        faces.setLandmark(0, FaceDetector.Faces.LEFT_MOUTH, faceWidth * 0.62f, faceHeight * 0.78f);
+        faces.setLandmark(0, FaceDetector.Faces.RIGHT_MOUTH, faceWidth * 0.38f, faceHeight * 0.78f);
+    }
+
+    @Benchmark
+    public double roiMean() {
+        return NostrilMeasurement.mean(block);
+    }
+
+    @Benchmark
+    public double roiVariance() {
+        return NostrilMeasurement.variance(block);
+    }
+
+    @Benchmark
+    public double subBlockSearch() {
+        return measurement.search(reader, Datasets.NOSTRIL_LEFT, Datasets.NOSTRIL_TOP, Datasets.NOSTRIL_RIGHT, Datasets.NOSTRIL_BOTTOM);
+    }
+
+    /**
+     * Nostril search alone from one read of its blocks' extent
+     */
+    @Benchmark
+    public double windowedSearch() {
+        window.clear();
+        NostrilMeasurement.readExtent(Datasets.NOSTRIL_LEFT, Datasets.NOSTRIL_TOP, Datasets.NOSTRIL_RIGHT, Datasets.NOSTRIL_BOTTOM, extent);
+        window.include(extent[0], extent[1], extent[2], extent[3]);
+        window.clip(Datasets.THERMAL_WIDTH, Datasets.THERMAL_HEIGHT);
+        window.setValues(reader.read(window.x, window.y, window.width, window.height));
+        return measurement.search(window, Datasets.NOSTRIL_LEFT, Datasets.NOSTRIL_TOP, Datasets.NOSTRIL_RIGHT, Datasets.NOSTRIL_BOTTOM);
+    }
+
+    /**
+     * Nostril search and the {@link FacialRegions#defaults()} regions, the union of all of them read once
+     */
+    @Benchmark
+    public double windowedSearchWithRegions() {
+        window.clear();
+        NostrilMeasurement.readExtent(Datasets.NOSTRIL_LEFT, Datasets.NOSTRIL_TOP, Datasets.NOSTRIL_RIGHT, Datasets.NOSTRIL_BOTTOM, extent);
+        window.include(extent[0], extent[1], extent[2], extent[3]);
+        regions.place(faces, 0);
+        regions.include(window, 2);
+        window.clip(Datasets.THERMAL_WIDTH, Datasets.THERMAL_HEIGHT);
+        window.setValues(reader.read(window.x, window.y, window.width, window.height));
+        double nostril = measurement.search(window, Datasets.NOSTRIL_LEFT, Datasets.NOSTRIL_TOP, Datasets.NOSTRIL_RIGHT, Datasets.NOSTRIL_BOTTOM);
+        regions.measure(window, 2);
+        return nostril + regions.mean[0];
+    }
+}
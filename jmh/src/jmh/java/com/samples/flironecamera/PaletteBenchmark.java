@@ -0,0 +1,64 @@
+package com.samples.flironecamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Colorization of a full radiometric frame.
+ * <p/>
+ * The app colorizes through {@code ThermalImage.setPalette()} inside the Thermal SDK which can't be loaded on a JVM,
+ * this measures the equivalent work in Java: span the frame, then map every pixel through a 256 entry palette.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PaletteBenchmark {
+
+    @Param({Datasets.FIXED, Datasets.SYNTHETIC})
+    public String dataset;
+
+    private double[] frame;
+    private int[] palette;
+    private int[] argb;
+
+    @Setup
+    public void setUp() {
+        frame = Datasets.thermalFrame(dataset);
+        argb = new int[frame.length];
+        //iron like palette, black - purple - red - yellow - white
+        palette = new int[256];
+        for (int i = 0; i < palette.length; i++) {
+            int r = Math.min(255, i * 2);
+            int g = Math.max(0, Math.min(255, (i - 96) * 2));
+            int b = i < 64 ? i * 2 : Math.max(0, Math.min(255, (i - 192) * 4));
+            palette[i] = 0xFF000000 | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    @Benchmark
+    public int[] colorize() {
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (double value : frame) {
+            if (value < min) {
+                min = value;
+            }
+            if (value > max) {
+                max = value;
+            }
+        }
+        double scale = max > min ? (palette.length - 1) / (max - min) : 0;
+        for (int i = 0; i < frame.length; i++) {
+            argb[i] = palette[(int) ((frame[i] - min) * scale)];
+        }
+        return argb;
+    }
+}
@@ -0,0 +1,95 @@
+package com.samples.flironecamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appending to and reading from the nostril temperature series,
+ * mirrors how {@link CameraHandler} fills {@code temperatureSeries}, how the history list reads it a page at a time
+ * and how a chart downsamples the whole session through its pyramid
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SeriesBenchmark {
+
+    private static final long FRAME_NANOS = 115_000_000L;
+    //SeriesHistoryAdapter.PAGE_SIZE, the adapter itself needs Android
+    private static final int PAGE_SIZE = 64;
+    //pixel columns of a phone wide chart
+    private static final int CHART_POINTS = 360;
+
+    @Param({Datasets.FIXED, Datasets.SYNTHETIC})
+    public String dataset;
+
+    @Param({"1000", "10000"})
+    public int size;
+
+    private double[] samples;
+    private TemperatureSeries filled;
+    private TemperatureSeries growing;
+    private int next;
+    private int page;
+    private final long[] pageTimestamps = new long[PAGE_SIZE];
+    private final double[] pageValues = new double[PAGE_SIZE];
+    private final int[] pageFlags = new int[PAGE_SIZE];
+    private final double[] chartMin = new double[CHART_POINTS];
+    private final double[] chartMax = new double[CHART_POINTS];
+    private final double[] chartMean = new double[CHART_POINTS];
+
+    @Setup
+    public void setUp() {
+        samples = Datasets.nostrilSeries(dataset, size);
+        filled = new TemperatureSeries();
+        for (int i = 0; i < size; i++) {
+            filled.append(i * FRAME_NANOS, samples[i]);
+        }
+        growing = new TemperatureSeries();
+    }
+
+    /**
+     * One sample per call, the series starts over every {@code size} samples so growing the storage is included
+     */
+    @Benchmark
+    public TemperatureSeries append() {
+        if (next == size) {
+            growing = new TemperatureSeries();
+            next = 0;
+        }
+        growing.append(next * FRAME_NANOS, samples[next]);
+        next++;
+        return growing;
+    }
+
+    /**
+     * Read one page of the history, walking through the whole series page by page
+     */
+    @Benchmark
+    public double snapshotPage() {
+        int from = page * PAGE_SIZE;
+        if (from >= filled.size()) {
+            page = 0;
+            from = 0;
+        }
+        page++;
+        int read = filled.read(from, PAGE_SIZE, pageTimestamps, pageValues, pageFlags);
+        return pageValues[read - 1];
+    }
+
+    /**
+     * Min / max / mean of the whole series at chart resolution
+     */
+    @Benchmark
+    public double downsample() {
+        int points = filled.pyramid.downsample(0, filled.size(), CHART_POINTS, chartMin, chartMax, chartMean);
+        return chartMean[points - 1];
+    }
+}
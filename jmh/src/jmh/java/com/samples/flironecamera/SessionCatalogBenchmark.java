@@ -0,0 +1,93 @@
+package com.samples.flironecamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session catalog of thousands of sessions: rebuilding the index from the session directories, loading it when the catalog is
+ * opened and a query for the sessions of one station in a week with a breathing rate above 25
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SessionCatalogBenchmark {
+
+    private static final int STATIONS = 8;
+    private static final long DAY_MILLIS = 24 * 3600_000L;
+    private static final long START_MILLIS = 1_700_000_000_000L;
+
+    @Param({"10000"})
+    public int sessions;
+
+    private File directory;
+    private SessionCatalog catalog;
+    private long weekFrom;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = File.createTempFile("sessions", "");
+        directory.delete();
+        directory.mkdirs();
+        catalog = SessionCatalog.open(directory);
+        Random random = new Random(1);
+        long start = START_MILLIS;
+        for (int i = 0; i < sessions; i++) {
+            SessionCatalog.Summary summary = new SessionCatalog.Summary();
+            summary.station = "FLIR ONE " + i % STATIONS;
+            summary.startMillis = start;
+            summary.endMillis = start + 60_000 + random.nextInt(1800_000);
+            long t = 0;
+            double rate = 8 + random.nextInt(24);
+            for (int frame = 0; frame < 500; frame++) {
+                t += 111_111_111L;
+                summary.add(t, 34 + random.nextGaussian() * 0.2, frame % (int) (540 / rate) == 0 ? TemperatureSeries.FLAG_BREATH : 0);
+            }
+            File session = new File(directory, String.format("session-%05d", i));
+            session.mkdir();
+            catalog.add(session, summary);
+            start = summary.endMillis + random.nextInt(3600_000);
+        }
+        weekFrom = START_MILLIS + (start - START_MILLIS) / 2;
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File session : files) {
+                new File(session, SessionCatalog.ENTRY_FILE).delete();
+                session.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public int rebuild() throws IOException {
+        return catalog.rebuild();
+    }
+
+    @Benchmark
+    public int open() throws IOException {
+        return SessionCatalog.open(directory).size();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int query() {
+        return catalog.query("FLIR ONE 3", weekFrom, weekFrom + 7 * DAY_MILLIS, SessionCatalog.rateAbove(25)).length;
+    }
+}